@@ -0,0 +1,97 @@
+package net.hexar.json2pojo;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates Java POJOs from a sample JSON file on the command line, for CI hooks and scripts:
+ * <pre>
+ * json2pojo [--option[=value]...] sample.json RootClassName com.example.model outputDirectory
+ * </pre>
+ * Options have the same names and defaults as the parameters of the Maven goal, e.g. {@code --inferEnums} or
+ * {@code --maxDepth=100}. The generated files are printed one per line.
+ */
+public class GenerateCommand {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final String CLASS_NAME_REGEX = "[A-Za-z][A-Za-z0-9]*";
+    private static final String OPTION_PREFIX = "--";
+    private static final String USAGE =
+            "Usage: json2pojo [--option[=value]...] <sample.json> <RootClassName> <package> <outputDirectory>";
+
+    //endregion
+
+    //region MAIN ------------------------------------------------------------------------------------------------------
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs a generation.
+     *
+     * @param args the command line arguments.
+     * @param out the stream to print the generated files to.
+     * @param err the stream to print errors to.
+     * @return the exit code.
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        // Split the options from the positional arguments
+        Map<String, String> options = new HashMap<>();
+        List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(OPTION_PREFIX)) {
+                int separator = arg.indexOf('=');
+                String name = arg.substring(OPTION_PREFIX.length(), separator < 0 ? arg.length() : separator);
+                options.put(name, separator < 0 ? "true" : arg.substring(separator + 1));
+            } else {
+                arguments.add(arg);
+            }
+        }
+        if (arguments.size() != 4 || options.containsKey("help")) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        File sample = new File(arguments.get(0));
+        String rootClassName = arguments.get(1);
+        String packageName = arguments.get(2);
+        File outputDirectory = new File(arguments.get(3));
+        GenerationOptions generationOptions;
+        try {
+            if (!sample.isFile()) {
+                throw new IllegalArgumentException("Sample file not found: " + sample);
+            } else if (!rootClassName.matches(CLASS_NAME_REGEX)) {
+                throw new IllegalArgumentException("Invalid root class name: " + rootClassName);
+            }
+            generationOptions = GenerationOptions.fromMap(options);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        try {
+            GeneratePojos generatePojos = new GeneratePojos(packageName, outputDirectory, GenerationProgress.NONE);
+            for (File file : generatePojos.generateFromFile(rootClassName, sample, generationOptions)) {
+                out.println(file.getPath());
+            }
+            return EXIT_OK;
+        } catch (Exception e) {
+            err.println("Failed to generate POJOs: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+            return EXIT_FAILED;
+        }
+    }
+
+    //endregion
+
+}
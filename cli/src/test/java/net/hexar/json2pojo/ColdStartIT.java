@@ -0,0 +1,118 @@
+package net.hexar.json2pojo;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time from process start to exit of a generation in a fresh process, for the plain jar, the jar with
+ * its class data sharing archive, and the native executable, whichever have been built. The median of several runs
+ * must stay within a budget, and all timings are written to {@code target/cold-start.properties} so that CI can track
+ * them over time.
+ */
+public class ColdStartIT {
+
+    private static final int RUNS = 5;
+    private static final long JVM_BUDGET_MILLIS = Long.getLong("json2pojo.coldStartBudget.jvm", 3000);
+    private static final long APP_CDS_BUDGET_MILLIS = Long.getLong("json2pojo.coldStartBudget.appCds", 2000);
+    private static final long NATIVE_BUDGET_MILLIS = Long.getLong("json2pojo.coldStartBudget.native", 500);
+
+    private static final File JAR = new File(System.getProperty("json2pojo.jar", "target/json2pojo.jar"));
+    private static final File ARCHIVE = new File(System.getProperty("json2pojo.archive", "target/json2pojo.jsa"));
+    private static final File EXECUTABLE = new File(System.getProperty("json2pojo.native", "target/json2pojo"));
+    private static final File SAMPLE = new File(System.getProperty("json2pojo.sample",
+            "src/test/resources/samples/order.json"));
+    private static final File RESULTS = new File(System.getProperty("json2pojo.coldStartResults",
+            "target/cold-start.properties"));
+
+    private static final Properties sResults = new Properties();
+    private static Path sOutputDir;
+
+    @BeforeClass
+    public static void createOutputDir() throws IOException {
+        sOutputDir = Files.createTempDirectory("json2pojo-cold-start");
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        try (Stream<Path> paths = Files.walk(sOutputDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+        RESULTS.getParentFile().mkdirs();
+        try (OutputStream output = new FileOutputStream(RESULTS)) {
+            sResults.store(output, "Cold start times in milliseconds");
+        }
+    }
+
+    @Test
+    public void jvm() throws Exception {
+        Assume.assumeTrue("Jar not built", JAR.isFile());
+        measure("jvm", JVM_BUDGET_MILLIS, Arrays.asList(getJava(), "-jar", JAR.getPath()));
+    }
+
+    @Test
+    public void appCds() throws Exception {
+        Assume.assumeTrue("Class data sharing archive not built", JAR.isFile() && ARCHIVE.isFile());
+        measure("appCds", APP_CDS_BUDGET_MILLIS, Arrays.asList(getJava(), "-XX:SharedArchiveFile=" + ARCHIVE.getPath(),
+                "-Xshare:auto", "-jar", JAR.getPath()));
+    }
+
+    @Test
+    public void nativeImage() throws Exception {
+        Assume.assumeTrue("Native executable not built", EXECUTABLE.canExecute());
+        measure("native", NATIVE_BUDGET_MILLIS, Collections.singletonList(EXECUTABLE.getPath()));
+    }
+
+    /**
+     * Runs the generator several times, records the timings and checks the median against the budget.
+     */
+    private static void measure(String name, long budgetMillis, List<String> launcher) throws Exception {
+        List<String> command = new ArrayList<>(launcher);
+        command.addAll(Arrays.asList("--inferEnums", SAMPLE.getPath(), "Order", "com.example.model",
+                sOutputDir.toString()));
+
+        long[] millis = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(sOutputDir.toFile(), name + ".log")))
+                    .start();
+            assertTrue(name + " timed out", process.waitFor(1, TimeUnit.MINUTES));
+            millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertEquals(name + " failed", GenerateCommand.EXIT_OK, process.exitValue());
+        }
+
+        Arrays.sort(millis);
+        long median = millis[RUNS / 2];
+        sResults.setProperty(name + ".min", String.valueOf(millis[0]));
+        sResults.setProperty(name + ".median", String.valueOf(median));
+        System.out.println(String.format("Cold start %s: min %d ms, median %d ms, budget %d ms", name, millis[0],
+                median, budgetMillis));
+        assertTrue(String.format("Cold start %s took %d ms, over the budget of %d ms", name, median, budgetMillis),
+                median <= budgetMillis);
+    }
+
+    private static String getJava() {
+        return new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    }
+
+}
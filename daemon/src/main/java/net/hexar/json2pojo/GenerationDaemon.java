@@ -0,0 +1,365 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates POJOs for local clients such as scripts and editor integrations, which would otherwise spend most of
+ * their time starting a JVM and warming up the parser and code model for every generation. The daemon listens on a
+ * loopback port and reads one JSON request per line, answering each with one JSON response line:
+ * <pre>
+ * {"id": 1, "token": "6f1c...", "sample": "/work/order.json", "rootClassName": "Order",
+ *  "packageName": "com.example.model", "outputDirectory": "/work/src", "options": {"generateBuilders": true}}
+ * {"id": 1, "status": "ok", "files": ["/work/src/com/example/model/Order.java"], "elapsedMillis": 4}
+ * </pre>
+ * The JSON text can also be passed inline as "json" instead of a "sample" file. Options use the same names and
+ * defaults as the parameters of the Maven goal. The "ping" and "shutdown" commands check and stop the daemon.
+ * <p>
+ * Since any local process can connect to a loopback port, every request must carry the token which the daemon writes
+ * at startup to a file only readable by its user, next to the file with its port. Paths must be absolute, since the
+ * daemon doesn't share the working directory of its clients.
+ * <p>
+ * Connections are served concurrently. Requests for the same output directory are processed one at a time, so that
+ * their files don't interleave.
+ */
+public class GenerationDaemon {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger("GenerationDaemon");
+    private static final String CLASS_NAME_REGEX = "[A-Za-z][A-Za-z0-9]*";
+    private static final String COMMAND_GENERATE = "generate";
+    private static final String COMMAND_PING = "ping";
+    private static final String COMMAND_SHUTDOWN = "shutdown";
+    private static final String PORT_FILE_NAME = "daemon.port";
+    private static final String TOKEN_FILE_NAME = "daemon.token";
+    private static final int TOKEN_LENGTH = 32;
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor;
+    private final ObjectMapper mObjectMapper = new ObjectMapper();
+    private final Map<String, Object> mOutputLocks = new ConcurrentHashMap<>();
+    private final byte[] mToken;
+    private final List<Path> mConnectionFiles = new ArrayList<>();
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param port the loopback port to listen on, or 0 to pick a free port.
+     * @throws IOException if the port can't be bound.
+     */
+    GenerationDaemon(int port) throws IOException {
+        mServerSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        mToken = createToken();
+
+        // Daemon threads, so that open connections don't keep the JVM alive after a shutdown
+        mExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "json2pojo-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //endregion
+
+    //region MAIN ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts the daemon, writes its port and token files, and prints the port it listens on so that scripts can pick a
+     * free port with 0.
+     *
+     * @param args the optional port to listen on, and the optional directory of the port and token files, which is
+     *             ~/.json2pojo by default.
+     * @throws IOException if the port can't be bound or the files can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        File directory = args.length > 1 ? new File(args[1]) : new File(System.getProperty("user.home"), ".json2pojo");
+        GenerationDaemon daemon = new GenerationDaemon(port);
+        daemon.writeConnectionFiles(directory);
+        System.out.println("Listening on " + daemon.mServerSocket.getInetAddress().getHostAddress() + ":" +
+                daemon.mServerSocket.getLocalPort());
+        System.out.flush();
+        daemon.run();
+    }
+
+    //endregion
+
+    //region SERVER METHODS --------------------------------------------------------------------------------------------
+
+    /**
+     * Accepts connections until the daemon is shut down.
+     */
+    void run() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                Socket socket = mServerSocket.accept();
+                mExecutor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!mServerSocket.isClosed()) {
+                    log.log(Level.WARNING, "Failed to accept a connection", e);
+                }
+            }
+        }
+        mExecutor.shutdown();
+        for (Path file : mConnectionFiles) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to delete " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of one connection in order, until the client closes it.
+     *
+     * @param socket the connection to serve.
+     */
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(
+                     new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                ObjectNode response = mObjectMapper.createObjectNode();
+                String command = null;
+                try {
+                    JsonNode request = mObjectMapper.readTree(line);
+                    response.set("id", request.get("id"));
+                    response.put("status", "ok");
+                    if (!isAuthorized(request)) {
+                        throw new SecurityException("Missing or invalid token");
+                    }
+                    command = request.path("command").asText(COMMAND_GENERATE);
+                    handle(command, request, response);
+                } catch (Exception e) {
+                    log.log(Level.FINE, "Request failed: " + line, e);
+                    response.put("status", "error");
+                    response.put("error", e.getMessage() != null ? e.getMessage() : e.toString());
+                }
+                writer.write(mObjectMapper.writeValueAsString(response));
+                writer.write('\n');
+                writer.flush();
+
+                // Only stop once the client has been told
+                if (COMMAND_SHUTDOWN.equals(command)) {
+                    mServerSocket.close();
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Connection failed", e);
+        }
+    }
+
+    /**
+     * Handles a single request.
+     *
+     * @param command the command of the request.
+     * @param request the request.
+     * @param response the response to fill in.
+     * @throws Exception if the request is invalid or the generation fails.
+     */
+    private void handle(String command, JsonNode request, ObjectNode response) throws Exception {
+        switch (command) {
+            case COMMAND_GENERATE:
+                generate(request, response);
+                break;
+            case COMMAND_PING:
+            case COMMAND_SHUTDOWN:
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    /**
+     * Generates the POJOs for a request, and lists the generated files in the response.
+     *
+     * @param request the generation request.
+     * @param response the response to fill in.
+     * @throws Exception if the request is invalid or the generation fails.
+     */
+    private void generate(JsonNode request, ObjectNode response) throws Exception {
+        String rootClassName = getText(request, "rootClassName");
+        if (!rootClassName.matches(CLASS_NAME_REGEX)) {
+            throw new IllegalArgumentException("Invalid root class name: " + rootClassName);
+        }
+        String packageName = getText(request, "packageName");
+        File outputDirectory = getAbsoluteFile(request, "outputDirectory");
+        checkWritable(outputDirectory);
+        GenerationOptions options = createOptions(request.path("options"));
+
+        long start = System.nanoTime();
+        List<File> files;
+        Object outputLock = mOutputLocks.computeIfAbsent(outputDirectory.getCanonicalPath(), path -> new Object());
+        synchronized (outputLock) {
+            GeneratePojos generatePojos = new GeneratePojos(packageName, outputDirectory, GenerationProgress.NONE);
+            if (request.hasNonNull("json")) {
+                files = generatePojos.generateFromJson(rootClassName, request.get("json").asText(), options);
+            } else {
+                File sample = getAbsoluteFile(request, "sample");
+                if (!sample.isFile()) {
+                    throw new IllegalArgumentException("Sample file not found: " + sample);
+                }
+                files = generatePojos.generateFromFile(rootClassName, sample, options);
+            }
+        }
+
+        ArrayNode fileArray = response.putArray("files");
+        for (File file : files) {
+            fileArray.add(file.getPath());
+        }
+        response.put("elapsedMillis", (System.nanoTime() - start) / 1000000);
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS -------------------------------------------------------------------------------------------
+
+    /**
+     * @return the bytes of a random hex encoded token.
+     */
+    private static byte[] createToken() {
+        byte[] random = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the token and the port to files in a directory, where local clients can find them. The token file is only
+     * readable and writable by the current user, and is written before the port file so that a client which finds
+     * the port also finds the token. Both files are removed when the daemon shuts down.
+     *
+     * @param directory the directory to write the files to.
+     * @throws IOException if the files can't be written.
+     */
+    private void writeConnectionFiles(File directory) throws IOException {
+        Path tokenFile = Files.createDirectories(directory.toPath()).resolve(TOKEN_FILE_NAME);
+        Files.deleteIfExists(tokenFile);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        } else {
+            File file = Files.createFile(tokenFile).toFile();
+            if (!file.setReadable(false, false) || !file.setReadable(true, true) ||
+                    !file.setWritable(false, false) || !file.setWritable(true, true)) {
+                throw new IOException("Failed to restrict the permissions of " + tokenFile);
+            }
+        }
+        mConnectionFiles.add(tokenFile);
+        Files.write(tokenFile, mToken);
+
+        Path portFile = directory.toPath().resolve(PORT_FILE_NAME);
+        mConnectionFiles.add(portFile);
+        Files.write(portFile, String.valueOf(mServerSocket.getLocalPort()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return true if the request carries the token of the daemon, compared in constant time.
+     */
+    private boolean isAuthorized(JsonNode request) {
+        JsonNode token = request.get("token");
+        return token != null && token.isTextual() &&
+                MessageDigest.isEqual(token.asText().getBytes(StandardCharsets.UTF_8), mToken);
+    }
+
+    /**
+     * Creates the generation options of a request, with the same names and defaults as the Maven goal.
+     *
+     * @param options the options of the request, which may be missing.
+     * @return the generation options.
+     * @throws IllegalArgumentException if an option is unknown or has an invalid value.
+     */
+    private static GenerationOptions createOptions(JsonNode options) {
+        Map<String, String> values = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = options.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            values.put(field.getKey(), field.getValue().asText());
+        }
+        return GenerationOptions.fromMap(values);
+    }
+
+    private static File getAbsoluteFile(JsonNode request, String name) {
+        File file = new File(getText(request, name));
+        if (!file.isAbsolute()) {
+            throw new IllegalArgumentException(name + " must be an absolute path: " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Checks that an output directory, or its nearest existing parent if it doesn't exist yet, is a writable
+     * directory.
+     *
+     * @param directory the output directory.
+     * @throws IllegalArgumentException if the directory can't be written to.
+     */
+    private static void checkWritable(File directory) {
+        File existing = directory;
+        while (existing != null && !existing.exists()) {
+            existing = existing.getParentFile();
+        }
+        if (existing == null || !existing.isDirectory() || !Files.isWritable(existing.toPath())) {
+            throw new IllegalArgumentException("Output directory is not writable: " + directory);
+        }
+    }
+
+    private static String getText(JsonNode request, String name) {
+        JsonNode value = request.get(name);
+        if (value == null || !value.isTextual() || value.asText().isEmpty()) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return value.asText();
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,347 @@
+package net.hexar.json2pojo;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Generates Java POJO classes from sample JSON files as part of a Maven build, and adds the output directory as a
+ * source root. Generation is skipped if neither the samples nor the options have changed since the last run.
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true)
+public class GenerateMojo extends AbstractMojo {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final String CLASS_NAME_REGEX = "[A-Za-z][A-Za-z0-9]*";
+    private static final String CONFIGURATION_KEY = "configuration";
+    private static final String GENERATED_KEY_PREFIX = "generated.";
+    private static final String SAMPLE_KEY_PREFIX = "sample.";
+
+    //endregion
+
+    //region PARAMETERS ------------------------------------------------------------------------------------------------
+
+    // Maven sets these by name, so they don't use the 'm' prefix
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${plugin.version}", readonly = true)
+    private String pluginVersion;
+
+    @Parameter(required = true)
+    private List<Sample> samples;
+
+    @Parameter(property = "json2pojo.outputDirectory",
+            defaultValue = "${project.build.directory}/generated-sources/json2pojo")
+    private File outputDirectory;
+
+    @Parameter(property = "json2pojo.stateFile", defaultValue = "${project.build.directory}/json2pojo/state.properties")
+    private File stateFile;
+
+    @Parameter(property = "json2pojo.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Parameter(property = "json2pojo.generateBuilders", defaultValue = "false")
+    private boolean generateBuilders;
+
+    @Parameter(property = "json2pojo.useMPrefix", defaultValue = "false")
+    private boolean useMPrefix;
+
+    @Parameter(property = "json2pojo.useDoubleValueGetters", defaultValue = "true")
+    private boolean useDoubleValueGetters;
+
+    @Parameter(property = "json2pojo.generateImmutable", defaultValue = "false")
+    private boolean generateImmutable;
+
+    @Parameter(property = "json2pojo.inferEnums", defaultValue = "false")
+    private boolean inferEnums;
+
+    @Parameter(property = "json2pojo.maxEnumCardinality", defaultValue = "16")
+    private int maxEnumCardinality;
+
+    @Parameter(property = "json2pojo.generateFlyweights", defaultValue = "false")
+    private boolean generateFlyweights;
+
+    @Parameter(property = "json2pojo.generateLazyParsing", defaultValue = "false")
+    private boolean generateLazyParsing;
+
+    @Parameter(property = "json2pojo.deduplicateClasses", defaultValue = "true")
+    private boolean deduplicateClasses;
+
+    @Parameter(property = "json2pojo.maxDepth", defaultValue = "10000")
+    private int maxDepth;
+
+    @Parameter(property = "json2pojo.detectMaps", defaultValue = "true")
+    private boolean detectMaps;
+
+    @Parameter(property = "json2pojo.maxFieldsPerClass", defaultValue = "1000")
+    private int maxFieldsPerClass;
+
+    @Parameter(property = "json2pojo.generateBenchmark", defaultValue = "false")
+    private boolean generateBenchmark;
+
+    @Parameter(property = "json2pojo.generateProtobuf", defaultValue = "false")
+    private boolean generateProtobuf;
+
+    @Parameter(property = "json2pojo.generateColumns", defaultValue = "false")
+    private boolean generateColumns;
+
+    @Parameter(property = "json2pojo.narrowNumbers", defaultValue = "false")
+    private boolean narrowNumbers;
+
+    @Parameter(property = "json2pojo.narrowingHeadroom", defaultValue = "10")
+    private int narrowingHeadroom;
+
+    @Parameter(property = "json2pojo.memoizeNumberValues", defaultValue = "false")
+    private boolean memoizeNumberValues;
+
+    @Parameter(property = "json2pojo.generateRootStream", defaultValue = "false")
+    private boolean generateRootStream;
+
+    @Parameter(property = "json2pojo.generateBinaryCodec", defaultValue = "false")
+    private boolean generateBinaryCodec;
+
+    @Parameter(property = "json2pojo.generateFootprintReport", defaultValue = "false")
+    private boolean generateFootprintReport;
+
+    //endregion
+
+    //region MOJO METHODS ----------------------------------------------------------------------------------------------
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping POJO generation");
+            return;
+        }
+        validateSamples();
+
+        // The output directory is a source root even if nothing needs to be generated
+        project.addCompileSourceRoot(outputDirectory.getPath());
+
+        try {
+            Properties state = loadState();
+            String configuration = getConfiguration();
+            if (isUpToDate(state, configuration)) {
+                getLog().info("POJOs are up to date");
+                return;
+            }
+
+            // Generate each sample with its own generator, and record what was generated from which inputs. Files
+            // whose content is unchanged are left alone, so that their timestamps don't trigger recompilation.
+            Properties newState = new Properties();
+            newState.setProperty(CONFIGURATION_KEY, configuration);
+            GenerationOptions options = GenerationOptions.fromMap(getOptions());
+            Set<String> generatedPaths = new HashSet<>();
+            int generatedCount = 0;
+            for (int i = 0; i < samples.size(); i++) {
+                Sample sample = samples.get(i);
+                getLog().info(String.format("Generating %s.%s from %s", sample.getPackageName(),
+                        sample.getRootClassName(), sample.getFile()));
+
+                GeneratePojos generatePojos = new GeneratePojos(sample.getPackageName(), outputDirectory,
+                        GenerationProgress.NONE);
+                for (File generatedFile : generatePojos.generateFromFile(sample.getRootClassName(),
+                        sample.getFile(), options)) {
+                    newState.setProperty(GENERATED_KEY_PREFIX + generatedCount++, generatedFile.getPath());
+                    generatedPaths.add(generatedFile.getPath());
+                }
+                putSampleState(newState, i, sample.getFile());
+            }
+
+            // Remove the files of the previous run which are no longer generated, since classes may have been
+            // renamed or removed
+            for (String key : state.stringPropertyNames()) {
+                if (key.startsWith(GENERATED_KEY_PREFIX) && !generatedPaths.contains(state.getProperty(key))) {
+                    Files.deleteIfExists(new File(state.getProperty(key)).toPath());
+                }
+            }
+            saveState(newState);
+        } catch (Exception e) {
+            throw new MojoExecutionException("Failed to generate POJOs: " + e.getMessage(), e);
+        }
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS -------------------------------------------------------------------------------------------
+
+    private void validateSamples() throws MojoFailureException {
+        for (Sample sample : samples) {
+            if (sample.getFile() == null || !sample.getFile().isFile()) {
+                throw new MojoFailureException("Sample file not found: " + sample.getFile());
+            } else if (sample.getRootClassName() == null || !sample.getRootClassName().matches(CLASS_NAME_REGEX)) {
+                throw new MojoFailureException("Invalid root class name for " + sample.getFile() + ": " +
+                        sample.getRootClassName());
+            } else if (sample.getPackageName() == null) {
+                throw new MojoFailureException("Missing package name for " + sample.getFile());
+            }
+        }
+    }
+
+    /**
+     * @return the generation options by name, in a stable order.
+     */
+    private Map<String, String> getOptions() {
+        Map<String, String> options = new TreeMap<>();
+        options.put("generateBuilders", String.valueOf(generateBuilders));
+        options.put("useMPrefix", String.valueOf(useMPrefix));
+        options.put("useDoubleValueGetters", String.valueOf(useDoubleValueGetters));
+        options.put("generateImmutable", String.valueOf(generateImmutable));
+        options.put("inferEnums", String.valueOf(inferEnums));
+        options.put("maxEnumCardinality", String.valueOf(maxEnumCardinality));
+        options.put("generateFlyweights", String.valueOf(generateFlyweights));
+        options.put("generateLazyParsing", String.valueOf(generateLazyParsing));
+        options.put("deduplicateClasses", String.valueOf(deduplicateClasses));
+        options.put("maxDepth", String.valueOf(maxDepth));
+        options.put("detectMaps", String.valueOf(detectMaps));
+        options.put("maxFieldsPerClass", String.valueOf(maxFieldsPerClass));
+        options.put("generateBenchmark", String.valueOf(generateBenchmark));
+        options.put("generateProtobuf", String.valueOf(generateProtobuf));
+        options.put("generateColumns", String.valueOf(generateColumns));
+        options.put("narrowNumbers", String.valueOf(narrowNumbers));
+        options.put("narrowingHeadroom", String.valueOf(narrowingHeadroom));
+        options.put("memoizeNumberValues", String.valueOf(memoizeNumberValues));
+        options.put("generateRootStream", String.valueOf(generateRootStream));
+        options.put("generateBinaryCodec", String.valueOf(generateBinaryCodec));
+        options.put("generateFootprintReport", String.valueOf(generateFootprintReport));
+        return options;
+    }
+
+    /**
+     * @return a description of everything apart from the sample contents which affects the generated files.
+     */
+    private String getConfiguration() throws IOException {
+        StringBuilder configuration = new StringBuilder()
+                .append("version=").append(pluginVersion)
+                .append(";outputDirectory=").append(outputDirectory.getCanonicalPath());
+        for (Map.Entry<String, String> option : getOptions().entrySet()) {
+            configuration.append(';').append(option.getKey()).append('=').append(option.getValue());
+        }
+        for (Sample sample : samples) {
+            configuration.append(";sample=").append(sample.getFile().getCanonicalPath())
+                    .append('|').append(sample.getRootClassName())
+                    .append('|').append(sample.getPackageName());
+        }
+        return configuration.toString();
+    }
+
+    /**
+     * Checks whether the files generated by the previous run are still current. Samples whose size and modification
+     * time are unchanged aren't read at all; the others are only considered changed if their contents hash differs.
+     *
+     * @param state the state of the previous run.
+     * @param configuration the current configuration.
+     * @return true if generation can be skipped.
+     * @throws IOException if a sample can't be read.
+     */
+    private boolean isUpToDate(Properties state, String configuration) throws IOException {
+        if (!configuration.equals(state.getProperty(CONFIGURATION_KEY))) {
+            return false;
+        }
+
+        // All of the generated files must still be there
+        for (String key : state.stringPropertyNames()) {
+            if (key.startsWith(GENERATED_KEY_PREFIX) && !new File(state.getProperty(key)).isFile()) {
+                return false;
+            }
+        }
+
+        boolean touched = false;
+        for (int i = 0; i < samples.size(); i++) {
+            File file = samples.get(i).getFile();
+            String prefix = SAMPLE_KEY_PREFIX + i;
+            if (String.valueOf(file.length()).equals(state.getProperty(prefix + ".length")) &&
+                    String.valueOf(file.lastModified()).equals(state.getProperty(prefix + ".modified"))) {
+                continue;
+            }
+
+            // The sample was touched, so compare its contents
+            if (!hash(file).equals(state.getProperty(prefix + ".sha256"))) {
+                return false;
+            }
+            putSampleState(state, i, file);
+            touched = true;
+        }
+
+        // Remember the new modification times, so that the samples don't need to be hashed again
+        if (touched) {
+            saveState(state);
+        }
+        return true;
+    }
+
+    private void putSampleState(Properties state, int index, File file) throws IOException {
+        String prefix = SAMPLE_KEY_PREFIX + index;
+        state.setProperty(prefix + ".length", String.valueOf(file.length()));
+        state.setProperty(prefix + ".modified", String.valueOf(file.lastModified()));
+        state.setProperty(prefix + ".sha256", hash(file));
+    }
+
+    private Properties loadState() throws IOException {
+        Properties state = new Properties();
+        if (stateFile.isFile()) {
+            try (InputStream input = new FileInputStream(stateFile)) {
+                state.load(input);
+            }
+        }
+        return state;
+    }
+
+    private void saveState(Properties state) throws IOException {
+        Files.createDirectories(stateFile.getParentFile().toPath());
+        try (OutputStream output = new FileOutputStream(stateFile)) {
+            state.store(output, "Json2Pojo generation state");
+        }
+    }
+
+    /**
+     * @return the hex encoded SHA-256 hash of the contents of the file.
+     */
+    private static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = new DigestInputStream(new FileInputStream(file), digest)) {
+            while (input.read(buffer) != -1) {
+                // Just update the digest
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    //endregion
+
+}
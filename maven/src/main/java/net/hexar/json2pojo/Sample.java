@@ -0,0 +1,44 @@
+package net.hexar.json2pojo;
+
+import java.io.File;
+
+/**
+ * A sample JSON file to generate POJOs from, as configured in the samples of the Maven plugin.
+ */
+public class Sample {
+
+    //region PARAMETERS ------------------------------------------------------------------------------------------------
+
+    // Maven sets these by name, so they don't use the 'm' prefix
+    private File file;
+    private String rootClassName;
+    private String packageName;
+
+    //endregion
+
+    //region ACCESSORS -------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the sample JSON file.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the name of the root class to generate.
+     */
+    String getRootClassName() {
+        return rootClassName;
+    }
+
+    /**
+     * @return the package to generate the classes in.
+     */
+    String getPackageName() {
+        return packageName;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,382 @@
+package net.hexar.json2pojo;
+
+import com.google.gson.FieldNamingStrategy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.sun.codemodel.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates a JMH benchmark for the root class, which measures how fast the sample JSON is read into the generated
+ * classes and written back out with GSON. It also measures lazy parsing and flyweight encoding if those are generated,
+ * so that the representation options can be compared on real payloads. Running its {@code main} method adds the GC
+ * profiler, which reports the bytes allocated per operation.
+ * <p>
+ * The generated classes don't carry GSON annotations, so the benchmark maps field names back to the JSON property
+ * names with a naming strategy, and reads and writes enums by their JSON values. It depends on jmh-core and gson, and
+ * needs the JMH annotation processor to be built.
+ */
+class BenchmarkGenerator {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final String PACKAGE_NAME = "benchmark";
+    private static final String JMH_PACKAGE = "org.openjdk.jmh.";
+
+    // Samples up to this many characters are embedded in the benchmark, larger ones are read from their file
+    private static final int MAX_EMBEDDED_LENGTH = 1024 * 1024;
+
+    // String constants are limited to 65535 bytes of modified UTF-8, which is at most 3 bytes per char
+    private static final int CHUNK_LENGTH = 16 * 1024;
+
+    // Separates the entries of the property name table, since it can't appear in a Java identifier and hardly in JSON
+    private static final char SEPARATOR = '\u0000';
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final JPackage mPackage;
+    private final JCodeModel mCodeModel;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param jPackage the package of the generated classes, next to which the benchmark is generated.
+     */
+    BenchmarkGenerator(JPackage jPackage) {
+        mPackage = jPackage;
+        mCodeModel = jPackage.owner();
+    }
+
+    //endregion
+
+    //region CODE GENERATION -------------------------------------------------------------------------------------------
+
+    /**
+     * Generates the benchmark for the root class.
+     *
+     * @param rootClass the root class.
+     * @param classes the generated classes mapped to their generated fields.
+     * @param fixture the sample JSON the classes were generated from.
+     * @throws Exception if the sample can't be read or an error occurs.
+     */
+    void generate(JDefinedClass rootClass, Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes,
+                  Fixture fixture) throws Exception {
+        String packageName = mPackage.name().isEmpty() ? PACKAGE_NAME : mPackage.name() + "." + PACKAGE_NAME;
+        JDefinedClass benchmark = mCodeModel._package(packageName)._class(rootClass.name() + "Benchmark");
+        GeneratePojos.annotateClass(benchmark);
+        annotateBenchmark(benchmark);
+
+        // The sample, and the JSON property names of the fields whose names differ from them
+        JFieldVar sampleFile = null;
+        JFieldVar sample = null;
+        String json = fixture.read(MAX_EMBEDDED_LENGTH);
+        if (json != null) {
+            sample = benchmark.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, String[].class, "SAMPLE",
+                    createChunks(json));
+        } else {
+            sampleFile = benchmark.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, String.class, "SAMPLE_FILE",
+                    JExpr.lit(fixture.mFile.getAbsolutePath()));
+        }
+        JFieldVar propertyNames = generatePropertyNames(benchmark, classes);
+
+        // State
+        JClass gsonType = mCodeModel.ref(Gson.class);
+        JFieldVar gson = benchmark.field(JMod.PRIVATE, gsonType, "gson");
+        JFieldVar jsonText = benchmark.field(JMod.PRIVATE, String.class, "json");
+        JFieldVar value = benchmark.field(JMod.PRIVATE, rootClass, "value");
+
+        // setUp(), reading the sample once per trial
+        JMethod setUp = benchmark.method(JMod.PUBLIC, mCodeModel.VOID, "setUp");
+        setUp.annotate(jmh("annotations.Setup"));
+        setUp._throws(IOException.class);
+        JBlock setUpBody = setUp.body();
+        if (sample != null) {
+            setUpBody.assign(jsonText, mCodeModel.ref(String.class).staticInvoke("join").arg(JExpr.lit(""))
+                    .arg(sample));
+        } else {
+            JExpression bytes = mCodeModel.ref(Files.class).staticInvoke("readAllBytes")
+                    .arg(mCodeModel.ref(Paths.class).staticInvoke("get").arg(sampleFile));
+            setUpBody.assign(jsonText, JExpr._new(mCodeModel.ref(String.class)).arg(bytes)
+                    .arg(mCodeModel.ref(StandardCharsets.class).staticRef("UTF_8")));
+        }
+        JMethod createGson = generateCreateGson(benchmark, propertyNames, classes);
+        setUpBody.assign(gson, JExpr.invoke(createGson));
+        setUpBody.assign(value, gson.invoke("fromJson").arg(jsonText).arg(rootClass.dotclass()));
+
+        // Reading and writing with GSON
+        JMethod deserialize = createBenchmarkMethod(benchmark, rootClass, "deserialize");
+        deserialize.body()._return(gson.invoke("fromJson").arg(jsonText).arg(rootClass.dotclass()));
+        JMethod serialize = createBenchmarkMethod(benchmark, mCodeModel.ref(String.class), "serialize");
+        serialize.body()._return(gson.invoke("toJson").arg(value));
+
+        // Lazily parsing the raw bytes, and decoding every field
+        if (rootClass.getMethod("parse", new JType[] { mCodeModel.BYTE.array() }) != null) {
+            JFieldVar jsonBytes = benchmark.field(JMod.PRIVATE, byte[].class, "jsonBytes");
+            setUpBody.assign(jsonBytes, jsonText.invoke("getBytes")
+                    .arg(mCodeModel.ref(StandardCharsets.class).staticRef("UTF_8")));
+            JMethod parseLazy = createBenchmarkMethod(benchmark, rootClass, "parseLazy");
+            JVar parsed = parseLazy.body().decl(rootClass, "parsed", rootClass.staticInvoke("parse").arg(jsonBytes));
+            parseLazy.body().invoke(parsed, "materialize");
+            parseLazy.body()._return(parsed);
+        }
+
+        // Encoding into a reused flyweight buffer
+        JDefinedClass encoder = mPackage._getClass(rootClass.name() + "Encoder");
+        if (encoder != null && classes.containsKey(rootClass)) {
+            JFieldVar buffer = benchmark.field(JMod.PRIVATE, ByteBuffer.class, "buffer");
+            setUpBody.assign(buffer, mCodeModel.ref(ByteBuffer.class).staticInvoke("allocate")
+                    .arg(encoder.staticInvoke("encodedLength").arg(value)));
+            JMethod encode = createBenchmarkMethod(benchmark, mCodeModel.INT, "encodeFlyweight");
+            encode.body()._return(encoder.staticInvoke("encode").arg(value).arg(buffer).arg(JExpr.lit(0)));
+        }
+
+        generateMain(benchmark);
+    }
+
+    /**
+     * Adds the JMH annotations for throughput in operations per second, with short warmup and measurement phases in a
+     * single fork.
+     */
+    private void annotateBenchmark(JDefinedClass benchmark) {
+        benchmark.annotate(jmh("annotations.State")).param("value", jmh("annotations.Scope").staticRef("Benchmark"));
+        benchmark.annotate(jmh("annotations.BenchmarkMode")).param("value",
+                jmh("annotations.Mode").staticRef("Throughput"));
+        benchmark.annotate(jmh("annotations.OutputTimeUnit")).param("value", TimeUnit.SECONDS);
+        benchmark.annotate(jmh("annotations.Warmup")).param("iterations", 3).param("time", 1);
+        benchmark.annotate(jmh("annotations.Measurement")).param("iterations", 5).param("time", 1);
+        benchmark.annotate(jmh("annotations.Fork")).param("value", 1);
+    }
+
+    /**
+     * Generates the table of JSON property names by class and field name, for the fields whose names differ from
+     * their property names. It's stored as text rather than as a map built in the static initializer, so that the
+     * size of the initializer doesn't grow with the number of fields.
+     */
+    private JFieldVar generatePropertyNames(JDefinedClass benchmark,
+                                            Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes) {
+        StringBuilder table = new StringBuilder();
+        for (Map.Entry<JDefinedClass, List<GeneratePojos.GeneratedField>> entry : classes.entrySet()) {
+            for (GeneratePojos.GeneratedField field : entry.getValue()) {
+                if (!field.Field.name().equals(field.PropertyName)) {
+                    table.append(entry.getKey().name()).append('#').append(field.Field.name()).append(SEPARATOR)
+                            .append(field.PropertyName).append(SEPARATOR);
+                }
+            }
+        }
+
+        JClass mapType = mCodeModel.ref(Map.class).narrow(String.class, String.class);
+        JFieldVar propertyNames = benchmark.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, mapType, "PROPERTY_NAMES",
+                JExpr._new(mCodeModel.ref(HashMap.class).narrow(String.class, String.class)));
+        if (table.length() > 0) {
+            JFieldVar chunks = benchmark.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, String[].class,
+                    "PROPERTY_NAME_TABLE", createChunks(table.toString()));
+            JBlock init = benchmark.init();
+            JVar entries = init.decl(mCodeModel.ref(String.class).array(), "entries",
+                    mCodeModel.ref(String.class).staticInvoke("join").arg(JExpr.lit("")).arg(chunks)
+                            .invoke("split").arg(JExpr.lit(String.valueOf(SEPARATOR))));
+            JForLoop forLoop = init._for();
+            JVar i = forLoop.init(mCodeModel.INT, "i", JExpr.lit(0));
+            forLoop.test(i.plus(JExpr.lit(1)).lt(entries.ref("length")));
+            forLoop.update(i.assignPlus(JExpr.lit(2)));
+            forLoop.body().invoke(propertyNames, "put").arg(entries.component(i))
+                    .arg(entries.component(i.plus(JExpr.lit(1))));
+        }
+        return propertyNames;
+    }
+
+    /**
+     * Generates the method which creates the GSON instance, mapping field names to property names and reading and
+     * writing enums by their JSON values.
+     */
+    private JMethod generateCreateGson(JDefinedClass benchmark, JFieldVar propertyNames,
+                                       Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes)
+            throws Exception {
+        JMethod createGson = benchmark.method(JMod.PRIVATE | JMod.STATIC, Gson.class, "createGson");
+        JBlock body = createGson.body();
+
+        // Field names are looked up by class and field name, and otherwise used as they are
+        JDefinedClass namingStrategy = mCodeModel.anonymousClass(FieldNamingStrategy.class);
+        JMethod translateName = namingStrategy.method(JMod.PUBLIC, String.class, "translateName");
+        translateName.annotate(Override.class);
+        JVar field = translateName.param(Field.class, "field");
+        JVar name = translateName.body().decl(mCodeModel.ref(String.class), "name", propertyNames.invoke("get")
+                .arg(field.invoke("getDeclaringClass").invoke("getSimpleName").plus(JExpr.lit("#"))
+                        .plus(field.invoke("getName"))));
+        translateName.body()._return(JOp.cond(name.ne(JExpr._null()), name, field.invoke("getName")));
+
+        JVar builder = body.decl(mCodeModel.ref(GsonBuilder.class), "builder", JExpr._new(
+                mCodeModel.ref(GsonBuilder.class)).invoke("setFieldNamingStrategy").arg(JExpr._new(namingStrategy)));
+        Set<JDefinedClass> enums = getEnums(classes);
+        if (!enums.isEmpty()) {
+            JDefinedClass adapter = generateEnumAdapter(benchmark);
+            for (JDefinedClass enumClass : enums) {
+                body.invoke(builder, "registerTypeAdapter").arg(enumClass.dotclass())
+                        .arg(JExpr._new(adapter).arg(enumClass.staticInvoke("values")));
+            }
+        }
+        body._return(builder.invoke("create"));
+        return createGson;
+    }
+
+    /**
+     * Generates the type adapter which reads and writes the generated enums by their JSON values, which their
+     * toString methods return.
+     */
+    private JDefinedClass generateEnumAdapter(JDefinedClass benchmark) throws Exception {
+        JDefinedClass adapter = benchmark._class(JMod.PRIVATE | JMod.STATIC, "EnumValueAdapter");
+        adapter._extends(mCodeModel.ref(TypeAdapter.class).narrow(Object.class));
+        JClass mapType = mCodeModel.ref(Map.class).narrow(String.class, Object.class);
+        JFieldVar constants = adapter.field(JMod.PRIVATE | JMod.FINAL, mapType, "constants",
+                JExpr._new(mCodeModel.ref(HashMap.class).narrow(String.class, Object.class)));
+
+        JMethod constructor = adapter.constructor(JMod.NONE);
+        JVar values = constructor.param(Object[].class, "values");
+        JForEach forEach = constructor.body().forEach(mCodeModel.ref(Object.class), "constant", values);
+        forEach.body().invoke(constants, "put").arg(forEach.var().invoke("toString")).arg(forEach.var());
+
+        JMethod write = adapter.method(JMod.PUBLIC, mCodeModel.VOID, "write");
+        write.annotate(Override.class);
+        write._throws(IOException.class);
+        JVar out = write.param(JsonWriter.class, "out");
+        JVar value = write.param(Object.class, "value");
+        JConditional isNull = write.body()._if(value.eq(JExpr._null()));
+        isNull._then().invoke(out, "nullValue");
+        isNull._else().invoke(out, "value").arg(value.invoke("toString"));
+
+        JMethod read = adapter.method(JMod.PUBLIC, Object.class, "read");
+        read.annotate(Override.class);
+        read._throws(IOException.class);
+        JVar in = read.param(JsonReader.class, "in");
+        JBlock readNull = read.body()._if(in.invoke("peek").eq(mCodeModel.ref(JsonToken.class).staticRef("NULL")))
+                ._then();
+        readNull.invoke(in, "nextNull");
+        readNull._return(JExpr._null());
+        read.body()._return(constants.invoke("get").arg(in.invoke("nextString")));
+        return adapter;
+    }
+
+    /**
+     * Generates the main method, which runs the benchmark with the GC profiler to also report allocations. Any JMH
+     * command line options are passed on.
+     */
+    private void generateMain(JDefinedClass benchmark) {
+        JMethod main = benchmark.method(JMod.PUBLIC | JMod.STATIC, mCodeModel.VOID, "main");
+        JVar args = main.param(String[].class, "args");
+        main._throws(jmh("runner.RunnerException"));
+        main._throws(jmh("runner.options.CommandLineOptionException"));
+        JExpression options = JExpr._new(jmh("runner.options.OptionsBuilder"))
+                .invoke("parent").arg(JExpr._new(jmh("runner.options.CommandLineOptions")).arg(args))
+                .invoke("include").arg(benchmark.dotclass().invoke("getName"))
+                .invoke("addProfiler").arg(jmh("profile.GCProfiler").dotclass())
+                .invoke("build");
+        main.body().add(JExpr._new(jmh("runner.Runner")).arg(options).invoke("run"));
+    }
+
+    //endregion
+
+    //region HELPER METHODS --------------------------------------------------------------------------------------------
+
+    private JMethod createBenchmarkMethod(JDefinedClass benchmark, JType type, String name) {
+        JMethod method = benchmark.method(JMod.PUBLIC, type, name);
+        method.annotate(jmh("annotations.Benchmark"));
+        return method;
+    }
+
+    /**
+     * Splits a text into string literals which each fit into a class file constant, to be joined when the benchmark
+     * runs.
+     */
+    private JArray createChunks(String text) {
+        JArray chunks = JExpr.newArray(mCodeModel.ref(String.class));
+        for (int start = 0; start < text.length(); start += CHUNK_LENGTH) {
+            chunks.add(JExpr.lit(text.substring(start, Math.min(start + CHUNK_LENGTH, text.length()))));
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the generated enums which are the types of fields, or the elements of list or map fields.
+     */
+    private static Set<JDefinedClass> getEnums(Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes) {
+        Set<JDefinedClass> enums = new LinkedHashSet<>();
+        Deque<JType> types = new ArrayDeque<>();
+        for (List<GeneratePojos.GeneratedField> fields : classes.values()) {
+            for (GeneratePojos.GeneratedField field : fields) {
+                types.push(field.Field.type());
+            }
+        }
+        while (!types.isEmpty()) {
+            JType type = types.pop();
+            if (type instanceof JDefinedClass && ((JDefinedClass) type).getClassType() == ClassType.ENUM) {
+                enums.add((JDefinedClass) type);
+            } else if (type instanceof JClass) {
+                types.addAll(((JClass) type).getTypeParameters());
+            }
+        }
+        return enums;
+    }
+
+    private JClass jmh(String className) {
+        return mCodeModel.directClass(JMH_PACKAGE + className);
+    }
+
+    //endregion
+
+    //region INNER CLASSES ---------------------------------------------------------------------------------------------
+
+    /**
+     * The sample JSON used as the benchmark fixture, either as text or as a file.
+     */
+    static class Fixture {
+        private final String mJson;
+        private final File mFile;
+
+        private Fixture(String json, File file) {
+            mJson = json;
+            mFile = file;
+        }
+
+        static Fixture ofJson(String json) {
+            return new Fixture(json, null);
+        }
+
+        static Fixture ofFile(File file) {
+            return new Fixture(null, file);
+        }
+
+        /**
+         * @param maxLength the maximum length of file contents to read.
+         * @return the JSON text, or null if the file is longer than the maximum length and should be read by the
+         * benchmark itself.
+         * @throws IOException if the file can't be read.
+         */
+        String read(int maxLength) throws IOException {
+            if (mJson != null) {
+                return mJson;
+            } else if (mFile.length() > maxLength) {
+                return null;
+            }
+            return new String(Files.readAllBytes(mFile.toPath()), StandardCharsets.UTF_8);
+        }
+    }
+
+    //endregion
+
+}
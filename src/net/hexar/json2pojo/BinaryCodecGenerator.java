@@ -0,0 +1,721 @@
+package net.hexar.json2pojo;
+
+import com.sun.codemodel.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Generates compact binary codecs for the generated POJO classes, such as {@code OrderCodec} for {@code Order}, for
+ * caches on disk or off the heap where Java serialization and JSON are too slow and too large.
+ * <p>
+ * A record starts with a null bitmap of its fields which aren't primitives, followed by the values of the fields which
+ * aren't null, in the order of the fields. Integers are written as zigzag varints, floating point numbers as their IEEE
+ * 754 bits, strings as a varint length followed by their UTF-8 bytes, and enums as the varint of their ordinal. Lists
+ * and maps are written as a varint size and a null bitmap of their elements, followed by the elements. Encoded records
+ * start with a header holding the fingerprint of the schema of their class, including the classes it refers to, so a
+ * cache entry written by different classes is detected before it's decoded.
+ */
+class BinaryCodecGenerator {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final String SUPPORT_CLASS_NAME = "BinaryCodecs";
+    private static final String FORMAT_VERSION = "json2pojo-binary-1";
+
+    // Tags of the values of untyped fields
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INTEGER = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_LIST = 6;
+    private static final int TAG_MAP = 7;
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final JPackage mPackage;
+    private final JCodeModel mCodeModel;
+    private final boolean mUsesBuilders;
+    private final JClass mOutputType;
+    private final JClass mInputType;
+    private final Map<JDefinedClass, JDefinedClass> mCodecMap = new HashMap<>();
+
+    private Map<JDefinedClass, List<GeneratePojos.GeneratedField>> mClasses;
+    private Map<JDefinedClass, List<String>> mEnumConstants;
+    private JDefinedClass mSupport;
+    private JDefinedClass mCodec;
+    private Map<JClass, JFieldVar> mEnumValues;
+    private int mLocalCount;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param jPackage the package to generate the codecs in.
+     * @param usesBuilders true if the generated classes are built with builders rather than setters.
+     */
+    BinaryCodecGenerator(JPackage jPackage, boolean usesBuilders) {
+        mPackage = jPackage;
+        mCodeModel = jPackage.owner();
+        mUsesBuilders = usesBuilders;
+        mOutputType = mCodeModel.ref(DataOutput.class);
+        mInputType = mCodeModel.ref(DataInput.class);
+    }
+
+    //endregion
+
+    //region CODE GENERATION -------------------------------------------------------------------------------------------
+
+    /**
+     * Generates a codec for each of the given classes, plus the shared support class.
+     *
+     * @param classes the generated classes mapped to their generated fields, in the order fixed by the field
+     *                comparator.
+     * @param enumConstants the generated enums mapped to the names of their constants, in order.
+     * @throws Exception if an error occurs.
+     */
+    void generate(Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes,
+                  Map<JDefinedClass, List<String>> enumConstants) throws Exception {
+        mClasses = classes;
+        mEnumConstants = enumConstants;
+        generateSupportClass();
+
+        // Create all of the codecs first, so that records can refer to the codecs of nested records
+        for (JDefinedClass clazz : classes.keySet()) {
+            mCodecMap.put(clazz, createFinalClass(clazz.name() + "Codec"));
+        }
+        for (Map.Entry<JDefinedClass, List<GeneratePojos.GeneratedField>> entry : classes.entrySet()) {
+            generateCodec(entry.getKey(), mCodecMap.get(entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * Generates the codec of a class, with the methods which encode and decode whole records with their header, and
+     * the methods which write and read the records nested in others.
+     *
+     * @param clazz the class to encode.
+     * @param codec the codec class to fill in.
+     * @param fields the generated fields of the class.
+     * @throws Exception if an error occurs.
+     */
+    private void generateCodec(JDefinedClass clazz, JDefinedClass codec, List<GeneratePojos.GeneratedField> fields)
+            throws Exception {
+        mCodec = codec;
+        mEnumValues = new HashMap<>();
+        codec.constructor(JMod.PRIVATE);
+        JFieldVar fingerprint = codec.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, mCodeModel.LONG,
+                "SCHEMA_FINGERPRINT", JExpr.lit(getSchemaFingerprint(clazz)));
+        JMethod write = codec.method(JMod.PUBLIC | JMod.STATIC, mCodeModel.VOID, "write");
+        JMethod read = codec.method(JMod.PUBLIC | JMod.STATIC, clazz, "read");
+
+        // encode(value, out) and encode(value), with the header
+        JMethod encodeTo = codec.method(JMod.PUBLIC | JMod.STATIC, mCodeModel.VOID, "encode");
+        encodeTo._throws(IOException.class);
+        JVar value = encodeTo.param(clazz, "value");
+        JVar out = encodeTo.param(mOutputType, "out");
+        encodeTo.body().invoke(out, "writeLong").arg(fingerprint);
+        encodeTo.body().invoke(write).arg(value).arg(out);
+
+        JMethod encode = codec.method(JMod.PUBLIC | JMod.STATIC, mCodeModel.BYTE.array(), "encode");
+        value = encode.param(clazz, "value");
+        JVar bytes = encode.body().decl(mCodeModel.ref(ByteArrayOutputStream.class), "bytes",
+                JExpr._new(mCodeModel.ref(ByteArrayOutputStream.class)));
+        JTryBlock tryBlock = encode.body()._try();
+        tryBlock.body().invoke(encodeTo).arg(value).arg(JExpr._new(mCodeModel.ref(DataOutputStream.class)).arg(bytes));
+        JCatchBlock catchBlock = tryBlock._catch(mCodeModel.ref(IOException.class));
+        JVar e = catchBlock.param("e");
+        catchBlock.body()._throw(JExpr._new(mCodeModel.ref(UncheckedIOException.class)).arg(e));
+        encode.body()._return(bytes.invoke("toByteArray"));
+
+        // decode(in) and decode(data), checking the header
+        JMethod decodeFrom = codec.method(JMod.PUBLIC | JMod.STATIC, clazz, "decode");
+        decodeFrom._throws(IOException.class);
+        JVar in = decodeFrom.param(mInputType, "in");
+        decodeFrom.body().staticInvoke(mSupport, "checkFingerprint").arg(in.invoke("readLong")).arg(fingerprint);
+        decodeFrom.body()._return(JExpr.invoke(read).arg(in));
+
+        JMethod decode = codec.method(JMod.PUBLIC | JMod.STATIC, clazz, "decode");
+        decode._throws(IOException.class);
+        JVar data = decode.param(mCodeModel.BYTE.array(), "data");
+        decode.body()._return(JExpr.invoke(decodeFrom).arg(JExpr._new(mCodeModel.ref(DataInputStream.class))
+                .arg(JExpr._new(mCodeModel.ref(ByteArrayInputStream.class)).arg(data))));
+
+        // isCurrent(data), which only reads the header
+        JMethod isCurrent = codec.method(JMod.PUBLIC | JMod.STATIC, mCodeModel.BOOLEAN, "isCurrent");
+        data = isCurrent.param(mCodeModel.BYTE.array(), "data");
+        isCurrent.body()._return(mSupport.staticInvoke("hasFingerprint").arg(data).arg(fingerprint));
+
+        generateWrite(clazz, write, fields);
+        generateRead(clazz, read, fields);
+    }
+
+    /**
+     * Generates the method which writes a record without its header: the null bitmap, then the fields.
+     */
+    private void generateWrite(JDefinedClass clazz, JMethod write, List<GeneratePojos.GeneratedField> fields) {
+        mLocalCount = 0;
+        write._throws(IOException.class);
+        JVar value = write.param(clazz, "value");
+        JVar out = write.param(mOutputType, "out");
+        JBlock body = write.body();
+
+        List<JVar> locals = new ArrayList<>();
+        List<JVar> nullable = new ArrayList<>();
+        for (GeneratePojos.GeneratedField field : fields) {
+            JVar local = body.decl(field.Field.type(), GeneratePojos.formatFieldName(field.PropertyName, false) +
+                    "Value", value.invoke("get" + GeneratePojos.formatClassName(field.PropertyName)));
+            locals.add(local);
+            if (!local.type().isPrimitive()) {
+                nullable.add(local);
+            }
+        }
+
+        // A bit for every field which can be null, eight to a byte
+        for (int start = 0; start < nullable.size(); start += 8) {
+            JExpression bits = null;
+            for (int bit = 0; bit < 8 && start + bit < nullable.size(); bit++) {
+                JExpression nullBit = JOp.cond(nullable.get(start + bit).eq(JExpr._null()), JExpr.lit(1 << bit),
+                        JExpr.lit(0));
+                bits = bits == null ? nullBit : bits.bor(nullBit);
+            }
+            body.invoke(out, "writeByte").arg(bits);
+        }
+
+        for (JVar local : locals) {
+            JBlock block = local.type().isPrimitive() ? body : body._if(local.ne(JExpr._null()))._then();
+            writeValue(block, local.type(), local, out);
+        }
+    }
+
+    /**
+     * Generates the method which reads a record without its header, setting the fields which aren't null.
+     */
+    private void generateRead(JDefinedClass clazz, JMethod read, List<GeneratePojos.GeneratedField> fields) {
+        mLocalCount = 0;
+        read._throws(IOException.class);
+        JVar in = read.param(mInputType, "in");
+        JBlock body = read.body();
+
+        JDefinedClass builderClass = mUsesBuilders ? getBuilderClass(clazz) : null;
+        JVar target = builderClass != null
+                ? body.decl(builderClass, "builder", JExpr._new(builderClass))
+                : body.decl(clazz, "record", JExpr._new(clazz));
+
+        int nullableCount = 0;
+        for (GeneratePojos.GeneratedField field : fields) {
+            if (!field.Field.type().isPrimitive()) {
+                nullableCount++;
+            }
+        }
+        List<JVar> nullBytes = new ArrayList<>();
+        for (int start = 0; start < nullableCount; start += 8) {
+            nullBytes.add(body.decl(mCodeModel.INT, "fieldNulls" + nullBytes.size(), in.invoke("readUnsignedByte")));
+        }
+
+        int index = 0;
+        for (GeneratePojos.GeneratedField field : fields) {
+            JType type = field.Field.type();
+            JBlock block = body;
+            if (!type.isPrimitive()) {
+                JExpression bit = nullBytes.get(index / 8).band(JExpr.lit(1 << (index % 8)));
+                block = body._if(bit.eq(JExpr.lit(0)))._then();
+                index++;
+            }
+            String setterName = (builderClass != null ? "with" : "set") +
+                    GeneratePojos.formatClassName(field.PropertyName);
+            JExpression fieldValue = readValue(block, type, in);
+            block.invoke(target, setterName).arg(fieldValue);
+        }
+        body._return(builderClass != null ? target.invoke("build") : target);
+    }
+
+    /**
+     * Generates the statements which write a value which isn't null.
+     *
+     * @param block the block to write the value in.
+     * @param type the type of the value.
+     * @param value the value.
+     * @param out the output to write to.
+     */
+    private void writeValue(JBlock block, JType type, JExpression value, JVar out) {
+        JType unboxed = type.unboxify();
+        if (unboxed == mCodeModel.LONG || unboxed == mCodeModel.INT || unboxed == mCodeModel.SHORT ||
+                unboxed == mCodeModel.BYTE) {
+            block.staticInvoke(mSupport, "writeVarLong").arg(out).arg(value);
+        } else if (unboxed == mCodeModel.DOUBLE) {
+            block.invoke(out, "writeDouble").arg(value);
+        } else if (unboxed == mCodeModel.FLOAT) {
+            block.invoke(out, "writeFloat").arg(value);
+        } else if (unboxed == mCodeModel.BOOLEAN) {
+            block.invoke(out, "writeBoolean").arg(value);
+        } else if (type.equals(mCodeModel.ref(String.class))) {
+            block.staticInvoke(mSupport, "writeString").arg(out).arg(value);
+        } else if (type.equals(mCodeModel.ref(BigInteger.class)) || type.equals(mCodeModel.ref(BigDecimal.class))) {
+            block.staticInvoke(mSupport, "writeString").arg(out).arg(value.invoke("toString"));
+        } else if (isEnum(type)) {
+            block.staticInvoke(mSupport, "writeVarInt").arg(out).arg(value.invoke("ordinal"));
+        } else if (mCodecMap.containsKey(type)) {
+            block.staticInvoke(mCodecMap.get(type), "write").arg(value).arg(out);
+        } else if (isClass(type, List.class)) {
+            // The size and the null bitmap, then the elements which aren't null
+            JClass elementType = ((JClass) type).getTypeParameters().get(0);
+            block.staticInvoke(mSupport, "writeVarInt").arg(out).arg(value.invoke("size"));
+            block.staticInvoke(mSupport, "writeNulls").arg(out).arg(value);
+            JForEach forEach = block.forEach(elementType, "element" + mLocalCount++, value);
+            writeValue(forEach.body()._if(forEach.var().ne(JExpr._null()))._then(), elementType, forEach.var(), out);
+        } else if (isClass(type, Map.class)) {
+            // The size and the null bitmap of the values, then the keys and the values which aren't null
+            JClass valueType = ((JClass) type).getTypeParameters().get(1);
+            block.staticInvoke(mSupport, "writeVarInt").arg(out).arg(value.invoke("size"));
+            block.staticInvoke(mSupport, "writeNulls").arg(out).arg(value.invoke("values"));
+            JClass entryType = mCodeModel.ref(Map.Entry.class).narrow(mCodeModel.ref(String.class), valueType);
+            JForEach forEach = block.forEach(entryType, "entry" + mLocalCount++, value.invoke("entrySet"));
+            forEach.body().staticInvoke(mSupport, "writeString").arg(out).arg(forEach.var().invoke("getKey"));
+            JVar entryValue = forEach.body().decl(valueType, "entryValue" + mLocalCount++,
+                    forEach.var().invoke("getValue"));
+            writeValue(forEach.body()._if(entryValue.ne(JExpr._null()))._then(), valueType, entryValue, out);
+        } else {
+            // Anything else is written with a tag for its kind
+            block.staticInvoke(mSupport, "writeAny").arg(out).arg(value);
+        }
+    }
+
+    /**
+     * Creates the expression which reads a value which isn't null, declaring any loops it needs in the block.
+     *
+     * @param block the block to declare local variables in.
+     * @param type the type of the value.
+     * @param in the input to read from.
+     * @return the expression for the value.
+     */
+    private JExpression readValue(JBlock block, JType type, JVar in) {
+        JType unboxed = type.unboxify();
+        if (unboxed == mCodeModel.LONG) {
+            return mSupport.staticInvoke("readVarLong").arg(in);
+        } else if (unboxed == mCodeModel.INT || unboxed == mCodeModel.SHORT || unboxed == mCodeModel.BYTE) {
+            return JExpr.cast(unboxed, mSupport.staticInvoke("readVarLong").arg(in));
+        } else if (unboxed == mCodeModel.DOUBLE) {
+            return in.invoke("readDouble");
+        } else if (unboxed == mCodeModel.FLOAT) {
+            return in.invoke("readFloat");
+        } else if (unboxed == mCodeModel.BOOLEAN) {
+            return in.invoke("readBoolean");
+        } else if (type.equals(mCodeModel.ref(String.class))) {
+            return mSupport.staticInvoke("readString").arg(in);
+        } else if (type.equals(mCodeModel.ref(BigInteger.class)) || type.equals(mCodeModel.ref(BigDecimal.class))) {
+            return JExpr._new(type).arg(mSupport.staticInvoke("readString").arg(in));
+        } else if (isEnum(type)) {
+            return getEnumValues((JClass) type).component(mSupport.staticInvoke("readVarInt").arg(in));
+        } else if (mCodecMap.containsKey(type)) {
+            return mCodecMap.get(type).staticInvoke("read").arg(in);
+        } else if (isClass(type, List.class)) {
+            JClass elementType = ((JClass) type).getTypeParameters().get(0);
+            int local = mLocalCount++;
+            JVar size = block.decl(mCodeModel.INT, "size" + local, mSupport.staticInvoke("readVarInt").arg(in));
+            JVar nulls = block.decl(mCodeModel.BYTE.array(), "nulls" + local,
+                    mSupport.staticInvoke("readNulls").arg(in).arg(size));
+            JVar list = block.decl(type, "list" + local,
+                    JExpr._new(mCodeModel.ref(ArrayList.class).narrow(elementType)).arg(size));
+            JForLoop forLoop = block._for();
+            JVar i = forLoop.init(mCodeModel.INT, "i" + local, JExpr.lit(0));
+            forLoop.test(i.lt(size));
+            forLoop.update(i.incr());
+            JConditional isNull = forLoop.body()._if(mSupport.staticInvoke("isNull").arg(nulls).arg(i));
+            isNull._then().invoke(list, "add").arg(JExpr._null());
+            JExpression element = readValue(isNull._else(), elementType, in);
+            isNull._else().invoke(list, "add").arg(element);
+            return list;
+        } else if (isClass(type, Map.class)) {
+            // Keep the order of the keys
+            JClass valueType = ((JClass) type).getTypeParameters().get(1);
+            int local = mLocalCount++;
+            JVar size = block.decl(mCodeModel.INT, "size" + local, mSupport.staticInvoke("readVarInt").arg(in));
+            JVar nulls = block.decl(mCodeModel.BYTE.array(), "nulls" + local,
+                    mSupport.staticInvoke("readNulls").arg(in).arg(size));
+            JVar map = block.decl(type, "map" + local, JExpr._new(mCodeModel.ref(LinkedHashMap.class)
+                    .narrow(mCodeModel.ref(String.class), valueType)));
+            JForLoop forLoop = block._for();
+            JVar i = forLoop.init(mCodeModel.INT, "i" + local, JExpr.lit(0));
+            forLoop.test(i.lt(size));
+            forLoop.update(i.incr());
+            JVar key = forLoop.body().decl(mCodeModel.ref(String.class), "key" + local,
+                    mSupport.staticInvoke("readString").arg(in));
+            JConditional isNull = forLoop.body()._if(mSupport.staticInvoke("isNull").arg(nulls).arg(i));
+            isNull._then().invoke(map, "put").arg(key).arg(JExpr._null());
+            JExpression entryValue = readValue(isNull._else(), valueType, in);
+            isNull._else().invoke(map, "put").arg(key).arg(entryValue);
+            return map;
+        }
+
+        // Anything else is read from its tag
+        return mSupport.staticInvoke("readAny").arg(in);
+    }
+
+    /**
+     * @return the cached constants of an enum in the current codec, since values() copies the array on every call.
+     */
+    private JFieldVar getEnumValues(JClass enumClass) {
+        JFieldVar values = mEnumValues.get(enumClass);
+        if (values == null) {
+            String name = GeneratePojos.formatClassName(enumClass.name()).replaceAll("([a-z0-9])([A-Z])", "$1_$2")
+                    .toUpperCase() + "_VALUES";
+            values = mCodec.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, enumClass.array(), name,
+                    enumClass.staticInvoke("values"));
+            mEnumValues.put(enumClass, values);
+        }
+        return values;
+    }
+
+    /**
+     * Gets the fingerprint of the schema of a class, which is the start of the SHA-256 digest of the names and types
+     * of its fields, in order, and of the schemas of the classes and enums they refer to.
+     *
+     * @param clazz the class to fingerprint.
+     * @return the fingerprint.
+     * @throws Exception if the digest isn't available.
+     */
+    private long getSchemaFingerprint(JDefinedClass clazz) throws Exception {
+        StringBuilder schema = new StringBuilder(FORMAT_VERSION).append('|');
+        appendSchema(schema, clazz, new HashSet<>());
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(schema.toString().getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest).getLong();
+    }
+
+    private void appendSchema(StringBuilder schema, JType type, Set<JDefinedClass> visiting) {
+        if (mClasses.containsKey(type)) {
+            // Classes which refer to themselves are only described once
+            JDefinedClass clazz = (JDefinedClass) type;
+            schema.append(clazz.name());
+            if (visiting.add(clazz)) {
+                schema.append('{');
+                for (GeneratePojos.GeneratedField field : mClasses.get(clazz)) {
+                    schema.append(field.PropertyName).append(':');
+                    appendSchema(schema, field.Field.type(), visiting);
+                    schema.append(';');
+                }
+                schema.append('}');
+                visiting.remove(clazz);
+            }
+        } else if (isEnum(type)) {
+            schema.append(type.name()).append(mEnumConstants.get(type));
+        } else if (type instanceof JClass && !((JClass) type).getTypeParameters().isEmpty()) {
+            schema.append(((JClass) type).erasure().fullName()).append('<');
+            for (JClass typeParameter : ((JClass) type).getTypeParameters()) {
+                appendSchema(schema, typeParameter, visiting);
+                schema.append(',');
+            }
+            schema.append('>');
+        } else {
+            schema.append(type.fullName());
+        }
+    }
+
+    //endregion
+
+    //region SUPPORT CLASS ---------------------------------------------------------------------------------------------
+
+    /**
+     * Generates the support class holding the varint, string, null bitmap, and untyped value helpers shared by all
+     * codecs, and the exception thrown for a stale schema.
+     *
+     * @throws Exception if an error occurs.
+     */
+    private void generateSupportClass() throws Exception {
+        mSupport = createFinalClass(SUPPORT_CLASS_NAME);
+        mSupport.constructor(JMod.PRIVATE);
+        JType intType = mCodeModel.INT;
+        JType longType = mCodeModel.LONG;
+        JClass charsets = mCodeModel.ref(StandardCharsets.class);
+        JClass corrupted = mCodeModel.ref(StreamCorruptedException.class);
+        int mods = JMod.PUBLIC | JMod.STATIC;
+
+        // StaleSchemaException, thrown when the fingerprint in a header isn't the one of the codec
+        JDefinedClass stale = mSupport._class(JMod.PUBLIC | JMod.STATIC, "StaleSchemaException");
+        stale._extends(IOException.class);
+        JMethod staleConstructor = stale.constructor(JMod.PUBLIC);
+        JVar actual = staleConstructor.param(longType, "actual");
+        JVar expected = staleConstructor.param(longType, "expected");
+        staleConstructor.body().invoke("super").arg(mCodeModel.ref(String.class).staticInvoke("format")
+                .arg("Schema fingerprint %016x doesn't match %016x").arg(actual).arg(expected));
+
+        // checkFingerprint(actual, expected)
+        JMethod checkFingerprint = mSupport.method(mods, mCodeModel.VOID, "checkFingerprint");
+        checkFingerprint._throws(stale);
+        actual = checkFingerprint.param(longType, "actual");
+        expected = checkFingerprint.param(longType, "expected");
+        checkFingerprint.body()._if(actual.ne(expected))._then()
+                ._throw(JExpr._new(stale).arg(actual).arg(expected));
+
+        // hasFingerprint(data, expected), reading the big-endian header without decoding the record
+        JMethod hasFingerprint = mSupport.method(mods, mCodeModel.BOOLEAN, "hasFingerprint");
+        JVar data = hasFingerprint.param(mCodeModel.BYTE.array(), "data");
+        expected = hasFingerprint.param(longType, "expected");
+        JBlock body = hasFingerprint.body();
+        body._if(data.ref("length").lt(JExpr.lit(8)))._then()._return(JExpr.FALSE);
+        JVar fingerprint = body.decl(longType, "fingerprint", JExpr.lit(0L));
+        JForLoop headerLoop = body._for();
+        JVar i = headerLoop.init(intType, "i", JExpr.lit(0));
+        headerLoop.test(i.lt(JExpr.lit(8)));
+        headerLoop.update(i.incr());
+        JExpression headerByte = data.component(i);
+        headerLoop.body().assign(fingerprint, fingerprint.shl(JExpr.lit(8)).bor(headerByte.band(JExpr.lit(0xFF))));
+        body._return(fingerprint.eq(expected));
+
+        // writeVarInt(out, value), seven bits at a time with the high bit set on all but the last byte
+        JMethod writeVarInt = mSupport.method(mods, mCodeModel.VOID, "writeVarInt");
+        writeVarInt._throws(IOException.class);
+        JVar out = writeVarInt.param(mOutputType, "out");
+        JVar value = writeVarInt.param(intType, "value");
+        JBlock loop = writeVarInt.body()._while(value.band(JExpr.lit(~0x7F)).ne(JExpr.lit(0))).body();
+        loop.invoke(out, "writeByte").arg(value.band(JExpr.lit(0x7F)).bor(JExpr.lit(0x80)));
+        loop.assign(value, value.shrz(JExpr.lit(7)));
+        writeVarInt.body().invoke(out, "writeByte").arg(value);
+
+        // readVarInt(in)
+        JMethod readVarInt = mSupport.method(mods, intType, "readVarInt");
+        readVarInt._throws(IOException.class);
+        JVar in = readVarInt.param(mInputType, "in");
+        body = readVarInt.body();
+        value = body.decl(intType, "value", JExpr.lit(0));
+        JForLoop intLoop = body._for();
+        JVar shift = intLoop.init(intType, "shift", JExpr.lit(0));
+        intLoop.test(shift.lt(JExpr.lit(32)));
+        intLoop.update(shift.assignPlus(JExpr.lit(7)));
+        JVar b = intLoop.body().decl(mCodeModel.BYTE, "b", in.invoke("readByte"));
+        intLoop.body().assign(value, value.bor(b.band(JExpr.lit(0x7F)).shl(shift)));
+        intLoop.body()._if(b.gte(JExpr.lit(0)))._then()._return(value);
+        body._throw(JExpr._new(corrupted).arg("Malformed varint"));
+
+        // writeVarLong(out, value), zigzag encoded so that small negative numbers stay short
+        JMethod writeVarLong = mSupport.method(mods, mCodeModel.VOID, "writeVarLong");
+        writeVarLong._throws(IOException.class);
+        out = writeVarLong.param(mOutputType, "out");
+        value = writeVarLong.param(longType, "value");
+        body = writeVarLong.body();
+        JVar zigzag = body.decl(longType, "zigzag", value.shl(JExpr.lit(1)).xor(value.shr(JExpr.lit(63))));
+        loop = body._while(zigzag.band(JExpr.lit(~0x7FL)).ne(JExpr.lit(0L))).body();
+        loop.invoke(out, "writeByte").arg(JExpr.cast(intType, zigzag.band(JExpr.lit(0x7FL)).bor(JExpr.lit(0x80L))));
+        loop.assign(zigzag, zigzag.shrz(JExpr.lit(7)));
+        body.invoke(out, "writeByte").arg(JExpr.cast(intType, zigzag));
+
+        // readVarLong(in)
+        JMethod readVarLong = mSupport.method(mods, longType, "readVarLong");
+        readVarLong._throws(IOException.class);
+        in = readVarLong.param(mInputType, "in");
+        body = readVarLong.body();
+        zigzag = body.decl(longType, "zigzag", JExpr.lit(0L));
+        JForLoop longLoop = body._for();
+        shift = longLoop.init(intType, "shift", JExpr.lit(0));
+        longLoop.test(shift.lt(JExpr.lit(64)));
+        longLoop.update(shift.assignPlus(JExpr.lit(7)));
+        b = longLoop.body().decl(mCodeModel.BYTE, "b", in.invoke("readByte"));
+        JExpression lowBits = JExpr.cast(longType, b.band(JExpr.lit(0x7F)));
+        longLoop.body().assign(zigzag, zigzag.bor(lowBits.shl(shift)));
+        longLoop.body()._if(b.gte(JExpr.lit(0)))._then()._return(zigzag.shrz(JExpr.lit(1))
+                .xor(JOp.minus(zigzag.band(JExpr.lit(1L)))));
+        body._throw(JExpr._new(corrupted).arg("Malformed varint"));
+
+        // writeString(out, value), the length of the UTF-8 bytes followed by the bytes
+        JMethod writeString = mSupport.method(mods, mCodeModel.VOID, "writeString");
+        writeString._throws(IOException.class);
+        out = writeString.param(mOutputType, "out");
+        value = writeString.param(String.class, "value");
+        JVar bytes = writeString.body().decl(mCodeModel.BYTE.array(), "bytes",
+                value.invoke("getBytes").arg(charsets.staticRef("UTF_8")));
+        writeString.body().invoke(writeVarInt).arg(out).arg(bytes.ref("length"));
+        writeString.body().invoke(out, "write").arg(bytes);
+
+        // readString(in)
+        JMethod readString = mSupport.method(mods, String.class, "readString");
+        readString._throws(IOException.class);
+        in = readString.param(mInputType, "in");
+        bytes = readString.body().decl(mCodeModel.BYTE.array(), "bytes",
+                JExpr.newArray(mCodeModel.BYTE, JExpr.invoke(readVarInt).arg(in)));
+        readString.body().invoke(in, "readFully").arg(bytes);
+        readString.body()._return(JExpr._new(mCodeModel.ref(String.class)).arg(bytes).arg(charsets.staticRef("UTF_8")));
+
+        // writeNulls(out, values), a bit for every value, eight to a byte
+        JMethod writeNulls = mSupport.method(mods, mCodeModel.VOID, "writeNulls");
+        writeNulls._throws(IOException.class);
+        out = writeNulls.param(mOutputType, "out");
+        JVar values = writeNulls.param(mCodeModel.ref(Collection.class).narrow(mCodeModel.wildcard()), "values");
+        body = writeNulls.body();
+        JVar bits = body.decl(intType, "bits", JExpr.lit(0));
+        JVar count = body.decl(intType, "count", JExpr.lit(0));
+        JForEach forEach = body.forEach(mCodeModel.ref(Object.class), "value", values);
+        forEach.body()._if(forEach.var().eq(JExpr._null()))._then()
+                .assign(bits, bits.bor(JExpr.lit(1).shl(count.band(JExpr.lit(7)))));
+        forEach.body().assign(count, count.plus(JExpr.lit(1)));
+        JBlock full = forEach.body()._if(count.band(JExpr.lit(7)).eq(JExpr.lit(0)))._then();
+        full.invoke(out, "writeByte").arg(bits);
+        full.assign(bits, JExpr.lit(0));
+        body._if(count.band(JExpr.lit(7)).ne(JExpr.lit(0)))._then().invoke(out, "writeByte").arg(bits);
+
+        // readNulls(in, size)
+        JMethod readNulls = mSupport.method(mods, mCodeModel.BYTE.array(), "readNulls");
+        readNulls._throws(IOException.class);
+        in = readNulls.param(mInputType, "in");
+        JVar size = readNulls.param(intType, "size");
+        JVar nulls = readNulls.body().decl(mCodeModel.BYTE.array(), "nulls",
+                JExpr.newArray(mCodeModel.BYTE, size.plus(JExpr.lit(7)).shrz(JExpr.lit(3))));
+        readNulls.body().invoke(in, "readFully").arg(nulls);
+        readNulls.body()._return(nulls);
+
+        // isNull(nulls, index)
+        JMethod isNull = mSupport.method(mods, mCodeModel.BOOLEAN, "isNull");
+        nulls = isNull.param(mCodeModel.BYTE.array(), "nulls");
+        JVar index = isNull.param(intType, "index");
+        JExpression nullByte = nulls.component(index.shrz(JExpr.lit(3)));
+        isNull.body()._return(nullByte.band(JExpr.lit(1).shl(index.band(JExpr.lit(7)))).ne(JExpr.lit(0)));
+
+        generateAnyMethods(writeVarInt, readVarInt, writeVarLong, readVarLong, writeString, readString);
+    }
+
+    /**
+     * Generates writeAny and readAny, which write the values of untyped fields with a tag for their kind: null,
+     * booleans, integers, other numbers as doubles, strings, lists, and maps with string keys. Anything else is
+     * written as its string.
+     */
+    private void generateAnyMethods(JMethod writeVarInt, JMethod readVarInt, JMethod writeVarLong,
+                                    JMethod readVarLong, JMethod writeString, JMethod readString) {
+        JClass objectType = mCodeModel.ref(Object.class);
+        int mods = JMod.PUBLIC | JMod.STATIC;
+
+        JMethod writeAny = mSupport.method(mods, mCodeModel.VOID, "writeAny");
+        writeAny._throws(IOException.class);
+        JVar out = writeAny.param(mOutputType, "out");
+        JVar value = writeAny.param(objectType, "value");
+        JConditional kind = writeAny.body()._if(value.eq(JExpr._null()));
+        kind._then().invoke(out, "writeByte").arg(JExpr.lit(TAG_NULL));
+
+        kind = kind._elseif(value._instanceof(mCodeModel.ref(Boolean.class)));
+        kind._then().invoke(out, "writeByte").arg(JOp.cond(JExpr.cast(mCodeModel.ref(Boolean.class), value),
+                JExpr.lit(TAG_TRUE), JExpr.lit(TAG_FALSE)));
+
+        kind = kind._elseif(value._instanceof(mCodeModel.ref(Long.class))
+                .cor(value._instanceof(mCodeModel.ref(Integer.class)))
+                .cor(value._instanceof(mCodeModel.ref(Short.class)))
+                .cor(value._instanceof(mCodeModel.ref(Byte.class))));
+        JExpression number = JExpr.cast(mCodeModel.ref(Number.class), value);
+        kind._then().invoke(out, "writeByte").arg(JExpr.lit(TAG_INTEGER));
+        kind._then().invoke(writeVarLong).arg(out).arg(number.invoke("longValue"));
+
+        kind = kind._elseif(value._instanceof(mCodeModel.ref(Number.class)));
+        kind._then().invoke(out, "writeByte").arg(JExpr.lit(TAG_DOUBLE));
+        kind._then().invoke(out, "writeDouble").arg(number.invoke("doubleValue"));
+
+        kind = kind._elseif(value._instanceof(mCodeModel.ref(List.class)));
+        JClass listType = mCodeModel.ref(List.class).narrow(mCodeModel.wildcard());
+        JVar list = kind._then().decl(listType, "list", JExpr.cast(listType, value));
+        kind._then().invoke(out, "writeByte").arg(JExpr.lit(TAG_LIST));
+        kind._then().invoke(writeVarInt).arg(out).arg(list.invoke("size"));
+        JForEach elements = kind._then().forEach(objectType, "element", list);
+        elements.body().invoke(writeAny).arg(out).arg(elements.var());
+
+        kind = kind._elseif(value._instanceof(mCodeModel.ref(Map.class)));
+        JClass mapType = mCodeModel.ref(Map.class).narrow(mCodeModel.wildcard(), mCodeModel.wildcard());
+        JVar map = kind._then().decl(mapType, "map", JExpr.cast(mapType, value));
+        kind._then().invoke(out, "writeByte").arg(JExpr.lit(TAG_MAP));
+        kind._then().invoke(writeVarInt).arg(out).arg(map.invoke("size"));
+        JClass entryType = mCodeModel.ref(Map.Entry.class).narrow(mCodeModel.wildcard(), mCodeModel.wildcard());
+        JForEach entries = kind._then().forEach(entryType, "entry", map.invoke("entrySet"));
+        entries.body().invoke(writeString).arg(out).arg(mCodeModel.ref(String.class).staticInvoke("valueOf")
+                .arg(entries.var().invoke("getKey")));
+        entries.body().invoke(writeAny).arg(out).arg(entries.var().invoke("getValue"));
+
+        kind._else().invoke(out, "writeByte").arg(JExpr.lit(TAG_STRING));
+        kind._else().invoke(writeString).arg(out).arg(value.invoke("toString"));
+
+        // readAny(in)
+        JMethod readAny = mSupport.method(mods, objectType, "readAny");
+        readAny._throws(IOException.class);
+        JVar in = readAny.param(mInputType, "in");
+        JBlock body = readAny.body();
+        JVar tag = body.decl(mCodeModel.INT, "tag", in.invoke("readUnsignedByte"));
+        JSwitch tagSwitch = body._switch(tag);
+        tagSwitch._case(JExpr.lit(TAG_NULL)).body()._return(JExpr._null());
+        tagSwitch._case(JExpr.lit(TAG_FALSE)).body()._return(mCodeModel.ref(Boolean.class).staticRef("FALSE"));
+        tagSwitch._case(JExpr.lit(TAG_TRUE)).body()._return(mCodeModel.ref(Boolean.class).staticRef("TRUE"));
+        tagSwitch._case(JExpr.lit(TAG_INTEGER)).body()._return(JExpr.invoke(readVarLong).arg(in));
+        tagSwitch._case(JExpr.lit(TAG_DOUBLE)).body()._return(in.invoke("readDouble"));
+        tagSwitch._case(JExpr.lit(TAG_STRING)).body()._return(JExpr.invoke(readString).arg(in));
+
+        JBlock listCase = tagSwitch._case(JExpr.lit(TAG_LIST)).body();
+        JVar size = listCase.decl(mCodeModel.INT, "size", JExpr.invoke(readVarInt).arg(in));
+        JClass objectList = mCodeModel.ref(List.class).narrow(objectType);
+        list = listCase.decl(objectList, "list", JExpr._new(mCodeModel.ref(ArrayList.class).narrow(objectType))
+                .arg(size));
+        JForLoop listLoop = listCase._for();
+        JVar i = listLoop.init(mCodeModel.INT, "i", JExpr.lit(0));
+        listLoop.test(i.lt(size));
+        listLoop.update(i.incr());
+        listLoop.body().invoke(list, "add").arg(JExpr.invoke(readAny).arg(in));
+        listCase._return(list);
+
+        JBlock mapCase = tagSwitch._case(JExpr.lit(TAG_MAP)).body();
+        size = mapCase.decl(mCodeModel.INT, "entryCount", JExpr.invoke(readVarInt).arg(in));
+        JClass objectMap = mCodeModel.ref(Map.class).narrow(mCodeModel.ref(String.class), objectType);
+        map = mapCase.decl(objectMap, "map", JExpr._new(mCodeModel.ref(LinkedHashMap.class)
+                .narrow(mCodeModel.ref(String.class), objectType)));
+        JForLoop mapLoop = mapCase._for();
+        i = mapLoop.init(mCodeModel.INT, "i", JExpr.lit(0));
+        mapLoop.test(i.lt(size));
+        mapLoop.update(i.incr());
+        JVar key = mapLoop.body().decl(mCodeModel.ref(String.class), "key", JExpr.invoke(readString).arg(in));
+        mapLoop.body().invoke(map, "put").arg(key).arg(JExpr.invoke(readAny).arg(in));
+        mapCase._return(map);
+
+        tagSwitch._default().body()._throw(JExpr._new(mCodeModel.ref(StreamCorruptedException.class))
+                .arg(JExpr.lit("Unknown value tag ").plus(tag)));
+    }
+
+    //endregion
+
+    //region HELPER METHODS --------------------------------------------------------------------------------------------
+
+    private JDefinedClass createFinalClass(String name) throws Exception {
+        JDefinedClass clazz = mPackage._class(JMod.PUBLIC | JMod.FINAL, name);
+        GeneratePojos.annotateClass(clazz);
+        return clazz;
+    }
+
+    private JDefinedClass getBuilderClass(JDefinedClass clazz) {
+        Iterator<JDefinedClass> nestedClasses = clazz.classes();
+        while (nestedClasses.hasNext()) {
+            JDefinedClass nestedClass = nestedClasses.next();
+            if (nestedClass.name().equals("Builder")) {
+                return nestedClass;
+            }
+        }
+        return null;
+    }
+
+    private boolean isEnum(JType type) {
+        return type instanceof JDefinedClass && ((JDefinedClass) type).getClassType() == ClassType.ENUM;
+    }
+
+    private boolean isClass(JType type, Class<?> clazz) {
+        return type instanceof JClass && ((JClass) type).erasure().equals(mCodeModel.ref(clazz));
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,727 @@
+package net.hexar.json2pojo;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sun.codemodel.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Generates struct-of-arrays containers for the classes which are the elements of lists, such as {@code ItemColumns}
+ * for a {@code List<Item>}.
+ * <p>
+ * Each field is stored in its own array with a slot per row. Numbers and booleans are stored in primitive arrays, with
+ * a bit set of the rows which have a value, strings in string arrays, and enums as their ordinal plus one, so that
+ * zero is null. Nested objects, lists, and maps are stored as references. Scanning one field across many rows then
+ * reads contiguous memory rather than following a reference per row. Rows are read through a reusable cursor, and are
+ * loaded in bulk from a JSON array with the GSON streaming reader, which writes each value directly into its column.
+ */
+class ColumnarGenerator {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final String SUPPORT_CLASS_NAME = "Columnar";
+    private static final int DEFAULT_CAPACITY = 16;
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final JPackage mPackage;
+    private final JCodeModel mCodeModel;
+    private final boolean mUsesBuilders;
+    private final JClass mReaderType;
+    private final JClass mTokenType;
+
+    // Readers for the nested classes, generated once they are referenced
+    private final Map<JDefinedClass, JMethod> mReaders = new HashMap<>();
+    private final Deque<JDefinedClass> mPendingReaders = new ArrayDeque<>();
+
+    private Map<JDefinedClass, List<GeneratePojos.GeneratedField>> mClasses;
+    private JDefinedClass mSupport;
+    private int mLocalCount;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param jPackage the package to generate the containers in.
+     * @param usesBuilders true if the generated classes are built with builders rather than setters.
+     */
+    ColumnarGenerator(JPackage jPackage, boolean usesBuilders) {
+        mPackage = jPackage;
+        mCodeModel = jPackage.owner();
+        mUsesBuilders = usesBuilders;
+        mReaderType = mCodeModel.ref(JsonReader.class);
+        mTokenType = mCodeModel.ref(JsonToken.class);
+    }
+
+    //endregion
+
+    //region CODE GENERATION -------------------------------------------------------------------------------------------
+
+    /**
+     * Generates a columnar container for each of the given classes which is the element type of a list, plus the
+     * shared support class with the JSON readers.
+     *
+     * @param classes the generated classes mapped to their generated fields.
+     * @throws Exception if an error occurs.
+     */
+    void generate(Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes) throws Exception {
+        mClasses = classes;
+
+        // Find the element types of lists, in the order they are first used
+        Set<JDefinedClass> elementClasses = new LinkedHashSet<>();
+        for (List<GeneratePojos.GeneratedField> fields : classes.values()) {
+            for (GeneratePojos.GeneratedField field : fields) {
+                JType type = field.Field.type();
+                if (isClass(type, List.class)) {
+                    JClass elementType = ((JClass) type).getTypeParameters().get(0);
+                    if (elementType instanceof JDefinedClass && classes.containsKey(elementType)) {
+                        elementClasses.add((JDefinedClass) elementType);
+                    }
+                }
+            }
+        }
+        if (elementClasses.isEmpty()) {
+            return;
+        }
+
+        generateSupportClass();
+        for (JDefinedClass clazz : elementClasses) {
+            generateColumns(clazz, classes.get(clazz));
+        }
+
+        // Nested objects are read into instances of their classes
+        while (!mPendingReaders.isEmpty()) {
+            JDefinedClass clazz = mPendingReaders.pop();
+            generateReader(clazz, mReaders.get(clazz));
+        }
+    }
+
+    /**
+     * Generates the columnar container for a class.
+     *
+     * @param clazz the class of the rows.
+     * @param fields the generated fields of the class.
+     * @throws Exception if an error occurs.
+     */
+    private void generateColumns(JDefinedClass clazz, List<GeneratePojos.GeneratedField> fields) throws Exception {
+        JDefinedClass columns = createFinalClass(clazz.name() + "Columns");
+        JType intType = mCodeModel.INT;
+        JFieldVar size = columns.field(JMod.PRIVATE, intType, "size");
+        JFieldVar capacity = columns.field(JMod.PRIVATE, intType, "capacity");
+        JFieldVar nullRows = columns.field(JMod.PRIVATE | JMod.FINAL, BitSet.class, "nullRows",
+                JExpr._new(mCodeModel.ref(BitSet.class)));
+
+        // A column for every field, named after its property
+        List<Column> columnList = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (GeneratePojos.GeneratedField field : fields) {
+            Column column = new Column(field, getKind(field.Field.type()));
+            String name = GeneratePojos.formatFieldName(field.PropertyName, false);
+            String uniqueName = name;
+            for (int i = 2; !names.add(uniqueName); i++) {
+                uniqueName = name + i;
+            }
+            column.Values = columns.field(JMod.PRIVATE, getArrayType(column), uniqueName + "Column");
+            if (column.Kind.IsPrimitive) {
+                column.Present = columns.field(JMod.PRIVATE | JMod.FINAL, BitSet.class, uniqueName + "Present",
+                        JExpr._new(mCodeModel.ref(BitSet.class)));
+            } else if (column.Kind == ColumnKind.ENUM) {
+                // Cache the constants, since values() copies the array on every call
+                JClass enumClass = (JClass) field.Field.type();
+                column.EnumValues = columns.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, enumClass.array(),
+                        GeneratePojos.formatEnumConstantName(uniqueName) + "_VALUES",
+                        enumClass.staticInvoke("values"));
+            }
+            columnList.add(column);
+        }
+
+        // Constructors, which allocate every column with the same capacity
+        columns.constructor(JMod.PUBLIC).body().invoke("this").arg(JExpr.lit(DEFAULT_CAPACITY));
+        JMethod constructor = columns.constructor(JMod.PUBLIC);
+        JVar initialCapacity = constructor.param(intType, "capacity");
+        for (Column column : columnList) {
+            constructor.body().assign(JExpr._this().ref(column.Values),
+                    JExpr.newArray(column.Values.type().elementType(), initialCapacity));
+        }
+        constructor.body().assign(JExpr._this().ref(capacity), initialCapacity);
+
+        // fromList(values)
+        JMethod fromList = columns.method(JMod.PUBLIC | JMod.STATIC, columns, "fromList");
+        JVar list = fromList.param(mCodeModel.ref(List.class).narrow(clazz), "values");
+        JVar result = fromList.body().decl(columns, "columns", JExpr._new(columns).arg(list.invoke("size")));
+        JForEach forEach = fromList.body().forEach(clazz, "value", list);
+        forEach.body().invoke(result, "add").arg(forEach.var());
+        fromList.body()._return(result);
+
+        // read(json), reading a JSON array of objects
+        JMethod read = columns.method(JMod.PUBLIC | JMod.STATIC, columns, "read");
+        read._throws(IOException.class);
+        JVar json = read.param(Reader.class, "json");
+        result = read.body().decl(columns, "columns", JExpr._new(columns));
+        read.body().invoke(result, "load").arg(JExpr._new(mReaderType).arg(json));
+        read.body()._return(result);
+
+        columns.method(JMod.PUBLIC, intType, "size").body()._return(size);
+
+        // ensureCapacity(minCapacity), growing every column at once
+        JMethod ensureCapacity = columns.method(JMod.PUBLIC, mCodeModel.VOID, "ensureCapacity");
+        JVar minCapacity = ensureCapacity.param(intType, "minCapacity");
+        JBlock grow = ensureCapacity.body()._if(minCapacity.gt(capacity))._then();
+        JVar newCapacity = grow.decl(intType, "newCapacity", mCodeModel.ref(Math.class).staticInvoke("max")
+                .arg(minCapacity).arg(capacity.mul(JExpr.lit(2))));
+        for (Column column : columnList) {
+            grow.assign(column.Values, mCodeModel.ref(Arrays.class).staticInvoke("copyOf").arg(column.Values)
+                    .arg(newCapacity));
+        }
+        grow.assign(capacity, newCapacity);
+
+        // clear(), which resets the used rows so that appended rows start out empty
+        JMethod clear = columns.method(JMod.PUBLIC, mCodeModel.VOID, "clear");
+        for (Column column : columnList) {
+            clear.body().add(mCodeModel.ref(Arrays.class).staticInvoke("fill").arg(column.Values).arg(JExpr.lit(0))
+                    .arg(size).arg(column.Kind.getEmptyValue(mCodeModel)));
+            if (column.Present != null) {
+                clear.body().invoke(column.Present, "clear");
+            }
+        }
+        clear.body().invoke(nullRows, "clear");
+        clear.body().assign(size, JExpr.lit(0));
+
+        // isNull(row), for the rows of null elements
+        JMethod isNull = columns.method(JMod.PUBLIC, mCodeModel.BOOLEAN, "isNull");
+        JVar nullRow = isNull.param(intType, "row");
+        isNull.body()._return(nullRows.invoke("get").arg(nullRow));
+
+        // Column accessors
+        for (Column column : columnList) {
+            generateColumnAccessors(columns, column);
+        }
+
+        generateAdd(clazz, columns, columnList, size, nullRows, ensureCapacity);
+        JMethod get = generateGet(clazz, columns, columnList, isNull);
+
+        // toList()
+        JMethod toList = columns.method(JMod.PUBLIC, mCodeModel.ref(List.class).narrow(clazz), "toList");
+        JVar values = toList.body().decl(mCodeModel.ref(List.class).narrow(clazz), "values",
+                JExpr._new(mCodeModel.ref(ArrayList.class).narrow(clazz)).arg(size));
+        JForLoop forLoop = toList.body()._for();
+        JVar row = forLoop.init(intType, "row", JExpr.lit(0));
+        forLoop.test(row.lt(size));
+        forLoop.update(row.incr());
+        forLoop.body().invoke(values, "add").arg(JExpr.invoke(get).arg(row));
+        toList.body()._return(values);
+
+        generateLoad(columns, columnList, size, nullRows, ensureCapacity);
+        generateCursor(clazz, columns, columnList, get, isNull);
+    }
+
+    /**
+     * Generates the accessors of a single column: whether a row has a value, the value of a row, and the backing
+     * array for columns of a non-generic type.
+     */
+    private void generateColumnAccessors(JDefinedClass columns, Column column) {
+        JType type = column.Field.Field.type();
+
+        JMethod has = columns.method(JMod.PUBLIC, mCodeModel.BOOLEAN, "has" + column.Name);
+        JVar row = has.param(mCodeModel.INT, "row");
+        JExpression value = column.Values.component(row);
+        if (column.Present != null) {
+            has.body()._return(column.Present.invoke("get").arg(row));
+        } else if (column.Kind == ColumnKind.ENUM) {
+            has.body()._return(value.ne(JExpr.lit(0)));
+        } else {
+            has.body()._return(value.ne(JExpr._null()));
+        }
+        column.HasMethod = has;
+
+        JType valueType = column.Kind.IsPrimitive ? type.unboxify() : type;
+        JMethod getter = columns.method(JMod.PUBLIC, valueType, "get" + column.Name);
+        row = getter.param(mCodeModel.INT, "row");
+        value = column.Values.component(row);
+        if (column.Kind == ColumnKind.ENUM) {
+            JVar ordinal = getter.body().decl(mCodeModel.INT, "ordinal", value);
+            getter.body()._return(JOp.cond(ordinal.eq(JExpr.lit(0)), JExpr._null(),
+                    column.EnumValues.component(ordinal.minus(JExpr.lit(1)))));
+        } else if (isGeneric(type)) {
+            getter.annotate(SuppressWarnings.class).param("value", "unchecked");
+            getter.body()._return(JExpr.cast(type, value));
+        } else {
+            getter.body()._return(value);
+        }
+        column.GetMethod = getter;
+
+        // The backing array, valid up to size()
+        if (!isGeneric(type)) {
+            columns.method(JMod.PUBLIC, column.Values.type(), "get" + column.Name + "Column").body()
+                    ._return(column.Values);
+        }
+    }
+
+    /**
+     * Generates add(value), which appends a row with the field values of an instance.
+     */
+    private void generateAdd(JDefinedClass clazz, JDefinedClass columns, List<Column> columnList, JFieldVar size,
+                             JFieldVar nullRows, JMethod ensureCapacity) {
+        JMethod add = columns.method(JMod.PUBLIC, mCodeModel.INT, "add");
+        JVar value = add.param(clazz, "value");
+        JBlock body = add.body();
+        JVar row = body.decl(mCodeModel.INT, "row", size);
+        body.invoke(ensureCapacity).arg(row.plus(JExpr.lit(1)));
+
+        // A null instance is a null row without values
+        JConditional isNull = body._if(value.eq(JExpr._null()));
+        isNull._then().invoke(nullRows, "set").arg(row);
+        JBlock then = isNull._else();
+        for (Column column : columnList) {
+            JVar fieldValue = then.decl(column.Field.Field.type(), column.LocalName,
+                    value.invoke("get" + column.Name));
+            if (column.Kind.IsPrimitive) {
+                // Primitive fields always have a value
+                JBlock hasValue = fieldValue.type().isPrimitive()
+                        ? then : then._if(fieldValue.ne(JExpr._null()))._then();
+                hasValue.assign(column.Values.component(row), fieldValue);
+                hasValue.invoke(column.Present, "set").arg(row);
+            } else if (column.Kind == ColumnKind.ENUM) {
+                then._if(fieldValue.ne(JExpr._null()))._then()
+                        .assign(column.Values.component(row), fieldValue.invoke("ordinal").plus(JExpr.lit(1)));
+            } else {
+                then.assign(column.Values.component(row), fieldValue);
+            }
+        }
+        body.assign(size, row.plus(JExpr.lit(1)));
+        body._return(row);
+    }
+
+    /**
+     * Generates get(row), which creates an instance with the field values of a row, or returns null for a null row.
+     *
+     * @return the generated method.
+     */
+    private JMethod generateGet(JDefinedClass clazz, JDefinedClass columns, List<Column> columnList,
+                                JMethod isNull) {
+        JMethod get = columns.method(JMod.PUBLIC, clazz, "get");
+        JVar row = get.param(mCodeModel.INT, "row");
+        JBlock body = get.body();
+        body._if(JExpr.invoke(isNull).arg(row))._then()._return(JExpr._null());
+        JDefinedClass builderClass = mUsesBuilders ? getBuilderClass(clazz) : null;
+        JVar target = builderClass != null
+                ? body.decl(builderClass, "builder", JExpr._new(builderClass))
+                : body.decl(clazz, "value", JExpr._new(clazz));
+        for (Column column : columnList) {
+            JExpression value = JExpr.invoke(column.GetMethod).arg(row);
+            if (column.Kind.IsPrimitive && !column.Field.Field.type().isPrimitive()) {
+                value = JOp.cond(JExpr.invoke(column.HasMethod).arg(row), value, JExpr._null());
+            }
+            body.invoke(target, (builderClass != null ? "with" : "set") + column.Name).arg(value);
+        }
+        body._return(builderClass != null ? target.invoke("build") : target);
+        return get;
+    }
+
+    /**
+     * Generates load(reader), which appends a row for each object of a JSON array, reading the values directly into
+     * the columns.
+     */
+    private void generateLoad(JDefinedClass columns, List<Column> columnList, JFieldVar size, JFieldVar nullRows,
+                              JMethod ensureCapacity) {
+        mLocalCount = 0;
+        JType intType = mCodeModel.INT;
+        JMethod load = columns.method(JMod.PUBLIC, intType, "load");
+        load._throws(IOException.class);
+        JVar reader = load.param(mReaderType, "reader");
+        JBlock body = load.body();
+        JVar count = body.decl(intType, "count", JExpr.lit(0));
+        body.invoke(reader, "beginArray");
+        JBlock rowLoop = body._while(reader.invoke("hasNext")).body();
+        JVar row = rowLoop.decl(intType, "row", size);
+        rowLoop.invoke(ensureCapacity).arg(row.plus(JExpr.lit(1)));
+
+        // A null element is a null row without values
+        JConditional isNull = rowLoop._if(mSupport.staticInvoke("skipNull").arg(reader));
+        isNull._then().invoke(nullRows, "set").arg(row);
+        JBlock isObject = isNull._else();
+        isObject.invoke(reader, "beginObject");
+        JBlock fieldLoop = isObject._while(reader.invoke("hasNext")).body();
+        JSwitch fieldSwitch = fieldLoop._switch(reader.invoke("nextName"));
+        for (Column column : columnList) {
+            JBlock caseBody = fieldSwitch._case(JExpr.lit(column.Field.PropertyName)).body();
+            if (column.Kind.IsPrimitive) {
+                JBlock hasValue = caseBody._if(JOp.not(mSupport.staticInvoke("skipNull").arg(reader)))._then();
+                hasValue.assign(column.Values.component(row), column.Kind.read(mCodeModel, reader));
+                hasValue.invoke(column.Present, "set").arg(row);
+            } else if (column.Kind == ColumnKind.ENUM) {
+                JClass enumClass = (JClass) column.Field.Field.type();
+                JBlock hasValue = caseBody._if(JOp.not(mSupport.staticInvoke("skipNull").arg(reader)))._then();
+                JVar constant = hasValue.decl(enumClass, column.LocalName,
+                        enumClass.staticInvoke("fromValue").arg(reader.invoke("nextString")));
+                hasValue._if(constant.ne(JExpr._null()))._then()
+                        .assign(column.Values.component(row), constant.invoke("ordinal").plus(JExpr.lit(1)));
+            } else {
+                caseBody.assign(column.Values.component(row), readValue(caseBody, column.Field.Field.type(), reader));
+            }
+            caseBody._break();
+        }
+        fieldSwitch._default().body().invoke(reader, "skipValue");
+        isObject.invoke(reader, "endObject");
+        rowLoop.assign(size, row.plus(JExpr.lit(1)));
+        rowLoop.assign(count, count.plus(JExpr.lit(1)));
+        body.invoke(reader, "endArray");
+        body._return(count);
+    }
+
+    /**
+     * Generates the cursor, a view of a single row which can be moved across the rows without creating instances.
+     */
+    private void generateCursor(JDefinedClass clazz, JDefinedClass columns, List<Column> columnList, JMethod get,
+                                JMethod isNull) throws Exception {
+        // Avoid hiding a generated class of the same name
+        String name = clazz.name().equals("Cursor") ? "RowCursor" : "Cursor";
+        JDefinedClass cursor = columns._class(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, name);
+        JFieldVar target = cursor.field(JMod.PRIVATE | JMod.FINAL, columns, "columns");
+        JFieldVar row = cursor.field(JMod.PRIVATE, mCodeModel.INT, "row", JExpr.lit(-1));
+        JMethod constructor = cursor.constructor(JMod.PRIVATE);
+        JVar columnsParam = constructor.param(columns, "columns");
+        constructor.body().assign(JExpr._this().ref(target), columnsParam);
+
+        // cursor(), positioned before the first row
+        columns.method(JMod.PUBLIC, cursor, "cursor").body()._return(JExpr._new(cursor).arg(JExpr._this()));
+
+        // next(), moving to the next row if there is one
+        JMethod next = cursor.method(JMod.PUBLIC, mCodeModel.BOOLEAN, "next");
+        next.body().assign(row, row.plus(JExpr.lit(1)));
+        next.body()._return(row.lt(target.invoke("size")));
+
+        JMethod moveTo = cursor.method(JMod.PUBLIC, cursor, "moveTo");
+        JVar rowParam = moveTo.param(mCodeModel.INT, "row");
+        moveTo.body().assign(JExpr._this().ref(row), rowParam);
+        moveTo.body()._return(JExpr._this());
+
+        cursor.method(JMod.PUBLIC, mCodeModel.INT, "position").body()._return(row);
+        cursor.method(JMod.PUBLIC, clazz, "toObject").body()._return(target.invoke(get).arg(row));
+        cursor.method(JMod.PUBLIC, mCodeModel.BOOLEAN, "isNull").body()._return(target.invoke(isNull).arg(row));
+
+        for (Column column : columnList) {
+            cursor.method(JMod.PUBLIC, mCodeModel.BOOLEAN, column.HasMethod.name()).body()
+                    ._return(target.invoke(column.HasMethod).arg(row));
+            cursor.method(JMod.PUBLIC, column.GetMethod.type(), column.GetMethod.name()).body()
+                    ._return(target.invoke(column.GetMethod).arg(row));
+        }
+    }
+
+    /**
+     * Generates the reader of a nested class, which reads a JSON object into a new instance.
+     *
+     * @param clazz the nested class.
+     * @param method the reader method to fill in.
+     */
+    private void generateReader(JDefinedClass clazz, JMethod method) {
+        mLocalCount = 0;
+        JVar reader = method.param(mReaderType, "reader");
+        JBlock body = method.body();
+        body._if(JExpr.invoke("skipNull").arg(reader))._then()._return(JExpr._null());
+
+        JDefinedClass builderClass = mUsesBuilders ? getBuilderClass(clazz) : null;
+        JVar target = builderClass != null
+                ? body.decl(builderClass, "builder", JExpr._new(builderClass))
+                : body.decl(clazz, "value", JExpr._new(clazz));
+        body.invoke(reader, "beginObject");
+        JSwitch fieldSwitch = body._while(reader.invoke("hasNext")).body()._switch(reader.invoke("nextName"));
+        for (GeneratePojos.GeneratedField field : mClasses.get(clazz)) {
+            JBlock caseBody = fieldSwitch._case(JExpr.lit(field.PropertyName)).body();
+            String setterName = (builderClass != null ? "with" : "set") +
+                    GeneratePojos.formatClassName(field.PropertyName);
+            if (field.Field.type().isPrimitive()) {
+                // Primitive fields keep their default for null values
+                caseBody._if(JOp.not(JExpr.invoke("skipNull").arg(reader)))._then().invoke(target, setterName)
+                        .arg(getKind(field.Field.type()).read(mCodeModel, reader));
+            } else {
+                JExpression value = readValue(caseBody, field.Field.type(), reader);
+                caseBody.invoke(target, setterName).arg(value);
+            }
+            caseBody._break();
+        }
+        fieldSwitch._default().body().invoke(reader, "skipValue");
+        body.invoke(reader, "endObject");
+        body._return(builderClass != null ? target.invoke("build") : target);
+    }
+
+    /**
+     * Creates the expression which reads a value of the given type, declaring any loops it needs in the block.
+     *
+     * @param block the block to declare local variables in.
+     * @param type the type of the value.
+     * @param reader the JSON reader, positioned before the value.
+     * @return the expression for the value, which is null for a JSON null.
+     */
+    private JExpression readValue(JBlock block, JType type, JVar reader) {
+        ColumnKind kind = getKind(type);
+        if (kind.ReaderMethod != null) {
+            return mSupport.staticInvoke(kind.ReaderMethod).arg(reader);
+        } else if (kind == ColumnKind.ENUM) {
+            return ((JClass) type).staticInvoke("fromValue").arg(mSupport.staticInvoke("nextString").arg(reader));
+        } else if (type instanceof JDefinedClass && mClasses.containsKey(type)) {
+            return mSupport.staticInvoke(getReader((JDefinedClass) type)).arg(reader);
+        } else if (isClass(type, List.class)) {
+            // Read each element of the array
+            JClass elementType = ((JClass) type).getTypeParameters().get(0);
+            JVar list = block.decl(type, "list" + mLocalCount++, JExpr._null());
+            JBlock then = block._if(JOp.not(mSupport.staticInvoke("skipNull").arg(reader)))._then();
+            then.assign(list, JExpr._new(mCodeModel.ref(ArrayList.class).narrow(elementType)));
+            then.invoke(reader, "beginArray");
+            JBlock loop = then._while(reader.invoke("hasNext")).body();
+            loop.invoke(list, "add").arg(readValue(loop, elementType, reader));
+            then.invoke(reader, "endArray");
+            return list;
+        } else if (isClass(type, Map.class)) {
+            // Read each member of the object, keeping the order of the keys
+            JClass valueType = ((JClass) type).getTypeParameters().get(1);
+            JVar map = block.decl(type, "map" + mLocalCount++, JExpr._null());
+            JBlock then = block._if(JOp.not(mSupport.staticInvoke("skipNull").arg(reader)))._then();
+            then.assign(map, JExpr._new(mCodeModel.ref(LinkedHashMap.class)
+                    .narrow(mCodeModel.ref(String.class), valueType)));
+            then.invoke(reader, "beginObject");
+            JBlock loop = then._while(reader.invoke("hasNext")).body();
+            JVar key = loop.decl(mCodeModel.ref(String.class), "key" + mLocalCount++, reader.invoke("nextName"));
+            loop.invoke(map, "put").arg(key).arg(readValue(loop, valueType, reader));
+            then.invoke(reader, "endObject");
+            return map;
+        }
+
+        // Anything else is read generically
+        return mSupport.staticInvoke("nextAny").arg(reader);
+    }
+
+    /**
+     * @return the reader method of a nested class, which is declared now and generated once all of the containers
+     * are.
+     */
+    private JMethod getReader(JDefinedClass clazz) {
+        JMethod reader = mReaders.get(clazz);
+        if (reader == null) {
+            reader = mSupport.method(JMod.PUBLIC | JMod.STATIC, clazz, "read" + clazz.name());
+            reader._throws(IOException.class);
+            mReaders.put(clazz, reader);
+            mPendingReaders.push(clazz);
+        }
+        return reader;
+    }
+
+    /**
+     * Generates the support class with the readers for nullable values shared by all containers.
+     *
+     * @throws Exception if an error occurs.
+     */
+    private void generateSupportClass() throws Exception {
+        mSupport = createFinalClass(SUPPORT_CLASS_NAME);
+        mSupport.constructor(JMod.PRIVATE);
+        int mods = JMod.PUBLIC | JMod.STATIC;
+
+        // skipNull(reader), which consumes a null value
+        JMethod skipNull = mSupport.method(mods, mCodeModel.BOOLEAN, "skipNull");
+        skipNull._throws(IOException.class);
+        JVar reader = skipNull.param(mReaderType, "reader");
+        JBlock isNull = skipNull.body()._if(reader.invoke("peek").eq(mTokenType.staticRef("NULL")))._then();
+        isNull.invoke(reader, "nextNull");
+        isNull._return(JExpr.TRUE);
+        skipNull.body()._return(JExpr.FALSE);
+
+        // Scalar readers, which return null for null values
+        for (ColumnKind kind : ColumnKind.values()) {
+            if (kind.ReaderMethod == null) {
+                continue;
+            }
+            JMethod method = mSupport.method(mods, mCodeModel.ref(kind.BoxedType), kind.ReaderMethod);
+            method._throws(IOException.class);
+            reader = method.param(mReaderType, "reader");
+            method.body()._return(JOp.cond(JExpr.invoke(skipNull).arg(reader), JExpr._null(),
+                    kind.read(mCodeModel, reader)));
+        }
+
+        // nextAny(reader), for values of unknown type, with numbers read as doubles as GSON does
+        JClass objectType = mCodeModel.ref(Object.class);
+        JMethod nextAny = mSupport.method(mods, objectType, "nextAny");
+        nextAny._throws(IOException.class);
+        reader = nextAny.param(mReaderType, "reader");
+        JBlock body = nextAny.body();
+        JVar token = body.decl(mTokenType, "token", reader.invoke("peek"));
+        JConditional isArray = body._if(token.eq(mTokenType.staticRef("BEGIN_ARRAY")));
+        JBlock then = isArray._then();
+        JClass listType = mCodeModel.ref(List.class).narrow(objectType);
+        JVar list = then.decl(listType, "list", JExpr._new(mCodeModel.ref(ArrayList.class).narrow(objectType)));
+        then.invoke(reader, "beginArray");
+        then._while(reader.invoke("hasNext")).body().invoke(list, "add").arg(JExpr.invoke(nextAny).arg(reader));
+        then.invoke(reader, "endArray");
+        then._return(list);
+        JConditional isObject = isArray._elseif(token.eq(mTokenType.staticRef("BEGIN_OBJECT")));
+        then = isObject._then();
+        JClass mapType = mCodeModel.ref(Map.class).narrow(mCodeModel.ref(String.class), objectType);
+        JVar map = then.decl(mapType, "map", JExpr._new(mCodeModel.ref(LinkedHashMap.class)
+                .narrow(mCodeModel.ref(String.class), objectType)));
+        then.invoke(reader, "beginObject");
+        JBlock memberLoop = then._while(reader.invoke("hasNext")).body();
+        JVar key = memberLoop.decl(mCodeModel.ref(String.class), "key", reader.invoke("nextName"));
+        memberLoop.invoke(map, "put").arg(key).arg(JExpr.invoke(nextAny).arg(reader));
+        then.invoke(reader, "endObject");
+        then._return(map);
+        JConditional isString = isObject._elseif(token.eq(mTokenType.staticRef("STRING")));
+        isString._then()._return(reader.invoke("nextString"));
+        JConditional isNumber = isString._elseif(token.eq(mTokenType.staticRef("NUMBER")));
+        isNumber._then()._return(reader.invoke("nextDouble"));
+        JConditional isBoolean = isNumber._elseif(token.eq(mTokenType.staticRef("BOOLEAN")));
+        isBoolean._then()._return(reader.invoke("nextBoolean"));
+        body.invoke(reader, "skipValue");
+        body._return(JExpr._null());
+    }
+
+    private ColumnKind getKind(JType type) {
+        // Primitive fields are stored like their boxed types
+        JType boxedType = type.boxify();
+        for (ColumnKind kind : ColumnKind.values()) {
+            if (kind.BoxedType != null && boxedType.equals(mCodeModel.ref(kind.BoxedType))) {
+                return kind;
+            }
+        }
+        if (type instanceof JDefinedClass && ((JDefinedClass) type).getClassType() == ClassType.ENUM) {
+            return ColumnKind.ENUM;
+        }
+        return ColumnKind.REFERENCE;
+    }
+
+    /**
+     * @return the array type of a column. Generic types are stored in object arrays, since generic arrays can't be
+     * created.
+     */
+    private JType getArrayType(Column column) {
+        JType type = column.Field.Field.type();
+        if (column.Kind.IsPrimitive) {
+            return type.unboxify().array();
+        } else if (column.Kind == ColumnKind.ENUM) {
+            return mCodeModel.INT.array();
+        }
+        return isGeneric(type) ? mCodeModel.ref(Object.class).array() : type.array();
+    }
+
+    private JDefinedClass getBuilderClass(JDefinedClass clazz) {
+        Iterator<JDefinedClass> nestedClasses = clazz.classes();
+        while (nestedClasses.hasNext()) {
+            JDefinedClass nestedClass = nestedClasses.next();
+            if (nestedClass.name().equals("Builder")) {
+                return nestedClass;
+            }
+        }
+        return null;
+    }
+
+    private boolean isClass(JType type, Class<?> clazz) {
+        return type instanceof JClass && ((JClass) type).erasure().equals(mCodeModel.ref(clazz));
+    }
+
+    private boolean isGeneric(JType type) {
+        return type instanceof JClass && !((JClass) type).getTypeParameters().isEmpty();
+    }
+
+    private JDefinedClass createFinalClass(String name) throws Exception {
+        JDefinedClass clazz = mPackage._class(JMod.PUBLIC | JMod.FINAL, name);
+        GeneratePojos.annotateClass(clazz);
+        return clazz;
+    }
+
+    //endregion
+
+    //region INNER CLASSES ---------------------------------------------------------------------------------------------
+
+    /**
+     * The kinds of columns, with the boxed type of their values, the support method reading a nullable value, and the
+     * method of the JSON reader it's read with.
+     */
+    private enum ColumnKind {
+        LONG(true, Long.class, "nextLong", "nextLong"),
+        INT(true, Integer.class, "nextInteger", "nextInt"),
+        SHORT(true, Short.class, "nextShort", "nextInt"),
+        BYTE(true, Byte.class, "nextByte", "nextInt"),
+        DOUBLE(true, Double.class, "nextDouble", "nextDouble"),
+        FLOAT(true, Float.class, "nextFloat", "nextDouble"),
+        BOOLEAN(true, Boolean.class, "nextBoolean", "nextBoolean"),
+        STRING(false, String.class, "nextString", "nextString"),
+        BIG_INTEGER(false, BigInteger.class, "nextBigInteger", "nextString"),
+        BIG_DECIMAL(false, BigDecimal.class, "nextBigDecimal", "nextString"),
+        ENUM(false, null, null, null),
+        REFERENCE(false, null, null, null);
+
+        final boolean IsPrimitive;
+        final Class<?> BoxedType;
+        final String ReaderMethod;
+        final String JsonMethod;
+
+        ColumnKind(boolean isPrimitive, Class<?> boxedType, String readerMethod, String jsonMethod) {
+            IsPrimitive = isPrimitive;
+            BoxedType = boxedType;
+            ReaderMethod = readerMethod;
+            JsonMethod = jsonMethod;
+        }
+
+        /**
+         * @return the expression reading a non-null value with the JSON reader. Narrow numbers are cast from the
+         * wider values the reader returns, as GSON does, and big numbers are parsed from their text.
+         */
+        JExpression read(JCodeModel codeModel, JVar reader) {
+            JExpression value = reader.invoke(JsonMethod);
+            switch (this) {
+                case SHORT:
+                case BYTE:
+                case FLOAT:
+                    return JExpr.cast(codeModel.ref(BoxedType).unboxify(), value);
+                case BIG_INTEGER:
+                case BIG_DECIMAL:
+                    return JExpr._new(codeModel.ref(BoxedType)).arg(value);
+                default:
+                    return value;
+            }
+        }
+
+        /**
+         * @return the value of an empty slot.
+         */
+        JExpression getEmptyValue(JCodeModel codeModel) {
+            if (this == BOOLEAN) {
+                return JExpr.FALSE;
+            } else if (IsPrimitive) {
+                return JExpr.cast(codeModel.ref(BoxedType).unboxify(), JExpr.lit(0));
+            }
+            return this == ENUM ? JExpr.lit(0) : JExpr._null();
+        }
+    }
+
+    /**
+     * A field of the rows, with the array it's stored in.
+     */
+    private static class Column {
+        final GeneratePojos.GeneratedField Field;
+        final ColumnKind Kind;
+        final String Name;
+        final String LocalName;
+        JFieldVar Values;
+        JFieldVar Present;
+        JFieldVar EnumValues;
+        JMethod HasMethod;
+        JMethod GetMethod;
+
+        Column(GeneratePojos.GeneratedField field, ColumnKind kind) {
+            Field = field;
+            Kind = kind;
+            Name = GeneratePojos.formatClassName(field.PropertyName);
+            LocalName = GeneratePojos.formatFieldName(field.PropertyName, false) + "Value";
+        }
+    }
+
+    //endregion
+
+}
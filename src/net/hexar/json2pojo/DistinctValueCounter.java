@@ -0,0 +1,97 @@
+package net.hexar.json2pojo;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Counts the distinct values observed for a String field. Values are tracked exactly up to a given limit, after which
+ * the counter only remembers that the limit was exceeded, so that memory stays bounded regardless of the sample size.
+ */
+class DistinctValueCounter {
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final int mExactLimit;
+    private Set<String> mValues = new LinkedHashSet<>();
+    private long mObservations;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param exactLimit the number of distinct values to track exactly before giving up on them.
+     */
+    DistinctValueCounter(int exactLimit) {
+        mExactLimit = exactLimit;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS --------------------------------------------------------------------------------------------
+
+    /**
+     * Records a single observed value.
+     *
+     * @param value the observed value.
+     */
+    void add(String value) {
+        mObservations++;
+
+        // Track exactly until we go past the limit, and drop the values then
+        if (mValues != null && mValues.add(value) && mValues.size() > mExactLimit) {
+            mValues = null;
+        }
+    }
+
+    /**
+     * Adds all of the values observed by another counter to this one, as if they had been observed here.
+     *
+     * @param other the counter to merge into this one.
+     */
+    void merge(DistinctValueCounter other) {
+        long observations = mObservations + other.mObservations;
+
+        if (other.isExact()) {
+            for (String value : other.mValues) {
+                add(value);
+            }
+        } else {
+            mValues = null;
+        }
+        mObservations = observations;
+    }
+
+    /**
+     * @return true if the distinct values are still being tracked exactly.
+     */
+    boolean isExact() {
+        return mValues != null;
+    }
+
+    /**
+     * @return the exact distinct values in the order they were first observed, or an empty set if the limit has
+     * been exceeded.
+     */
+    Set<String> getValues() {
+        return isExact() ? Collections.unmodifiableSet(mValues) : Collections.emptySet();
+    }
+
+    /**
+     * @return the total number of values observed, including duplicates.
+     */
+    long getObservations() {
+        return mObservations;
+    }
+
+    /**
+     * @return the number of distinct values while {@link #isExact()} is true, and one more than the limit otherwise.
+     */
+    long getCardinality() {
+        return isExact() ? mValues.size() : mExactLimit + 1;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,682 @@
+package net.hexar.json2pojo;
+
+import com.sun.codemodel.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Generates {@link ByteBuffer} backed flyweight accessors and encoders for the generated POJO classes.
+ * <p>
+ * Each record is laid out as a null bitmap, followed by a fixed-size slot for every field, followed by a
+ * variable-length section. Numbers, booleans, and enum ordinals are stored directly in their slot. Strings, nested
+ * records, and lists store an offset relative to the start of the record and a byte length or element count, with
+ * their content in the variable-length section. Since all offsets are relative, a nested record is itself a complete
+ * record and can be read by its own flyweight. Lists of numbers are followed by a null bitmap of their elements.
+ */
+class FlyweightGenerator {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger("FlyweightGenerator");
+    private static final String SUPPORT_CLASS_NAME = "Flyweights";
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final JPackage mPackage;
+    private final JCodeModel mCodeModel;
+    private final JClass mByteBuffer;
+    private final Map<JDefinedClass, JDefinedClass> mFlyweightMap = new HashMap<>();
+    private final Map<JDefinedClass, JDefinedClass> mEncoderMap = new HashMap<>();
+
+    // Shared support class
+    private JDefinedClass mSupport;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    FlyweightGenerator(JPackage jPackage) {
+        mPackage = jPackage;
+        mCodeModel = jPackage.owner();
+        mByteBuffer = mCodeModel.ref(ByteBuffer.class);
+    }
+
+    //endregion
+
+    //region CODE GENERATION -------------------------------------------------------------------------------------------
+
+    /**
+     * Generates a flyweight and an encoder for each of the given classes, plus the shared support class.
+     *
+     * @param classes the generated classes mapped to their generated fields.
+     * @throws Exception if an error occurs.
+     */
+    void generate(Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes) throws Exception {
+        generateSupportClass();
+
+        // Create all of the classes first, so that records can refer to the flyweights of nested records
+        for (JDefinedClass clazz : classes.keySet()) {
+            mFlyweightMap.put(clazz, createFinalClass(clazz.name() + "Flyweight"));
+            mEncoderMap.put(clazz, createFinalClass(clazz.name() + "Encoder"));
+        }
+
+        // Now lay out each record and fill in the classes
+        for (Map.Entry<JDefinedClass, List<GeneratePojos.GeneratedField>> entry : classes.entrySet()) {
+            Layout layout = createLayout(entry.getKey(), entry.getValue());
+            generateFlyweight(mFlyweightMap.get(entry.getKey()), layout);
+            generateEncoder(entry.getKey(), mEncoderMap.get(entry.getKey()), layout);
+        }
+    }
+
+    /**
+     * Assigns a null bit and a fixed offset to every field of a class which can be stored in a flyweight.
+     *
+     * @param clazz the class to lay out.
+     * @param fields the generated fields of the class.
+     * @return the layout of the class.
+     */
+    private Layout createLayout(JDefinedClass clazz, List<GeneratePojos.GeneratedField> fields) {
+        List<Slot> slots = new ArrayList<>();
+        for (GeneratePojos.GeneratedField field : fields) {
+            Slot slot = createSlot(field);
+            if (slot != null) {
+                slots.add(slot);
+            } else {
+                log.fine(String.format("Skipping flyweight field %s.%s of type %s", clazz.name(), field.PropertyName,
+                        field.Field.type().fullName()));
+            }
+        }
+
+        // The fixed section starts after the null bitmap
+        int bitmapLength = (slots.size() + 7) / 8;
+        int offset = bitmapLength;
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            slot.Index = i;
+            slot.Offset = offset;
+            offset += slot.Kind.Size;
+        }
+        return new Layout(slots, bitmapLength, offset);
+    }
+
+    /**
+     * Creates the slot for a generated field, based on its type.
+     *
+     * @param field the generated field.
+     * @return the slot, or null if the field type can't be stored in a flyweight.
+     */
+    private Slot createSlot(GeneratePojos.GeneratedField field) {
+        JType type = field.Field.type();
+        SlotKind kind = getScalarKind(type);
+        JType elementType = type;
+
+        // Lists of a single supported type
+        if (kind == null && type instanceof JClass && ((JClass) type).erasure().equals(mCodeModel.ref(List.class))) {
+            elementType = ((JClass) type).getTypeParameters().get(0);
+            SlotKind elementKind = getScalarKind(elementType);
+            if (elementKind == SlotKind.LONG) {
+                kind = SlotKind.LONG_LIST;
+            } else if (elementKind == SlotKind.DOUBLE) {
+                kind = SlotKind.DOUBLE_LIST;
+            } else if (elementKind == SlotKind.STRING) {
+                kind = SlotKind.STRING_LIST;
+            } else if (elementKind == SlotKind.RECORD) {
+                kind = SlotKind.RECORD_LIST;
+            }
+        }
+
+        return kind != null ? new Slot(field, kind, elementType) : null;
+    }
+
+    private SlotKind getScalarKind(JType type) {
+        // Narrowed numbers are widened into the same slots
+        JType unboxed = type.unboxify();
+        if (unboxed == mCodeModel.LONG || unboxed == mCodeModel.INT || unboxed == mCodeModel.SHORT ||
+                unboxed == mCodeModel.BYTE) {
+            return SlotKind.LONG;
+        } else if (unboxed == mCodeModel.DOUBLE || unboxed == mCodeModel.FLOAT) {
+            return SlotKind.DOUBLE;
+        } else if (type.equals(mCodeModel.ref(Boolean.class))) {
+            return SlotKind.BOOLEAN;
+        } else if (type.equals(mCodeModel.ref(String.class))) {
+            return SlotKind.STRING;
+        } else if (type instanceof JDefinedClass && ((JDefinedClass) type).getClassType() == ClassType.ENUM) {
+            return SlotKind.ENUM;
+        } else if (type instanceof JDefinedClass && mFlyweightMap.containsKey(type)) {
+            return SlotKind.RECORD;
+        }
+        return null;
+    }
+
+    /**
+     * Generates the flyweight accessor, which reads the fields of a record directly from a buffer.
+     *
+     * @param flyweight the flyweight class to fill in.
+     * @param layout the layout of the record.
+     */
+    private void generateFlyweight(JDefinedClass flyweight, Layout layout) {
+        JType intType = mCodeModel.INT;
+
+        // Layout constants
+        flyweight.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, intType, "BITMAP_LENGTH", JExpr.lit(layout.BitmapLength));
+        flyweight.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, intType, "FIXED_LENGTH", JExpr.lit(layout.FixedLength));
+        for (Slot slot : layout.Slots) {
+            slot.OffsetConstant = flyweight.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, intType,
+                    GeneratePojos.formatEnumConstantName(slot.Field.PropertyName) + "_OFFSET", JExpr.lit(slot.Offset));
+        }
+
+        // Position within the buffer
+        JFieldVar buffer = flyweight.field(JMod.PRIVATE, mByteBuffer, "buffer");
+        JFieldVar offset = flyweight.field(JMod.PRIVATE, intType, "offset");
+
+        JMethod wrap = flyweight.method(JMod.PUBLIC, flyweight, "wrap");
+        JVar bufferParam = wrap.param(mByteBuffer, "buffer");
+        JVar offsetParam = wrap.param(intType, "offset");
+        wrap.body().assign(JExpr._this().ref(buffer), bufferParam);
+        wrap.body().assign(JExpr._this().ref(offset), offsetParam);
+        wrap.body()._return(JExpr._this());
+
+        flyweight.method(JMod.PUBLIC, mByteBuffer, "buffer").body()._return(buffer);
+        flyweight.method(JMod.PUBLIC, intType, "offset").body()._return(offset);
+
+        // Field accessors
+        for (Slot slot : layout.Slots) {
+            String name = GeneratePojos.formatClassName(slot.Field.PropertyName);
+            JExpression slotOffset = offset.plus(slot.OffsetConstant);
+            JExpression contentOffset = offset.plus(buffer.invoke("getInt").arg(slotOffset));
+
+            JMethod has = flyweight.method(JMod.PUBLIC, mCodeModel.BOOLEAN, "has" + name);
+            has.body()._return(JOp.not(mSupport.staticInvoke("isNull").arg(buffer).arg(offset).arg(JExpr.lit(slot.Index))));
+            JExpression hasValue = JExpr.invoke(has);
+
+            switch (slot.Kind) {
+                case LONG:
+                    flyweight.method(JMod.PUBLIC, mCodeModel.LONG, "get" + name).body()
+                            ._return(buffer.invoke("getLong").arg(slotOffset));
+                    break;
+                case DOUBLE:
+                    flyweight.method(JMod.PUBLIC, mCodeModel.DOUBLE, "get" + name).body()
+                            ._return(buffer.invoke("getDouble").arg(slotOffset));
+                    break;
+                case BOOLEAN:
+                    flyweight.method(JMod.PUBLIC, mCodeModel.BOOLEAN, "get" + name).body()
+                            ._return(buffer.invoke("get").arg(slotOffset).ne(JExpr.lit(0)));
+                    break;
+                case ENUM: {
+                    // Cache the constants, since values() copies the array on every call
+                    JClass enumClass = (JClass) slot.ElementType;
+                    JFieldVar values = flyweight.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, enumClass.array(),
+                            GeneratePojos.formatEnumConstantName(slot.Field.PropertyName) + "_VALUES",
+                            enumClass.staticInvoke("values"));
+                    flyweight.method(JMod.PUBLIC, enumClass, "get" + name).body()._return(JOp.cond(hasValue,
+                            values.component(buffer.invoke("getInt").arg(slotOffset)), JExpr._null()));
+                    break;
+                }
+                case STRING:
+                    flyweight.method(JMod.PUBLIC, String.class, "get" + name).body()._return(JOp.cond(hasValue,
+                            mSupport.staticInvoke("getString").arg(buffer).arg(contentOffset)
+                                    .arg(buffer.invoke("getInt").arg(slotOffset.plus(JExpr.lit(4)))),
+                            JExpr._null()));
+                    break;
+                case RECORD: {
+                    JDefinedClass elementFlyweight = mFlyweightMap.get(slot.ElementType);
+                    JMethod getter = flyweight.method(JMod.PUBLIC, elementFlyweight, "get" + name);
+                    JVar reuse = getter.param(elementFlyweight, "reuse");
+                    getter.body()._return(JOp.cond(hasValue,
+                            reuse.invoke("wrap").arg(buffer).arg(contentOffset), JExpr._null()));
+                    break;
+                }
+                default:
+                    generateListAccessors(flyweight, slot, name, buffer, offset, hasValue);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Generates the count and element accessors for a list slot.
+     */
+    private void generateListAccessors(JDefinedClass flyweight, Slot slot, String name, JFieldVar buffer,
+                                       JFieldVar offset, JExpression hasValue) {
+        JExpression slotOffset = offset.plus(slot.OffsetConstant);
+
+        JMethod count = flyweight.method(JMod.PUBLIC, mCodeModel.INT, "get" + name + "Count");
+        count.body()._return(JOp.cond(hasValue, buffer.invoke("getInt").arg(slotOffset.plus(JExpr.lit(4))),
+                JExpr.lit(0)));
+
+        JMethod getter;
+        switch (slot.Kind) {
+            case LONG_LIST:
+            case DOUBLE_LIST: {
+                // Elements are packed 8 bytes apart
+                boolean isLong = slot.Kind == SlotKind.LONG_LIST;
+                getter = flyweight.method(JMod.PUBLIC, isLong ? mCodeModel.LONG : mCodeModel.DOUBLE, "get" + name);
+                JVar index = getter.param(mCodeModel.INT, "index");
+                JExpression listOffset = offset.plus(buffer.invoke("getInt").arg(slotOffset));
+                getter.body()._return(buffer.invoke(isLong ? "getLong" : "getDouble")
+                        .arg(listOffset.plus(index.shl(JExpr.lit(3)))));
+
+                // The null bitmap of the elements follows the last element
+                JMethod hasElement = flyweight.method(JMod.PUBLIC, mCodeModel.BOOLEAN, "has" + name);
+                index = hasElement.param(mCodeModel.INT, "index");
+                JExpression bitmapOffset = listOffset.plus(buffer.invoke("getInt")
+                        .arg(slotOffset.plus(JExpr.lit(4))).shl(JExpr.lit(3)));
+                hasElement.body()._return(JOp.not(mSupport.staticInvoke("isNull").arg(buffer).arg(bitmapOffset)
+                        .arg(index)));
+                break;
+            }
+            case STRING_LIST: {
+                getter = flyweight.method(JMod.PUBLIC, String.class, "get" + name);
+                JVar index = getter.param(mCodeModel.INT, "index");
+                getter.body()._return(mSupport.staticInvoke("getStringListElement").arg(buffer)
+                        .arg(offset.plus(buffer.invoke("getInt").arg(slotOffset))).arg(index));
+                break;
+            }
+            default: {
+                // Each element has an offset / length slot relative to the start of the list
+                JDefinedClass elementFlyweight = mFlyweightMap.get(slot.ElementType);
+                getter = flyweight.method(JMod.PUBLIC, elementFlyweight, "get" + name);
+                JVar index = getter.param(mCodeModel.INT, "index");
+                JVar reuse = getter.param(elementFlyweight, "reuse");
+                JBlock body = getter.body();
+                JVar listOffset = body.decl(mCodeModel.INT, "listOffset",
+                        offset.plus(buffer.invoke("getInt").arg(slotOffset)));
+                JVar elementOffset = body.decl(mCodeModel.INT, "elementOffset",
+                        buffer.invoke("getInt").arg(listOffset.plus(index.shl(JExpr.lit(3)))));
+                body._return(JOp.cond(elementOffset.lt(JExpr.lit(0)), JExpr._null(),
+                        reuse.invoke("wrap").arg(buffer).arg(listOffset.plus(elementOffset))));
+                break;
+            }
+        }
+    }
+
+    /**
+     * Generates the encoder, which writes a POJO instance into a buffer using the layout of its flyweight.
+     *
+     * @param clazz the POJO class to encode.
+     * @param encoder the encoder class to fill in.
+     * @param layout the layout of the record.
+     */
+    private void generateEncoder(JDefinedClass clazz, JDefinedClass encoder, Layout layout) {
+        JDefinedClass flyweight = mFlyweightMap.get(clazz);
+        JType intType = mCodeModel.INT;
+        encoder.constructor(JMod.PRIVATE);
+
+        // Compute the encoded length up front, so that callers can allocate the buffer
+        JMethod encodedLength = encoder.method(JMod.PUBLIC | JMod.STATIC, intType, "encodedLength");
+        JVar lengthValue = encodedLength.param(clazz, "value");
+        JBlock lengthBody = encodedLength.body();
+        JVar length = lengthBody.decl(intType, "length", flyweight.staticRef("FIXED_LENGTH"));
+        for (Slot slot : layout.Slots) {
+            if (!slot.Kind.IsVariable) {
+                continue;
+            }
+            JVar fieldValue = lengthBody.decl(slot.Field.Field.type(), slot.LocalName,
+                    lengthValue.invoke(slot.GetterName));
+            JBlock then = lengthBody._if(fieldValue.ne(JExpr._null()))._then();
+            switch (slot.Kind) {
+                case STRING:
+                    then.assignPlus(length, mSupport.staticInvoke("utf8Length").arg(fieldValue));
+                    break;
+                case RECORD:
+                    then.assignPlus(length, mEncoderMap.get(slot.ElementType).staticInvoke("encodedLength")
+                            .arg(fieldValue));
+                    break;
+                case STRING_LIST:
+                    then.assignPlus(length, mSupport.staticInvoke("stringListLength").arg(fieldValue));
+                    break;
+                case RECORD_LIST: {
+                    then.assignPlus(length, fieldValue.invoke("size").shl(JExpr.lit(3)));
+                    JForEach forEach = then.forEach(slot.ElementType, "element", fieldValue);
+                    forEach.body()._if(forEach.var().ne(JExpr._null()))._then().assignPlus(length,
+                            mEncoderMap.get(slot.ElementType).staticInvoke("encodedLength").arg(forEach.var()));
+                    break;
+                }
+                default:
+                    then.assignPlus(length, fieldValue.invoke("size").shl(JExpr.lit(3))
+                            .plus(fieldValue.invoke("size").plus(JExpr.lit(7)).shrz(JExpr.lit(3))));
+                    break;
+            }
+        }
+        lengthBody._return(length);
+
+        // Encode the record, returning the number of bytes written
+        JMethod encode = encoder.method(JMod.PUBLIC | JMod.STATIC, intType, "encode");
+        JVar value = encode.param(clazz, "value");
+        JVar buffer = encode.param(mByteBuffer, "buffer");
+        JVar offset = encode.param(intType, "offset");
+        JBlock body = encode.body();
+        body.add(mSupport.staticInvoke("clear").arg(buffer).arg(offset).arg(flyweight.staticRef("BITMAP_LENGTH")));
+        JVar cursor = body.decl(intType, "cursor", flyweight.staticRef("FIXED_LENGTH"));
+
+        for (Slot slot : layout.Slots) {
+            JExpression slotOffset = offset.plus(flyweight.staticRef(slot.OffsetConstant));
+            JVar fieldValue = body.decl(slot.Field.Field.type(), slot.LocalName, value.invoke(slot.GetterName));
+            JBlock then = body;
+            if (!fieldValue.type().isPrimitive()) {
+                JConditional isNull = body._if(fieldValue.eq(JExpr._null()));
+                isNull._then().add(mSupport.staticInvoke("setNull").arg(buffer).arg(offset)
+                        .arg(JExpr.lit(slot.Index)));
+                then = isNull._else();
+            }
+
+            switch (slot.Kind) {
+                case LONG:
+                    then.invoke(buffer, "putLong").arg(slotOffset).arg(fieldValue);
+                    break;
+                case DOUBLE:
+                    then.invoke(buffer, "putDouble").arg(slotOffset).arg(fieldValue);
+                    break;
+                case BOOLEAN:
+                    then.invoke(buffer, "put").arg(slotOffset)
+                            .arg(JExpr.cast(mCodeModel.BYTE, JOp.cond(fieldValue, JExpr.lit(1), JExpr.lit(0))));
+                    break;
+                case ENUM:
+                    then.invoke(buffer, "putInt").arg(slotOffset).arg(fieldValue.invoke("ordinal"));
+                    break;
+                case STRING:
+                case RECORD: {
+                    JInvocation write = slot.Kind == SlotKind.STRING
+                            ? mSupport.staticInvoke("putString").arg(buffer).arg(offset.plus(cursor)).arg(fieldValue)
+                            : mEncoderMap.get(slot.ElementType).staticInvoke("encode")
+                                    .arg(fieldValue).arg(buffer).arg(offset.plus(cursor));
+                    JVar written = then.decl(intType, "written", write);
+                    then.invoke(buffer, "putInt").arg(slotOffset).arg(cursor);
+                    then.invoke(buffer, "putInt").arg(slotOffset.plus(JExpr.lit(4))).arg(written);
+                    then.assignPlus(cursor, written);
+                    break;
+                }
+                case LONG_LIST:
+                case DOUBLE_LIST:
+                    generateNumberListEncoding(then, slot, slotOffset, fieldValue, buffer, offset, cursor);
+                    break;
+                case STRING_LIST:
+                    then.invoke(buffer, "putInt").arg(slotOffset).arg(cursor);
+                    then.invoke(buffer, "putInt").arg(slotOffset.plus(JExpr.lit(4))).arg(fieldValue.invoke("size"));
+                    then.assignPlus(cursor, mSupport.staticInvoke("putStringList").arg(buffer)
+                            .arg(offset.plus(cursor)).arg(fieldValue));
+                    break;
+                case RECORD_LIST:
+                    generateRecordListEncoding(then, slot, slotOffset, fieldValue, buffer, offset, cursor);
+                    break;
+            }
+        }
+        body._return(cursor);
+    }
+
+    /**
+     * Generates the encoding of a list of numbers: the elements packed 8 bytes apart, followed by their null bitmap.
+     */
+    private void generateNumberListEncoding(JBlock block, Slot slot, JExpression slotOffset, JVar list, JVar buffer,
+                                            JVar offset, JVar cursor) {
+        JType intType = mCodeModel.INT;
+        boolean isLong = slot.Kind == SlotKind.LONG_LIST;
+        block.invoke(buffer, "putInt").arg(slotOffset).arg(cursor);
+        block.invoke(buffer, "putInt").arg(slotOffset.plus(JExpr.lit(4))).arg(list.invoke("size"));
+        JVar listOffset = block.decl(intType, "listOffset", cursor);
+        block.assignPlus(cursor, list.invoke("size").shl(JExpr.lit(3)));
+        JVar bitmapLength = block.decl(intType, "bitmapLength", list.invoke("size").plus(JExpr.lit(7))
+                .shrz(JExpr.lit(3)));
+        block.add(mSupport.staticInvoke("clear").arg(buffer).arg(offset.plus(cursor)).arg(bitmapLength));
+
+        JForLoop forLoop = block._for();
+        JVar index = forLoop.init(intType, "i", JExpr.lit(0));
+        forLoop.test(index.lt(list.invoke("size")));
+        forLoop.update(index.incr());
+        JBlock loopBody = forLoop.body();
+        JVar element = loopBody.decl(slot.ElementType, "element", list.invoke("get").arg(index));
+        JExpression elementOffset = offset.plus(listOffset).plus(index.shl(JExpr.lit(3)));
+
+        // Null elements are stored as zero, so that the encoding doesn't depend on the previous buffer content
+        JConditional isNull = loopBody._if(element.eq(JExpr._null()));
+        isNull._then().invoke(buffer, isLong ? "putLong" : "putDouble").arg(elementOffset)
+                .arg(isLong ? JExpr.lit(0L) : JExpr.lit(0.0));
+        isNull._then().add(mSupport.staticInvoke("setNull").arg(buffer).arg(offset.plus(cursor)).arg(index));
+        isNull._else().invoke(buffer, isLong ? "putLong" : "putDouble").arg(elementOffset).arg(element);
+        block.assignPlus(cursor, bitmapLength);
+    }
+
+    /**
+     * Generates the encoding of a list of records: an offset / length slot per element, followed by the elements.
+     */
+    private void generateRecordListEncoding(JBlock block, Slot slot, JExpression slotOffset, JVar list, JVar buffer,
+                                            JVar offset, JVar cursor) {
+        JType intType = mCodeModel.INT;
+        block.invoke(buffer, "putInt").arg(slotOffset).arg(cursor);
+        block.invoke(buffer, "putInt").arg(slotOffset.plus(JExpr.lit(4))).arg(list.invoke("size"));
+        JVar listOffset = block.decl(intType, "listOffset", cursor);
+        block.assignPlus(cursor, list.invoke("size").shl(JExpr.lit(3)));
+
+        JForLoop forLoop = block._for();
+        JVar index = forLoop.init(intType, "i", JExpr.lit(0));
+        forLoop.test(index.lt(list.invoke("size")));
+        forLoop.update(index.incr());
+        JBlock loopBody = forLoop.body();
+        JVar element = loopBody.decl(slot.ElementType, "element", list.invoke("get").arg(index));
+        JVar elementSlot = loopBody.decl(intType, "elementSlot",
+                offset.plus(listOffset).plus(index.shl(JExpr.lit(3))));
+
+        // Null elements have a negative offset
+        JConditional isNull = loopBody._if(element.eq(JExpr._null()));
+        isNull._then().invoke(buffer, "putInt").arg(elementSlot).arg(JExpr.lit(-1));
+        isNull._then().invoke(buffer, "putInt").arg(elementSlot.plus(JExpr.lit(4))).arg(JExpr.lit(0));
+        JBlock then = isNull._else();
+        JVar written = then.decl(intType, "written", mEncoderMap.get(slot.ElementType).staticInvoke("encode")
+                .arg(element).arg(buffer).arg(offset.plus(cursor)));
+        then.invoke(buffer, "putInt").arg(elementSlot).arg(cursor.minus(listOffset));
+        then.invoke(buffer, "putInt").arg(elementSlot.plus(JExpr.lit(4))).arg(written);
+        then.assignPlus(cursor, written);
+    }
+
+    /**
+     * Generates the support class holding the null bitmap and string helpers shared by all flyweights and encoders.
+     *
+     * @throws Exception if an error occurs.
+     */
+    private void generateSupportClass() throws Exception {
+        mSupport = createFinalClass(SUPPORT_CLASS_NAME);
+        mSupport.constructor(JMod.PRIVATE);
+        JType intType = mCodeModel.INT;
+        JClass charsets = mCodeModel.ref(StandardCharsets.class);
+        int mods = JMod.PUBLIC | JMod.STATIC;
+
+        // isNull(buffer, offset, index)
+        JMethod isNull = mSupport.method(mods, mCodeModel.BOOLEAN, "isNull");
+        JVar buffer = isNull.param(mByteBuffer, "buffer");
+        JVar offset = isNull.param(intType, "offset");
+        JVar index = isNull.param(intType, "index");
+        isNull.body()._return(buffer.invoke("get").arg(offset.plus(index.shrz(JExpr.lit(3))))
+                .band(JExpr.lit(1).shl(index.band(JExpr.lit(7)))).ne(JExpr.lit(0)));
+
+        // setNull(buffer, offset, index)
+        JMethod setNull = mSupport.method(mods, mCodeModel.VOID, "setNull");
+        buffer = setNull.param(mByteBuffer, "buffer");
+        offset = setNull.param(intType, "offset");
+        index = setNull.param(intType, "index");
+        JVar position = setNull.body().decl(intType, "position", offset.plus(index.shrz(JExpr.lit(3))));
+        setNull.body().invoke(buffer, "put").arg(position).arg(JExpr.cast(mCodeModel.BYTE,
+                buffer.invoke("get").arg(position).bor(JExpr.lit(1).shl(index.band(JExpr.lit(7))))));
+
+        // clear(buffer, offset, length)
+        JMethod clear = mSupport.method(mods, mCodeModel.VOID, "clear");
+        buffer = clear.param(mByteBuffer, "buffer");
+        offset = clear.param(intType, "offset");
+        JVar length = clear.param(intType, "length");
+        JForLoop clearLoop = clear.body()._for();
+        JVar i = clearLoop.init(intType, "i", JExpr.lit(0));
+        clearLoop.test(i.lt(length));
+        clearLoop.update(i.incr());
+        clearLoop.body().invoke(buffer, "put").arg(offset.plus(i)).arg(JExpr.cast(mCodeModel.BYTE, JExpr.lit(0)));
+
+        // utf8Length(value), counted without encoding the string
+        JMethod utf8Length = mSupport.method(mods, intType, "utf8Length");
+        JVar value = utf8Length.param(String.class, "value");
+        length = utf8Length.body().decl(intType, "length", JExpr.lit(0));
+        JForLoop lengthLoop = utf8Length.body()._for();
+        i = lengthLoop.init(intType, "i", JExpr.lit(0));
+        lengthLoop.test(i.lt(value.invoke("length")));
+        lengthLoop.update(i.incr());
+        JVar c = lengthLoop.body().decl(mCodeModel.CHAR, "c", value.invoke("charAt").arg(i));
+        JConditional oneByte = lengthLoop.body()._if(c.lt(JExpr.lit(0x80)));
+        oneByte._then().assignPlus(length, JExpr.lit(1));
+        JConditional twoBytes = oneByte._elseif(c.lt(JExpr.lit(0x800)));
+        twoBytes._then().assignPlus(length, JExpr.lit(2));
+        JConditional surrogate = twoBytes._elseif(mCodeModel.ref(Character.class).staticInvoke("isHighSurrogate").arg(c));
+        surrogate._then().assignPlus(length, JExpr.lit(4));
+        surrogate._then().assign(i, i.plus(JExpr.lit(1)));
+        surrogate._else().assignPlus(length, JExpr.lit(3));
+        utf8Length.body()._return(length);
+
+        // putString(buffer, offset, value)
+        JMethod putString = mSupport.method(mods, intType, "putString");
+        buffer = putString.param(mByteBuffer, "buffer");
+        offset = putString.param(intType, "offset");
+        value = putString.param(String.class, "value");
+        JVar bytes = putString.body().decl(mCodeModel.BYTE.array(), "bytes",
+                value.invoke("getBytes").arg(charsets.staticRef("UTF_8")));
+        JForLoop putLoop = putString.body()._for();
+        i = putLoop.init(intType, "i", JExpr.lit(0));
+        putLoop.test(i.lt(bytes.ref("length")));
+        putLoop.update(i.incr());
+        putLoop.body().invoke(buffer, "put").arg(offset.plus(i)).arg(bytes.component(i));
+        putString.body()._return(bytes.ref("length"));
+
+        // getString(buffer, offset, length), reading heap buffers without copying
+        JMethod getString = mSupport.method(mods, String.class, "getString");
+        buffer = getString.param(mByteBuffer, "buffer");
+        offset = getString.param(intType, "offset");
+        length = getString.param(intType, "length");
+        getString.body()._if(buffer.invoke("hasArray"))._then()._return(JExpr._new(mCodeModel.ref(String.class))
+                .arg(buffer.invoke("array")).arg(buffer.invoke("arrayOffset").plus(offset)).arg(length)
+                .arg(charsets.staticRef("UTF_8")));
+        bytes = getString.body().decl(mCodeModel.BYTE.array(), "bytes", JExpr.newArray(mCodeModel.BYTE, length));
+        JForLoop getLoop = getString.body()._for();
+        i = getLoop.init(intType, "i", JExpr.lit(0));
+        getLoop.test(i.lt(length));
+        getLoop.update(i.incr());
+        getLoop.body().assign(bytes.component(i), buffer.invoke("get").arg(offset.plus(i)));
+        getString.body()._return(JExpr._new(mCodeModel.ref(String.class)).arg(bytes).arg(charsets.staticRef("UTF_8")));
+
+        // stringListLength(values)
+        JClass stringList = mCodeModel.ref(List.class).narrow(String.class);
+        JMethod stringListLength = mSupport.method(mods, intType, "stringListLength");
+        JVar values = stringListLength.param(stringList, "values");
+        length = stringListLength.body().decl(intType, "length", values.invoke("size").shl(JExpr.lit(3)));
+        JForEach lengthEach = stringListLength.body().forEach(mCodeModel.ref(String.class), "value", values);
+        lengthEach.body()._if(lengthEach.var().ne(JExpr._null()))._then()
+                .assignPlus(length, JExpr.invoke(utf8Length).arg(lengthEach.var()));
+        stringListLength.body()._return(length);
+
+        // putStringList(buffer, offset, values): an offset / length slot per element, followed by the bytes
+        JMethod putStringList = mSupport.method(mods, intType, "putStringList");
+        buffer = putStringList.param(mByteBuffer, "buffer");
+        offset = putStringList.param(intType, "offset");
+        values = putStringList.param(stringList, "values");
+        JVar cursor = putStringList.body().decl(intType, "cursor", values.invoke("size").shl(JExpr.lit(3)));
+        JForLoop listLoop = putStringList.body()._for();
+        i = listLoop.init(intType, "i", JExpr.lit(0));
+        listLoop.test(i.lt(values.invoke("size")));
+        listLoop.update(i.incr());
+        JVar element = listLoop.body().decl(mCodeModel.ref(String.class), "element", values.invoke("get").arg(i));
+        JVar slot = listLoop.body().decl(intType, "slot", offset.plus(i.shl(JExpr.lit(3))));
+        JConditional elementNull = listLoop.body()._if(element.eq(JExpr._null()));
+        elementNull._then().invoke(buffer, "putInt").arg(slot).arg(JExpr.lit(-1));
+        elementNull._then().invoke(buffer, "putInt").arg(slot.plus(JExpr.lit(4))).arg(JExpr.lit(0));
+        JVar written = elementNull._else().decl(intType, "written",
+                JExpr.invoke(putString).arg(buffer).arg(offset.plus(cursor)).arg(element));
+        elementNull._else().invoke(buffer, "putInt").arg(slot).arg(cursor);
+        elementNull._else().invoke(buffer, "putInt").arg(slot.plus(JExpr.lit(4))).arg(written);
+        elementNull._else().assignPlus(cursor, written);
+        putStringList.body()._return(cursor);
+
+        // getStringListElement(buffer, offset, index)
+        JMethod getElement = mSupport.method(mods, String.class, "getStringListElement");
+        buffer = getElement.param(mByteBuffer, "buffer");
+        offset = getElement.param(intType, "offset");
+        index = getElement.param(intType, "index");
+        slot = getElement.body().decl(intType, "slot", offset.plus(index.shl(JExpr.lit(3))));
+        JVar elementOffset = getElement.body().decl(intType, "elementOffset", buffer.invoke("getInt").arg(slot));
+        getElement.body()._return(JOp.cond(elementOffset.lt(JExpr.lit(0)), JExpr._null(),
+                JExpr.invoke(getString).arg(buffer).arg(offset.plus(elementOffset))
+                        .arg(buffer.invoke("getInt").arg(slot.plus(JExpr.lit(4))))));
+    }
+
+    private JDefinedClass createFinalClass(String name) throws Exception {
+        JDefinedClass clazz = mPackage._class(JMod.PUBLIC | JMod.FINAL, name);
+        GeneratePojos.annotateClass(clazz);
+        return clazz;
+    }
+
+    //endregion
+
+    //region INNER CLASSES ---------------------------------------------------------------------------------------------
+
+    /**
+     * The kinds of fixed-size slots, with their size in bytes.
+     */
+    private enum SlotKind {
+        LONG(8, false),
+        DOUBLE(8, false),
+        BOOLEAN(1, false),
+        ENUM(4, false),
+        STRING(8, true),
+        RECORD(8, true),
+        LONG_LIST(8, true),
+        DOUBLE_LIST(8, true),
+        STRING_LIST(8, true),
+        RECORD_LIST(8, true);
+
+        final int Size;
+        final boolean IsVariable;
+
+        SlotKind(int size, boolean isVariable) {
+            Size = size;
+            IsVariable = isVariable;
+        }
+    }
+
+    /**
+     * A field of a record, with its position in the null bitmap and the fixed section.
+     */
+    private static class Slot {
+        final GeneratePojos.GeneratedField Field;
+        final SlotKind Kind;
+        final JType ElementType;
+        final String GetterName;
+        final String LocalName;
+        int Index;
+        int Offset;
+        JFieldVar OffsetConstant;
+
+        Slot(GeneratePojos.GeneratedField field, SlotKind kind, JType elementType) {
+            Field = field;
+            Kind = kind;
+            ElementType = elementType;
+            GetterName = "get" + GeneratePojos.formatClassName(field.PropertyName);
+            LocalName = GeneratePojos.formatFieldName(field.PropertyName, false) + "Value";
+        }
+    }
+
+    /**
+     * The binary layout of a record.
+     */
+    private static class Layout {
+        final List<Slot> Slots;
+        final int BitmapLength;
+        final int FixedLength;
+
+        Layout(List<Slot> slots, int bitmapLength, int fixedLength) {
+            Slots = slots;
+            BitmapLength = bitmapLength;
+            FixedLength = fixedLength;
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,441 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.codemodel.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Estimates the heap footprint of the generated classes, by walking the sample with the types of the generated fields
+ * as if it had been read by GSON. Sizes assume a 64-bit JVM with compressed references: a 12 byte object header,
+ * 4 byte references, and objects padded to 8 bytes. The objects GSON creates are counted as it creates them, so lists
+ * are ArrayLists grown from their default capacity, maps are LinkedTreeMaps, and small integers and booleans are the
+ * shared cached instances.
+ * <p>
+ * The bytes are attributed to the class whose fields hold them, including the lists and maps in those fields, so that
+ * the footprints of all classes add up to the size of the whole sample. The retained size of an instance also includes
+ * the instances of other classes it refers to.
+ */
+class FootprintEstimator {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final int OBJECT_HEADER_BYTES = 12;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int ALIGNMENT = 8;
+
+    private static final int BOXED_BYTES = 16;
+    private static final int STRING_BYTES = 24;
+    private static final int BIG_INTEGER_BYTES = 40;
+    private static final int BIG_DECIMAL_BYTES = 40;
+    private static final int ARRAY_LIST_BYTES = 24;
+    private static final int ARRAY_LIST_DEFAULT_CAPACITY = 10;
+    private static final int TREE_MAP_BYTES = 40;
+    private static final int TREE_MAP_NODE_BYTES = 48;
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final JCodeModel mCodeModel;
+    private final Map<JDefinedClass, List<GeneratePojos.GeneratedField>> mClasses;
+    private final Map<JDefinedClass, ClassFootprint> mFootprints = new LinkedHashMap<>();
+    private final ClassFootprint mOutsideFootprint = new ClassFootprint(0);
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param codeModel the code model of the generated classes.
+     * @param classes the generated classes mapped to their generated fields.
+     */
+    FootprintEstimator(JCodeModel codeModel, Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes) {
+        mCodeModel = codeModel;
+        mClasses = classes;
+        for (JDefinedClass clazz : classes.keySet()) {
+            mFootprints.put(clazz, new ClassFootprint(getShallowSize(clazz)));
+        }
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS --------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the objects created when reading a value of the sample as a given type. The value is walked with a stack
+     * rather than recursively, since samples may be nested deeper than the call stack allows.
+     *
+     * @param type the type the value is read as, such as the root class, or a list of it for a root array.
+     * @param value the value in the sample.
+     * @return the estimated number of bytes retained by the value.
+     */
+    long add(JType type, JsonNode value) {
+        Frame sample = new Frame(null, mOutsideFootprint);
+        Deque<Frame> stack = new ArrayDeque<>();
+        visit(type, value, sample, stack);
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.Fields != null && frame.Fields.hasNext()) {
+                GeneratePojos.GeneratedField field = frame.Fields.next();
+                visit(field.Field.type(), frame.Node.get(field.PropertyName), frame, stack);
+            } else if (frame.Elements != null && frame.Elements.hasNext()) {
+                visit(frame.ElementType, frame.Elements.next(), frame, stack);
+            } else {
+                // All of the values below this one are counted, so its retained size is complete
+                stack.pop();
+                if (frame.Instance != null) {
+                    frame.Instance.RetainedBytes += frame.RetainedBytes;
+                }
+                frame.Parent.RetainedBytes += frame.RetainedBytes;
+            }
+        }
+        return sample.RetainedBytes;
+    }
+
+    /**
+     * @param clazz a generated class.
+     * @return the footprint of the instances of the class added so far.
+     */
+    ClassFootprint getFootprint(JDefinedClass clazz) {
+        return mFootprints.get(clazz);
+    }
+
+    /**
+     * @return the bytes added so far which aren't held by the fields of any class, such as the list of the records of
+     * a root array.
+     */
+    long getOutsideBytes() {
+        return mOutsideFootprint.getFootprintBytes();
+    }
+
+    /**
+     * Creates a report of the footprints of the classes, ranked from the largest footprint in the sample.
+     *
+     * @param rootName the name of the root class.
+     * @return the text of the report.
+     */
+    String createReport(String rootName) {
+        List<Map.Entry<JDefinedClass, ClassFootprint>> ranked = new ArrayList<>(mFootprints.entrySet());
+        ranked.sort((a, b) -> Long.compare(b.getValue().getFootprintBytes(), a.getValue().getFootprintBytes()));
+
+        long totalBytes = getOutsideBytes();
+        int nameWidth = "Class".length();
+        for (Map.Entry<JDefinedClass, ClassFootprint> entry : ranked) {
+            totalBytes += entry.getValue().getFootprintBytes();
+            nameWidth = Math.max(nameWidth, entry.getKey().name().length());
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("Estimated heap footprint of the classes generated for ").append(rootName).append('\n')
+                .append("Sizes are in bytes, for a 64-bit JVM with compressed references, when the sample is read ")
+                .append("by GSON.\n")
+                .append("Shallow is the size of an instance itself, and Retained adds the strings, boxed numbers, ")
+                .append("collections and\n")
+                .append("other instances it refers to. Footprint is the size of the instances in the sample and of ")
+                .append("what their fields\n")
+                .append("hold apart from other instances, so that the footprints add up to the total.\n")
+                .append("Boxed is spent on boxed and big numbers, which narrowNumbers can make primitives. Strings ")
+                .append("is spent on text,\n")
+                .append("which inferEnums can share when it repeats. Collections is spent on the lists and maps ")
+                .append("themselves, which\n")
+                .append("generateColumns avoids for lists of records.\n\n");
+
+        String format = "%-" + nameWidth + "s %10s %8s %9s %12s %6s %12s %12s %12s%n";
+        report.append(String.format(Locale.ROOT, format, "Class", "Instances", "Shallow", "Retained", "Footprint",
+                "Share", "Boxed", "Strings", "Collections"));
+        long instances = 0;
+        ClassFootprint total = new ClassFootprint(0);
+        for (Map.Entry<JDefinedClass, ClassFootprint> entry : ranked) {
+            ClassFootprint footprint = entry.getValue();
+            instances += footprint.Instances;
+            total.ShallowBytes += footprint.ShallowBytes;
+            total.BoxedBytes += footprint.BoxedBytes;
+            total.StringBytes += footprint.StringBytes;
+            total.CollectionBytes += footprint.CollectionBytes;
+            long averageRetained = footprint.Instances == 0 ? 0 : footprint.RetainedBytes / footprint.Instances;
+            report.append(String.format(Locale.ROOT, format, entry.getKey().name(), footprint.Instances,
+                    footprint.InstanceBytes, averageRetained, footprint.getFootprintBytes(),
+                    formatShare(footprint.getFootprintBytes(), totalBytes), footprint.BoxedBytes,
+                    footprint.StringBytes, footprint.CollectionBytes));
+        }
+        if (getOutsideBytes() > 0) {
+            report.append(String.format(Locale.ROOT, format, "(outside)", "", "", "", getOutsideBytes(),
+                    formatShare(getOutsideBytes(), totalBytes), mOutsideFootprint.BoxedBytes,
+                    mOutsideFootprint.StringBytes, mOutsideFootprint.CollectionBytes));
+            total.BoxedBytes += mOutsideFootprint.BoxedBytes;
+            total.StringBytes += mOutsideFootprint.StringBytes;
+            total.CollectionBytes += mOutsideFootprint.CollectionBytes;
+        }
+        report.append(String.format(Locale.ROOT, format, "Total", instances, "", "", totalBytes,
+                formatShare(totalBytes, totalBytes), total.BoxedBytes, total.StringBytes, total.CollectionBytes));
+        report.append('\n').append(String.format(Locale.ROOT,
+                "The sample takes an estimated %d bytes on the heap, of which %d are the instances themselves.%n",
+                totalBytes, total.ShallowBytes));
+        return report.toString();
+    }
+
+    //endregion
+
+    //region ESTIMATION ------------------------------------------------------------------------------------------------
+
+    /**
+     * Counts the objects created for a single value, and pushes a frame for its nested values if it has any. The
+     * reference to the value is part of the shallow size of whatever holds it, so null values are free.
+     */
+    private void visit(JType type, JsonNode value, Frame parent, Deque<Frame> stack) {
+        if (value == null || value.isNull() || type.isPrimitive()) {
+            return;
+        }
+        ClassFootprint owner = parent.Owner;
+        JType unboxed = type.unboxify();
+        if (unboxed.isPrimitive()) {
+            parent.add(owner, getBoxedSize(unboxed, value), Category.BOXED);
+        } else if (type.equals(mCodeModel.ref(String.class))) {
+            parent.add(owner, getStringSize(value.asText()), Category.STRING);
+        } else if (type.equals(mCodeModel.ref(BigInteger.class))) {
+            parent.add(owner, getBigIntegerSize(new BigInteger(value.asText())), Category.BOXED);
+        } else if (type.equals(mCodeModel.ref(BigDecimal.class))) {
+            BigInteger unscaled = new BigDecimal(value.asText()).unscaledValue();
+            parent.add(owner, BIG_DECIMAL_BYTES +
+                    (unscaled.bitLength() < Long.SIZE ? 0 : getBigIntegerSize(unscaled)), Category.BOXED);
+        } else if (isEnum(type)) {
+            // Enum constants are shared by every instance
+        } else if (mClasses.containsKey(type)) {
+            if (value.isObject()) {
+                ClassFootprint footprint = mFootprints.get(type);
+                footprint.Instances++;
+                footprint.ShallowBytes += footprint.InstanceBytes;
+                Frame frame = new Frame(parent, footprint);
+                frame.Instance = footprint;
+                frame.Node = value;
+                frame.Fields = mClasses.get(type).iterator();
+                frame.RetainedBytes = footprint.InstanceBytes;
+                stack.push(frame);
+            }
+        } else if (isClass(type, List.class)) {
+            if (value.isArray()) {
+                pushList(getTypeParameter(type, 0), value, parent, stack);
+            }
+        } else if (isClass(type, Map.class)) {
+            if (value.isObject()) {
+                pushMap(getTypeParameter(type, 1), value, parent, stack);
+            }
+        } else if (value.isBoolean()) {
+            // Untyped values are read by GSON as Boolean, Double, String, ArrayList or LinkedTreeMap
+        } else if (value.isNumber()) {
+            parent.add(owner, BOXED_BYTES, Category.BOXED);
+        } else if (value.isArray()) {
+            pushList(mCodeModel.ref(Object.class), value, parent, stack);
+        } else if (value.isObject()) {
+            pushMap(mCodeModel.ref(Object.class), value, parent, stack);
+        } else {
+            parent.add(owner, getStringSize(value.asText()), Category.STRING);
+        }
+    }
+
+    private void pushList(JType elementType, JsonNode value, Frame parent, Deque<Frame> stack) {
+        Frame frame = new Frame(parent, parent.Owner);
+        frame.add(parent.Owner, getListSize(value.size()), Category.COLLECTION);
+        frame.ElementType = elementType;
+        frame.Elements = value.elements();
+        stack.push(frame);
+    }
+
+    private void pushMap(JType valueType, JsonNode value, Frame parent, Deque<Frame> stack) {
+        Frame frame = new Frame(parent, parent.Owner);
+        frame.add(parent.Owner, TREE_MAP_BYTES + TREE_MAP_NODE_BYTES * (value.size() + 1L), Category.COLLECTION);
+        Iterator<String> keys = value.fieldNames();
+        while (keys.hasNext()) {
+            frame.add(parent.Owner, getStringSize(keys.next()), Category.STRING);
+        }
+        frame.ElementType = valueType;
+        frame.Elements = value.elements();
+        stack.push(frame);
+    }
+
+    /**
+     * @param clazz a generated class.
+     * @return the size of an instance of the class, which holds its primitive fields and the references of the others.
+     */
+    static long getShallowSize(JDefinedClass clazz) {
+        long bytes = OBJECT_HEADER_BYTES;
+        for (JFieldVar field : clazz.fields().values()) {
+            if ((field.mods().getValue() & JMod.STATIC) == 0) {
+                bytes += getFieldSize(field.type());
+            }
+        }
+        return align(bytes);
+    }
+
+    private static int getFieldSize(JType type) {
+        switch (type.isPrimitive() ? type.name() : "") {
+            case "long":
+            case "double":
+                return 8;
+            case "int":
+            case "float":
+                return 4;
+            case "short":
+            case "char":
+                return 2;
+            case "byte":
+            case "boolean":
+                return 1;
+            default:
+                return REFERENCE_BYTES;
+        }
+    }
+
+    /**
+     * @return the size of a boxed value, which is nothing for the values boxing takes from a shared cache.
+     */
+    private static long getBoxedSize(JType primitive, JsonNode value) {
+        switch (primitive.name()) {
+            case "boolean":
+            case "byte":
+                return 0;
+            case "short":
+            case "int":
+            case "long":
+                long number = value.asLong();
+                return number >= -128 && number <= 127 ? 0 : BOXED_BYTES;
+            default:
+                return BOXED_BYTES;
+        }
+    }
+
+    /**
+     * @return the size of a string and of its array, with a byte per character if they are all Latin-1 and two
+     * otherwise, as in compact strings.
+     */
+    static long getStringSize(String text) {
+        int bytesPerChar = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return STRING_BYTES + align(ARRAY_HEADER_BYTES + (long) bytesPerChar * text.length());
+    }
+
+    private static long getBigIntegerSize(BigInteger value) {
+        return BIG_INTEGER_BYTES + align(ARRAY_HEADER_BYTES + 4L * ((value.bitLength() + 31) / 32));
+    }
+
+    /**
+     * @return the size of an ArrayList which was grown from its default capacity, one element at a time. Empty lists
+     * share an empty array.
+     */
+    static long getListSize(int size) {
+        if (size == 0) {
+            return ARRAY_LIST_BYTES;
+        }
+        long capacity = ARRAY_LIST_DEFAULT_CAPACITY;
+        while (capacity < size) {
+            capacity += capacity >> 1;
+        }
+        return ARRAY_LIST_BYTES + align(ARRAY_HEADER_BYTES + REFERENCE_BYTES * capacity);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    //endregion
+
+    //region HELPER METHODS --------------------------------------------------------------------------------------------
+
+    private static String formatShare(long bytes, long totalBytes) {
+        return totalBytes == 0 ? "-" : String.format(Locale.ROOT, "%.1f%%", 100.0 * bytes / totalBytes);
+    }
+
+    private JType getTypeParameter(JType type, int index) {
+        List<JClass> typeParameters = ((JClass) type).getTypeParameters();
+        return typeParameters.size() > index ? typeParameters.get(index) : mCodeModel.ref(Object.class);
+    }
+
+    private boolean isEnum(JType type) {
+        return type instanceof JDefinedClass && ((JDefinedClass) type).getClassType() == ClassType.ENUM;
+    }
+
+    private boolean isClass(JType type, Class<?> clazz) {
+        return type instanceof JClass && ((JClass) type).erasure().equals(mCodeModel.ref(clazz));
+    }
+
+    //endregion
+
+    //region INNER CLASSES ---------------------------------------------------------------------------------------------
+
+    /**
+     * The kinds of objects which the bytes held by the fields of a class are spent on.
+     */
+    private enum Category {
+        BOXED, STRING, COLLECTION
+    }
+
+    /**
+     * The estimated bytes of the instances of a class in the sample.
+     */
+    static class ClassFootprint {
+        final long InstanceBytes;
+        long Instances;
+        long ShallowBytes;
+        long BoxedBytes;
+        long StringBytes;
+        long CollectionBytes;
+        long RetainedBytes;
+
+        ClassFootprint(long instanceBytes) {
+            InstanceBytes = instanceBytes;
+        }
+
+        /**
+         * @return the bytes of the instances and of what their fields hold, apart from the instances of other classes.
+         */
+        long getFootprintBytes() {
+            return ShallowBytes + BoxedBytes + StringBytes + CollectionBytes;
+        }
+    }
+
+    /**
+     * A value being walked, which collects the bytes retained by the values nested in it.
+     */
+    private static class Frame {
+        final Frame Parent;
+        final ClassFootprint Owner;
+        ClassFootprint Instance;
+        JsonNode Node;
+        Iterator<GeneratePojos.GeneratedField> Fields;
+        JType ElementType;
+        Iterator<JsonNode> Elements;
+        long RetainedBytes;
+
+        Frame(Frame parent, ClassFootprint owner) {
+            Parent = parent;
+            Owner = owner;
+        }
+
+        void add(ClassFootprint owner, long bytes, Category category) {
+            RetainedBytes += bytes;
+            switch (category) {
+                case BOXED:
+                    owner.BoxedBytes += bytes;
+                    break;
+                case STRING:
+                    owner.StringBytes += bytes;
+                    break;
+                default:
+                    owner.CollectionBytes += bytes;
+                    break;
+            }
+        }
+    }
+
+    //endregion
+
+}
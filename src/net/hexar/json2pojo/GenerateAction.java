@@ -1,23 +1,44 @@
 package net.hexar.json2pojo;
 
-import com.intellij.ide.projectView.ProjectView;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.LangDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 
+import javax.swing.*;
+import java.io.File;
+import java.util.Set;
+
 /**
  * A custom IntelliJ action which loads a dialog which will generate Java POJO classes from a given JSON text.
  */
 public class GenerateAction extends AnAction {
 
     //region ACTION CONTEXT --------------------------------------------------------------------------------------------
+
+    private static final GenerationScheduler SCHEDULER = new GenerationScheduler(new GenerationScheduler.Listener() {
+        @Override
+        public void onGenerated(Set<File> files) {
+            // Refresh the UI once for all of the files generated by overlapping runs
+            LocalFileSystem.getInstance().refreshIoFiles(files, true, false, null);
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            e.printStackTrace();
+            ApplicationManager.getApplication().invokeLater(() -> JOptionPane.showMessageDialog(null, e.toString(),
+                    "Codegen Failed", JOptionPane.ERROR_MESSAGE));
+        }
+    });
+
     //endregion
 
     //region ACTION METHODS --------------------------------------------------------------------------------------------
@@ -34,21 +55,24 @@ public class GenerateAction extends AnAction {
             String packageName = ProjectRootManager.getInstance(project).getFileIndex().getPackageNameByDirectory(actionFolder);
 
             // Show JSON dialog
-            JsonEntryDialog dialog = new JsonEntryDialog((className, jsonText, generateBuilders, useMPrefix, useDoubleValueGetters) -> {
-                // Show background process indicator
-                ProgressManager.getInstance().run(new Task.Backgroundable(project, "Json2Pojo Class Generation", false) {
-                    @Override
-                    public void run(@NotNull ProgressIndicator indicator) {
-                        // Generate POJOs
-                        GeneratePojos generatePojos = new GeneratePojos(packageName, moduleSourceRoot, indicator);
-                        generatePojos.generateFromJson(className, jsonText, generateBuilders, useMPrefix, useDoubleValueGetters);
-
-                        // Refresh UI
-                        try {
-                            Thread.sleep(100);
-                            ProjectView.getInstance(project).refresh();
-                            actionFolder.refresh(false, true);
-                        } catch (InterruptedException ignored) { }
+            JsonEntryDialog dialog = new JsonEntryDialog(packageName, (className, jsonText, jsonFile, options) -> {
+                // Generate POJOs in a background task, after any earlier generation into the same package
+                File outputDir = new File(moduleSourceRoot.getPath());
+                SCHEDULER.submit(outputDir, packageName, className, work -> {
+                    // Show background process indicator
+                    String title = "Json2Pojo Class Generation";
+                    ProgressManager.getInstance().run(new Task.Backgroundable(project, title, true) {
+                        @Override
+                        public void run(@NotNull ProgressIndicator indicator) {
+                            work.accept(new Progress(indicator));
+                        }
+                    });
+                }, progress -> {
+                    GeneratePojos generatePojos = new GeneratePojos(packageName, outputDir, progress);
+                    if (jsonFile != null) {
+                        return generatePojos.generateFromFile(className, jsonFile, options);
+                    } else {
+                        return generatePojos.generateFromJson(className, jsonText, options);
                     }
                 });
             });
@@ -75,4 +99,40 @@ public class GenerateAction extends AnAction {
 
     //endregion
 
+    //region INNER CLASSES ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reports the generation progress to the IntelliJ progress indicator.
+     */
+    private static class Progress implements GenerationProgress {
+        private final ProgressIndicator mIndicator;
+
+        Progress(ProgressIndicator indicator) {
+            mIndicator = indicator;
+            mIndicator.setIndeterminate(false);
+        }
+
+        @Override
+        public void setText(String text) {
+            mIndicator.setText(text);
+        }
+
+        @Override
+        public void setDetails(String details) {
+            mIndicator.setText2(details);
+        }
+
+        @Override
+        public void setFraction(double fraction) {
+            mIndicator.setFraction(fraction);
+        }
+
+        @Override
+        public void checkCanceled() {
+            mIndicator.checkCanceled();
+        }
+    }
+
+    //endregion
+
 }
@@ -1,20 +1,39 @@
 package net.hexar.json2pojo;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
-import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.progress.ProgressIndicator;
-import com.intellij.openapi.vfs.VirtualFile;
 import com.sun.codemodel.*;
+import com.sun.codemodel.fmt.JTextFile;
+import com.sun.codemodel.writer.FileCodeWriter;
 import org.apache.commons.lang.StringUtils;
 import org.jboss.dna.common.text.Inflector;
 
 import javax.annotation.Generated;
-import javax.swing.*;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.function.BinaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * Contains the code to generate Java POJO classes from a given JSON text.
@@ -24,15 +43,34 @@ class GeneratePojos {
     //region CONSTANTS -------------------------------------------------------------------------------------------------
 
     private static final boolean ALWAYS_ANNOTATE_EXPOSE = false;
-    private static final Logger log = Logger.getInstance("GeneratePojos");
+    private static final int MIN_ENUM_OBSERVATIONS_PER_VALUE = 2;
+    private static final int MIN_HOMOGENEOUS_MAP_KEYS = 64;
+    private static final Pattern NUMERIC_KEY = Pattern.compile("-?\\d+");
+    private static final Pattern UUID_KEY = Pattern.compile("\\p{XDigit}{8}(-\\p{XDigit}{4}){3}-\\p{XDigit}{12}");
+    private static final Pattern DATE_KEY = Pattern.compile("\\d{4}-\\d{2}-\\d{2}([T ].*)?");
+    private static final int PROGRESS_CONTAINER_INTERVAL = 256;
+
+    // Factories are thread-safe, and reuse their symbol tables across parsers when shared
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final Logger log = Logger.getLogger("GeneratePojos");
 
     //endregion
 
     //region ACTION CONTEXT --------------------------------------------------------------------------------------------
 
-    private final VirtualFile mModuleSourceRoot;
+    private final File mModuleSourceRoot;
     private final String mPackageName;
-    private final ProgressIndicator mProgressBar;
+    private final GenerationProgress mProgressBar;
+    private GenerationOptions mOptions;
+    private Phase mPhase;
+    private long mContainerCount;
+    private long mVisitedContainers;
+
+    // Statistics for the flight recorder events, where only the shapes are skipped while they aren't being recorded
+    private Map<JDefinedClass, ShapeStats> mShapeStats;
+    private long mInflectorHits;
+    private long mInflectorMisses;
+    private long mInflectorMissNanos;
 
     //endregion
 
@@ -43,12 +81,18 @@ class GeneratePojos {
     private JType mDeferredList;
     private FieldComparator mFieldComparator;
     private Map<JDefinedClass, Set<FieldInfo>> mFieldMap = new HashMap<>();
+    private Map<JDefinedClass, Map<String, DistinctValueCounter>> mStringValueMap = new HashMap<>();
+    private Map<JDefinedClass, Map<String, NumberRange>> mNumberRangeMap = new HashMap<>();
+    private Map<JDefinedClass, Long> mObjectCounts = new HashMap<>();
+    private Map<Set<String>, JDefinedClass> mEnumMap = new HashMap<>();
+    private Map<JDefinedClass, List<String>> mEnumConstants = new HashMap<>();
+    private Map<String, String> mElementClassNames = new HashMap<>();
 
     //endregion
 
     //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
 
-    GeneratePojos(String packageName, VirtualFile moduleSourceRoot, ProgressIndicator progressBar) {
+    GeneratePojos(String packageName, File moduleSourceRoot, GenerationProgress progressBar) {
         mModuleSourceRoot = moduleSourceRoot;
         mPackageName = packageName;
         mProgressBar = progressBar;
@@ -63,12 +107,49 @@ class GeneratePojos {
      *
      * @param rootName the name of the root class to generate.
      * @param json the source JSON text.
-     * @param generateBuilders true if the generated class should omit setters and generate a builder instead.
-     * @param useMPrefix true if the generated fields should use an 'm' prefix.
+     * @param options the options controlling how the classes are generated.
+     * @return the generated files.
+     * @throws Exception if the JSON can't be read or the classes can't be generated.
+     */
+    List<File> generateFromJson(String rootName, String json, GenerationOptions options) throws Exception {
+        return generateFromSource(rootName, factory -> {
+            return factory.createParser(new ProgressReader(new StringReader(json), json.length()));
+        }, BenchmarkGenerator.Fixture.ofJson(json), options);
+    }
+
+    /**
+     * Generates POJOs from a JSON file, which is streamed into the parser rather than loaded as a String first.
+     *
+     * @param rootName the name of the root class to generate.
+     * @param jsonFile the source JSON file.
+     * @param options the options controlling how the classes are generated.
+     * @return the generated files.
+     * @throws Exception if the JSON can't be read or the classes can't be generated.
+     */
+    List<File> generateFromFile(String rootName, File jsonFile, GenerationOptions options) throws Exception {
+        return generateFromSource(rootName, factory -> {
+            return factory.createParser(new ProgressInputStream(new FileInputStream(jsonFile), jsonFile.length()));
+        }, BenchmarkGenerator.Fixture.ofFile(jsonFile), options);
+    }
+
+    /**
+     * Generates POJOs from the JSON read by the given source. Generation can be cancelled through the progress
+     * indicator at any point before the generated files are copied into the source root, in which case nothing is
+     * written.
+     *
+     * @param rootName the name of the root class to generate.
+     * @param source opens a parser for the JSON text.
+     * @param fixture the JSON text for the optional benchmark.
+     * @param options the options controlling how the classes are generated.
+     * @return the generated files.
+     * @throws Exception if the JSON can't be read or the classes can't be generated.
      */
-    void generateFromJson(String rootName, String json, boolean generateBuilders, boolean useMPrefix, boolean useDoubleValueGetters) {
-        mFieldComparator = new FieldComparator(useMPrefix);
+    private List<File> generateFromSource(String rootName, JsonSource source, BenchmarkGenerator.Fixture fixture,
+                                          GenerationOptions options) throws Exception {
+        mOptions = options;
+        mFieldComparator = new FieldComparator(options.isUseMPrefix());
 
+        File stagingDir = null;
         try {
             // Create code model and package
             JCodeModel jCodeModel = new JCodeModel();
@@ -79,18 +160,84 @@ class GeneratePojos {
             mDeferredList = jCodeModel.ref(List.class).narrow(Deferred.class);
 
             // Parse the JSON data
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(json);
+            startPhase(Phase.PARSING);
+            JsonNode rootNode;
+            Object parseSpan = GenerationTracer.INSTANCE.beginParse();
+            try (JsonParser parser = source.open(JSON_FACTORY)) {
+                rootNode = readTree(parser);
+            }
+            GenerationTracer.INSTANCE.endParse(parseSpan, formatClassName(rootName), mContainerCount);
 
             // Recursively generate
-            generate(rootNode, formatClassName(rootName), jPackage, generateBuilders, useMPrefix, useDoubleValueGetters);
+            String className = formatClassName(rootName);
+            Map<JDefinedClass, List<GeneratedField>> generatedClasses = generate(rootNode, className, jPackage);
+
+            // Optionally generate a benchmark which reads and writes the sample with the root class
+            if (mOptions.isGenerateBenchmark()) {
+                if (rootNode.isObject()) {
+                    new BenchmarkGenerator(jPackage).generate(mClassMap.get(className), generatedClasses, fixture);
+                } else {
+                    log.warning("Skipping the benchmark, since the root of the sample is not an object");
+                }
+            }
+
+            // Build into a staging directory, and only copy the files into the source root once all are written
+            startPhase(Phase.WRITING);
+            stagingDir = Files.createTempDirectory("json2pojo").toFile();
+            StagingCodeWriter codeWriter = new StagingCodeWriter(stagingDir, jCodeModel.countArtifacts());
+            jCodeModel.build(codeWriter);
+            return codeWriter.copyTo(mModuleSourceRoot);
+        } finally {
+            if (stagingDir != null) {
+                deleteDirectory(stagingDir);
+            }
+        }
+    }
 
-            // Build
-            jCodeModel.build(new File(mModuleSourceRoot.getPath()));
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(null, e.toString(), "Codegen Failed", JOptionPane.ERROR_MESSAGE);
-            e.printStackTrace();
+    /**
+     * Generates POJOs from a JSON syntax tree into memory rather than into the source root, for the live preview of
+     * the JSON entry dialog. The benchmark is never previewed, since it embeds the whole sample.
+     *
+     * @param rootName the name of the root class to generate.
+     * @param rootNode the root node of the JSON syntax tree.
+     * @param options the options controlling how the classes are generated.
+     * @return the generated classes and their sources.
+     * @throws Exception if the classes can't be generated.
+     */
+    Preview generatePreview(String rootName, JsonNode rootNode, GenerationOptions options) throws Exception {
+        mOptions = options;
+        mFieldComparator = new FieldComparator(options.isUseMPrefix());
+
+        // Create code model and package
+        JCodeModel jCodeModel = new JCodeModel();
+        JPackage jPackage = jCodeModel._package(mPackageName);
+
+        // Create deferrable types
+        mDeferredClass = jCodeModel.ref(Deferred.class);
+        mDeferredList = jCodeModel.ref(List.class).narrow(Deferred.class);
+
+        // Recursively generate
+        Map<JDefinedClass, List<GeneratedField>> generatedClasses = generate(rootNode, formatClassName(rootName),
+                jPackage);
+
+        // Build into memory, listing the classes with fields first, in the order they were inferred
+        startPhase(Phase.WRITING);
+        MemoryCodeWriter codeWriter = new MemoryCodeWriter();
+        jCodeModel.build(codeWriter);
+        Map<String, List<String>> fields = new LinkedHashMap<>();
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (Map.Entry<JDefinedClass, List<GeneratedField>> entry : generatedClasses.entrySet()) {
+            List<String> classFields = new ArrayList<>();
+            for (GeneratedField field : entry.getValue()) {
+                classFields.add(field.Field.type().name() + " " + field.Field.name());
+            }
+            fields.put(entry.getKey().name(), classFields);
+            sources.put(entry.getKey().name(), codeWriter.getSource(entry.getKey().name()));
+        }
+        for (String className : codeWriter.getClassNames()) {
+            sources.putIfAbsent(className, codeWriter.getSource(className));
         }
+        return new Preview(fields, sources);
     }
 
     /**
@@ -99,105 +246,271 @@ class GeneratePojos {
      * @param rootNode the JSON class node in the JSON syntax tree.
      * @param rootName the name of the root class to generate.
      * @param jPackage the code model package to generate the class in.
-     * @param generateBuilders true if the generated class should omit setters and generate a builder instead.
-     * @param useMPrefix true if the generated fields should use an 'm' prefix.
+     * @return the generated classes mapped to their generated fields.
      * @throws Exception if an error occurs.
      */
-    private void generate(JsonNode rootNode, String rootName, JPackage jPackage, boolean generateBuilders,
-                          boolean useMPrefix, boolean useDoubleValueGetters) throws Exception {
+    private Map<JDefinedClass, List<GeneratedField>> generate(JsonNode rootNode, String rootName, JPackage jPackage)
+            throws Exception {
         // First create all referenced sub-types and collect field data
-        parseObject(rootNode, rootName, jPackage);
+        startPhase(Phase.INFERRING);
+        parseTree(rootNode, rootName, jPackage);
+
+        // Optionally merge classes with identical shapes, so several names may now refer to the same class
+        if (mOptions.isDeduplicateClasses()) {
+            deduplicateClasses(rootName, jPackage);
+        }
+
+        // Replace classes which would have too many fields, as well as the classes only they refer to
+        capClassFields(rootName, jPackage);
 
         // Now create the actual fields
+        startPhase(Phase.EMITTING);
+        Map<JDefinedClass, List<GeneratedField>> generatedClasses = new LinkedHashMap<>();
+        Set<JDefinedClass> classes = new LinkedHashSet<>(mClassMap.values());
         int i = 1;
-        for (JDefinedClass clazz : mClassMap.values()) {
-            log.info("Generating class: "+clazz.name());
+        for (JDefinedClass clazz : classes) {
+            // A root class which had too many fields is a map itself, and has nothing else to generate
+            if (!mFieldMap.containsKey(clazz)) {
+                continue;
+            }
+            log.fine("Generating class: "+clazz.name());
+            Object emissionSpan = GenerationTracer.INSTANCE.beginClassEmission();
+
             // Generate the fields
-            List<GeneratedField> fields = generateFields(clazz, mFieldMap.get(clazz), jPackage.owner(),
-                    generateBuilders, useMPrefix, useDoubleValueGetters);
+            List<GeneratedField> fields = generateFields(clazz, mFieldMap.get(clazz), jPackage.owner());
 
             // Optionally generate the inner builder class
-            if (generateBuilders) {
+            if (mOptions.usesBuilders()) {
                 generateBuilder(clazz, fields);
             }
 
+            // Immutable classes are value classes, so generate equals and a cached hashCode
+            if (mOptions.isGenerateImmutable()) {
+                createEqualsMethod(clazz, fields);
+                createHashCodeMethod(clazz, fields, mOptions.isUseMPrefix());
+            }
+            generatedClasses.put(clazz, fields);
+            GenerationTracer.INSTANCE.endClassEmission(emissionSpan, clazz.name(), fields.size());
+
             // Update progress
-            mProgressBar.setFraction((double) i / (double) mClassMap.size());
+            updateProgress((double) i / (double) classes.size());
             i++;
         }
+
+        // Optionally make the classes lazily parsed
+        if (mOptions.usesLazyParsing()) {
+            new LazyParsingGenerator(jPackage, mOptions.isUseMPrefix()).generate(generatedClasses);
+        }
+
+        // Optionally generate the ByteBuffer flyweights and encoders
+        if (mOptions.isGenerateFlyweights()) {
+            new FlyweightGenerator(jPackage).generate(generatedClasses);
+        }
+
+        // Optionally export the schema as Protocol Buffers definitions, with converters to and from the messages
+        if (mOptions.isGenerateProtobuf()) {
+            File packageDir = mModuleSourceRoot != null
+                    ? new File(mModuleSourceRoot, jPackage.name().replace('.', File.separatorChar)) : null;
+            new ProtobufGenerator(jPackage, mOptions.usesBuilders(), packageDir).generate(rootName, generatedClasses,
+                    mEnumConstants);
+        }
+
+        // Optionally generate the columnar containers for the elements of lists
+        if (mOptions.isGenerateColumns()) {
+            new ColumnarGenerator(jPackage, mOptions.usesBuilders()).generate(generatedClasses);
+        }
+
+        // Optionally generate the stream of records of the root class, which is a map itself if it had too many fields
+        JDefinedClass rootClass = mClassMap.get(rootName);
+        if (mOptions.isGenerateRootStream() && generatedClasses.containsKey(rootClass)) {
+            new RootStreamGenerator(jPackage).generate(rootClass);
+        }
+
+        // Optionally generate the binary codecs, with a schema fingerprint in the header of every record
+        if (mOptions.isGenerateBinaryCodec()) {
+            new BinaryCodecGenerator(jPackage, mOptions.usesBuilders()).generate(generatedClasses, mEnumConstants);
+        }
+
+        // Optionally report the estimated heap footprint of the classes, next to them
+        if (mOptions.isGenerateFootprintReport() && generatedClasses.containsKey(rootClass)) {
+            FootprintEstimator estimator = new FootprintEstimator(jPackage.owner(), generatedClasses);
+            estimator.add(rootNode.isArray() ? jPackage.owner().ref(List.class).narrow(rootClass) : rootClass,
+                    rootNode);
+            JTextFile reportFile = new JTextFile(formatEnumConstantName(rootName).toLowerCase(Locale.ROOT) +
+                    "-footprint.txt");
+            reportFile.setContents(estimator.createReport(rootName));
+            jPackage.addResourceFile(reportFile);
+        }
+
+        GenerationTracer.INSTANCE.inflectorCache(mInflectorHits, mInflectorMisses, mInflectorMissNanos);
+        return generatedClasses;
     }
 
     /**
-     * Generates all of the sub-objects for a given class.
+     * Reads the JSON syntax tree from a parser, counting its objects and arrays so that inference can report its
+     * progress.
      *
-     * @param classNode the JSON object node in the JSON syntax tree.
-     * @param className the name of the class to create for this node.
-     * @param jPackage the code model package to generate the class in.
+     * @param parser the parser to read from.
+     * @return the root node of the JSON syntax tree.
+     * @throws IOException if the JSON can't be read, or is nested deeper than the maximum depth.
+     */
+    private JsonNode readTree(JsonParser parser) throws IOException {
+        JsonTreeReader reader = new JsonTreeReader(mOptions.getMaxDepth());
+        JsonNode rootNode = reader.read(parser);
+        mContainerCount = reader.getContainerCount();
+        return rootNode;
+    }
+
+    /**
+     * Generates all of the sub-objects and collects the fields of every class in the JSON syntax tree. Objects are
+     * visited depth-first with an explicit stack, and the fields of an object are added once the subtree below them
+     * has been visited, in the same order as a recursive traversal would.
+     *
+     * @param rootNode the JSON root node in the JSON syntax tree.
+     * @param rootName the name of the root class.
+     * @param jPackage the code model package to generate the classes in.
      * @throws Exception if an error occurs.
      */
-    private void parseObject(JsonNode classNode, String className, JPackage jPackage) throws Exception {
-        // Find the class if it exists, or create it if it doesn't
-        JDefinedClass clazz;
-        log.info(String.format("parseObject(%s), json=%s", className, classNode.toString()));
-        if (mClassMap.containsKey(className)) {
-            clazz = mClassMap.get(className);
-        } else {
-            clazz = jPackage._class(className);
-            annotateClass(clazz);
-            mClassMap.put(className, clazz);
-            mFieldMap.put(clazz, new TreeSet<>(mFieldComparator));
+    private void parseTree(JsonNode rootNode, String rootName, JPackage jPackage) throws Exception {
+        // Only time each step while the shapes are being recorded, since it's done for every value
+        mShapeStats = GenerationTracer.INSTANCE.isShapeInferenceEnabled() ? new HashMap<>() : null;
+        long stepStart = mShapeStats != null ? System.nanoTime() : 0;
+
+        // The elements of a root array are records of the root class
+        Deque<ParseFrame> frames = new ArrayDeque<>();
+        JDefinedClass rootClass = getOrCreateClass(rootName, jPackage);
+        frames.push(rootNode.isArray() ? new ParseFrame(rootName, rootNode) : createObjectFrame(rootClass, rootNode));
+        visitContainer();
+
+        while (!frames.isEmpty()) {
+            ParseFrame frame = frames.peek();
+            visitFrame(frame, frames, jPackage);
+
+            // Steps over arrays aren't timed, their objects are
+            if (mShapeStats != null) {
+                long now = System.nanoTime();
+                if (frame.Clazz != null) {
+                    mShapeStats.get(frame.Clazz).Nanos += now - stepStart;
+                }
+                stepStart = now;
+            }
         }
 
-        // Iterate over all of the fields in this object
-        Iterator<Map.Entry<String, JsonNode>> fieldsIterator = classNode.fields();
-        while (fieldsIterator.hasNext()) {
+        // Report the shape of every class seen in the sample
+        if (mShapeStats != null) {
+            for (Map.Entry<JDefinedClass, ShapeStats> entry : mShapeStats.entrySet()) {
+                GenerationTracer.INSTANCE.shapeInference(entry.getKey().name(), mFieldMap.get(entry.getKey()).size(),
+                        entry.getValue().Objects, entry.getValue().Nodes, entry.getValue().Nanos);
+            }
+        }
+    }
+
+    /**
+     * Takes a single step of the traversal in {@link #parseTree}: adds the field whose subtree has been visited, then
+     * descends into the next value of the object or array, or leaves it once all of its values have been visited.
+     *
+     * @param frame the object or array at the top of the stack.
+     * @param frames the stack of objects and arrays being visited.
+     * @param jPackage the code model package to generate the classes in.
+     * @throws Exception if an error occurs.
+     */
+    private void visitFrame(ParseFrame frame, Deque<ParseFrame> frames, JPackage jPackage) throws Exception {
+        // Add the field whose subtree has just been visited
+        if (frame.PendingField != null) {
+            addField(frame.Clazz, frame.PendingField, jPackage.owner());
+            frame.PendingField = null;
+        }
 
+        if (frame.Clazz != null && frame.Fields.hasNext()) {
             // Get the field name and child node
-            Map.Entry<String, JsonNode> entry = fieldsIterator.next();
+            Map.Entry<String, JsonNode> entry = frame.Fields.next();
             String childProperty = entry.getKey();
             JsonNode childNode = entry.getValue();
 
-            // Recurse into objects and arrays
-            if (childNode.isObject()) {
-                String childName = formatClassName(childProperty);
-                parseObject(childNode, childName, jPackage);
-            } else if (childNode.isArray()) {
-                String childName = formatClassName(Inflector.getInstance().singularize(childProperty));
-                parseArray(childNode, childName, jPackage);
+            // Visit objects and arrays before adding the field, otherwise add it right away. The values of
+            // map-like objects are visited like the elements of an array.
+            if (childNode.isObject() && !isMapLike(childNode)) {
+                frame.PendingField = entry;
+                frames.push(createObjectFrame(getOrCreateClass(formatClassName(childProperty), jPackage),
+                        childNode));
+                visitContainer();
+            } else if (childNode.isContainerNode()) {
+                frame.PendingField = entry;
+                frames.push(new ParseFrame(getElementClassName(childProperty), childNode));
+                visitContainer();
+            } else {
+                addField(frame.Clazz, entry, jPackage.owner());
             }
-
-            // Now attempt to create the field and add it to the field set
-            FieldInfo field = getFieldInfoFromNode(childNode, childProperty, jPackage.owner());
-            log.info(String.format("Field: %s, -> %s;%s", childProperty, field.PropertyName, field.Type));
-            if (field != null) {
-                mFieldMap.get(clazz).add(field);
-                log.info(String.format("Added %s/%s to %s", field.PropertyName, field.Type, clazz.name()));
+        } else if (frame.Clazz == null && frame.Elements.hasNext()) {
+            // Visit every object or array, so that all elements contribute fields and observed values
+            JsonNode element = frame.Elements.next();
+            if (element.isObject() && !isMapLike(element)) {
+                frames.push(createObjectFrame(getOrCreateClass(frame.ElementClassName, jPackage), element));
+                visitContainer();
+            } else if (element.isContainerNode()) {
+                frames.push(new ParseFrame(frame.ElementClassName, element));
+                visitContainer();
             }
+        } else {
+            frames.pop();
+        }
+    }
+
+    /**
+     * Creates the frame which visits the fields of an object, counting the objects of each class when numbers are
+     * narrowed, so that fields present in every object can tell they are never missing, and while the shapes are
+     * being recorded.
+     *
+     * @param clazz the class of the object.
+     * @param objectNode the object node.
+     * @return the frame for the object.
+     */
+    private ParseFrame createObjectFrame(JDefinedClass clazz, JsonNode objectNode) {
+        if (mOptions.isNarrowNumbers()) {
+            mObjectCounts.merge(clazz, 1L, Long::sum);
+        }
+        if (mShapeStats != null) {
+            ShapeStats stats = mShapeStats.computeIfAbsent(clazz, k -> new ShapeStats());
+            stats.Objects++;
+            stats.Nodes += objectNode.size();
         }
+        return new ParseFrame(clazz, objectNode);
     }
 
     /**
-     * Generates all of the sub-objects for a given array node.
+     * Finds the class with the given name if it exists, or creates it if it doesn't.
      *
-     * @param arrayNode the JSON array node in the JSON syntax tree.
-     * @param className the formatted name of the class we might generate from this array.
+     * @param className the name of the class.
      * @param jPackage the code model package to generate the class in.
+     * @return the class.
      * @throws Exception if an error occurs.
      */
-    private void parseArray(JsonNode arrayNode, String className, JPackage jPackage) throws Exception {
-        // Retrieve the first non-null element of the array
-        Iterator<JsonNode> elementsIterator = arrayNode.elements();
-        while (elementsIterator.hasNext()) {
-            JsonNode element = elementsIterator.next();
+    private JDefinedClass getOrCreateClass(String className, JPackage jPackage) throws Exception {
+        log.fine(() -> String.format("parseObject(%s)", className));
+        JDefinedClass clazz = mClassMap.get(className);
+        if (clazz == null) {
+            clazz = jPackage._class(className);
+            annotateClass(clazz);
+            mClassMap.put(className, clazz);
+            mFieldMap.put(clazz, new TreeSet<>(mFieldComparator));
+        }
+        return clazz;
+    }
 
-            // Recurse on the first object or array
-            if (element.isObject()) {
-                parseObject(element, className, jPackage);
-                break;
-            } else if (element.isArray()) {
-                parseArray(element, className, jPackage);
-                break;
-            }
+    /**
+     * Attempts to create a field from a JSON property and adds it to the field set of a class.
+     *
+     * @param clazz the class which contains the property.
+     * @param entry the JSON property name and value.
+     * @param jCodeModel the code model to use for generation.
+     * @throws Exception if an error occurs.
+     */
+    private void addField(JDefinedClass clazz, Map.Entry<String, JsonNode> entry, JCodeModel jCodeModel)
+            throws Exception {
+        FieldInfo field = getFieldInfoFromNode(entry.getValue(), entry.getKey(), clazz, jCodeModel);
+        if (field != null) {
+            mFieldMap.get(clazz).add(field);
+            log.fine(() -> String.format("Added %s/%s to %s", field.PropertyName, field.Type, clazz.name()));
         }
     }
 
@@ -206,72 +519,54 @@ class GeneratePojos {
      *
      * @param node the JSON node describing the field.
      * @param propertyName the name of the field to create.
+     * @param owner the class which will contain the field.
      * @param jCodeModel the code model to use for generation.
      * @return a {@link FieldInfo} representing the new field.
      * @throws Exception if an error occurs.
      */
-    private FieldInfo getFieldInfoFromNode(JsonNode node, String propertyName, JCodeModel jCodeModel) throws Exception {
+    private FieldInfo getFieldInfoFromNode(JsonNode node, String propertyName, JDefinedClass owner,
+                                           JCodeModel jCodeModel) throws Exception {
         // Switch on node type
         if (node.isArray()) {
-            // Singularize the class name of a single element
-            String newClassName = formatClassName(Inflector.getInstance().singularize(propertyName));
-
-            // Get the array type
-            if (node.elements().hasNext()) {
-                JsonNode firstNode = node.elements().next();
-                if (firstNode.isObject()) {
-                    // Get the already-created class from the class map
-                    JDefinedClass newClass = mClassMap.get(newClassName);
-
-                    // Now return the field referring to a list of the new class
-                    return new FieldInfo(jCodeModel.ref(List.class).narrow(newClass), propertyName);
-                } else if (firstNode.isArray()) {
-                    // Recurse to get the field info of this node
-                    FieldInfo fi = getFieldInfoFromNode(firstNode, propertyName, jCodeModel);
-
-                    // Make a List<> of the recursed type
-                    return new FieldInfo(jCodeModel.ref(List.class).narrow(fi.Type), propertyName);
-                } else if (firstNode.isFloatingPointNumber()) {
-                    // Now return the field referring to a list of doubles
-                    return new FieldInfo(jCodeModel.ref(List.class).narrow(Double.class), propertyName);
-                } else if (firstNode.isIntegralNumber()) {
-                    // Now return the field referring to a list of longs
-                    return new FieldInfo(jCodeModel.ref(List.class).narrow(Long.class), propertyName);
-                } else if (firstNode.isNull()) {
-                    // Null values? Return List<Deferred>.
-                    return new FieldInfo(mDeferredList, propertyName);
-                } else if (firstNode.isTextual()) {
-                    // Now return the field referring to a list of strings
-                    return new FieldInfo(jCodeModel.ref(List.class).narrow(String.class), propertyName);
-                }
-            } else {
-                // No elements? Return List<Deferred>.
-                return new FieldInfo(mDeferredList, propertyName);
-            }
+            JType type = getListType(node, getElementClassName(propertyName), jCodeModel);
+            return type != null ? new FieldInfo(type, propertyName) : null;
         } else if (node.isBoolean()) {
             return new FieldInfo(jCodeModel.ref(Boolean.class), propertyName);
-        } else if (node.isFloatingPointNumber()) {
-            return new FieldInfo(jCodeModel.ref(Double.class), propertyName);
-        } else if (node.isIntegralNumber()) {
-            return new FieldInfo(jCodeModel.ref(Long.class), propertyName);
+        } else if (node.isNumber()) {
+            // Track the range of numbers for narrowing
+            if (mOptions.isNarrowNumbers()) {
+                mNumberRangeMap.computeIfAbsent(owner, k -> new HashMap<>())
+                        .computeIfAbsent(propertyName, k -> new NumberRange())
+                        .add(node);
+            }
+            Class<?> type = node.isFloatingPointNumber() ? Double.class : Long.class;
+            return new FieldInfo(jCodeModel.ref(type), propertyName);
         } else if (node.isNull()) {
             // Defer the type reference until later
             return new FieldInfo(mDeferredClass, propertyName);
         } else if (node.isObject()) {
-            // Get the already-created class from the class map
-            String newClassName = formatClassName(propertyName);
-            JDefinedClass newClass = mClassMap.get(newClassName);
-
-            // Now return the field as a defined class
-            return new FieldInfo(newClass, propertyName);
+            // Get the already-created class from the class map, or the map type of a map-like object
+            JClass type = getObjectType(node, formatClassName(propertyName), getElementClassName(propertyName),
+                    jCodeModel);
+            return new FieldInfo(type, propertyName);
         } else if (node.isTextual()) {
-            boolean isNumeric = false;
-            try {
-                Double.parseDouble(node.asText());
-                log.info("Saw numeric text: "+node.asText());
-                isNumeric = true;
-            } catch (NumberFormatException e) {
-                // Ignore
+            boolean isNumeric = isNumericText(node.asText());
+            if (isNumeric) {
+                log.fine("Saw numeric text: "+node.asText());
+            }
+
+            // Track the form of numeric strings for the type of their cached values
+            if (isNumeric && mOptions.isUseDoubleValueGetters() && mOptions.isMemoizeNumberValues()) {
+                mNumberRangeMap.computeIfAbsent(owner, k -> new HashMap<>())
+                        .computeIfAbsent(propertyName, k -> new NumberRange())
+                        .add(node.asText());
+            }
+
+            // Track the distinct values of every string for enum inference, so that no value is missing from an enum
+            if (mOptions.isInferEnums()) {
+                mStringValueMap.computeIfAbsent(owner, k -> new HashMap<>())
+                        .computeIfAbsent(propertyName, k -> new DistinctValueCounter(mOptions.getMaxEnumCardinality()))
+                        .add(node.asText());
             }
             return new FieldInfo(jCodeModel.ref(String.class), propertyName, isNumeric);
         }
@@ -280,81 +575,588 @@ class GeneratePojos {
         return null;
     }
 
+    /**
+     * Merges classes whose inferred shapes are structurally identical into one shared class. Two classes have the
+     * same shape if they have the same properties with the same types, where properties referring to other classes
+     * are compared by the shapes of those classes. Shapes are split until they no longer change, so that recursive
+     * structures such as nested children collapse into a single self-referencing class.
+     *
+     * @param rootName the name of the root class, which is always kept.
+     * @param jPackage the code model package containing the classes.
+     */
+    private void deduplicateClasses(String rootName, JPackage jPackage) {
+        // Start with all classes in one shape, and split by fingerprint until the number of shapes is stable
+        List<JDefinedClass> classes = new ArrayList<>(new LinkedHashSet<>(mClassMap.values()));
+        Map<JDefinedClass, Integer> shapes = new HashMap<>();
+        classes.forEach(clazz -> shapes.put(clazz, 0));
+        int shapeCount = 1;
+        int previousShapeCount;
+        do {
+            mProgressBar.checkCanceled();
+            previousShapeCount = shapeCount;
+            Map<String, Integer> fingerprints = new HashMap<>();
+            Map<JDefinedClass, Integer> refinedShapes = new HashMap<>();
+            for (JDefinedClass clazz : classes) {
+                // Include the previous shape so that shapes are only ever split, never joined
+                String fingerprint = shapes.get(clazz) + "|" + getShapeFingerprint(clazz, shapes);
+                Integer shape = fingerprints.get(fingerprint);
+                if (shape == null) {
+                    shape = fingerprints.size();
+                    fingerprints.put(fingerprint, shape);
+                }
+                refinedShapes.put(clazz, shape);
+            }
+            shapes.putAll(refinedShapes);
+            shapeCount = fingerprints.size();
+        } while (shapeCount != previousShapeCount);
+
+        if (shapeCount == classes.size()) {
+            return;
+        }
+
+        // Pick one class per shape, preferring the root class and then the shortest name
+        JDefinedClass rootClass = mClassMap.get(rootName);
+        Comparator<JDefinedClass> preference = Comparator.comparing((JDefinedClass clazz) -> clazz != rootClass)
+                .thenComparing(clazz -> clazz.name().length())
+                .thenComparing(JDefinedClass::name);
+        Map<Integer, JDefinedClass> sharedClasses = new HashMap<>();
+        for (JDefinedClass clazz : classes) {
+            sharedClasses.merge(shapes.get(clazz), clazz, BinaryOperator.minBy(preference));
+        }
+
+        // Remove the other classes, keeping the string values they observed for enum inference
+        Map<JDefinedClass, JDefinedClass> replacements = new HashMap<>();
+        for (JDefinedClass clazz : classes) {
+            JDefinedClass sharedClass = sharedClasses.get(shapes.get(clazz));
+            if (sharedClass == clazz) {
+                continue;
+            }
+            log.fine(String.format("Merging class %s into %s", clazz.name(), sharedClass.name()));
+            replacements.put(clazz, sharedClass);
+            jPackage.remove(clazz);
+            mFieldMap.remove(clazz);
+
+            Map<String, DistinctValueCounter> counters = mStringValueMap.remove(clazz);
+            if (counters != null) {
+                Map<String, DistinctValueCounter> sharedCounters =
+                        mStringValueMap.computeIfAbsent(sharedClass, k -> new HashMap<>());
+                counters.forEach((property, counter) -> sharedCounters.merge(property, counter, (left, right) -> {
+                    left.merge(right);
+                    return left;
+                }));
+            }
+
+            // Likewise for the number ranges and object counts used for narrowing
+            Map<String, NumberRange> ranges = mNumberRangeMap.remove(clazz);
+            if (ranges != null) {
+                Map<String, NumberRange> sharedRanges =
+                        mNumberRangeMap.computeIfAbsent(sharedClass, k -> new HashMap<>());
+                ranges.forEach((property, range) -> sharedRanges.merge(property, range, (left, right) -> {
+                    left.merge(right);
+                    return left;
+                }));
+            }
+            Long objectCount = mObjectCounts.remove(clazz);
+            if (objectCount != null) {
+                mObjectCounts.merge(sharedClass, objectCount, Long::sum);
+            }
+        }
+
+        // Point every name and field at the shared classes
+        mClassMap.replaceAll((name, clazz) -> replacements.getOrDefault(clazz, clazz));
+        for (Map.Entry<JDefinedClass, Set<FieldInfo>> entry : mFieldMap.entrySet()) {
+            Set<FieldInfo> fields = new TreeSet<>(mFieldComparator);
+            for (FieldInfo field : entry.getValue()) {
+                JType type = replaceClasses(field.Type, replacements);
+                fields.add(new FieldInfo(type, field.PropertyName, field.isStringIsNumber()));
+            }
+            entry.setValue(fields);
+        }
+    }
+
+    /**
+     * Builds a fingerprint of the fields of a class, in which referenced classes are represented by their current
+     * shape rather than their name. Deferred types are resolved first, since an empty array at the bottom of a tree
+     * still refers to the same class as the non-empty arrays above it.
+     *
+     * @param clazz the class to fingerprint.
+     * @param shapes the current shape of every class.
+     * @return the fingerprint of the class.
+     */
+    private String getShapeFingerprint(JDefinedClass clazz, Map<JDefinedClass, Integer> shapes) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (FieldInfo field : mFieldMap.get(clazz)) {
+            fingerprint.append(field.PropertyName).append(':');
+            appendTypeFingerprint(fingerprint, resolveDeferredType(field, clazz.owner()), shapes);
+            if (field.isStringIsNumber()) {
+                fingerprint.append('#');
+            }
+            fingerprint.append(';');
+        }
+        return fingerprint.toString();
+    }
+
+    private static void appendTypeFingerprint(StringBuilder fingerprint, JType type,
+                                              Map<JDefinedClass, Integer> shapes) {
+        if (shapes.containsKey(type)) {
+            fingerprint.append('@').append(shapes.get(type));
+        } else if (type instanceof JClass && !((JClass) type).getTypeParameters().isEmpty()) {
+            fingerprint.append(((JClass) type).erasure().fullName()).append('<');
+            for (JClass typeParameter : ((JClass) type).getTypeParameters()) {
+                appendTypeFingerprint(fingerprint, typeParameter, shapes);
+                fingerprint.append(',');
+            }
+            fingerprint.append('>');
+        } else {
+            fingerprint.append(type.fullName());
+        }
+    }
+
+    /**
+     * Replaces classes in a type, including those used as type parameters such as List elements.
+     *
+     * @param type the type to replace classes in.
+     * @param replacements the replaced classes mapped to their replacements.
+     * @return the type referring only to the remaining classes.
+     */
+    private static JType replaceClasses(JType type, Map<JDefinedClass, ? extends JClass> replacements) {
+        if (replacements.containsKey(type)) {
+            return replacements.get(type);
+        } else if (type instanceof JClass && !((JClass) type).getTypeParameters().isEmpty()) {
+            List<JClass> typeParameters = ((JClass) type).getTypeParameters();
+            List<JClass> replacedParameters = new ArrayList<>();
+            for (JClass typeParameter : typeParameters) {
+                replacedParameters.add((JClass) replaceClasses(typeParameter, replacements));
+            }
+            if (!replacedParameters.equals(typeParameters)) {
+                return ((JClass) type).erasure().narrow(replacedParameters);
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Replaces classes with more fields than the configured maximum by {@code Map<String, Object>}. Every field also
+     * needs accessors, so such classes would get close to the JVM limits on methods and constant pool entries, and
+     * would be slow to compile. The root class has to be generated, so it extends {@link LinkedHashMap} instead.
+     *
+     * @param rootName the name of the root class.
+     * @param jPackage the code model package containing the classes.
+     */
+    private void capClassFields(String rootName, JPackage jPackage) {
+        JCodeModel jCodeModel = jPackage.owner();
+        JClass mapType = jCodeModel.ref(Map.class).narrow(String.class, Object.class);
+        Map<JDefinedClass, JClass> replacements = new HashMap<>();
+        for (JDefinedClass clazz : new LinkedHashSet<>(mClassMap.values())) {
+            int fieldCount = mFieldMap.get(clazz).size();
+            if (fieldCount > mOptions.getMaxFieldsPerClass()) {
+                log.log(Level.WARNING, String.format("Class %s has %d fields, generating a Map instead", clazz.name(),
+                        fieldCount));
+                replacements.put(clazz, mapType);
+            }
+        }
+        if (replacements.isEmpty()) {
+            return;
+        }
+
+        // Keep the root class, but without fields
+        JDefinedClass rootClass = mClassMap.get(rootName);
+        if (replacements.containsKey(rootClass)) {
+            rootClass._extends(jCodeModel.ref(LinkedHashMap.class).narrow(String.class, Object.class));
+            mFieldMap.remove(rootClass);
+            mStringValueMap.remove(rootClass);
+            mNumberRangeMap.remove(rootClass);
+        }
+
+        // Point every field at the map type instead of the replaced classes
+        for (Map.Entry<JDefinedClass, Set<FieldInfo>> entry : mFieldMap.entrySet()) {
+            Set<FieldInfo> fields = new TreeSet<>(mFieldComparator);
+            for (FieldInfo field : entry.getValue()) {
+                JType type = replaceClasses(field.Type, replacements);
+                fields.add(new FieldInfo(type, field.PropertyName, field.isStringIsNumber()));
+            }
+            entry.setValue(fields);
+        }
+
+        // Remove the replaced classes, along with the classes which only they referred to
+        replacements.remove(rootClass);
+        mClassMap.values().removeIf(replacements::containsKey);
+        Set<JDefinedClass> reachableClasses = getReachableClasses(rootClass, jCodeModel);
+        mClassMap.values().removeIf(clazz -> !reachableClasses.contains(clazz));
+        for (JDefinedClass clazz : new ArrayList<>(mFieldMap.keySet())) {
+            if (!reachableClasses.contains(clazz)) {
+                log.fine(String.format("Removing class %s", clazz.name()));
+                jPackage.remove(clazz);
+                mFieldMap.remove(clazz);
+                mStringValueMap.remove(clazz);
+                mNumberRangeMap.remove(clazz);
+            }
+        }
+    }
+
+    /**
+     * Finds the classes which can be reached from the root class through the types of fields.
+     *
+     * @param rootClass the root class.
+     * @param jCodeModel the code model.
+     * @return the root class and every class it refers to directly or indirectly.
+     */
+    private Set<JDefinedClass> getReachableClasses(JDefinedClass rootClass, JCodeModel jCodeModel) {
+        Set<JDefinedClass> reachableClasses = new HashSet<>();
+        Deque<JClass> pendingTypes = new ArrayDeque<>();
+        pendingTypes.push(rootClass);
+        while (!pendingTypes.isEmpty()) {
+            JClass type = pendingTypes.pop();
+            pendingTypes.addAll(type.getTypeParameters());
+            if (!(type instanceof JDefinedClass) || !reachableClasses.add((JDefinedClass) type) ||
+                    !mFieldMap.containsKey(type)) {
+                continue;
+            }
+            for (FieldInfo field : mFieldMap.get(type)) {
+                JType fieldType = resolveDeferredType(field, jCodeModel);
+                if (fieldType instanceof JClass) {
+                    pendingTypes.push((JClass) fieldType);
+                }
+            }
+        }
+        return reachableClasses;
+    }
+
+    /**
+     * Gets the type of an array, which is nested in a List for each level of nested arrays.
+     *
+     * @param node the JSON array node.
+     * @param elementClassName the name of the class generated for object elements.
+     * @param jCodeModel the code model to use for generation.
+     * @return the List type of the array, or null if the element type isn't supported.
+     */
+    private JType getListType(JsonNode node, String elementClassName, JCodeModel jCodeModel) {
+        // Find the innermost array by following the first elements of nested arrays
+        JsonNode arrayNode = node;
+        int nestedLists = 0;
+        while (arrayNode.elements().hasNext() && arrayNode.elements().next().isArray()) {
+            arrayNode = arrayNode.elements().next();
+            nestedLists++;
+        }
+
+        // Make a List<> of the innermost array type for each level of nesting
+        JType type = getArrayType(arrayNode, elementClassName, jCodeModel);
+        if (type == null) {
+            return null;
+        }
+        for (int i = 0; i < nestedLists; i++) {
+            type = jCodeModel.ref(List.class).narrow(type);
+        }
+        return type;
+    }
+
+    /**
+     * Gets the type of an array whose first element isn't an array itself.
+     *
+     * @param node the JSON array node.
+     * @param elementClassName the name of the class generated for object elements.
+     * @param jCodeModel the code model to use for generation.
+     * @return the List type of the array, or null if the element type isn't supported.
+     */
+    private JType getArrayType(JsonNode node, String elementClassName, JCodeModel jCodeModel) {
+        // No elements? Return List<Deferred>.
+        if (!node.elements().hasNext()) {
+            return mDeferredList;
+        }
+
+        JsonNode firstNode = node.elements().next();
+        if (firstNode.isObject()) {
+            // Now return the list of the element class, or of the map type of map-like elements
+            return jCodeModel.ref(List.class).narrow(getObjectType(firstNode, elementClassName, elementClassName,
+                    jCodeModel));
+        } else if (firstNode.isFloatingPointNumber()) {
+            // Now return the list of doubles
+            return jCodeModel.ref(List.class).narrow(Double.class);
+        } else if (firstNode.isIntegralNumber()) {
+            // Now return the list of longs
+            return jCodeModel.ref(List.class).narrow(Long.class);
+        } else if (firstNode.isNull()) {
+            // Null values? Return List<Deferred>.
+            return mDeferredList;
+        } else if (firstNode.isTextual()) {
+            // Now return the list of strings
+            return jCodeModel.ref(List.class).narrow(String.class);
+        }
+        return null;
+    }
+
+    /**
+     * Gets the type of a JSON object. Map-like objects become a Map of their values for each level of nested maps, all
+     * other objects refer to the class already created for them.
+     *
+     * @param node the JSON object node.
+     * @param className the name of the class generated for the object if it isn't map-like.
+     * @param elementClassName the name of the class generated for object values if it is map-like.
+     * @param jCodeModel the code model to use for generation.
+     * @return the class or the Map type of the object.
+     */
+    private JClass getObjectType(JsonNode node, String className, String elementClassName, JCodeModel jCodeModel) {
+        if (!isMapLike(node)) {
+            return mClassMap.get(className);
+        }
+
+        // Find the innermost map by following the first values of nested maps
+        JsonNode mapNode = node;
+        int nestedMaps = 1;
+        while (mapNode.elements().hasNext() && isMapLike(mapNode.elements().next())) {
+            mapNode = mapNode.elements().next();
+            nestedMaps++;
+        }
+
+        // Make a Map<> of the innermost value type for each level of nesting
+        JClass type = getMapValueType(mapNode, elementClassName, jCodeModel);
+        for (int i = 0; i < nestedMaps; i++) {
+            type = jCodeModel.ref(Map.class).narrow(jCodeModel.ref(String.class), type);
+        }
+        return type;
+    }
+
+    /**
+     * Gets the common type of the values of a map-like object. Unlike arrays, all of the values are considered, since
+     * dictionaries often have values of mixed types such as integral and floating point numbers.
+     *
+     * @param node the JSON object node.
+     * @param elementClassName the name of the class generated for object values.
+     * @param jCodeModel the code model to use for generation.
+     * @return the common type of the values, or Object if they don't have one.
+     */
+    private JClass getMapValueType(JsonNode node, String elementClassName, JCodeModel jCodeModel) {
+        JClass objectClass = jCodeModel.ref(Object.class);
+        JClass doubleClass = jCodeModel.ref(Double.class);
+        JClass longClass = jCodeModel.ref(Long.class);
+        JClass valueType = null;
+        for (JsonNode value : node) {
+            JType type;
+            if (value.isNull()) {
+                continue;
+            } else if (value.isObject()) {
+                type = isMapLike(value) ? null : mClassMap.get(elementClassName);
+            } else if (value.isArray()) {
+                type = getListType(value, elementClassName, jCodeModel);
+                if (type == mDeferredList) {
+                    // Empty arrays don't tell the element type
+                    continue;
+                }
+            } else if (value.isBoolean()) {
+                type = jCodeModel.ref(Boolean.class);
+            } else if (value.isFloatingPointNumber()) {
+                type = doubleClass;
+            } else if (value.isIntegralNumber()) {
+                type = longClass;
+            } else if (value.isTextual()) {
+                type = jCodeModel.ref(String.class);
+            } else {
+                type = null;
+            }
+
+            // Widen longs to doubles, otherwise values of different types are only known to be objects
+            if (!(type instanceof JClass)) {
+                return objectClass;
+            } else if (valueType == null || valueType.equals(type)) {
+                valueType = (JClass) type;
+            } else if ((valueType.equals(doubleClass) || valueType.equals(longClass)) &&
+                    (type.equals(doubleClass) || type.equals(longClass))) {
+                valueType = doubleClass;
+            } else {
+                return objectClass;
+            }
+        }
+        return valueType != null ? valueType : objectClass;
+    }
+
+    /**
+     * Checks whether a JSON object is really a dictionary, whose keys are data rather than property names. This is
+     * the case if all keys look like numbers, UUIDs, or dates, or if there are many keys whose values all have the same
+     * kind of JSON type.
+     *
+     * @param node the JSON node to check.
+     * @return true if the node should be generated as a Map.
+     */
+    private boolean isMapLike(JsonNode node) {
+        if (!mOptions.isDetectMaps() || !node.isObject() || node.size() == 0) {
+            return false;
+        }
+
+        // Keys which look like IDs or dates
+        boolean allIdKeys = true;
+        Iterator<String> fieldNames = node.fieldNames();
+        while (allIdKeys && fieldNames.hasNext()) {
+            String fieldName = fieldNames.next();
+            allIdKeys = NUMERIC_KEY.matcher(fieldName).matches() || UUID_KEY.matcher(fieldName).matches() ||
+                    DATE_KEY.matcher(fieldName).matches();
+        }
+        if (allIdKeys) {
+            return true;
+        } else if (node.size() < MIN_HOMOGENEOUS_MAP_KEYS) {
+            return false;
+        }
+
+        // Many keys whose values are all of the same node type, ignoring nulls
+        JsonNodeType valueType = null;
+        for (JsonNode value : node) {
+            if (value.isNull()) {
+                continue;
+            } else if (valueType == null) {
+                valueType = value.getNodeType();
+            } else if (valueType != value.getNodeType()) {
+                return false;
+            }
+        }
+        return valueType != null;
+    }
+
     /**
      * Generates all of the fields for a given class.
      *
      * @param clazz the class to generate sub-objects and fields for.
      * @param fields the set of fields to generate.
      * @param jCodeModel the code model.
-     * @param generateBuilders true if the generated class should omit setters and generate a builder instead.
-     * @param useMPrefix true if the generated fields should use an 'm' prefix.
      * @return a list of generated fields.
      * @throws Exception if an error occurs.
      */
-    private List<GeneratedField> generateFields(JDefinedClass clazz, Set<FieldInfo> fields, JCodeModel jCodeModel,
-                                                boolean generateBuilders, boolean useMPrefix, boolean useDoubleValueGetters) throws Exception {
+    private List<GeneratedField> generateFields(JDefinedClass clazz, Set<FieldInfo> fields, JCodeModel jCodeModel)
+            throws Exception {
         List<GeneratedField> generatedFields = new ArrayList<>();
+        boolean useMPrefix = mOptions.isUseMPrefix();
+        int fieldMods = mOptions.isGenerateImmutable() ? JMod.PRIVATE | JMod.FINAL : JMod.PRIVATE;
+
+        // Reserve the names of all fields, so that the caches of number values don't take one
+        Set<String> reservedNames = new HashSet<>();
+        for (FieldInfo fieldInfo : fields) {
+            reservedNames.add(formatFieldName(fieldInfo.PropertyName, useMPrefix));
+        }
 
         // Get sorted list of field names
         for (FieldInfo fieldInfo : fields) {
             // Create field with correct naming scheme
             String fieldName = formatFieldName(fieldInfo.PropertyName, useMPrefix);
-log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldInfo.Type.name(), fieldInfo.Type.isArray()));
-            // Resolve deferred types
-            JFieldVar newField;
-            if (fieldInfo.Type.equals(mDeferredClass)) {
-                // Attempt to get the class from the class map
-                String newClassName = formatClassName(fieldInfo.PropertyName);
-                JDefinedClass newClass = mClassMap.get(newClassName);
-
-                // Now return the field for the actual class type
-                if (newClass != null) {
-                     newField = clazz.field(JMod.PRIVATE, newClass, fieldName);
-                } else {
-                    // Otherwise, just make a field of type Object
-                    newField = clazz.field(JMod.PRIVATE, jCodeModel.ref(Object.class), fieldName);
-                }
-            } else if (fieldInfo.Type.equals(mDeferredList)) {
-                // Attempt to get the class from the class map
-                String newClassName = formatClassName(Inflector.getInstance().singularize(fieldInfo.PropertyName));
-                JDefinedClass newClass = mClassMap.get(newClassName);
-
-                // Now return the field referring to a list of the new class
-                if (newClass != null) {
-                    newField = clazz.field(JMod.PRIVATE, jCodeModel.ref(List.class).narrow(newClass), fieldName);
-                } else {
-                    // Otherwise, just make a field of type List<Object>
-                    newField = clazz.field(JMod.PRIVATE, jCodeModel.ref(List.class).narrow(Object.class), fieldName);
+log.fine(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldInfo.Type.name(), fieldInfo.Type.isArray()));
+            // Resolve deferred types, otherwise the type should already be defined unless it can be an enum
+            JType type = resolveDeferredType(fieldInfo, jCodeModel);
+            if (type == fieldInfo.Type) {
+                JDefinedClass enumClass = getEnumForField(clazz, fieldInfo);
+                if (enumClass != null) {
+                    type = enumClass;
+                } else if (mOptions.isNarrowNumbers()) {
+                    type = getNarrowedType(clazz, fieldInfo, jCodeModel);
                 }
-            } else {
-                // The type should already be defined so just use it
-                newField = clazz.field(JMod.PRIVATE, fieldInfo.Type, fieldName);
             }
+            JFieldVar newField = clazz.field(fieldMods, type, fieldName);
 
             if (newField != null) {
                 // Annotate field
                 annotateField(newField, fieldInfo.PropertyName);
 
                 // Create getter
-                createGetter(clazz, newField, fieldInfo.PropertyName);
-
-                if (useDoubleValueGetters && fieldInfo.isStringIsNumber()) {
-                    createDoubleGetter(clazz, newField, fieldInfo.PropertyName);
+                JMethod getter = createGetter(clazz, newField, fieldInfo.PropertyName);
+
+                JFieldVar valueCache = null;
+                if (mOptions.isUseDoubleValueGetters() && fieldInfo.isStringIsNumber()) {
+                    // Lazily parsed fields must be read through the getter, which decodes them
+                    JExpression value = mOptions.usesLazyParsing() ? JExpr.invoke(getter) : JExpr._this().ref(newField);
+                    if (mOptions.isMemoizeNumberValues()) {
+                        valueCache = createMemoizedValueGetter(clazz, value, fieldInfo.PropertyName,
+                                getNumberValueType(clazz, fieldInfo, jCodeModel), reservedNames, useMPrefix);
+                    } else {
+                        createDoubleGetter(clazz, value, fieldInfo.PropertyName);
+                    }
                 }
 
                 // Create setter method only if we're not generating a builder class
-                if (!generateBuilders) {
-                    createSetter(clazz, newField, fieldInfo.PropertyName);
+                if (!mOptions.usesBuilders()) {
+                    JMethod setter = createSetter(clazz, newField, fieldInfo.PropertyName);
+
+                    // A new string must be parsed again
+                    if (valueCache != null) {
+                        setter.body().assign(JExpr._this().ref(valueCache),
+                                valueCache.type().isPrimitive() ? JExpr.FALSE : JExpr._null());
+                    }
                 }
 
                 // Add field to return list
-                generatedFields.add(new GeneratedField(newField, fieldInfo.PropertyName));
+                generatedFields.add(new GeneratedField(newField, fieldInfo.PropertyName, valueCache));
             }
         }
 
         return generatedFields;
     }
 
+    /**
+     * Gets the narrowest type which holds every number observed for a field, with the configured headroom. Fields with
+     * a value in every object become primitives, the others stay boxed so that they can still be missing or null.
+     *
+     * @param clazz the class containing the field.
+     * @param fieldInfo the field to narrow.
+     * @param jCodeModel the code model.
+     * @return the narrowed type, or the field type itself if it isn't a number.
+     */
+    private JType getNarrowedType(JDefinedClass clazz, FieldInfo fieldInfo, JCodeModel jCodeModel) {
+        Map<String, NumberRange> ranges = mNumberRangeMap.get(clazz);
+        NumberRange range = ranges != null ? ranges.get(fieldInfo.PropertyName) : null;
+        if (range == null || !(fieldInfo.Type.fullName().equals(Long.class.getName()) ||
+                fieldInfo.Type.fullName().equals(Double.class.getName()))) {
+            return fieldInfo.Type;
+        }
+
+        JClass type = jCodeModel.ref(range.getNarrowestType(mOptions.getNarrowingHeadroom()));
+        JType primitive = type.unboxify();
+        boolean alwaysPresent = range.getObservations() == mObjectCounts.getOrDefault(clazz, 0L);
+        log.fine(String.format("Narrowed %s.%s to %s", clazz.name(), fieldInfo.PropertyName, type.name()));
+        return alwaysPresent && primitive.isPrimitive() ? primitive : type;
+    }
+
+    /**
+     * Gets the type of the cached value of a numeric string field from the form of the observed strings. Integers
+     * become long, and other numbers double, unless a double would lose some of their digits, in which case they become
+     * BigDecimal. Integers which don't fit a long become BigDecimal as well.
+     *
+     * @param clazz the class containing the field.
+     * @param fieldInfo the numeric string field.
+     * @param jCodeModel the code model.
+     * @return the type of the cached value, double if no value was observed.
+     */
+    private JType getNumberValueType(JDefinedClass clazz, FieldInfo fieldInfo, JCodeModel jCodeModel) {
+        Map<String, NumberRange> ranges = mNumberRangeMap.get(clazz);
+        NumberRange range = ranges != null ? ranges.get(fieldInfo.PropertyName) : null;
+        if (range == null) {
+            return jCodeModel.DOUBLE;
+        }
+
+        Class<?> type = range.getNarrowestType(1);
+        if (type == BigDecimal.class || type == BigInteger.class) {
+            return jCodeModel.ref(BigDecimal.class);
+        } else if (type == Double.class || type == Float.class) {
+            return jCodeModel.DOUBLE;
+        }
+        return jCodeModel.LONG;
+    }
+
+    /**
+     * Resolves the type of a field whose type was deferred because it was only seen as null or as an empty array.
+     *
+     * @param fieldInfo the field to resolve.
+     * @param jCodeModel the code model.
+     * @return the class generated for the property or a list of it, falling back to Object, or the field type itself
+     * if it was not deferred.
+     */
+    private JType resolveDeferredType(FieldInfo fieldInfo, JCodeModel jCodeModel) {
+        if (fieldInfo.Type.equals(mDeferredClass)) {
+            // Attempt to get the class from the class map, otherwise just use Object
+            JDefinedClass newClass = mClassMap.get(formatClassName(fieldInfo.PropertyName));
+            return newClass != null ? newClass : jCodeModel.ref(Object.class);
+        } else if (fieldInfo.Type.equals(mDeferredList)) {
+            // Attempt to get the element class from the class map, otherwise just use List<Object>
+            JDefinedClass newClass = mClassMap.get(getElementClassName(fieldInfo.PropertyName));
+            return jCodeModel.ref(List.class).narrow(newClass != null ? newClass : jCodeModel.ref(Object.class));
+        }
+        return fieldInfo.Type;
+    }
+
     /**
      * Generates the inner builder class for the containing class, with methods for the given fields.
      *
@@ -375,20 +1177,199 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
             createBuilderSetter(builder, generatedField.Field, generatedField.PropertyName);
         }
 
+        // Create the methods which let a single builder be reused
+        createBuilderResetMethod(builder, fields);
+        createBuilderFromMethod(clazz, builder, fields);
+
         // Create the build method
-        createBuildMethod(clazz, builder, fields);
+        if (mOptions.isGenerateImmutable()) {
+            createValueConstructor(clazz, builder, fields);
+            createValueBuildMethod(clazz, builder);
+        } else {
+            createBuildMethod(clazz, builder, createBuildIntoMethod(clazz, builder, fields));
+        }
+    }
+
+    /**
+     * Gets the enum to use as the type of a String field, generating it if necessary. A field becomes an enum only if
+     * every observed value was tracked exactly, there are no more of them than the configured cardinality, and each
+     * value was seen often enough to suggest a closed set rather than free text.
+     *
+     * @param clazz the class containing the field.
+     * @param fieldInfo the field to get an enum for.
+     * @return the enum class, or null if the field should remain a String.
+     * @throws Exception if an error occurs.
+     */
+    private JDefinedClass getEnumForField(JDefinedClass clazz, FieldInfo fieldInfo) throws Exception {
+        // Find the values observed for this field
+        Map<String, DistinctValueCounter> counters = mStringValueMap.get(clazz);
+        DistinctValueCounter counter = counters != null ? counters.get(fieldInfo.PropertyName) : null;
+        if (counter == null || !counter.isExact() || counter.getCardinality() == 0 ||
+                counter.getObservations() < MIN_ENUM_OBSERVATIONS_PER_VALUE * counter.getCardinality()) {
+            return null;
+        }
+        log.fine(String.format("Enum candidate %s.%s: %s", clazz.name(), fieldInfo.PropertyName, counter.getValues()));
+
+        // Reuse an enum with exactly the same set of values
+        Set<String> values = new TreeSet<>(counter.getValues());
+        if (mEnumMap.containsKey(values)) {
+            return mEnumMap.get(values);
+        }
+
+        // Every value must map to a distinct constant name, and numbers stay strings for their number getters
+        Map<String, String> constantNames = new LinkedHashMap<>();
+        for (String value : counter.getValues()) {
+            if (isNumericText(value)) {
+                return null;
+            }
+            String constantName = formatEnumConstantName(value);
+            if (constantName.isEmpty() || constantNames.containsValue(constantName)) {
+                return null;
+            }
+            constantNames.put(value, constantName);
+        }
+
+        // Pick a class name which doesn't clash with a generated class or enum
+        JPackage jPackage = clazz._package();
+        String enumName = formatClassName(fieldInfo.PropertyName);
+        if (mClassMap.containsKey(enumName) || jPackage._getClass(enumName) != null) {
+            enumName = clazz.name() + enumName;
+            if (mClassMap.containsKey(enumName) || jPackage._getClass(enumName) != null) {
+                return null;
+            }
+        }
+
+        JDefinedClass enumClass = generateEnum(jPackage, enumName, constantNames);
+        mEnumMap.put(values, enumClass);
+        return enumClass;
+    }
+
+    /**
+     * Generates an enum whose constants carry the original JSON values, with a hash-based lookup from value to
+     * constant.
+     *
+     * @param jPackage the code model package to generate the enum in.
+     * @param enumName the name of the enum to generate.
+     * @param constantNames the JSON values mapped to their constant names.
+     * @return the generated enum.
+     * @throws Exception if an error occurs.
+     */
+    private JDefinedClass generateEnum(JPackage jPackage, String enumName, Map<String, String> constantNames)
+            throws Exception {
+        JCodeModel jCodeModel = jPackage.owner();
+        JDefinedClass enumClass = jPackage._enum(enumName);
+        annotateClass(enumClass);
+
+        // Create the constants, which GSON matches by their original JSON values rather than their names
+        for (Map.Entry<String, String> entry : constantNames.entrySet()) {
+            JEnumConstant constant = enumClass.enumConstant(entry.getValue()).arg(JExpr.lit(entry.getKey()));
+            constant.annotate(SerializedName.class).param("value", entry.getKey());
+        }
+        mEnumConstants.put(enumClass, new ArrayList<>(constantNames.values()));
+
+        // Create the value field and constructor
+        JFieldVar valueField = enumClass.field(JMod.PRIVATE | JMod.FINAL, String.class,
+                formatFieldName("value", mOptions.isUseMPrefix()));
+        JMethod constructor = enumClass.constructor(JMod.NONE);
+        JVar valueParam = constructor.param(String.class, "value");
+        constructor.body().assign(JExpr._this().ref(valueField), valueParam);
+
+        // Create the static lookup map, filled once when the enum is initialized
+        JClass mapType = jCodeModel.ref(Map.class).narrow(jCodeModel.ref(String.class), enumClass);
+        JClass hashMapType = jCodeModel.ref(HashMap.class).narrow(jCodeModel.ref(String.class), enumClass);
+        JFieldVar lookup = enumClass.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, mapType, "BY_VALUE",
+                JExpr._new(hashMapType));
+        JForEach forEach = enumClass.init().forEach(enumClass, "constant", enumClass.staticInvoke("values"));
+        forEach.body().invoke(lookup, "put").arg(forEach.var().ref(valueField)).arg(forEach.var());
+
+        // Create the accessors
+        enumClass.method(JMod.PUBLIC, String.class, "getValue").body()._return(valueField);
+
+        JMethod toString = enumClass.method(JMod.PUBLIC, String.class, "toString");
+        toString.annotate(Override.class);
+        toString.body()._return(valueField);
+
+        JMethod fromValue = enumClass.method(JMod.PUBLIC | JMod.STATIC, enumClass, "fromValue");
+        JVar fromValueParam = fromValue.param(String.class, "value");
+        fromValue.body()._return(lookup.invoke("get").arg(fromValueParam));
+
+        return enumClass;
     }
 
     //endregion
 
     //region HELPER METHODS --------------------------------------------------------------------------------------------
 
+    /**
+     * Starts a new phase of the generation, showing its name in the progress indicator.
+     *
+     * @param phase the phase to start.
+     */
+    private void startPhase(Phase phase) {
+        mPhase = phase;
+        mProgressBar.setText(phase.mText);
+        mProgressBar.setDetails("");
+        updateProgress(0);
+    }
+
+    /**
+     * Updates the progress indicator within the current phase, and aborts if the user has cancelled the generation.
+     *
+     * @param fraction the fraction of the current phase which is done.
+     * @throws RuntimeException if the generation was cancelled.
+     */
+    private void updateProgress(double fraction) {
+        mProgressBar.checkCanceled();
+        mProgressBar.setFraction(mPhase.mStart + (mPhase.mEnd - mPhase.mStart) * fraction);
+    }
+
+    /**
+     * Counts a JSON object or array visited during inference, updating the progress every so often.
+     */
+    private void visitContainer() {
+        mVisitedContainers++;
+        if (mVisitedContainers % PROGRESS_CONTAINER_INTERVAL == 0) {
+            // Trees which weren't read by this generation, as in the preview, have no count but can still be cancelled
+            updateProgress(mContainerCount > 0 ? Math.min(1.0, (double) mVisitedContainers / mContainerCount) : 0);
+        }
+    }
+
+    /**
+     * Reports how much of the JSON input has been consumed by the parser as the progress of the current phase.
+     *
+     * @param position the amount of input consumed so far.
+     * @param length the total amount of input.
+     * @param unit the unit of the input amounts.
+     */
+    private void updateParseProgress(long position, long length, String unit) {
+        if (length > 0) {
+            updateProgress(Math.min(1.0, (double) position / (double) length));
+            mProgressBar.setDetails(String.format("%,d of %,d %s", position, length, unit));
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it, logging rather than failing if it can't be deleted.
+     *
+     * @param directory the directory to delete.
+     */
+    private static void deleteDirectory(File directory) {
+        try {
+            Files.walk(directory.toPath())
+                    .sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to delete " + directory, e);
+        }
+    }
+
     /**
      * Adds the {@link Generated} annotation to the class.
      *
      * @param clazz the class to annotate.
      */
-    private static void annotateClass(JDefinedClass clazz) {
+    static void annotateClass(JDefinedClass clazz) {
         clazz.annotate(Generated.class).param("value", "net.hexar.json2pojo");
         clazz.annotate(SuppressWarnings.class).param("value", "unused");
     }
@@ -448,34 +1429,210 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
     }
 
     /**
-     * Creates the build method for the builder.
+     * Creates the reset method of the builder, which clears every field so that the builder can be reused for another
+     * instance without holding on to the values of the previous one.
+     *
+     * @param builder the builder to generate the reset method for.
+     * @param fields the list of generated fields that the containing class owns.
+     * @return a {@link JMethod} which is the reset method.
+     */
+    private static JMethod createBuilderResetMethod(JDefinedClass builder, List<GeneratedField> fields) {
+        JMethod resetMethod = builder.method(JMod.PUBLIC, builder, "reset");
+        JBlock body = resetMethod.body();
+        for (GeneratedField field : fields) {
+            // Primitive fields go back to zero, all others to null
+            JType type = field.Field.type();
+            JExpression empty = !type.isPrimitive() ? JExpr._null()
+                    : type.equals(builder.owner().BOOLEAN) ? JExpr.FALSE : JExpr.lit(0);
+            body.assign(JExpr._this().ref(field.Field.name()), empty);
+        }
+        body._return(JExpr._this());
+        return resetMethod;
+    }
+
+    /**
+     * Creates the from method of the builder, which copies every field of an existing instance into the builder. The
+     * fields are read through the getters, so that lazily parsed fields are decoded first.
+     *
+     * @param owner the containing class to copy from.
+     * @param builder the builder to generate the from method for.
+     * @param fields the list of generated fields that the containing class owns.
+     * @return a {@link JMethod} which is the from method.
+     */
+    private static JMethod createBuilderFromMethod(JDefinedClass owner, JDefinedClass builder,
+                                                   List<GeneratedField> fields) {
+        JMethod fromMethod = builder.method(JMod.PUBLIC, builder, "from");
+        JVar existing = fromMethod.param(owner, "existing");
+        JBlock body = fromMethod.body();
+        for (GeneratedField field : fields) {
+            body.assign(JExpr._this().ref(field.Field.name()),
+                    existing.invoke("get" + formatClassName(field.PropertyName)));
+        }
+        body._return(JExpr._this());
+        return fromMethod;
+    }
+
+    /**
+     * Creates the buildInto method of the builder, which assigns every field of a caller-supplied instance, so that a
+     * loop can reuse its instances as well as its builder. The cached number values of the instance are cleared, since
+     * their strings may have changed.
      *
      * @param owner the containing class to build.
-     * @param builder the builder to generate the build method for.
+     * @param builder the builder to generate the method for.
      * @param fields the list of generated fields that the containing class owns.
+     * @return a {@link JMethod} which is the buildInto method.
      */
-    private JMethod createBuildMethod(JDefinedClass owner, JDefinedClass builder, List<GeneratedField> fields) {
-        // Method name should start with "set" and then the uppercased class name
-        JMethod buildMethod = builder.method(JMod.PUBLIC, owner, "build");
+    private static JMethod createBuildIntoMethod(JDefinedClass owner, JDefinedClass builder,
+                                                 List<GeneratedField> fields) {
+        JMethod buildIntoMethod = builder.method(JMod.PUBLIC, owner, "buildInto");
+        JVar target = buildIntoMethod.param(owner, "target");
+        JBlock body = buildIntoMethod.body();
+        for (GeneratedField field : fields) {
+            // Assign the field in the owner class
+            body.assign(target.ref(field.Field), JExpr._this().ref(field.Field.name()));
+            if (field.ValueCache != null) {
+                body.assign(target.ref(field.ValueCache),
+                        field.ValueCache.type().isPrimitive() ? JExpr.FALSE : JExpr._null());
+            }
+        }
+        body._return(target);
+        return buildIntoMethod;
+    }
 
-        // Assign to field name
-        JBlock body = buildMethod.body();
+    /**
+     * Creates the build method for the builder, which builds into a new instance.
+     *
+     * @param owner the containing class to build.
+     * @param builder the builder to generate the build method for.
+     * @param buildIntoMethod the buildInto method of the builder.
+     * @return a {@link JMethod} which is the build method.
+     */
+    private static JMethod createBuildMethod(JDefinedClass owner, JDefinedClass builder, JMethod buildIntoMethod) {
+        JMethod buildMethod = builder.method(JMod.PUBLIC, owner, "build");
+        buildMethod.body()._return(JExpr.invoke(buildIntoMethod).arg(JExpr._new(owner)));
+        return buildMethod;
+    }
 
-        // Declare new instance of owner class
-        String localName = sanitizePropertyName(owner.name());
-        JVar local = body.decl(owner, localName, JExpr._new(owner));
+    /**
+     * Creates the private constructor of an immutable class, which assigns every final field from the builder. List
+     * and Map fields are copied into unmodifiable collections so that the instance can be safely published.
+     *
+     * @param owner the immutable class to generate the constructor in.
+     * @param builder the builder which holds the field values.
+     * @param fields the list of generated fields that the containing class owns.
+     * @return a {@link JMethod} which is the value constructor.
+     */
+    private static JMethod createValueConstructor(JDefinedClass owner, JDefinedClass builder,
+                                                  List<GeneratedField> fields) {
+        JCodeModel jCodeModel = owner.owner();
+        JMethod constructor = owner.constructor(JMod.PRIVATE);
+        JVar param = constructor.param(builder, "builder");
 
-        // Get sorted list of field names
+        JBlock body = constructor.body();
         for (GeneratedField field : fields) {
-            // Assign the field in the owner class
-            body.assign(local.ref(field.Field.name()), JExpr.ref(field.Field.name()));
+            JExpression value = param.ref(field.Field.name());
+
+            // Copy lists once at build time
+            JType type = field.Field.type();
+            if (type instanceof JClass && ((JClass) type).erasure().equals(jCodeModel.ref(List.class))) {
+                JClass elementType = ((JClass) type).getTypeParameters().get(0);
+                JInvocation copy = JExpr._new(jCodeModel.ref(ArrayList.class).narrow(elementType)).arg(value);
+                JInvocation unmodifiable = jCodeModel.ref(Collections.class).staticInvoke("unmodifiableList").arg(copy);
+                value = JOp.cond(value.eq(JExpr._null()), JExpr._null(), unmodifiable);
+            } else if (type instanceof JClass && ((JClass) type).erasure().equals(jCodeModel.ref(Map.class))) {
+                List<JClass> typeParameters = ((JClass) type).getTypeParameters();
+                JInvocation copy = JExpr._new(jCodeModel.ref(LinkedHashMap.class).narrow(typeParameters)).arg(value);
+                JInvocation unmodifiable = jCodeModel.ref(Collections.class).staticInvoke("unmodifiableMap").arg(copy);
+                value = JOp.cond(value.eq(JExpr._null()), JExpr._null(), unmodifiable);
+            }
+
+            // Assign this.FieldName = builder.FieldName
+            body.assign(JExpr._this().ref(field.Field), value);
         }
+        return constructor;
+    }
 
-        // Return the new instance
-        body._return(local);
+    /**
+     * Creates the build method for the builder of an immutable class, which delegates to the value constructor.
+     *
+     * @param owner the containing class to build.
+     * @param builder the builder to generate the build method for.
+     * @return a {@link JMethod} which is the build method.
+     */
+    private static JMethod createValueBuildMethod(JDefinedClass owner, JDefinedClass builder) {
+        JMethod buildMethod = builder.method(JMod.PUBLIC, owner, "build");
+        buildMethod.body()._return(JExpr._new(owner).arg(JExpr._this()));
         return buildMethod;
     }
 
+    /**
+     * Generates a structural equals method comparing all of the given fields.
+     *
+     * @param clazz the class to generate the equals method in.
+     * @param fields the list of generated fields to compare.
+     * @return a {@link JMethod} which is the equals method.
+     */
+    private static JMethod createEqualsMethod(JDefinedClass clazz, List<GeneratedField> fields) {
+        JCodeModel jCodeModel = clazz.owner();
+        JMethod equals = clazz.method(JMod.PUBLIC, boolean.class, "equals");
+        equals.annotate(Override.class);
+        JVar other = equals.param(Object.class, "other");
+
+        // Identity and type checks
+        JBlock body = equals.body();
+        body._if(other.eq(JExpr._this()))._then()._return(JExpr.TRUE);
+        body._if(other.eq(JExpr._null()).cor(JExpr.invoke("getClass").ne(other.invoke("getClass"))))
+                ._then()._return(JExpr.FALSE);
+
+        // Compare each field with Objects.equals()
+        JVar that = body.decl(clazz, "that", JExpr.cast(clazz, other));
+        JExpression result = null;
+        for (GeneratedField field : fields) {
+            JExpression fieldEquals = jCodeModel.ref(Objects.class).staticInvoke("equals")
+                    .arg(JExpr._this().ref(field.Field)).arg(that.ref(field.Field));
+            result = result == null ? fieldEquals : result.cand(fieldEquals);
+        }
+        body._return(result == null ? JExpr.TRUE : result);
+        return equals;
+    }
+
+    /**
+     * Generates a hashCode method over all of the given fields. The hash is computed on first use and cached in a
+     * transient field, which is safe because the fields of an immutable class never change.
+     *
+     * @param clazz the class to generate the hashCode method in.
+     * @param fields the list of generated fields to hash.
+     * @param useMPrefix true if the cache field should use an 'm' prefix.
+     * @return a {@link JMethod} which is the hashCode method.
+     */
+    private static JMethod createHashCodeMethod(JDefinedClass clazz, List<GeneratedField> fields, boolean useMPrefix) {
+        JCodeModel jCodeModel = clazz.owner();
+
+        // Create the cache field, avoiding clashes with generated fields
+        String cacheName = formatFieldName("hashCode", useMPrefix);
+        while (clazz.fields().containsKey(cacheName)) {
+            cacheName = "cached" + StringUtils.capitalize(cacheName);
+        }
+        JFieldVar cache = clazz.field(JMod.PRIVATE | JMod.TRANSIENT, int.class, cacheName);
+
+        JMethod hashCode = clazz.method(JMod.PUBLIC, int.class, "hashCode");
+        hashCode.annotate(Override.class);
+
+        // Compute the hash only if it hasn't been cached yet
+        JBlock body = hashCode.body();
+        JVar result = body.decl(jCodeModel.INT, "result", JExpr._this().ref(cache));
+        JBlock compute = body._if(result.eq(JExpr.lit(0)))._then();
+        compute.assign(result, JExpr.lit(1));
+        for (GeneratedField field : fields) {
+            JExpression fieldHash = jCodeModel.ref(Objects.class).staticInvoke("hashCode")
+                    .arg(JExpr._this().ref(field.Field));
+            compute.assign(result, JExpr.lit(31).mul(result).plus(fieldHash));
+        }
+        compute.assign(JExpr._this().ref(cache), result);
+        body._return(result);
+        return hashCode;
+    }
+
     /**
      * Generates a getter for the given class, field, and property name.
      *
@@ -493,7 +1650,8 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
         body._return(field);
         return getter;
     }
-    private static JMethod createDoubleGetter(JDefinedClass clazz, JFieldVar field, String propertyName) {
+
+    private static JMethod createDoubleGetter(JDefinedClass clazz, JExpression field, String propertyName) {
 
         // Method name should start with "get" and then the uppercased class name
         String name = "get" + formatClassName(propertyName)+"Value";
@@ -502,15 +1660,76 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
         // Return Double.valueOf(field)
         JBlock body = getter.body();
         JClass doubleClass = clazz.owner().ref(Double.class);
-        log.info("doubleClass: "+doubleClass);
+        log.fine("doubleClass: "+doubleClass);
 
         JInvocation valueOf = doubleClass.staticInvoke("valueOf");
-        log.info("valueOf: "+valueOf);
+        log.fine("valueOf: "+valueOf);
         valueOf.arg(field);
         body._return(valueOf);
         return getter;
     }
 
+    /**
+     * Generates a getter for the number value of a numeric string field, which parses the string on first use and
+     * caches the value in transient fields, so that GSON ignores them. Primitive values are cached with a volatile
+     * flag, which is written after the value, so that another thread never sees the flag without the value. BigDecimal
+     * values are cached on their own, since they are immutable and null until parsed.
+     *
+     * @param clazz the class to generate the getter in.
+     * @param field the expression of the string to parse.
+     * @param propertyName the name of the property.
+     * @param valueType the type of the value, long, double or BigDecimal.
+     * @param reservedNames the names of the fields of the class, to which the names of the cache fields are added.
+     * @param useMPrefix true if the cache fields should use an 'm' prefix.
+     * @return the field to reset when the string changes, the flag for primitive values, or the value itself.
+     */
+    private static JFieldVar createMemoizedValueGetter(JDefinedClass clazz, JExpression field, String propertyName,
+                                                       JType valueType, Set<String> reservedNames, boolean useMPrefix) {
+        JCodeModel jCodeModel = clazz.owner();
+        String name = "get" + formatClassName(propertyName) + "Value";
+        JMethod getter = clazz.method(JMod.PUBLIC, valueType, name);
+        JBlock body = getter.body();
+
+        String valueName = uniqueCacheName(formatFieldName(propertyName + "_value", useMPrefix), reservedNames);
+        JFieldVar value = clazz.field(JMod.PRIVATE | JMod.TRANSIENT, valueType, valueName);
+        if (!valueType.isPrimitive()) {
+            // Return new BigDecimal(field), parsed only once
+            JVar result = body.decl(valueType, "result", JExpr._this().ref(value));
+            JBlock parse = body._if(result.eq(JExpr._null()))._then();
+            parse.assign(result, JExpr._new(valueType).arg(field));
+            parse.assign(JExpr._this().ref(value), result);
+            body._return(result);
+            return value;
+        }
+
+        // Return Long.parseLong(field) or Double.parseDouble(field), parsed only once
+        String parsedName = uniqueCacheName(formatFieldName(propertyName + "_parsed", useMPrefix), reservedNames);
+        JFieldVar parsed = clazz.field(JMod.PRIVATE | JMod.TRANSIENT | JMod.VOLATILE, jCodeModel.BOOLEAN, parsedName);
+        JClass boxedType = valueType.boxify();
+        JBlock parse = body._if(JOp.not(JExpr._this().ref(parsed)))._then();
+        parse.assign(JExpr._this().ref(value),
+                boxedType.staticInvoke("parse" + StringUtils.capitalize(valueType.name())).arg(field));
+        parse.assign(JExpr._this().ref(parsed), JExpr.TRUE);
+        body._return(JExpr._this().ref(value));
+        return parsed;
+    }
+
+    /**
+     * Gets a field name which isn't taken by the fields of a class, and reserves it.
+     *
+     * @param name the preferred name.
+     * @param reservedNames the names which are taken, to which the returned name is added.
+     * @return the preferred name, prefixed with "cached" as many times as needed.
+     */
+    private static String uniqueCacheName(String name, Set<String> reservedNames) {
+        String cacheName = name;
+        while (reservedNames.contains(cacheName)) {
+            cacheName = "cached" + StringUtils.capitalize(cacheName);
+        }
+        reservedNames.add(cacheName);
+        return cacheName;
+    }
+
     /**
      * Generates a setter for the given class, field, and property name.
      *
@@ -549,6 +1768,29 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
         return StringUtils.capitalize(sanitizePropertyName(propertyName));
     }
 
+    /**
+     * Formats the given property name of an array or map into the class name of its object elements. The names are
+     * cached, since singularizing runs through a list of patterns and is repeated for every array in the JSON.
+     *
+     * @param propertyName the original property name.
+     * @return the singularized class name.
+     */
+    private String getElementClassName(String propertyName) {
+        String className = mElementClassNames.get(propertyName);
+        if (className != null) {
+            mInflectorHits++;
+            return className;
+        }
+
+        // Misses are rare enough to always be timed
+        long start = System.nanoTime();
+        className = formatClassName(Inflector.getInstance().singularize(propertyName));
+        mInflectorMissNanos += System.nanoTime() - start;
+        mInflectorMisses++;
+        mElementClassNames.put(propertyName, className);
+        return className;
+    }
+
     /**
      * Formats the given property name into a more standard field name.
      *
@@ -566,6 +1808,53 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
         return fieldName;
     }
 
+    /**
+     * @param text a JSON string value.
+     * @return true if the text can be read as a number, such as "19.99", so that it gets number getters.
+     */
+    private static boolean isNumericText(String text) {
+        try {
+            Double.parseDouble(text);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Formats the given JSON value into an enum constant name, e.g. "inProgress" and "in-progress" both become
+     * IN_PROGRESS.
+     *
+     * @param value the original JSON value.
+     * @return the formatted constant name, or an empty string if the value contains no usable characters.
+     */
+    static String formatEnumConstantName(String value) {
+        final StringBuilder constantName = new StringBuilder();
+        boolean separateNext = false;
+
+        for (int charIndex = 0; charIndex < value.length(); charIndex++) {
+            char c = value.charAt(charIndex);
+            if (Character.isLetterOrDigit(c)) {
+                // Separate words at non-alphanumeric characters and lower to upper case transitions
+                boolean camelBoundary = charIndex > 0 && Character.isUpperCase(c) &&
+                        Character.isLowerCase(value.charAt(charIndex - 1));
+                if (constantName.length() > 0 && (separateNext || camelBoundary)) {
+                    constantName.append('_');
+                }
+                constantName.append(Character.toUpperCase(c));
+                separateNext = false;
+            } else {
+                separateNext = true;
+            }
+        }
+
+        // Avoid invalid starting characters
+        if (constantName.length() > 0 && !Character.isJavaIdentifierStart(constantName.charAt(0))) {
+            constantName.insert(0, '_');
+        }
+        return constantName.toString();
+    }
+
     /**
      * Given a property name as a string, creates a valid identifier by removing non-alphanumeric characters and
      * uppercasing the letters after non-alphanumeric characters.
@@ -611,6 +1900,211 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
 
     //region INNER CLASSES ---------------------------------------------------------------------------------------------
 
+    /**
+     * The phases of generation, with the part of the overall progress each of them covers.
+     */
+    private enum Phase {
+        PARSING("Parsing JSON", 0.0, 0.3),
+        INFERRING("Inferring classes", 0.3, 0.7),
+        EMITTING("Generating classes", 0.7, 0.9),
+        WRITING("Writing files", 0.9, 1.0);
+
+        final String mText;
+        final double mStart;
+        final double mEnd;
+
+        Phase(String text, double start, double end) {
+            mText = text;
+            mStart = start;
+            mEnd = end;
+        }
+    }
+
+    /**
+     * Opens a parser for a JSON source such as a String or a file.
+     */
+    private interface JsonSource {
+        JsonParser open(JsonFactory factory) throws IOException;
+    }
+
+    /**
+     * A reader which reports the number of characters consumed as the progress of the current phase.
+     */
+    private class ProgressReader extends FilterReader {
+        private final long mLength;
+        private long mPosition;
+
+        ProgressReader(Reader reader, long length) {
+            super(reader);
+            mLength = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            char[] buffer = new char[1];
+            return read(buffer, 0, 1) < 0 ? -1 : buffer[0];
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mPosition += count;
+                updateParseProgress(mPosition, mLength, "characters");
+            }
+            return count;
+        }
+    }
+
+    /**
+     * An input stream which reports the number of bytes consumed as the progress of the current phase.
+     */
+    private class ProgressInputStream extends FilterInputStream {
+        private final long mLength;
+        private long mPosition;
+
+        ProgressInputStream(InputStream input, long length) {
+            super(input);
+            mLength = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mPosition += count;
+                updateParseProgress(mPosition, mLength, "bytes");
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The state of an object or array being visited during inference. Objects have a class and an iterator over
+     * their fields, arrays and map-like objects have the class name of their object elements and an iterator over
+     * their elements or values.
+     */
+    private static class ParseFrame {
+        final JDefinedClass Clazz;
+        final Iterator<Map.Entry<String, JsonNode>> Fields;
+        final String ElementClassName;
+        final Iterator<JsonNode> Elements;
+        Map.Entry<String, JsonNode> PendingField;
+
+        ParseFrame(JDefinedClass clazz, JsonNode objectNode) {
+            Clazz = clazz;
+            Fields = objectNode.fields();
+            ElementClassName = null;
+            Elements = null;
+        }
+
+        ParseFrame(String elementClassName, JsonNode containerNode) {
+            Clazz = null;
+            Fields = null;
+            ElementClassName = elementClassName;
+            Elements = containerNode.elements();
+        }
+    }
+
+    /**
+     * The objects and values of a class visited during inference, and the time spent on them.
+     */
+    private static class ShapeStats {
+        long Objects;
+        long Nodes;
+        long Nanos;
+    }
+
+    /**
+     * A code writer which writes into a staging directory and reports each file as the progress of the current
+     * phase. The staged files are only copied to their final location once all of them have been written.
+     */
+    private class StagingCodeWriter extends FileCodeWriter {
+        private final File mStagingDir;
+        private final int mFileCount;
+        private final List<String> mFiles = new ArrayList<>();
+
+        StagingCodeWriter(File stagingDir, int fileCount) throws IOException {
+            super(stagingDir);
+            mStagingDir = stagingDir;
+            mFileCount = fileCount;
+        }
+
+        @Override
+        public OutputStream openBinary(JPackage pkg, String fileName) throws IOException {
+            updateProgress((double) mFiles.size() / (double) Math.max(1, mFileCount));
+            String directory = pkg.isUnnamed() ? "" : pkg.name().replace('.', File.separatorChar) + File.separator;
+            mFiles.add(directory + fileName);
+            return super.openBinary(pkg, fileName);
+        }
+
+        /**
+         * Copies all of the staged files into the given directory, replacing existing files. Files whose contents
+         * haven't changed are left as they are, so that their timestamps don't trigger recompilation.
+         *
+         * @param targetDir the directory to copy the files to.
+         * @return the copied files, including the unchanged ones.
+         * @throws IOException if a file can't be copied.
+         */
+        List<File> copyTo(File targetDir) throws IOException {
+            List<File> copiedFiles = new ArrayList<>();
+            for (String file : mFiles) {
+                Object span = GenerationTracer.INSTANCE.beginFileWrite();
+                Path staged = new File(mStagingDir, file).toPath();
+                Path target = new File(targetDir, file).toPath();
+                boolean written = !isUnchanged(staged, target);
+                if (written) {
+                    Files.createDirectories(target.getParent());
+                    Files.copy(staged, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                copiedFiles.add(target.toFile());
+                GenerationTracer.INSTANCE.endFileWrite(span, staged, target, written);
+            }
+            return copiedFiles;
+        }
+
+        private boolean isUnchanged(Path staged, Path target) throws IOException {
+            return Files.isRegularFile(target) && Files.size(target) == Files.size(staged) &&
+                    Arrays.equals(Files.readAllBytes(target), Files.readAllBytes(staged));
+        }
+    }
+
+    /**
+     * A code writer which keeps the generated sources in memory, by class name.
+     */
+    private static class MemoryCodeWriter extends CodeWriter {
+        private final Map<String, ByteArrayOutputStream> mFiles = new LinkedHashMap<>();
+
+        MemoryCodeWriter() {
+            encoding = StandardCharsets.UTF_8.name();
+        }
+
+        @Override
+        public OutputStream openBinary(JPackage pkg, String fileName) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            mFiles.put(fileName.replaceFirst("\\.java$", ""), output);
+            return output;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        Set<String> getClassNames() {
+            return mFiles.keySet();
+        }
+
+        String getSource(String className) {
+            return new String(mFiles.get(className).toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
     /**
      * A class type that indicates that we don't yet know the type of data this field represents.
      */
@@ -619,11 +2113,13 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
     }
 
     /**
-     * A comparator that sorts field data objects by field name, case insensitive.
+     * A comparator that sorts field data objects by field name, case insensitive. The formatted names are cached,
+     * since every field of every object in the JSON is compared when it is added.
      */
     private static class FieldComparator implements Comparator<FieldInfo> {
 
         private final boolean mUseMPrefix;
+        private final Map<String, String> mFieldNames = new HashMap<>();
 
         public FieldComparator(boolean useMPrefix) {
             mUseMPrefix = useMPrefix;
@@ -632,8 +2128,11 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
         @Override
         public int compare(FieldInfo left, FieldInfo right) {
             // Sort by formatted field name, not the property names
-            return formatFieldName(left.PropertyName, mUseMPrefix)
-                    .compareTo(formatFieldName(right.PropertyName, mUseMPrefix));
+            return getFieldName(left.PropertyName).compareTo(getFieldName(right.PropertyName));
+        }
+
+        private String getFieldName(String propertyName) {
+            return mFieldNames.computeIfAbsent(propertyName, name -> formatFieldName(name, mUseMPrefix));
         }
     }
 
@@ -667,13 +2166,28 @@ log.info(String.format("generateFields: %s, type:%s/array:%s", fieldName, fieldI
     /**
      * A pair containing a generated {@link JFieldVar} field and its original property name.
      */
-    private static class GeneratedField {
+    static class GeneratedField {
         final JFieldVar Field;
         final String PropertyName;
+        final JFieldVar ValueCache;
 
-        GeneratedField(JFieldVar field, String propertyName) {
+        GeneratedField(JFieldVar field, String propertyName, JFieldVar valueCache) {
             Field = field;
             PropertyName = propertyName;
+            ValueCache = valueCache;
+        }
+    }
+
+    /**
+     * The classes generated for a preview, and the source of every generated file.
+     */
+    static class Preview {
+        final Map<String, List<String>> Fields;
+        final Map<String, String> Sources;
+
+        Preview(Map<String, List<String>> fields, Map<String, String> sources) {
+            Fields = fields;
+            Sources = sources;
         }
     }
 
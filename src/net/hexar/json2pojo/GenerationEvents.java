@@ -0,0 +1,230 @@
+package net.hexar.json2pojo;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The JDK Flight Recorder events of a generation, so that a recording shows which parts of the input make it slow
+ * rather than only the frames of Jackson and CodeModel. Events which aren't being recorded are never committed, and
+ * their fields are only filled in once {@link Event#shouldCommit()} says they will be, so they cost next to nothing
+ * when no recording is running.
+ * <p>
+ * Nothing but {@link RecordingTracer} refers to the events, so that they're only loaded when jdk.jfr is available.
+ * <p>
+ * The field names of the events are their names in recordings, so they follow the JFR conventions rather than the
+ * ones of this project.
+ */
+final class GenerationEvents {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final String CATEGORY = "Json2Pojo";
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    private GenerationEvents() {
+    }
+
+    //endregion
+
+    //region INNER CLASSES ---------------------------------------------------------------------------------------------
+
+    /**
+     * The tracer which records the events, loaded by {@link GenerationTracer} by reflection.
+     */
+    static final class RecordingTracer extends GenerationTracer {
+        @Override
+        Object beginParse() {
+            Parse event = new Parse();
+            event.begin();
+            return event;
+        }
+
+        @Override
+        void endParse(Object span, String rootClass, long containerCount) {
+            Parse event = (Parse) span;
+            if (event.shouldCommit()) {
+                event.rootClass = rootClass;
+                event.containerCount = containerCount;
+                event.commit();
+            }
+        }
+
+        @Override
+        boolean isShapeInferenceEnabled() {
+            return new ShapeInference().isEnabled();
+        }
+
+        @Override
+        void shapeInference(String className, int fieldCount, long objectCount, long nodeCount, long inferenceTime) {
+            ShapeInference event = new ShapeInference();
+            event.className = className;
+            event.fieldCount = fieldCount;
+            event.objectCount = objectCount;
+            event.nodeCount = nodeCount;
+            event.inferenceTime = inferenceTime;
+            event.commit();
+        }
+
+        @Override
+        Object beginClassEmission() {
+            ClassEmission event = new ClassEmission();
+            event.begin();
+            return event;
+        }
+
+        @Override
+        void endClassEmission(Object span, String className, int fieldCount) {
+            ClassEmission event = (ClassEmission) span;
+            if (event.shouldCommit()) {
+                event.className = className;
+                event.fieldCount = fieldCount;
+                event.commit();
+            }
+        }
+
+        @Override
+        Object beginFileWrite() {
+            FileWrite event = new FileWrite();
+            event.begin();
+            return event;
+        }
+
+        @Override
+        void endFileWrite(Object span, Path staged, Path target, boolean written) throws IOException {
+            FileWrite event = (FileWrite) span;
+            if (event.shouldCommit()) {
+                event.path = target.toString();
+                event.bytes = Files.size(staged);
+                event.written = written;
+                event.commit();
+            }
+        }
+
+        @Override
+        void inflectorCache(long hits, long misses, long missTime) {
+            InflectorCache event = new InflectorCache();
+            if (event.isEnabled()) {
+                event.hits = hits;
+                event.misses = misses;
+                event.missTime = missTime;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Reading the JSON syntax tree of a sample.
+     */
+    @Name("net.hexar.json2pojo.Parse")
+    @Label("Parse JSON")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class Parse extends Event {
+        @Label("Root Class")
+        String rootClass;
+
+        @Label("Containers")
+        @Description("The number of objects and arrays read")
+        long containerCount;
+    }
+
+    /**
+     * Inferring the shape of a class from every object of it in the sample, committed once per class after inference.
+     */
+    @Name("net.hexar.json2pojo.ShapeInference")
+    @Label("Infer Object Shape")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class ShapeInference extends Event {
+        @Label("Class")
+        String className;
+
+        @Label("Fields")
+        int fieldCount;
+
+        @Label("Objects")
+        @Description("The number of objects of the class in the sample")
+        long objectCount;
+
+        @Label("Nodes")
+        @Description("The number of values in the objects of the class, not counting the values nested in them")
+        long nodeCount;
+
+        @Label("Inference Time")
+        @Description("The time spent on the objects of the class, not counting the objects and arrays nested in them")
+        @Timespan(Timespan.NANOSECONDS)
+        long inferenceTime;
+    }
+
+    /**
+     * Generating the fields and methods of a single class.
+     */
+    @Name("net.hexar.json2pojo.ClassEmission")
+    @Label("Emit Class")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class ClassEmission extends Event {
+        @Label("Class")
+        String className;
+
+        @Label("Fields")
+        int fieldCount;
+    }
+
+    /**
+     * Copying a generated file to its target, which is skipped if the target already has the same contents.
+     */
+    @Name("net.hexar.json2pojo.FileWrite")
+    @Label("Write File")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class FileWrite extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Written")
+        @Description("False if the file was skipped, since it was unchanged")
+        boolean written;
+    }
+
+    /**
+     * The use of the cache of singularized class names for the elements of arrays and maps, committed once per
+     * generation since there is a lookup for every array in the sample.
+     */
+    @Name("net.hexar.json2pojo.InflectorCache")
+    @Label("Inflector Cache")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class InflectorCache extends Event {
+        @Label("Hits")
+        long hits;
+
+        @Label("Misses")
+        long misses;
+
+        @Label("Miss Time")
+        @Description("The time spent singularizing the names which were missing from the cache")
+        @Timespan(Timespan.NANOSECONDS)
+        long missTime;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,390 @@
+package net.hexar.json2pojo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The set of user-selected options which control how Java POJO classes are generated.
+ */
+class GenerationOptions {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    static final int DEFAULT_MAX_ENUM_CARDINALITY = 16;
+    static final int DEFAULT_MAX_DEPTH = 10000;
+    static final int DEFAULT_MAX_FIELDS_PER_CLASS = 1000;
+    static final int DEFAULT_NARROWING_HEADROOM = 10;
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private boolean mGenerateBuilders;
+    private boolean mUseMPrefix;
+    private boolean mUseDoubleValueGetters;
+    private boolean mGenerateImmutable;
+    private boolean mInferEnums;
+    private int mMaxEnumCardinality = DEFAULT_MAX_ENUM_CARDINALITY;
+    private boolean mGenerateFlyweights;
+    private boolean mGenerateLazyParsing;
+    private boolean mDeduplicateClasses;
+    private int mMaxDepth = DEFAULT_MAX_DEPTH;
+    private boolean mDetectMaps;
+    private int mMaxFieldsPerClass = DEFAULT_MAX_FIELDS_PER_CLASS;
+    private boolean mGenerateBenchmark;
+    private boolean mGenerateProtobuf;
+    private boolean mGenerateColumns;
+    private boolean mNarrowNumbers;
+    private int mNarrowingHeadroom = DEFAULT_NARROWING_HEADROOM;
+    private boolean mMemoizeNumberValues;
+    private boolean mGenerateRootStream;
+    private boolean mGenerateBinaryCodec;
+    private boolean mGenerateFootprintReport;
+
+    //endregion
+
+    //region FACTORY METHODS -------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the options from their names and text values, as given to the Maven goal, the command line, and the
+     * daemon. Missing options get the defaults of the parameters of the Maven goal.
+     *
+     * @param values the option values by name.
+     * @return the generation options.
+     * @throws IllegalArgumentException if an option is unknown or has an invalid value.
+     */
+    static GenerationOptions fromMap(Map<String, String> values) {
+        Map<String, String> remaining = new HashMap<>(values);
+        GenerationOptions options = new GenerationOptions()
+                .setGenerateBuilders(getBoolean(remaining, "generateBuilders", false))
+                .setUseMPrefix(getBoolean(remaining, "useMPrefix", false))
+                .setUseDoubleValueGetters(getBoolean(remaining, "useDoubleValueGetters", true))
+                .setGenerateImmutable(getBoolean(remaining, "generateImmutable", false))
+                .setInferEnums(getBoolean(remaining, "inferEnums", false))
+                .setMaxEnumCardinality(getInt(remaining, "maxEnumCardinality", DEFAULT_MAX_ENUM_CARDINALITY))
+                .setGenerateFlyweights(getBoolean(remaining, "generateFlyweights", false))
+                .setGenerateLazyParsing(getBoolean(remaining, "generateLazyParsing", false))
+                .setDeduplicateClasses(getBoolean(remaining, "deduplicateClasses", true))
+                .setMaxDepth(getInt(remaining, "maxDepth", DEFAULT_MAX_DEPTH))
+                .setDetectMaps(getBoolean(remaining, "detectMaps", true))
+                .setMaxFieldsPerClass(getInt(remaining, "maxFieldsPerClass", DEFAULT_MAX_FIELDS_PER_CLASS))
+                .setGenerateBenchmark(getBoolean(remaining, "generateBenchmark", false))
+                .setGenerateProtobuf(getBoolean(remaining, "generateProtobuf", false))
+                .setGenerateColumns(getBoolean(remaining, "generateColumns", false))
+                .setNarrowNumbers(getBoolean(remaining, "narrowNumbers", false))
+                .setNarrowingHeadroom(getInt(remaining, "narrowingHeadroom", DEFAULT_NARROWING_HEADROOM))
+                .setMemoizeNumberValues(getBoolean(remaining, "memoizeNumberValues", false))
+                .setGenerateRootStream(getBoolean(remaining, "generateRootStream", false))
+                .setGenerateBinaryCodec(getBoolean(remaining, "generateBinaryCodec", false))
+                .setGenerateFootprintReport(getBoolean(remaining, "generateFootprintReport", false));
+        if (!remaining.isEmpty()) {
+            throw new IllegalArgumentException("Unknown option: " + remaining.keySet().iterator().next());
+        }
+        return options;
+    }
+
+    private static boolean getBoolean(Map<String, String> values, String name, boolean defaultValue) {
+        String value = values.remove(name);
+        if (value == null) {
+            return defaultValue;
+        } else if (!value.equals("true") && !value.equals("false")) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    private static int getInt(Map<String, String> values, String name, int defaultValue) {
+        String value = values.remove(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+
+    //endregion
+
+    //region ACCESSORS -------------------------------------------------------------------------------------------------
+
+    /**
+     * @return true if the generated classes should omit setters and generate a builder instead.
+     */
+    boolean isGenerateBuilders() {
+        return mGenerateBuilders;
+    }
+
+    GenerationOptions setGenerateBuilders(boolean generateBuilders) {
+        mGenerateBuilders = generateBuilders;
+        return this;
+    }
+
+    /**
+     * @return true if the generated fields should use an 'm' prefix.
+     */
+    boolean isUseMPrefix() {
+        return mUseMPrefix;
+    }
+
+    GenerationOptions setUseMPrefix(boolean useMPrefix) {
+        mUseMPrefix = useMPrefix;
+        return this;
+    }
+
+    /**
+     * @return true if double getters should be generated for String fields that look numeric.
+     */
+    boolean isUseDoubleValueGetters() {
+        return mUseDoubleValueGetters;
+    }
+
+    GenerationOptions setUseDoubleValueGetters(boolean useDoubleValueGetters) {
+        mUseDoubleValueGetters = useDoubleValueGetters;
+        return this;
+    }
+
+    /**
+     * @return true if the generated classes should be immutable value classes with final fields, a builder, and
+     * equals / hashCode methods.
+     */
+    boolean isGenerateImmutable() {
+        return mGenerateImmutable;
+    }
+
+    GenerationOptions setGenerateImmutable(boolean generateImmutable) {
+        mGenerateImmutable = generateImmutable;
+        return this;
+    }
+
+    /**
+     * @return true if String fields with few distinct values should be generated as enums.
+     */
+    boolean isInferEnums() {
+        return mInferEnums;
+    }
+
+    GenerationOptions setInferEnums(boolean inferEnums) {
+        mInferEnums = inferEnums;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of distinct values a String field may have to be generated as an enum.
+     */
+    int getMaxEnumCardinality() {
+        return mMaxEnumCardinality;
+    }
+
+    GenerationOptions setMaxEnumCardinality(int maxEnumCardinality) {
+        mMaxEnumCardinality = maxEnumCardinality;
+        return this;
+    }
+
+    /**
+     * @return true if ByteBuffer flyweight accessors and encoders should be generated for each class.
+     */
+    boolean isGenerateFlyweights() {
+        return mGenerateFlyweights;
+    }
+
+    GenerationOptions setGenerateFlyweights(boolean generateFlyweights) {
+        mGenerateFlyweights = generateFlyweights;
+        return this;
+    }
+
+    /**
+     * @return true if the generated classes should decode each field from the raw JSON on first access.
+     */
+    boolean isGenerateLazyParsing() {
+        return mGenerateLazyParsing;
+    }
+
+    GenerationOptions setGenerateLazyParsing(boolean generateLazyParsing) {
+        mGenerateLazyParsing = generateLazyParsing;
+        return this;
+    }
+
+    /**
+     * @return true if classes with structurally identical fields should be merged into one shared class.
+     */
+    boolean isDeduplicateClasses() {
+        return mDeduplicateClasses;
+    }
+
+    GenerationOptions setDeduplicateClasses(boolean deduplicateClasses) {
+        mDeduplicateClasses = deduplicateClasses;
+        return this;
+    }
+
+    /**
+     * @return the maximum nesting depth of objects and arrays in the JSON text.
+     */
+    int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    GenerationOptions setMaxDepth(int maxDepth) {
+        mMaxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * @return true if objects which look like dictionaries, such as objects keyed by IDs or dates, should be generated
+     * as maps rather than as classes with a field per key.
+     */
+    boolean isDetectMaps() {
+        return mDetectMaps;
+    }
+
+    GenerationOptions setDetectMaps(boolean detectMaps) {
+        mDetectMaps = detectMaps;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of fields in a generated class, above which the class is replaced by a map.
+     */
+    int getMaxFieldsPerClass() {
+        return mMaxFieldsPerClass;
+    }
+
+    GenerationOptions setMaxFieldsPerClass(int maxFieldsPerClass) {
+        mMaxFieldsPerClass = maxFieldsPerClass;
+        return this;
+    }
+
+    /**
+     * @return true if a JMH benchmark should be generated, which reads and writes the sample JSON with the root class.
+     */
+    boolean isGenerateBenchmark() {
+        return mGenerateBenchmark;
+    }
+
+    GenerationOptions setGenerateBenchmark(boolean generateBenchmark) {
+        mGenerateBenchmark = generateBenchmark;
+        return this;
+    }
+
+    /**
+     * @return true if Protocol Buffers definitions of the classes should be generated, along with a converter between
+     * the classes and the protobuf messages.
+     */
+    boolean isGenerateProtobuf() {
+        return mGenerateProtobuf;
+    }
+
+    GenerationOptions setGenerateProtobuf(boolean generateProtobuf) {
+        mGenerateProtobuf = generateProtobuf;
+        return this;
+    }
+
+    /**
+     * @return true if a columnar container should be generated for each class which is the element type of a list,
+     * with an array per field.
+     */
+    boolean isGenerateColumns() {
+        return mGenerateColumns;
+    }
+
+    GenerationOptions setGenerateColumns(boolean generateColumns) {
+        mGenerateColumns = generateColumns;
+        return this;
+    }
+
+    /**
+     * @return true if number fields should get the narrowest type which holds every observed value, rather than Long
+     * or Double.
+     */
+    boolean isNarrowNumbers() {
+        return mNarrowNumbers;
+    }
+
+    GenerationOptions setNarrowNumbers(boolean narrowNumbers) {
+        mNarrowNumbers = narrowNumbers;
+        return this;
+    }
+
+    /**
+     * @return the factor by which the observed values of a narrowed number field may grow and still fit its type.
+     */
+    int getNarrowingHeadroom() {
+        return mNarrowingHeadroom;
+    }
+
+    GenerationOptions setNarrowingHeadroom(int narrowingHeadroom) {
+        mNarrowingHeadroom = narrowingHeadroom;
+        return this;
+    }
+
+    /**
+     * @return true if the value getters of numeric String fields should parse the string once and cache the value, as
+     * a long, double or BigDecimal depending on the observed strings.
+     */
+    boolean isMemoizeNumberValues() {
+        return mMemoizeNumberValues;
+    }
+
+    GenerationOptions setMemoizeNumberValues(boolean memoizeNumberValues) {
+        mMemoizeNumberValues = memoizeNumberValues;
+        return this;
+    }
+
+    /**
+     * @return true if a stream should be generated which reads the records of the root class one at a time, from a
+     * top-level array or a sequence of records such as NDJSON.
+     */
+    boolean isGenerateRootStream() {
+        return mGenerateRootStream;
+    }
+
+    GenerationOptions setGenerateRootStream(boolean generateRootStream) {
+        mGenerateRootStream = generateRootStream;
+        return this;
+    }
+
+    /**
+     * @return true if a compact binary codec should be generated for each class, for caching records on disk or off
+     * the heap.
+     */
+    boolean isGenerateBinaryCodec() {
+        return mGenerateBinaryCodec;
+    }
+
+    GenerationOptions setGenerateBinaryCodec(boolean generateBinaryCodec) {
+        mGenerateBinaryCodec = generateBinaryCodec;
+        return this;
+    }
+
+    /**
+     * @return true if a report of the estimated heap footprint of each class, from the values in the sample, should be
+     * written next to the classes.
+     */
+    boolean isGenerateFootprintReport() {
+        return mGenerateFootprintReport;
+    }
+
+    GenerationOptions setGenerateFootprintReport(boolean generateFootprintReport) {
+        mGenerateFootprintReport = generateFootprintReport;
+        return this;
+    }
+
+    /**
+     * @return true if lazy parsing should be generated, which is not possible for immutable classes since their
+     * fields are final.
+     */
+    boolean usesLazyParsing() {
+        return mGenerateLazyParsing && !mGenerateImmutable;
+    }
+
+    /**
+     * @return true if an inner builder class should be generated, which is also the case for immutable classes.
+     */
+    boolean usesBuilders() {
+        return mGenerateBuilders || mGenerateImmutable;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,50 @@
+package net.hexar.json2pojo;
+
+/**
+ * Receives the progress of a generation, and lets whoever started it cancel it. This keeps the generator itself free
+ * of any IDE or build tool classes.
+ */
+interface GenerationProgress {
+
+    /**
+     * Progress which is ignored, for generations which can't be cancelled.
+     */
+    GenerationProgress NONE = new GenerationProgress() {
+        @Override
+        public void setText(String text) {
+        }
+
+        @Override
+        public void setDetails(String details) {
+        }
+
+        @Override
+        public void setFraction(double fraction) {
+        }
+
+        @Override
+        public void checkCanceled() {
+        }
+    };
+
+    /**
+     * @param text the name of the current phase.
+     */
+    void setText(String text);
+
+    /**
+     * @param details the details of the progress within the current phase.
+     */
+    void setDetails(String details);
+
+    /**
+     * @param fraction the overall fraction of the generation which is done, from 0 to 1.
+     */
+    void setFraction(double fraction);
+
+    /**
+     * Aborts the generation by throwing an unchecked exception if it has been cancelled.
+     */
+    void checkCanceled();
+
+}
@@ -0,0 +1,221 @@
+package net.hexar.json2pojo;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Schedules generations so that overlapping runs into the same package of a source root can't interleave their writes.
+ * Only one generation runs per package at a time, and generations submitted while another one is running wait for it,
+ * in the order they were submitted. If several are submitted in the meantime for the same root class, only the last of
+ * them runs, since it generates the same classes from a newer sample. Generations into different packages or source
+ * roots run in parallel.
+ * <p>
+ * The generated files are collected and passed to the listener in one batch once no generation is running, so that
+ * rapid regeneration only refreshes them once.
+ */
+class GenerationScheduler {
+
+    //region PUBLIC INTERFACES -----------------------------------------------------------------------------------------
+
+    /**
+     * A single generation.
+     */
+    interface Generation {
+
+        /**
+         * @param progress the progress of the background task running the generation.
+         * @return the generated files.
+         * @throws Exception if the generation fails.
+         */
+        List<File> generate(GenerationProgress progress) throws Exception;
+    }
+
+    /**
+     * Starts work in a background task with a progress, and must always run it.
+     */
+    interface Launcher {
+
+        /**
+         * @param work the work to run in the background.
+         */
+        void launch(Consumer<GenerationProgress> work);
+    }
+
+    /**
+     * Receives the results of the scheduled generations.
+     */
+    interface Listener {
+
+        /**
+         * Called once no generation is running anymore, with the files generated since the last call.
+         *
+         * @param files the generated files.
+         */
+        void onGenerated(Set<File> files);
+
+        /**
+         * @param e the exception of a failed generation.
+         */
+        void onFailed(Exception e);
+    }
+
+    //endregion
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger("GenerationScheduler");
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final Listener mListener;
+
+    // Guarded by this
+    private final Set<String> mRunning = new HashSet<>();
+    private final Map<String, Map<String, Generation>> mPending = new HashMap<>();
+    private Set<File> mGenerated = new LinkedHashSet<>();
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param listener the listener for the generated files and failures.
+     */
+    GenerationScheduler(Listener listener) {
+        mListener = listener;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS --------------------------------------------------------------------------------------------
+
+    /**
+     * Runs a generation, or queues it if another generation into the same package is running.
+     *
+     * @param sourceRoot the source root to generate into.
+     * @param packageName the package to generate into.
+     * @param rootClassName the name of the root class to generate, which identifies queued generations that replace
+     *                      each other.
+     * @param launcher the launcher which starts the generation in the background, if it doesn't have to wait.
+     * @param generation the generation to run.
+     * @return true if the generation was started, or false if it was queued.
+     */
+    boolean submit(File sourceRoot, String packageName, String rootClassName, Launcher launcher,
+                   Generation generation) {
+        String key = getKey(sourceRoot, packageName);
+        synchronized (this) {
+            if (!mRunning.add(key)) {
+                // Move a newer generation of the same root class to the back of the queue
+                Map<String, Generation> pending = mPending.computeIfAbsent(key, k -> new LinkedHashMap<>());
+                if (pending.remove(rootClassName) != null) {
+                    log.fine("Skipping a queued generation of " + rootClassName + " into " + key +
+                            " in favor of a newer one");
+                }
+                pending.put(rootClassName, generation);
+                return false;
+            }
+        }
+        launcher.launch(progress -> run(key, generation, progress));
+        return true;
+    }
+
+    /**
+     * @return true if no generation is running.
+     */
+    synchronized boolean isIdle() {
+        return mRunning.isEmpty();
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS -------------------------------------------------------------------------------------------
+
+    /**
+     * Runs a generation, followed by any generations which are queued for the same package while it runs.
+     *
+     * @param key the package directory generated into.
+     * @param first the first generation to run.
+     * @param progress the progress of the background task.
+     */
+    private void run(String key, Generation first, GenerationProgress progress) {
+        Set<File> generated = new LinkedHashSet<>();
+        Generation generation = first;
+        try {
+            while (generation != null) {
+                try {
+                    generated.addAll(generation.generate(progress));
+                } catch (Exception e) {
+                    // Cancellation is passed on to the task, rather than reported as a failure
+                    progress.checkCanceled();
+                    mListener.onFailed(e);
+                }
+
+                synchronized (this) {
+                    generation = pollPending(key);
+                    if (generation == null) {
+                        mRunning.remove(key);
+                    }
+                }
+            }
+        } finally {
+            Set<File> refresh = null;
+            synchronized (this) {
+                if (generation != null) {
+                    // Cancelled, which also drops whatever was queued behind it
+                    mPending.remove(key);
+                    mRunning.remove(key);
+                }
+                mGenerated.addAll(generated);
+                if (mRunning.isEmpty() && !mGenerated.isEmpty()) {
+                    refresh = mGenerated;
+                    mGenerated = new LinkedHashSet<>();
+                }
+            }
+            if (refresh != null) {
+                mListener.onGenerated(refresh);
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest generation queued for a package directory.
+     *
+     * @param key the package directory.
+     * @return the generation, or null if none is queued.
+     */
+    private Generation pollPending(String key) {
+        Map<String, Generation> pending = mPending.get(key);
+        if (pending == null) {
+            return null;
+        }
+        Iterator<Generation> iterator = pending.values().iterator();
+        Generation generation = iterator.next();
+        iterator.remove();
+        if (pending.isEmpty()) {
+            mPending.remove(key);
+        }
+        return generation;
+    }
+
+    /**
+     * @return the normalized package directory, which identifies the files a generation may write.
+     */
+    private static String getKey(File sourceRoot, String packageName) {
+        File packageDir = new File(sourceRoot, packageName.replace('.', File.separatorChar));
+        return packageDir.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    //endregion
+
+}
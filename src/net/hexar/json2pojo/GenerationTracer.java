@@ -0,0 +1,97 @@
+package net.hexar.json2pojo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * Records the {@link GenerationEvents} of a generation. The events extend jdk.jfr classes, which aren't in every
+ * runtime the plugin runs in, so they are only loaded by reflection through {@link #INSTANCE}, and this tracer which
+ * records nothing is used in their place when they can't be loaded.
+ * <p>
+ * Events are begun with the methods returning a span, and ended with the span and their fields, which are only read if
+ * the event is committed.
+ */
+class GenerationTracer {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger("GenerationTracer");
+
+    // Named rather than referenced, so that it's only loaded here
+    private static final String RECORDING_TRACER = "net.hexar.json2pojo.GenerationEvents$RecordingTracer";
+
+    /**
+     * The tracer which records the events if JDK Flight Recorder is available, and records nothing otherwise.
+     */
+    static final GenerationTracer INSTANCE = load();
+
+    //endregion
+
+    //region EVENTS ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the span of reading the JSON syntax tree of a sample.
+     */
+    Object beginParse() {
+        return null;
+    }
+
+    void endParse(Object span, String rootClass, long containerCount) {
+    }
+
+    /**
+     * @return true if the shapes of classes are being recorded, so inference should time its steps.
+     */
+    boolean isShapeInferenceEnabled() {
+        return false;
+    }
+
+    void shapeInference(String className, int fieldCount, long objectCount, long nodeCount, long inferenceTime) {
+    }
+
+    /**
+     * @return the span of generating the fields and methods of a single class.
+     */
+    Object beginClassEmission() {
+        return null;
+    }
+
+    void endClassEmission(Object span, String className, int fieldCount) {
+    }
+
+    /**
+     * @return the span of copying a generated file to its target.
+     */
+    Object beginFileWrite() {
+        return null;
+    }
+
+    /**
+     * @param staged the staged file, whose size is recorded.
+     * @throws IOException if the size of the staged file can't be read.
+     */
+    void endFileWrite(Object span, Path staged, Path target, boolean written) throws IOException {
+    }
+
+    void inflectorCache(long hits, long misses, long missTime) {
+    }
+
+    //endregion
+
+    //region HELPER METHODS --------------------------------------------------------------------------------------------
+
+    private static GenerationTracer load() {
+        try {
+            // The events are only resolved once they're used, so check for their superclass up front
+            Class.forName("jdk.jfr.Event");
+            return (GenerationTracer) Class.forName(RECORDING_TRACER).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.fine("JDK Flight Recorder isn't available, so generations aren't traced: " + e);
+            return new GenerationTracer();
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,419 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Keeps the JSON syntax tree of a text which is being edited up to date, for the live preview of the JSON entry
+ * dialog. The edits made to the text are recorded as they happen, and only the innermost value containing all of the
+ * edits since the last update is parsed again and replaced in the tree. If that value no longer parses on its own, the
+ * value around it is tried next, and only then the whole text.
+ * <p>
+ * Edits are recorded on the event dispatch thread while updates run in the background, so every update is told how
+ * many of the recorded edits its text includes. Updates return a new root node, which shares the unchanged values
+ * with the previous one, so a tree which is still being read by an older preview is never modified.
+ */
+class IncrementalJsonTree {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final int mMaxDepth;
+
+    // Guarded by mEdits, each edit being the offset, the removed length and the inserted length
+    private final List<int[]> mEdits = new ArrayList<>();
+    private long mEditCount;
+
+    // Guarded by this, with the locations of the values, or null if they can't be replaced by their locations
+    private long mAppliedEdits;
+    private String mText;
+    private JsonNode mRootNode;
+    private Values mValues;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param maxDepth the maximum number of nested objects and arrays.
+     */
+    IncrementalJsonTree(int maxDepth) {
+        mMaxDepth = maxDepth;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS --------------------------------------------------------------------------------------------
+
+    /**
+     * Records text inserted into the document.
+     *
+     * @param offset the offset the text was inserted at.
+     * @param length the length of the inserted text.
+     */
+    void textInserted(int offset, int length) {
+        recordEdit(offset, 0, length);
+    }
+
+    /**
+     * Records text removed from the document.
+     *
+     * @param offset the offset of the removed text.
+     * @param length the length of the removed text.
+     */
+    void textRemoved(int offset, int length) {
+        recordEdit(offset, length, 0);
+    }
+
+    /**
+     * @return the number of edits recorded so far, which a text taken from the document at the same time includes.
+     */
+    long getEditCount() {
+        synchronized (mEdits) {
+            return mEditCount;
+        }
+    }
+
+    /**
+     * Returns the syntax tree of the text, only parsing the value changed since the last update if possible.
+     *
+     * @param text the whole text of the document.
+     * @param editCount the number of recorded edits which the text includes.
+     * @return the root node of the syntax tree.
+     * @throws IOException if the text isn't valid JSON.
+     * @throws CancellationException if a newer text has already been updated.
+     */
+    synchronized JsonNode update(String text, long editCount) throws IOException {
+        if (editCount < mAppliedEdits) {
+            throw new CancellationException("Superseded by a newer text");
+        }
+
+        List<int[]> edits;
+        synchronized (mEdits) {
+            edits = new ArrayList<>(mEdits.subList(0, (int) (editCount - mAppliedEdits)));
+        }
+
+        // If the text can't be parsed, the edits are kept and merged with the next ones into the last valid text
+        JsonNode rootNode = mText != null ? updateChangedValue(text, edits) : null;
+        if (rootNode == null) {
+            rootNode = parse(text);
+        }
+        mText = text;
+        mRootNode = rootNode;
+        synchronized (mEdits) {
+            mEdits.subList(0, edits.size()).clear();
+        }
+        mAppliedEdits = editCount;
+        return rootNode;
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS -------------------------------------------------------------------------------------------
+
+    private void recordEdit(int offset, int removed, int inserted) {
+        synchronized (mEdits) {
+            mEdits.add(new int[] { offset, removed, inserted });
+            mEditCount++;
+        }
+    }
+
+    /**
+     * Parses the whole text, recording the locations of all of its values.
+     *
+     * @param text the whole text.
+     * @return the root node of the syntax tree.
+     * @throws IOException if the text isn't valid JSON.
+     */
+    private JsonNode parse(String text) throws IOException {
+        Values values = new Values();
+        JsonNode rootNode;
+        try (JsonParser parser = JSON_FACTORY.createParser(text)) {
+            rootNode = new JsonTreeReader(mMaxDepth).read(parser, values);
+        }
+        mValues = values.mDuplicateNames ? null : values;
+        return rootNode;
+    }
+
+    /**
+     * Parses only the innermost value which contains all of the edits, or else the value around it, and replaces it
+     * in a copy of the tree.
+     *
+     * @param text the whole text, including the edits.
+     * @param edits the edits made since the last update.
+     * @return the root node of the updated syntax tree, or null if the whole text has to be parsed.
+     */
+    private JsonNode updateChangedValue(String text, List<int[]> edits) {
+        if (edits.isEmpty()) {
+            return mRootNode;
+        } else if (mValues == null) {
+            return null;
+        }
+
+        // Merge the edits into the range of the new text which changed, and the difference in length
+        int start = Integer.MAX_VALUE;
+        int end = Integer.MIN_VALUE;
+        int delta = 0;
+        for (int[] edit : edits) {
+            int offset = edit[0];
+            int removed = edit[1];
+            int inserted = edit[2];
+            if (end >= start) {
+                start = shift(start, offset, removed, inserted);
+                end = shift(end, offset, removed, inserted);
+            }
+            start = Math.min(start, offset);
+            end = Math.max(end, offset + inserted);
+            delta += inserted - removed;
+        }
+
+        // Try the innermost value which contained the changed range before the edits, and then its parent
+        int index = mValues.find(start, end - delta);
+        for (int attempt = 0; attempt < 2 && index > 0; attempt++) {
+            Values changedValues = parseValue(text, index, delta);
+            if (changedValues != null) {
+                JsonNode rootNode = replaceValue(index, changedValues.mRootNode);
+                mValues = mValues.replace(index, changedValues, delta);
+                return rootNode;
+            }
+            index = mValues.Parents[index];
+        }
+        return null;
+    }
+
+    /**
+     * Parses a changed value on its own, which must still be a single complete value.
+     *
+     * @param text the whole text, including the edits.
+     * @param index the index of the changed value.
+     * @param delta the change in length of the value.
+     * @return the locations of the values in the changed value, relative to its start, or null if it can't be parsed.
+     */
+    private Values parseValue(String text, int index, int delta) {
+        int start = mValues.Starts[index];
+        int end = mValues.Ends[index] + delta;
+        if (end < start || end > text.length()) {
+            return null;
+        }
+
+        Values values = new Values();
+        try (JsonParser parser = JSON_FACTORY.createParser(text.substring(start, end))) {
+            values.mRootNode = new JsonTreeReader(mMaxDepth - mValues.getDepth(index)).read(parser, values);
+            if (parser.nextToken() != null) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return values.mDuplicateNames ? null : values;
+    }
+
+    /**
+     * Replaces a value in a copy of the tree, where only the objects and arrays containing the value are copied.
+     *
+     * @param index the index of the value to replace.
+     * @param value the new value.
+     * @return the root node of the copy.
+     */
+    private JsonNode replaceValue(int index, JsonNode value) {
+        // Find the containers from the root down to the value
+        List<Integer> path = new ArrayList<>();
+        for (int i = index; i > 0; i = mValues.Parents[i]) {
+            path.add(0, i);
+        }
+        List<JsonNode> containers = new ArrayList<>();
+        JsonNode node = mRootNode;
+        for (int i : path) {
+            containers.add(node);
+            node = mValues.Names[i] != null ? node.get(mValues.Names[i]) : node.get(mValues.Indexes[i]);
+        }
+
+        // Copy them from the value up to the root, replacing the child on the path in each
+        JsonNode child = value;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            int valueIndex = path.get(i);
+            JsonNode container = containers.get(i);
+            if (container.isObject()) {
+                ObjectNode copy = JsonNodeFactory.instance.objectNode();
+                copy.setAll((ObjectNode) container);
+                copy.set(mValues.Names[valueIndex], child);
+                child = copy;
+            } else {
+                ArrayNode copy = JsonNodeFactory.instance.arrayNode();
+                copy.addAll((ArrayNode) container);
+                copy.set(mValues.Indexes[valueIndex], child);
+                child = copy;
+            }
+        }
+        return child;
+    }
+
+    /**
+     * @return the offset a position in the text moves to after an edit, where positions inside removed text move to
+     * the end of the inserted text.
+     */
+    private static int shift(int position, int offset, int removed, int inserted) {
+        if (position <= offset) {
+            return position;
+        } else if (position >= offset + removed) {
+            return position - removed + inserted;
+        }
+        return offset + inserted;
+    }
+
+    //endregion
+
+    //region INNER CLASSES ---------------------------------------------------------------------------------------------
+
+    /**
+     * The locations of all of the values in a syntax tree, in the order they start in. Each value has the index of
+     * the value containing it, and its property name in an object or its index in an array.
+     */
+    private static class Values implements JsonTreeReader.ValueListener {
+        String[] Names = new String[16];
+        int[] Starts = new int[16];
+        int[] Ends = new int[16];
+        int[] Parents = new int[16];
+        int[] Indexes = new int[16];
+        int Count;
+
+        // Only used while parsing
+        private int[] mChildCounts = new int[16];
+        private int mOpenValue = -1;
+        private boolean mDuplicateNames;
+        private JsonNode mRootNode;
+
+        @Override
+        public void onValueStart(String name, long start) {
+            if (Count == Starts.length) {
+                int capacity = Count * 2;
+                Names = Arrays.copyOf(Names, capacity);
+                Starts = Arrays.copyOf(Starts, capacity);
+                Ends = Arrays.copyOf(Ends, capacity);
+                Parents = Arrays.copyOf(Parents, capacity);
+                Indexes = Arrays.copyOf(Indexes, capacity);
+                mChildCounts = Arrays.copyOf(mChildCounts, capacity);
+            }
+            Names[Count] = name;
+            Starts[Count] = (int) start;
+            Parents[Count] = mOpenValue;
+            Indexes[Count] = mOpenValue >= 0 ? mChildCounts[mOpenValue]++ : 0;
+            mChildCounts[Count] = 0;
+            mOpenValue = Count++;
+        }
+
+        @Override
+        public void onValueEnd(JsonNode node, long end) {
+            Ends[mOpenValue] = (int) end;
+
+            // Values can only be replaced by their names if no property appears twice in an object
+            if (node.isObject() && node.size() != mChildCounts[mOpenValue]) {
+                mDuplicateNames = true;
+            }
+            mOpenValue = Parents[mOpenValue];
+        }
+
+        /**
+         * Finds the innermost value which contains a range of the text.
+         *
+         * @param start the start of the range.
+         * @param end the end of the range.
+         * @return the index of the value, or -1 if no value contains the range.
+         */
+        int find(int start, int end) {
+            int index = Arrays.binarySearch(Starts, 0, Count, start);
+            if (index < 0) {
+                index = -index - 2;
+            }
+
+            // The last value starting before the range is inside the innermost value containing it
+            while (index >= 0 && Ends[index] < end) {
+                index = Parents[index];
+            }
+            return index;
+        }
+
+        /**
+         * @return the number of objects and arrays containing a value.
+         */
+        int getDepth(int index) {
+            int depth = 0;
+            for (int i = Parents[index]; i >= 0; i = Parents[i]) {
+                depth++;
+            }
+            return depth;
+        }
+
+        /**
+         * Replaces the locations of a value and the values inside it with those of the value which replaced it.
+         *
+         * @param index the index of the replaced value.
+         * @param value the locations of the new value, relative to its start.
+         * @param delta the change in length of the value.
+         * @return the updated locations.
+         */
+        Values replace(int index, Values value, int delta) {
+            // The values inside the replaced one are the ones starting before its end
+            int oldEnd = Arrays.binarySearch(Starts, index, Count, Ends[index]);
+            oldEnd = oldEnd < 0 ? -oldEnd - 1 : oldEnd;
+            int moved = value.Count - (oldEnd - index);
+
+            Values values = new Values();
+            int count = Count + moved;
+            values.Names = new String[count];
+            values.Starts = new int[count];
+            values.Ends = new int[count];
+            values.Parents = new int[count];
+            values.Indexes = new int[count];
+            values.Count = count;
+
+            // Values before the replaced one only end later if they contain it
+            System.arraycopy(Names, 0, values.Names, 0, index);
+            System.arraycopy(Starts, 0, values.Starts, 0, index);
+            System.arraycopy(Ends, 0, values.Ends, 0, index);
+            System.arraycopy(Parents, 0, values.Parents, 0, index);
+            System.arraycopy(Indexes, 0, values.Indexes, 0, index);
+            for (int i = Parents[index]; i >= 0; i = Parents[i]) {
+                values.Ends[i] += delta;
+            }
+
+            // The new value keeps the name, index and parent of the replaced one
+            int start = Starts[index];
+            for (int i = 0; i < value.Count; i++) {
+                values.Names[index + i] = i == 0 ? Names[index] : value.Names[i];
+                values.Starts[index + i] = value.Starts[i] + start;
+                values.Ends[index + i] = value.Ends[i] + start;
+                values.Parents[index + i] = i == 0 ? Parents[index] : value.Parents[i] + index;
+                values.Indexes[index + i] = i == 0 ? Indexes[index] : value.Indexes[i];
+            }
+
+            // Values after it move by the change in length, and by the change in the number of values
+            for (int i = oldEnd; i < Count; i++) {
+                values.Names[i + moved] = Names[i];
+                values.Starts[i + moved] = Starts[i] + delta;
+                values.Ends[i + moved] = Ends[i] + delta;
+                values.Parents[i + moved] = Parents[i] >= oldEnd ? Parents[i] + moved : Parents[i];
+                values.Indexes[i + moved] = Indexes[i];
+            }
+            return values;
+        }
+    }
+
+    //endregion
+
+}
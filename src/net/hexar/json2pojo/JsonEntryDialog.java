@@ -1,5 +1,9 @@
 package net.hexar.json2pojo;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
 import org.fife.ui.rsyntaxtextarea.Theme;
@@ -7,11 +11,24 @@ import org.fife.ui.rsyntaxtextarea.Theme;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DocumentFilter;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * A custom dialog which allows the user to input a JSON text.
@@ -28,11 +45,11 @@ public class JsonEntryDialog extends JDialog {
          * A callback to be invoked when the user has clicked the OK button.
          *
          * @param className the class name entered into the dialog.
-         * @param jsonText the JSON text entered into the dialog.
-         * @param generateBuilders true if the generated classes should omit setters and generate builders.
-         * @param useMPrefix true if the generated fields should have an 'm' prefix.
+         * @param jsonText the JSON text entered into the dialog, or null if a JSON file was chosen instead.
+         * @param jsonFile the JSON file chosen in the dialog, or null if the JSON text should be used.
+         * @param options the generation options selected in the dialog.
          */
-        void onOk(String className, String jsonText, boolean generateBuilders, boolean useMPrefix, boolean useDoubleValueGetters);
+        void onOk(String className, String jsonText, File jsonFile, GenerationOptions options);
     }
 
     //endregion
@@ -40,6 +57,9 @@ public class JsonEntryDialog extends JDialog {
     //region CONSTANTS -------------------------------------------------------------------------------------------------
 
     private static final String CLASS_NAME_REGEX = "[A-Za-z][A-Za-z0-9]*";
+    private static final int LARGE_TEXT_LENGTH = 1024 * 1024;
+    private static final int MAX_PREVIEW_FILE_LENGTH = 4 * 1024 * 1024;
+    private static final int VALIDATION_DELAY_MS = 300;
 
     //endregion
 
@@ -47,6 +67,13 @@ public class JsonEntryDialog extends JDialog {
 
     // Data / State
     private OnOkListener mListener;
+    private String mPackageName;
+    private boolean mJsonValid;
+    private Timer mValidationTimer;
+    private JsonValidator mValidator;
+    private IncrementalJsonTree mPreviewTree;
+    private Timer mPreviewTimer;
+    private PreviewWorker mPreviewWorker;
 
     // UI
     private JButton mButtonCancel;
@@ -57,14 +84,39 @@ public class JsonEntryDialog extends JDialog {
     private JCheckBox mUseMPrefix;
     private JCheckBox mGenerateBuilders;
     private JCheckBox mDoubleValueGetter;
+    private JCheckBox mGenerateImmutable;
+    private JCheckBox mInferEnums;
+    private JSpinner mMaxEnumCardinality;
+    private JCheckBox mGenerateFlyweights;
+    private JCheckBox mGenerateLazyParsing;
+    private JCheckBox mDeduplicateClasses;
+    private JCheckBox mDetectMaps;
+    private JCheckBox mGenerateBenchmark;
+    private JCheckBox mGenerateProtobuf;
+    private JCheckBox mGenerateColumns;
+    private JCheckBox mNarrowNumbers;
+    private JCheckBox mMemoizeNumberValues;
+    private JCheckBox mGenerateRootStream;
+    private JCheckBox mGenerateBinaryCodec;
+    private JCheckBox mGenerateFootprintReport;
+    private JTextField mJsonFile;
+    private JButton mBrowseFile;
+    private JLabel mJsonStatus;
+    private JTree mPreviewClasses;
+    private RSyntaxTextArea mPreviewSource;
 
     //endregion
 
     //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
 
-    JsonEntryDialog(OnOkListener listener) {
+    /**
+     * @param packageName the package the classes will be generated in.
+     * @param listener the listener to invoke when the user has clicked the OK button.
+     */
+    JsonEntryDialog(String packageName, OnOkListener listener) {
         // Set the listener
         mListener = listener;
+        mPackageName = packageName;
 
         // Set up the main content
         setContentPane(mContentPane);
@@ -77,6 +129,7 @@ public class JsonEntryDialog extends JDialog {
         // Add button listeners
         mButtonOK.addActionListener(e -> onOK());
         mButtonCancel.addActionListener(e -> onCancel());
+        mBrowseFile.addActionListener(e -> onBrowseFile());
 
         // Call onCancel() when cross is clicked
         setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
@@ -91,19 +144,76 @@ public class JsonEntryDialog extends JDialog {
                 KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
                 JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
 
-        // Enable/disable OK button
+        // Enable/disable OK button, validating the JSON in the background once the user stops typing
         mButtonOK.setEnabled(false);
-        mClassName.getDocument().addDocumentListener(new TextChangedListener());
-        mJsonText.getDocument().addDocumentListener(new TextChangedListener());
+        mValidationTimer = new Timer(VALIDATION_DELAY_MS, e -> validateJson());
+        mValidationTimer.setRepeats(false);
+        mClassName.getDocument().addDocumentListener(new TextChangedListener(this::updateOkButton));
+        mJsonText.getDocument().addDocumentListener(new TextChangedListener(this::onJsonChanged));
+        mJsonFile.getDocument().addDocumentListener(new TextChangedListener(this::onJsonChanged));
 
         // Set up syntax highlighting
         mJsonText.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_JSON);
+        mPreviewSource.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_JAVA);
         try {
             Theme theme = Theme.load(getClass().getResourceAsStream("/themes/dark.xml"));
             theme.apply(mJsonText);
+            theme.apply(mPreviewSource);
         } catch (IOException ignored) {
         }
         mJsonText.setCodeFoldingEnabled(false);
+
+        // Turn off syntax highlighting before a large text is inserted, rather than tokenizing it first
+        ((AbstractDocument) mJsonText.getDocument()).setDocumentFilter(new DocumentFilter() {
+            @Override
+            public void insertString(FilterBypass fb, int offset, String text, AttributeSet attrs)
+                    throws BadLocationException {
+                updateSyntaxStyle(fb.getDocument().getLength() + text.length());
+                super.insertString(fb, offset, text, attrs);
+            }
+
+            @Override
+            public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs)
+                    throws BadLocationException {
+                updateSyntaxStyle(fb.getDocument().getLength() - length + (text != null ? text.length() : 0));
+                super.replace(fb, offset, length, text, attrs);
+            }
+        });
+
+        // Set up the enum cardinality, which is only editable if enums are inferred
+        mMaxEnumCardinality.setModel(new SpinnerNumberModel(GenerationOptions.DEFAULT_MAX_ENUM_CARDINALITY, 1, 256, 1));
+        mMaxEnumCardinality.setEnabled(mInferEnums.isSelected());
+        mInferEnums.addItemListener(e -> mMaxEnumCardinality.setEnabled(mInferEnums.isSelected()));
+
+        // Preview the generated classes once the user stops typing or changes an option, only parsing again the part
+        // of the JSON text which was edited
+        mPreviewTree = new IncrementalJsonTree(GenerationOptions.DEFAULT_MAX_DEPTH);
+        mPreviewTimer = new Timer(VALIDATION_DELAY_MS, e -> updatePreview());
+        mPreviewTimer.setRepeats(false);
+        mJsonText.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                mPreviewTree.textInserted(e.getOffset(), e.getLength());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                mPreviewTree.textRemoved(e.getOffset(), e.getLength());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        mClassName.getDocument().addDocumentListener(new TextChangedListener(mPreviewTimer::restart));
+        for (JCheckBox option : new JCheckBox[] { mUseMPrefix, mGenerateBuilders, mDoubleValueGetter,
+                mGenerateImmutable, mInferEnums, mGenerateFlyweights, mGenerateLazyParsing, mDeduplicateClasses,
+                mDetectMaps, mGenerateProtobuf, mGenerateColumns, mNarrowNumbers, mMemoizeNumberValues,
+                mGenerateRootStream, mGenerateBinaryCodec, mGenerateFootprintReport }) {
+            option.addItemListener(e -> mPreviewTimer.restart());
+        }
+        mMaxEnumCardinality.addChangeListener(e -> mPreviewTimer.restart());
+        mPreviewClasses.addTreeSelectionListener(e -> showPreviewSource());
     }
 
     //endregion
@@ -114,53 +224,385 @@ public class JsonEntryDialog extends JDialog {
     //region PRIVATE METHODS -------------------------------------------------------------------------------------------
 
     private void onCancel() {
+        stopValidation();
+        stopPreview();
         dispose();
     }
 
+    private void onBrowseFile() {
+        JFileChooser chooser = new JFileChooser(getJsonFile());
+        chooser.setFileFilter(new FileNameExtensionFilter("JSON files", "json"));
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            mJsonFile.setText(chooser.getSelectedFile().getPath());
+        }
+    }
+
+    /**
+     * Called when either the JSON text or the JSON file has changed. Validation is restarted once the user stops
+     * typing, and syntax highlighting is turned off for texts too large to highlight without freezing the UI.
+     */
+    private void onJsonChanged() {
+        File jsonFile = getJsonFile();
+        mJsonText.setEnabled(jsonFile == null);
+
+        updateSyntaxStyle(mJsonText.getDocument().getLength());
+
+        mJsonValid = false;
+        mJsonStatus.setText(" ");
+        updateOkButton();
+        mValidationTimer.restart();
+        mPreviewTimer.restart();
+    }
+
+    /**
+     * Starts validating the JSON text or file in the background, cancelling any validation still in progress.
+     */
+    private void validateJson() {
+        if (mValidator != null) {
+            mValidator.cancel(true);
+        }
+
+        File jsonFile = getJsonFile();
+        mJsonStatus.setText("Validating...");
+        mValidator = new JsonValidator(jsonFile, jsonFile == null ? mJsonText.getText() : null);
+        mValidator.execute();
+    }
+
+    /**
+     * Starts generating the preview in the background, cancelling any preview still in progress. The last preview is
+     * kept until the new one is done, and also if the JSON can't be parsed.
+     */
+    private void updatePreview() {
+        if (mPreviewWorker != null) {
+            mPreviewWorker.cancel(true);
+        }
+
+        File jsonFile = getJsonFile();
+        String className = mClassName.getText().matches(CLASS_NAME_REGEX) ? mClassName.getText() : "Root";
+        if (jsonFile != null && jsonFile.length() > MAX_PREVIEW_FILE_LENGTH) {
+            // Large files would take a syntax tree of many times their size just for the preview
+            mPreviewWorker = null;
+            mPreviewClasses.setModel(new DefaultTreeModel(new DefaultMutableTreeNode(mPackageName)));
+            mPreviewSource.setText(String.format("// No preview for files over %d MB",
+                    MAX_PREVIEW_FILE_LENGTH / (1024 * 1024)));
+            return;
+        } else if (jsonFile != null) {
+            mPreviewWorker = new PreviewWorker(className, jsonFile, null, 0, getOptions());
+        } else {
+            // The edit count is taken together with the text, so that the edits it includes are known
+            long editCount = mPreviewTree.getEditCount();
+            mPreviewWorker = new PreviewWorker(className, null, mJsonText.getText(), editCount, getOptions());
+        }
+        mPreviewWorker.execute();
+    }
+
+    /**
+     * Shows the source of the class selected in the preview, or of the class of the selected field.
+     */
+    private void showPreviewSource() {
+        TreePath path = mPreviewClasses.getSelectionPath();
+        if (path != null && path.getPathCount() > 1) {
+            PreviewClass previewClass = (PreviewClass) ((DefaultMutableTreeNode) path.getPathComponent(1))
+                    .getUserObject();
+            if (!previewClass.Source.equals(mPreviewSource.getText())) {
+                mPreviewSource.setText(previewClass.Source);
+                mPreviewSource.setCaretPosition(0);
+            }
+        }
+    }
+
+    private void stopPreview() {
+        mPreviewTimer.stop();
+        if (mPreviewWorker != null) {
+            mPreviewWorker.cancel(true);
+        }
+    }
+
+    private void updateSyntaxStyle(int textLength) {
+        boolean largeText = textLength > LARGE_TEXT_LENGTH;
+        String syntaxStyle = largeText ? SyntaxConstants.SYNTAX_STYLE_NONE : SyntaxConstants.SYNTAX_STYLE_JSON;
+        if (!syntaxStyle.equals(mJsonText.getSyntaxEditingStyle())) {
+            mJsonText.setSyntaxEditingStyle(syntaxStyle);
+        }
+    }
+
+    private void stopValidation() {
+        mValidationTimer.stop();
+        if (mValidator != null) {
+            mValidator.cancel(true);
+        }
+    }
+
+    private void updateOkButton() {
+        mButtonOK.setEnabled(mClassName.getText().matches(CLASS_NAME_REGEX) && mJsonValid);
+    }
+
+    /**
+     * @return the JSON file entered into the dialog, or null if the JSON text should be used.
+     */
+    private File getJsonFile() {
+        String path = mJsonFile.getText().trim();
+        return path.isEmpty() ? null : new File(path);
+    }
+
+    /**
+     * @return the generation options selected in the dialog.
+     */
+    private GenerationOptions getOptions() {
+        return new GenerationOptions()
+                .setGenerateBuilders(mGenerateBuilders.isSelected())
+                .setUseMPrefix(mUseMPrefix.isSelected())
+                .setUseDoubleValueGetters(mDoubleValueGetter.isSelected())
+                .setGenerateImmutable(mGenerateImmutable.isSelected())
+                .setInferEnums(mInferEnums.isSelected())
+                .setMaxEnumCardinality((Integer) mMaxEnumCardinality.getValue())
+                .setGenerateFlyweights(mGenerateFlyweights.isSelected())
+                .setGenerateLazyParsing(mGenerateLazyParsing.isSelected())
+                .setDeduplicateClasses(mDeduplicateClasses.isSelected())
+                .setDetectMaps(mDetectMaps.isSelected())
+                .setGenerateBenchmark(mGenerateBenchmark.isSelected())
+                .setGenerateProtobuf(mGenerateProtobuf.isSelected())
+                .setGenerateColumns(mGenerateColumns.isSelected())
+                .setNarrowNumbers(mNarrowNumbers.isSelected())
+                .setMemoizeNumberValues(mMemoizeNumberValues.isSelected())
+                .setGenerateRootStream(mGenerateRootStream.isSelected())
+                .setGenerateBinaryCodec(mGenerateBinaryCodec.isSelected())
+                .setGenerateFootprintReport(mGenerateFootprintReport.isSelected());
+    }
+
     private void onOK() {
-        mListener.onOk(
-                mClassName.getText(),
-                mJsonText.getText(),
-                mGenerateBuilders.isSelected(),
-                mUseMPrefix.isSelected(),
-                mDoubleValueGetter.isSelected()
-            );
+        GenerationOptions options = getOptions();
+        File jsonFile = getJsonFile();
+        stopValidation();
+        stopPreview();
+        mListener.onOk(mClassName.getText(), jsonFile == null ? mJsonText.getText() : null, jsonFile, options);
         dispose();
     }
 
     //region INNER CLASSES ---------------------------------------------------------------------------------------------
 
     /**
-     * Gets called when the JSON text or root class text has changed.
+     * Gets called when the JSON text, JSON file or root class text has changed.
      */
-    private class TextChangedListener implements DocumentListener {
+    private static class TextChangedListener implements DocumentListener {
+        private final Runnable mOnChanged;
+
+        TextChangedListener(Runnable onChanged) {
+            mOnChanged = onChanged;
+        }
+
         @Override
         public void insertUpdate(DocumentEvent e) {
-            validate();
+            mOnChanged.run();
         }
 
         @Override
         public void removeUpdate(DocumentEvent e) {
-            validate();
+            mOnChanged.run();
         }
 
         @Override
         public void changedUpdate(DocumentEvent e) {
-            validate();
+            mOnChanged.run();
+        }
+    }
+
+    /**
+     * Checks that the JSON text or file is well-formed off the event dispatch thread, and enables the OK button if
+     * validation passes.
+     */
+    private class JsonValidator extends SwingWorker<String, Void> {
+        private final File mFile;
+        private final String mText;
+
+        JsonValidator(File file, String text) {
+            mFile = file;
+            mText = text;
         }
 
         /**
-         * Validates the class name and JSON text and enables the OK button if validation passes.
+         * @return an error message, or null if the JSON is well-formed.
          */
-        private void validate() {
-            String className = mClassName.getText();
-            String jsonText = mJsonText.getText();
+        @Override
+        protected String doInBackground() throws Exception {
+            if (mFile != null && !mFile.isFile()) {
+                return "File not found: " + mFile.getPath();
+            } else if (mFile == null && mText.trim().isEmpty()) {
+                return "Enter JSON text or choose a JSON file.";
+            }
 
-            if (className.matches(CLASS_NAME_REGEX) && !jsonText.isEmpty()) {
-                mButtonOK.setEnabled(true);
-            } else {
-                mButtonOK.setEnabled(false);
+            // Stream through all of the tokens without building a tree
+            JsonFactory factory = new JsonFactory();
+            try (JsonParser parser = mFile != null ? factory.createParser(mFile) : factory.createParser(mText)) {
+                while (parser.nextToken() != null) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                }
+            } catch (JsonParseException e) {
+                return String.format("Invalid JSON at line %d, column %d: %s", e.getLocation().getLineNr(),
+                        e.getLocation().getColumnNr(), e.getOriginalMessage());
+            } catch (IOException e) {
+                return "Failed to read JSON: " + e.getMessage();
             }
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || mValidator != this) {
+                return;
+            }
+
+            String error;
+            try {
+                error = get();
+            } catch (Exception e) {
+                error = e.toString();
+            }
+            mJsonValid = error == null;
+            mJsonStatus.setText(mJsonValid ? "Valid JSON" : error);
+            updateOkButton();
+        }
+    }
+
+    /**
+     * Generates the preview off the event dispatch thread, from the syntax tree updated with the latest edits. The
+     * tree model is built in the background as well, so that only the model and the selected source are swapped on
+     * the event dispatch thread.
+     */
+    private class PreviewWorker extends SwingWorker<DefaultTreeModel, Void> {
+        private final String mClassName;
+        private final File mFile;
+        private final String mText;
+        private final long mEditCount;
+        private final GenerationOptions mOptions;
+
+        PreviewWorker(String className, File file, String text, long editCount, GenerationOptions options) {
+            mClassName = className;
+            mFile = file;
+            mText = text;
+            mEditCount = editCount;
+            mOptions = options;
+        }
+
+        /**
+         * @return the tree model of the generated classes, or null if the JSON can't be parsed.
+         */
+        @Override
+        protected DefaultTreeModel doInBackground() throws Exception {
+            JsonNode rootNode;
+            try {
+                if (mFile != null) {
+                    // Small files are parsed again for each preview rather than keeping their tree
+                    rootNode = mFile.isFile() ? parseFile() : null;
+                } else {
+                    rootNode = mText.trim().isEmpty() ? null : mPreviewTree.update(mText, mEditCount);
+                }
+            } catch (IOException e) {
+                // The validation reports why the JSON can't be used
+                rootNode = null;
+            }
+            if (rootNode == null || isCancelled()) {
+                return null;
+            }
+
+            // Aborts the generation as soon as a newer preview has been started
+            GeneratePojos.Preview preview = new GeneratePojos(mPackageName, null, new GenerationProgress() {
+                @Override
+                public void setText(String text) {
+                }
+
+                @Override
+                public void setDetails(String details) {
+                }
+
+                @Override
+                public void setFraction(double fraction) {
+                }
+
+                @Override
+                public void checkCanceled() {
+                    if (isCancelled()) {
+                        throw new CancellationException();
+                    }
+                }
+            }).generatePreview(mClassName, rootNode, mOptions);
+
+            // List the classes with their fields, followed by the other generated classes such as enums
+            DefaultMutableTreeNode root = new DefaultMutableTreeNode(mPackageName);
+            for (Map.Entry<String, String> source : preview.Sources.entrySet()) {
+                DefaultMutableTreeNode classNode = new DefaultMutableTreeNode(
+                        new PreviewClass(source.getKey(), source.getValue()));
+                List<String> fields = preview.Fields.get(source.getKey());
+                if (fields != null) {
+                    fields.forEach(field -> classNode.add(new DefaultMutableTreeNode(field)));
+                }
+                root.add(classNode);
+            }
+            return new DefaultTreeModel(root);
+        }
+
+        private JsonNode parseFile() throws IOException {
+            try (JsonParser parser = new JsonFactory().createParser(mFile)) {
+                return new JsonTreeReader(GenerationOptions.DEFAULT_MAX_DEPTH).read(parser);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || mPreviewWorker != this) {
+                return;
+            }
+
+            DefaultTreeModel model;
+            try {
+                model = get();
+            } catch (InterruptedException | ExecutionException e) {
+                mPreviewSource.setText("// Preview failed: " + (e.getCause() != null ? e.getCause() : e));
+                return;
+            }
+            if (model == null) {
+                return;
+            }
+
+            // Keep the same class selected, or select the root class
+            TreePath selection = mPreviewClasses.getSelectionPath();
+            String selectedClass = selection != null && selection.getPathCount() > 1
+                    ? selection.getPathComponent(1).toString() : mClassName;
+            mPreviewClasses.setModel(model);
+            DefaultMutableTreeNode root = (DefaultMutableTreeNode) model.getRoot();
+            DefaultMutableTreeNode selectedNode = root.getChildCount() > 0
+                    ? (DefaultMutableTreeNode) root.getChildAt(0) : null;
+            for (int i = 1; i < root.getChildCount(); i++) {
+                if (root.getChildAt(i).toString().equals(selectedClass)) {
+                    selectedNode = (DefaultMutableTreeNode) root.getChildAt(i);
+                }
+            }
+            if (selectedNode != null) {
+                TreePath path = new TreePath(selectedNode.getPath());
+                mPreviewClasses.expandPath(path);
+                mPreviewClasses.setSelectionPath(path);
+            }
+            showPreviewSource();
+        }
+    }
+
+    /**
+     * A generated class shown in the preview, with its source.
+     */
+    private static class PreviewClass {
+        final String Name;
+        final String Source;
+
+        PreviewClass(String name, String source) {
+            Name = name;
+            Source = source;
+        }
+
+        @Override
+        public String toString() {
+            return Name;
         }
     }
 
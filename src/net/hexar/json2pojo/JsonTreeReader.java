@@ -0,0 +1,253 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Reads JSON syntax trees from parsers. The tree is built with an explicit stack of open objects and arrays rather
+ * than by recursion, so that deeply nested documents don't overflow the thread stack. The objects and arrays are also
+ * counted, so that inference can report its progress.
+ */
+class JsonTreeReader {
+
+    //region PUBLIC INTERFACES -----------------------------------------------------------------------------------------
+
+    /**
+     * Receives the location of every value in the syntax tree, in the order the values start in.
+     */
+    interface ValueListener {
+
+        /**
+         * Called when a value starts, before any of the values inside it.
+         *
+         * @param name the property name of the value, or null if it's the root or an array element.
+         * @param start the character offset of the first character of the value.
+         */
+        void onValueStart(String name, long start);
+
+        /**
+         * Called once a value has been read, after all of the values inside it.
+         *
+         * @param node the value.
+         * @param end the character offset after the last character of the value.
+         */
+        void onValueEnd(JsonNode node, long end);
+    }
+
+    //endregion
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    /** Numbers with up to this many significant digits always read back the same from a double. */
+    private static final int DOUBLE_EXACT_DIGITS = 15;
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final int mMaxDepth;
+    private long mContainerCount;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param maxDepth the maximum number of nested objects and arrays.
+     */
+    JsonTreeReader(int maxDepth) {
+        mMaxDepth = maxDepth;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS --------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the next JSON value from a parser.
+     *
+     * @param parser the parser to read from.
+     * @return the root node of the JSON syntax tree.
+     * @throws IOException if the JSON can't be read, or is nested deeper than the maximum depth.
+     */
+    JsonNode read(JsonParser parser) throws IOException {
+        return read(parser, null);
+    }
+
+    /**
+     * Reads the next JSON value from a parser, reporting where each value in it starts and ends.
+     *
+     * @param parser the parser to read from.
+     * @param listener the listener for the locations of the values, or null.
+     * @return the root node of the JSON syntax tree.
+     * @throws IOException if the JSON can't be read, or is nested deeper than the maximum depth.
+     */
+    JsonNode read(JsonParser parser, ValueListener listener) throws IOException {
+        JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
+        Deque<ContainerNode<?>> containers = new ArrayDeque<>();
+        JsonNode rootNode = null;
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            // Create the node for this token, or close the current object or array
+            JsonNode node;
+            switch (token) {
+                case START_OBJECT:
+                    node = nodeFactory.objectNode();
+                    break;
+                case START_ARRAY:
+                    node = nodeFactory.arrayNode();
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    ContainerNode<?> container = containers.pop();
+                    if (listener != null) {
+                        listener.onValueEnd(container, parser.getCurrentLocation().getCharOffset());
+                    }
+                    if (containers.isEmpty()) {
+                        return rootNode;
+                    }
+                    continue;
+                case FIELD_NAME:
+                    continue;
+                case VALUE_STRING:
+                    node = nodeFactory.textNode(parser.getText());
+                    break;
+                case VALUE_NUMBER_INT:
+                    switch (parser.getNumberType()) {
+                        case INT:
+                            node = nodeFactory.numberNode(parser.getIntValue());
+                            break;
+                        case LONG:
+                            node = nodeFactory.numberNode(parser.getLongValue());
+                            break;
+                        default:
+                            node = nodeFactory.numberNode(parser.getBigIntegerValue());
+                            break;
+                    }
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    node = readFloatingPoint(parser, nodeFactory);
+                    break;
+                case VALUE_TRUE:
+                case VALUE_FALSE:
+                    node = nodeFactory.booleanNode(token == JsonToken.VALUE_TRUE);
+                    break;
+                case VALUE_NULL:
+                    node = nodeFactory.nullNode();
+                    break;
+                default:
+                    node = nodeFactory.pojoNode(parser.getEmbeddedObject());
+                    break;
+            }
+
+            // Add it to the current object or array
+            ContainerNode<?> parent = containers.peek();
+            if (parent == null) {
+                rootNode = node;
+            } else if (parent.isObject()) {
+                ((ObjectNode) parent).set(parser.getCurrentName(), node);
+            } else {
+                ((ArrayNode) parent).add(node);
+            }
+
+            // Other values are complete once their only token has been read, which for strings is after getText()
+            if (listener != null) {
+                String name = parent != null && parent.isObject() ? parser.getCurrentName() : null;
+                listener.onValueStart(name, parser.getTokenLocation().getCharOffset());
+                if (!node.isContainerNode()) {
+                    listener.onValueEnd(node, parser.getCurrentLocation().getCharOffset());
+                }
+            }
+
+            // Descend into objects and arrays, and stop after a root value which isn't one
+            if (node.isContainerNode()) {
+                if (containers.size() >= mMaxDepth) {
+                    throw new JsonParseException(parser, String.format("JSON is nested more than %d levels deep",
+                            mMaxDepth));
+                }
+                containers.push((ContainerNode<?>) node);
+                mContainerCount++;
+            } else if (parent == null) {
+                return rootNode;
+            }
+        }
+
+        if (rootNode == null) {
+            throw new JsonParseException(parser, "No JSON content");
+        }
+        throw new JsonParseException(parser, "Unexpected end of JSON content");
+    }
+
+    /**
+     * @return the number of objects and arrays read so far.
+     */
+    long getContainerCount() {
+        return mContainerCount;
+    }
+
+    //endregion
+
+    //region HELPER METHODS --------------------------------------------------------------------------------------------
+
+    /**
+     * Reads a floating point number as a double, unless a double would lose some of its digits or its magnitude, in
+     * which case it's read as a BigDecimal so that inference can tell the field needs one.
+     *
+     * @param parser the parser positioned on the number.
+     * @param nodeFactory the factory for the node.
+     * @return the node for the number.
+     * @throws IOException if the number can't be read.
+     */
+    private static JsonNode readFloatingPoint(JsonParser parser, JsonNodeFactory nodeFactory) throws IOException {
+        double value = parser.getDoubleValue();
+        if (Double.isInfinite(value)) {
+            return nodeFactory.numberNode(parser.getDecimalValue());
+        }
+        if (countSignificantDigits(parser) <= DOUBLE_EXACT_DIGITS) {
+            return nodeFactory.numberNode(value);
+        }
+        BigDecimal decimal = parser.getDecimalValue();
+        if (new BigDecimal(Double.toString(value)).compareTo(decimal) == 0) {
+            return nodeFactory.numberNode(value);
+        }
+        return nodeFactory.numberNode(decimal);
+    }
+
+    /**
+     * Counts the digits of the current number from its first non-zero one up to its exponent, without converting it.
+     *
+     * @param parser the parser positioned on the number.
+     * @return the number of significant digits, counting trailing zeros.
+     * @throws IOException if the text of the number can't be read.
+     */
+    private static int countSignificantDigits(JsonParser parser) throws IOException {
+        char[] text = parser.getTextCharacters();
+        int end = parser.getTextOffset() + parser.getTextLength();
+        int digits = 0;
+        for (int i = parser.getTextOffset(); i < end; i++) {
+            char c = text[i];
+            if (c == 'e' || c == 'E') {
+                break;
+            }
+            if (c >= '0' && c <= '9' && (digits > 0 || c != '0')) {
+                digits++;
+            }
+        }
+        return digits;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,475 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.codemodel.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Makes the generated POJO classes lazily parsed. Each instance created through the generated {@code parse} method
+ * keeps a reference to its raw JSON bytes and start offset. On first access, it builds a small index holding the
+ * start offset of each known top-level property. Every getter then decodes its field on first access and memoizes
+ * the result, and nested objects are lazily parsed instances themselves, so subtrees which are never read are never
+ * materialized.
+ * <p>
+ * The generated code decodes values with the Jackson streaming parser, so it depends on jackson-core.
+ */
+class LazyParsingGenerator {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger("LazyParsingGenerator");
+    private static final String SUPPORT_CLASS_NAME = "LazyJson";
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final JPackage mPackage;
+    private final JCodeModel mCodeModel;
+    private final boolean mUseMPrefix;
+
+    // Shared support class
+    private JDefinedClass mSupport;
+    private JClass mByteArray;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    LazyParsingGenerator(JPackage jPackage, boolean useMPrefix) {
+        mPackage = jPackage;
+        mCodeModel = jPackage.owner();
+        mUseMPrefix = useMPrefix;
+        mByteArray = mCodeModel.BYTE.array();
+    }
+
+    //endregion
+
+    //region CODE GENERATION -------------------------------------------------------------------------------------------
+
+    /**
+     * Adds lazy parsing to each of the given classes, plus the shared support class.
+     *
+     * @param classes the generated classes mapped to their generated fields.
+     * @throws Exception if an error occurs.
+     */
+    void generate(Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes) throws Exception {
+        generateSupportClass();
+
+        for (Map.Entry<JDefinedClass, List<GeneratePojos.GeneratedField>> entry : classes.entrySet()) {
+            generateLazyClass(entry.getKey(), entry.getValue(), classes.keySet());
+        }
+    }
+
+    /**
+     * Adds the raw JSON state, the parse methods, and the lazy decoding to the getters of a single class.
+     *
+     * @param clazz the class to make lazy.
+     * @param fields the generated fields of the class.
+     * @param classes all of the generated classes, which are lazily parsed themselves.
+     */
+    private void generateLazyClass(JDefinedClass clazz, List<GeneratePojos.GeneratedField> fields,
+                                   Set<JDefinedClass> classes) {
+        JType intType = mCodeModel.INT;
+
+        // Raw JSON state, which is transient so that it is never serialized
+        int mods = JMod.PRIVATE | JMod.TRANSIENT;
+        JFieldVar json = clazz.field(mods, mByteArray, uniqueFieldName(clazz, "lazyJson"));
+        JFieldVar start = clazz.field(mods, intType, uniqueFieldName(clazz, "lazyStart"));
+        JFieldVar end = clazz.field(mods, intType, uniqueFieldName(clazz, "lazyEnd"));
+        JFieldVar index = clazz.field(mods, intType.array(), uniqueFieldName(clazz, "lazyIndex"));
+        JFieldVar decoded = clazz.field(mods, mCodeModel.BOOLEAN.array(), uniqueFieldName(clazz, "lazyDecoded"));
+
+        // Map each property name to its index slot
+        JClass slotMapType = mCodeModel.ref(Map.class).narrow(String.class, Integer.class);
+        JFieldVar slots = clazz.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, slotMapType, "LAZY_SLOTS",
+                JExpr._new(mCodeModel.ref(HashMap.class).narrow(String.class, Integer.class)));
+        for (int slot = 0; slot < fields.size(); slot++) {
+            clazz.init().invoke(slots, "put").arg(JExpr.lit(fields.get(slot).PropertyName)).arg(JExpr.lit(slot));
+        }
+
+        // parse(json, start, end) and parse(json)
+        JMethod parse = clazz.method(JMod.PUBLIC | JMod.STATIC, clazz, "parse");
+        JVar jsonParam = parse.param(mByteArray, "json");
+        JVar startParam = parse.param(intType, "start");
+        JVar endParam = parse.param(intType, "end");
+        JBlock parseBody = parse.body();
+        JVar instance = parseBody.decl(clazz, "instance", JExpr._new(clazz));
+        parseBody.assign(instance.ref(json), jsonParam);
+        parseBody.assign(instance.ref(start), startParam);
+        parseBody.assign(instance.ref(end), endParam);
+        parseBody._return(instance);
+
+        JMethod parseAll = clazz.method(JMod.PUBLIC | JMod.STATIC, clazz, "parse");
+        jsonParam = parseAll.param(mByteArray, "json");
+        parseAll.body()._return(JExpr.invoke(parse).arg(jsonParam).arg(JExpr.lit(0)).arg(jsonParam.ref("length")));
+
+        // lazyIndex(), building the index on first use
+        JMethod indexMethod = clazz.method(JMod.PRIVATE, intType.array(), "lazyIndex");
+        JBlock build = indexMethod.body()._if(index.eq(JExpr._null()))._then();
+        build.assign(index, mSupport.staticInvoke("index").arg(json).arg(start).arg(end).arg(slots));
+        build.assign(decoded, JExpr.newArray(mCodeModel.BOOLEAN, JExpr.lit(fields.size())));
+        indexMethod.body()._return(index);
+
+        // materialize(), decoding every field including nested objects and releasing the raw JSON
+        JMethod materialize = clazz.method(JMod.PUBLIC, mCodeModel.VOID, "materialize");
+        JBlock materializeBody = materialize.body()._if(json.ne(JExpr._null()))._then();
+
+        for (int slot = 0; slot < fields.size(); slot++) {
+            GeneratePojos.GeneratedField field = fields.get(slot);
+            String name = GeneratePojos.formatClassName(field.PropertyName);
+
+            // Decode the field on first access, before the existing return statement of the getter
+            JMethod getter = clazz.getMethod("get" + name, new JType[0]);
+            if (getter == null) {
+                log.fine(String.format("No getter for lazy field %s.%s", clazz.name(), field.PropertyName));
+                continue;
+            }
+            JBlock getterBody = getter.body();
+            getterBody.pos(0);
+            JBlock decode = getterBody._if(json.ne(JExpr._null()).cand(
+                    index.eq(JExpr._null()).cor(JOp.not(decoded.component(JExpr.lit(slot))))))._then();
+            JVar valueStart = decode.decl(intType, "valueStart",
+                    JExpr.invoke(indexMethod).component(JExpr.lit(slot)));
+            decode.assign(JExpr._this().ref(field.Field),
+                    decodeValue(decode, field.Field.type(), valueStart, json, end, classes, 0));
+            decode.assign(decoded.component(JExpr.lit(slot)), JExpr.TRUE);
+            generateMaterialize(materializeBody, getter, slot, classes);
+
+            // Setting a field overrides the raw JSON
+            JMethod setter = clazz.getMethod("set" + name, new JType[] { field.Field.type() });
+            if (setter != null) {
+                JBlock override = setter.body()._if(json.ne(JExpr._null()))._then();
+                override.invoke(indexMethod);
+                override.assign(decoded.component(JExpr.lit(slot)), JExpr.TRUE);
+            }
+        }
+        materializeBody.assign(json, JExpr._null());
+        materializeBody.assign(index, JExpr._null());
+        materializeBody.assign(decoded, JExpr._null());
+
+        // Building into an instance replaces its raw JSON, which must not be decoded over the built fields
+        for (Iterator<JDefinedClass> nested = clazz.classes(); nested.hasNext(); ) {
+            JDefinedClass builder = nested.next();
+            JMethod buildInto = builder.getMethod("buildInto", new JType[] { clazz });
+            if (builder.name().equals("Builder") && buildInto != null) {
+                JVar target = buildInto.params().get(0);
+                JBlock buildIntoBody = buildInto.body();
+                buildIntoBody.pos(0);
+                buildIntoBody.assign(target.ref(json), JExpr._null());
+                buildIntoBody.assign(target.ref(index), JExpr._null());
+                buildIntoBody.assign(target.ref(decoded), JExpr._null());
+            }
+        }
+    }
+
+    /**
+     * Generates the statements which decode a single field when materializing, recursing into nested objects and
+     * lists or maps of nested objects.
+     */
+    private void generateMaterialize(JBlock block, JMethod getter, int slot, Set<JDefinedClass> classes) {
+        JType type = getter.type();
+        JClass erasure = type instanceof JClass ? ((JClass) type).erasure() : null;
+        JClass elementType = null;
+        if (mCodeModel.ref(List.class).equals(erasure)) {
+            elementType = ((JClass) type).getTypeParameters().get(0);
+        } else if (mCodeModel.ref(Map.class).equals(erasure)) {
+            elementType = ((JClass) type).getTypeParameters().get(1);
+        }
+
+        if (classes.contains(type)) {
+            JVar value = block.decl(type, "value" + slot, JExpr.invoke(getter));
+            block._if(value.ne(JExpr._null()))._then().invoke(value, "materialize");
+        } else if (elementType != null && classes.contains(elementType)) {
+            JVar value = block.decl(type, "value" + slot, JExpr.invoke(getter));
+            JExpression elements = mCodeModel.ref(List.class).equals(erasure) ? value : value.invoke("values");
+            JForEach forEach = block._if(value.ne(JExpr._null()))._then().forEach(elementType, "element" + slot,
+                    elements);
+            forEach.body()._if(forEach.var().ne(JExpr._null()))._then().invoke(forEach.var(), "materialize");
+        } else {
+            block.invoke(getter);
+        }
+    }
+
+    /**
+     * Creates the expression which decodes a value of the given type, declaring any loops it needs in the block.
+     *
+     * @param block the block to declare local variables in.
+     * @param type the type of the value.
+     * @param valueStart the expression for the start offset of the value, which is negative if it's missing.
+     * @param json the raw JSON bytes.
+     * @param end the end offset of the raw JSON.
+     * @param classes the generated classes, which are lazily parsed themselves.
+     * @param depth the nesting depth of lists, used to name local variables.
+     * @return the expression for the decoded value.
+     */
+    private JExpression decodeValue(JBlock block, JType type, JExpression valueStart, JFieldVar json, JFieldVar end,
+                                    Set<JDefinedClass> classes, int depth) {
+        if (type.isPrimitive()) {
+            // Narrowed numbers which were always present keep their default when missing or null
+            JVar value = block.decl(type.boxify(), "decodedValue",
+                    decodeValue(block, type.boxify(), valueStart, json, end, classes, depth));
+            return JOp.cond(value.ne(JExpr._null()), value, JExpr.lit(0));
+        } else if (getScalarReader(type) != null) {
+            return mSupport.staticInvoke(getScalarReader(type)).arg(json).arg(valueStart).arg(end);
+        } else if (type instanceof JDefinedClass && ((JDefinedClass) type).getClassType() == ClassType.ENUM) {
+            return ((JDefinedClass) type).staticInvoke("fromValue")
+                    .arg(mSupport.staticInvoke("readString").arg(json).arg(valueStart).arg(end));
+        } else if (type instanceof JDefinedClass && classes.contains(type)) {
+            // Nested objects are lazy as well
+            return JOp.cond(mSupport.staticInvoke("isNull").arg(json).arg(valueStart), JExpr._null(),
+                    ((JDefinedClass) type).staticInvoke("parse").arg(json).arg(valueStart).arg(end));
+        } else if (type instanceof JClass && ((JClass) type).erasure().equals(mCodeModel.ref(List.class))) {
+            // Decode each element of the list
+            JClass elementType = ((JClass) type).getTypeParameters().get(0);
+            JVar elements = block.decl(mCodeModel.INT.array(), "elements" + depth,
+                    mSupport.staticInvoke("elements").arg(json).arg(valueStart).arg(end));
+            JVar list = block.decl(type, "list" + depth, JExpr._null());
+            JBlock then = block._if(elements.ne(JExpr._null()))._then();
+            then.assign(list, JExpr._new(mCodeModel.ref(ArrayList.class).narrow(elementType))
+                    .arg(elements.ref("length")));
+            JForEach forEach = then.forEach(mCodeModel.INT, "element" + depth, elements);
+            JExpression element = decodeValue(forEach.body(), elementType, forEach.var(), json, end, classes,
+                    depth + 1);
+            forEach.body().invoke(list, "add").arg(element);
+            return list;
+        } else if (type instanceof JClass && ((JClass) type).erasure().equals(mCodeModel.ref(Map.class))) {
+            // Decode each value of the map, keeping the order of the keys
+            JClass valueType = ((JClass) type).getTypeParameters().get(1);
+            JClass membersType = mCodeModel.ref(Map.class).narrow(String.class, Integer.class);
+            JVar members = block.decl(membersType, "members" + depth,
+                    mSupport.staticInvoke("members").arg(json).arg(valueStart).arg(end));
+            JVar map = block.decl(type, "map" + depth, JExpr._null());
+            JBlock then = block._if(members.ne(JExpr._null()))._then();
+            then.assign(map, JExpr._new(mCodeModel.ref(LinkedHashMap.class)
+                    .narrow(mCodeModel.ref(String.class), valueType)));
+            JForEach forEach = then.forEach(mCodeModel.ref(Map.Entry.class).narrow(String.class, Integer.class),
+                    "member" + depth, members.invoke("entrySet"));
+            JExpression value = decodeValue(forEach.body(), valueType, forEach.var().invoke("getValue"), json, end,
+                    classes, depth + 1);
+            forEach.body().invoke(map, "put").arg(forEach.var().invoke("getKey")).arg(value);
+            return map;
+        }
+
+        // Anything else is decoded generically
+        return mSupport.staticInvoke("readObject").arg(json).arg(valueStart).arg(end);
+    }
+
+    /**
+     * @return the name of the support method which reads a value of the given type, or null if it isn't a scalar.
+     */
+    private String getScalarReader(JType type) {
+        for (Class<?> scalarType : new Class<?>[] { Long.class, Double.class, Boolean.class, String.class,
+                Integer.class, Short.class, Byte.class, Float.class, BigInteger.class, BigDecimal.class }) {
+            if (type.equals(mCodeModel.ref(scalarType))) {
+                return "read" + scalarType.getSimpleName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Generates the support class which builds property indexes and decodes values with the Jackson streaming parser.
+     *
+     * @throws Exception if an error occurs.
+     */
+    private void generateSupportClass() throws Exception {
+        mSupport = mPackage._class(JMod.PUBLIC | JMod.FINAL, SUPPORT_CLASS_NAME);
+        GeneratePojos.annotateClass(mSupport);
+        mSupport.constructor(JMod.PRIVATE);
+
+        JType intType = mCodeModel.INT;
+        JClass parserType = mCodeModel.ref(JsonParser.class);
+        JClass tokenType = mCodeModel.ref(JsonToken.class);
+        int mods = JMod.PUBLIC | JMod.STATIC;
+        JFieldVar factory = mSupport.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, JsonFactory.class, "FACTORY",
+                JExpr._new(mCodeModel.ref(JsonFactory.class)));
+
+        // open(json, start, end), positioned on the first token. Numbers are bounded to their own bytes, since the
+        // parser treats the value as a root-level value and rejects a number followed by a separator.
+        JMethod open = mSupport.method(JMod.PRIVATE | JMod.STATIC, parserType, "open");
+        open._throws(IOException.class);
+        JVar json = open.param(mByteArray, "json");
+        JVar start = open.param(intType, "start");
+        JVar end = open.param(intType, "end");
+        JVar valueEnd = open.body().decl(intType, "valueEnd", end);
+        JVar first = open.body().decl(mCodeModel.BYTE, "first", json.component(start));
+        JBlock isNumber = open.body()._if(first.eq(JExpr.lit('-')).cor(
+                first.gte(JExpr.lit('0')).cand(first.lte(JExpr.lit('9')))))._then();
+        isNumber.assign(valueEnd, start.plus(JExpr.lit(1)));
+        JExpression next = json.component(valueEnd);
+        JExpression isNumberChar = next.gte(JExpr.lit('0')).cand(next.lte(JExpr.lit('9')))
+                .cor(next.eq(JExpr.lit('.'))).cor(next.eq(JExpr.lit('e'))).cor(next.eq(JExpr.lit('E')))
+                .cor(next.eq(JExpr.lit('+'))).cor(next.eq(JExpr.lit('-')));
+        isNumber._while(valueEnd.lt(end).cand(isNumberChar)).body().assignPlus(valueEnd, JExpr.lit(1));
+        JVar parser = open.body().decl(parserType, "parser",
+                factory.invoke("createParser").arg(json).arg(start).arg(valueEnd.minus(start)));
+        open.body().invoke(parser, "nextToken");
+        open.body()._return(parser);
+
+        // isNull(json, start)
+        JMethod isNull = mSupport.method(mods, mCodeModel.BOOLEAN, "isNull");
+        json = isNull.param(mByteArray, "json");
+        start = isNull.param(intType, "start");
+        JExpression firstByte = json.component(start);
+        isNull.body()._return(start.lt(JExpr.lit(0)).cor(firstByte.eq(JExpr.lit('n'))));
+
+        // index(json, start, end, slots), the start offset of each known top-level property
+        JMethod index = mSupport.method(mods, intType.array(), "index");
+        json = index.param(mByteArray, "json");
+        start = index.param(intType, "start");
+        end = index.param(intType, "end");
+        JVar slots = index.param(mCodeModel.ref(Map.class).narrow(String.class, Integer.class), "slots");
+        JBlock body = index.body();
+        JVar offsets = body.decl(intType.array(), "offsets", JExpr.newArray(intType, slots.invoke("size")));
+        body.add(mCodeModel.ref(Arrays.class).staticInvoke("fill").arg(offsets).arg(JExpr.lit(-1)));
+        JTryBlock tryBlock = body._try();
+        parser = tryBlock.body().decl(parserType, "parser", JExpr.invoke(open).arg(json).arg(start).arg(end));
+        JBlock isObject = tryBlock.body()._if(
+                parser.invoke("getCurrentToken").eq(tokenType.staticRef("START_OBJECT")))._then();
+        JWhileLoop fieldLoop = isObject._while(parser.invoke("nextToken").eq(tokenType.staticRef("FIELD_NAME")));
+        JVar slot = fieldLoop.body().decl(mCodeModel.ref(Integer.class), "slot",
+                slots.invoke("get").arg(parser.invoke("getCurrentName")));
+        fieldLoop.body().invoke(parser, "nextToken");
+        fieldLoop.body()._if(slot.ne(JExpr._null()))._then().assign(offsets.component(slot),
+                start.plus(JExpr.cast(intType, parser.invoke("getTokenLocation").invoke("getByteOffset"))));
+        fieldLoop.body().invoke(parser, "skipChildren");
+        tryBlock.body().invoke(parser, "close");
+        rethrowUnchecked(tryBlock);
+        body._return(offsets);
+
+        // elements(json, start, end), the start offset of each element, or null if the array is missing
+        JMethod elements = mSupport.method(mods, intType.array(), "elements");
+        json = elements.param(mByteArray, "json");
+        start = elements.param(intType, "start");
+        end = elements.param(intType, "end");
+        body = elements.body();
+        body._if(JExpr.invoke(isNull).arg(json).arg(start))._then()._return(JExpr._null());
+        JVar result = body.decl(intType.array(), "offsets", JExpr.newArray(intType, 8));
+        JVar count = body.decl(intType, "count", JExpr.lit(0));
+        tryBlock = body._try();
+        parser = tryBlock.body().decl(parserType, "parser", JExpr.invoke(open).arg(json).arg(start).arg(end));
+        JBlock isArray = tryBlock.body()._if(
+                parser.invoke("getCurrentToken").eq(tokenType.staticRef("START_ARRAY")))._then();
+        JWhileLoop elementLoop = isArray._while(parser.invoke("nextToken").ne(tokenType.staticRef("END_ARRAY")));
+        elementLoop.body()._if(count.eq(result.ref("length")))._then().assign(result, mCodeModel.ref(Arrays.class)
+                .staticInvoke("copyOf").arg(result).arg(count.mul(JExpr.lit(2))));
+        elementLoop.body().assign(result.component(count.incr()), JOp.cond(
+                parser.invoke("getCurrentToken").eq(tokenType.staticRef("VALUE_NULL")), JExpr.lit(-1),
+                start.plus(JExpr.cast(intType, parser.invoke("getTokenLocation").invoke("getByteOffset")))));
+        elementLoop.body().invoke(parser, "skipChildren");
+        tryBlock.body().invoke(parser, "close");
+        rethrowUnchecked(tryBlock);
+        body._return(mCodeModel.ref(Arrays.class).staticInvoke("copyOf").arg(result).arg(count));
+
+        // members(json, start, end), the start offset of each value by key, or null if the object is missing
+        JClass membersType = mCodeModel.ref(Map.class).narrow(String.class, Integer.class);
+        JMethod members = mSupport.method(mods, membersType, "members");
+        json = members.param(mByteArray, "json");
+        start = members.param(intType, "start");
+        end = members.param(intType, "end");
+        body = members.body();
+        body._if(JExpr.invoke(isNull).arg(json).arg(start))._then()._return(JExpr._null());
+        JVar offsetsByKey = body.decl(membersType, "offsets",
+                JExpr._new(mCodeModel.ref(LinkedHashMap.class).narrow(String.class, Integer.class)));
+        tryBlock = body._try();
+        parser = tryBlock.body().decl(parserType, "parser", JExpr.invoke(open).arg(json).arg(start).arg(end));
+        isObject = tryBlock.body()._if(
+                parser.invoke("getCurrentToken").eq(tokenType.staticRef("START_OBJECT")))._then();
+        JWhileLoop memberLoop = isObject._while(parser.invoke("nextToken").eq(tokenType.staticRef("FIELD_NAME")));
+        JVar key = memberLoop.body().decl(mCodeModel.ref(String.class), "key", parser.invoke("getCurrentName"));
+        memberLoop.body().invoke(parser, "nextToken");
+        memberLoop.body().invoke(offsetsByKey, "put").arg(key).arg(JOp.cond(
+                parser.invoke("getCurrentToken").eq(tokenType.staticRef("VALUE_NULL")), JExpr.lit(-1),
+                start.plus(JExpr.cast(intType, parser.invoke("getTokenLocation").invoke("getByteOffset")))));
+        memberLoop.body().invoke(parser, "skipChildren");
+        tryBlock.body().invoke(parser, "close");
+        rethrowUnchecked(tryBlock);
+        body._return(offsetsByKey);
+
+        // Scalar readers, which return null for missing and null values
+        generateScalarReader("readLong", Long.class, parser2 -> parser2.invoke("getLongValue"));
+        generateScalarReader("readDouble", Double.class, parser2 -> parser2.invoke("getDoubleValue"));
+        generateScalarReader("readInteger", Integer.class, parser2 -> parser2.invoke("getIntValue"));
+        generateScalarReader("readShort", Short.class, parser2 -> parser2.invoke("getShortValue"));
+        generateScalarReader("readByte", Byte.class, parser2 -> parser2.invoke("getByteValue"));
+        generateScalarReader("readFloat", Float.class, parser2 -> parser2.invoke("getFloatValue"));
+        generateScalarReader("readBigInteger", BigInteger.class, parser2 -> parser2.invoke("getBigIntegerValue"));
+        generateScalarReader("readBigDecimal", BigDecimal.class, parser2 -> parser2.invoke("getDecimalValue"));
+        generateScalarReader("readBoolean", Boolean.class, parser2 -> parser2.invoke("getBooleanValue"));
+        generateScalarReader("readString", String.class, parser2 -> parser2.invoke("getText"));
+
+        // readObject(json, start, end), for scalar values of unknown type
+        JClass objectType = mCodeModel.ref(Object.class);
+        generateScalarReader("readObject", Object.class, parser2 -> {
+            JExpression token = parser2.invoke("getCurrentToken");
+            return JOp.cond(token.invoke("isNumeric"), JExpr.cast(objectType, parser2.invoke("getNumberValue")),
+                    JOp.cond(token.invoke("isBoolean"), JExpr.cast(objectType, parser2.invoke("getBooleanValue")),
+                            JOp.cond(token.eq(tokenType.staticRef("VALUE_STRING")),
+                                    JExpr.cast(objectType, parser2.invoke("getText")), JExpr._null())));
+        });
+    }
+
+    /**
+     * Generates a static reader method for a single scalar value.
+     */
+    private void generateScalarReader(String methodName, Class<?> type, ValueReader reader) {
+        JType intType = mCodeModel.INT;
+        JMethod method = mSupport.method(JMod.PUBLIC | JMod.STATIC, type, methodName);
+        JVar json = method.param(mByteArray, "json");
+        JVar start = method.param(intType, "start");
+        JVar end = method.param(intType, "end");
+        JBlock body = method.body();
+        body._if(start.lt(JExpr.lit(0)))._then()._return(JExpr._null());
+
+        JTryBlock tryBlock = body._try();
+        JVar parser = tryBlock.body().decl(mCodeModel.ref(JsonParser.class), "parser",
+                mSupport.staticInvoke("open").arg(json).arg(start).arg(end));
+        JVar value = tryBlock.body().decl(mCodeModel.ref(type), "value", JOp.cond(
+                parser.invoke("getCurrentToken").eq(mCodeModel.ref(JsonToken.class).staticRef("VALUE_NULL")),
+                JExpr._null(), reader.read(parser)));
+        tryBlock.body().invoke(parser, "close");
+        tryBlock.body()._return(value);
+        rethrowUnchecked(tryBlock);
+    }
+
+    /**
+     * Adds a catch block which rethrows {@link IOException} as {@link UncheckedIOException}, since getters can't
+     * throw checked exceptions.
+     */
+    private void rethrowUnchecked(JTryBlock tryBlock) {
+        JCatchBlock catchBlock = tryBlock._catch(mCodeModel.ref(IOException.class));
+        JVar e = catchBlock.param("e");
+        catchBlock.body()._throw(JExpr._new(mCodeModel.ref(UncheckedIOException.class)).arg(e));
+    }
+
+    private String uniqueFieldName(JDefinedClass clazz, String name) {
+        String fieldName = GeneratePojos.formatFieldName(name, mUseMPrefix);
+        while (clazz.fields().containsKey(fieldName)) {
+            fieldName = "_" + fieldName;
+        }
+        return fieldName;
+    }
+
+    //endregion
+
+    //region INNER CLASSES ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the expression which reads a value from a parser positioned on a non-null token.
+     */
+    private interface ValueReader {
+        JExpression read(JVar parser);
+    }
+
+    //endregion
+
+}
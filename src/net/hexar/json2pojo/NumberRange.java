@@ -0,0 +1,144 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Tracks the range of the values observed for a number field, and whether they are integers, so that the field can be
+ * given the narrowest type which holds all of them. The values themselves aren't kept, so memory stays constant
+ * regardless of the sample size.
+ */
+class NumberRange {
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private long mObservations;
+    private double mMin = Double.POSITIVE_INFINITY;
+    private double mMax = Double.NEGATIVE_INFINITY;
+    private boolean mFloatingPoint;
+    private boolean mFloatExact = true;
+    private boolean mBeyondLong;
+    private boolean mBeyondDouble;
+    private boolean mDoubleOnly;
+
+    //endregion
+
+    //region PUBLIC METHODS --------------------------------------------------------------------------------------------
+
+    /**
+     * Records a single observed value.
+     *
+     * @param value the observed number node.
+     */
+    void add(JsonNode value) {
+        mObservations++;
+
+        if (value.isBigInteger()) {
+            mBeyondLong = true;
+        } else if (value.isBigDecimal()) {
+            mBeyondDouble = true;
+            mFloatingPoint = true;
+        } else if (value.isFloatingPointNumber()) {
+            mFloatingPoint = true;
+            double number = value.doubleValue();
+            if (mFloatExact && Double.parseDouble(Float.toString((float) number)) != number) {
+                mFloatExact = false;
+            }
+        }
+
+        double number = value.doubleValue();
+        mMin = Math.min(mMin, number);
+        mMax = Math.max(mMax, number);
+    }
+
+    /**
+     * Records a single observed number which was written as a string, such as "19.99". It's read like the same number
+     * without quotes, except for the texts which only a double can hold, such as "NaN".
+     *
+     * @param text the observed text, which {@link Double#parseDouble} can read.
+     */
+    void add(String text) {
+        BigDecimal decimal;
+        try {
+            decimal = new BigDecimal(text);
+        } catch (NumberFormatException e) {
+            mObservations++;
+            mFloatingPoint = true;
+            mDoubleOnly = true;
+            return;
+        }
+
+        JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
+        if (text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+            BigInteger integer = decimal.toBigInteger();
+            add(integer.bitLength() < Long.SIZE ? nodeFactory.numberNode(integer.longValue())
+                    : nodeFactory.numberNode(integer));
+        } else {
+            double value = decimal.doubleValue();
+            boolean isExact = !Double.isInfinite(value) && new BigDecimal(Double.toString(value)).compareTo(decimal) == 0;
+            add(isExact ? nodeFactory.numberNode(value) : nodeFactory.numberNode(decimal));
+        }
+    }
+
+    /**
+     * Adds all of the values observed by another range to this one, as if they had been observed here.
+     *
+     * @param other the range to merge into this one.
+     */
+    void merge(NumberRange other) {
+        mObservations += other.mObservations;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+        mFloatingPoint |= other.mFloatingPoint;
+        mFloatExact &= other.mFloatExact;
+        mBeyondLong |= other.mBeyondLong;
+        mBeyondDouble |= other.mBeyondDouble;
+        mDoubleOnly |= other.mDoubleOnly;
+    }
+
+    /**
+     * Returns the narrowest type which holds all of the observed values, with room for them to grow by a given factor.
+     * Integers become Byte, Short, Integer or Long, or BigInteger if they don't fit in a long. Other numbers become
+     * Float if every value reads back the same from a float, Double otherwise, or BigDecimal if a double would lose
+     * some of their digits, unless some of them were texts which only a double can hold.
+     *
+     * @param headroom the factor by which the observed minimum and maximum may grow and still fit the type.
+     * @return the boxed type for the field.
+     */
+    Class<?> getNarrowestType(double headroom) {
+        if (mDoubleOnly) {
+            return Double.class;
+        } else if (mBeyondDouble || (mFloatingPoint && mBeyondLong)) {
+            return BigDecimal.class;
+        } else if (mBeyondLong) {
+            return BigInteger.class;
+        }
+
+        // Scaling only moves the bounds away from zero
+        double low = Math.min(mMin, mMin * headroom);
+        double high = Math.max(mMax, mMax * headroom);
+        if (mFloatingPoint) {
+            return mFloatExact && low >= -Float.MAX_VALUE && high <= Float.MAX_VALUE ? Float.class : Double.class;
+        } else if (low >= Byte.MIN_VALUE && high <= Byte.MAX_VALUE) {
+            return Byte.class;
+        } else if (low >= Short.MIN_VALUE && high <= Short.MAX_VALUE) {
+            return Short.class;
+        } else if (low >= Integer.MIN_VALUE && high <= Integer.MAX_VALUE) {
+            return Integer.class;
+        }
+        return Long.class;
+    }
+
+    /**
+     * @return the number of values observed, including repeats.
+     */
+    long getObservations() {
+        return mObservations;
+    }
+
+    //endregion
+
+}
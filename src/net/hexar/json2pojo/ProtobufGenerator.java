@@ -0,0 +1,802 @@
+package net.hexar.json2pojo;
+
+import com.sun.codemodel.*;
+import com.sun.codemodel.fmt.JTextFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Exports the inferred schema as Protocol Buffers definitions, and generates a converter between the generated POJO
+ * classes and the messages which protoc generates from them.
+ * <p>
+ * Every generated class becomes a message with the same name and a field per generated field, named like the field
+ * without an 'm' prefix. Lists become repeated fields, maps with String keys become map
+ * fields, and generated enums become enums whose zero value stands for an unset field. Fields which could only be
+ * inferred as {@code Object} become {@code google.protobuf.Value}. Protocol Buffers can't nest repeated and map fields
+ * directly, so lists and maps inside lists and maps are wrapped in a message holding a single {@code values} field.
+ * <p>
+ * Fields and enum values are numbered in order, except that those which are already in the .proto file of an earlier
+ * generation keep their numbers, and the numbers of those which were removed are reserved. Messages serialized with
+ * the earlier definitions can then still be read, as long as the earlier file is in the output directory.
+ * <p>
+ * The definitions use proto3 with optional scalars, so that null fields remain unset. Protobuf doesn't tell empty lists
+ * and maps apart from unset ones, so both are converted back to null. Null elements of lists and null values of maps
+ * can't be represented and are dropped. The converter depends on protobuf-java, and the messages are generated into a
+ * {@code proto} subpackage so that they don't clash with the POJO classes.
+ */
+class ProtobufGenerator {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger("ProtobufGenerator");
+    private static final String PACKAGE_NAME = "proto";
+    private static final String PROTOBUF_PACKAGE = "com.google.protobuf.";
+    private static final String VALUES_FIELD = "values";
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    // The lines of an earlier .proto file which start a type, number a field or value, or reserve numbers
+    private static final Pattern TYPE_START = Pattern.compile("(?:message|enum) (\\w+) \\{");
+    private static final Pattern NUMBERED = Pattern.compile("\\s+.*?(\\w+) = (\\d+);");
+    private static final Pattern RESERVED = Pattern.compile("\\s+reserved ([\\d, ]+);");
+
+    // Accessor names which protoc changes for Java, since they would clash with the methods of every message
+    private static final Set<String> RESERVED_ACCESSOR_NAMES = new HashSet<>(Arrays.asList("Class", "CachedSize",
+            "DefaultInstanceForType", "DescriptorForType", "InitializationErrorString", "ParserForType",
+            "SerializedSize", "UnknownFields", "AllFields", "Parser"));
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final JPackage mPackage;
+    private final JCodeModel mCodeModel;
+    private final boolean mUsesBuilders;
+    private final File mOutputDirectory;
+    private final String mProtoPackageName;
+    private final Map<String, ProtoType> mTypes = new HashMap<>();
+    private final Set<String> mTypeNames = new HashSet<>();
+    private final StringBuilder mMessages = new StringBuilder();
+    private final StringBuilder mSupportTypes = new StringBuilder();
+    private final Map<String, Numbering> mNumberings = new HashMap<>();
+    private Map<JDefinedClass, List<String>> mEnumConstants;
+
+    // Converter class
+    private JDefinedClass mConverter;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param jPackage the package of the generated classes.
+     * @param usesBuilders true if the generated classes are built with builders rather than setters.
+     * @param outputDirectory the directory the .proto file is written to, which may hold the file of an earlier
+     *                        generation, or null if there is none.
+     */
+    ProtobufGenerator(JPackage jPackage, boolean usesBuilders, File outputDirectory) {
+        mPackage = jPackage;
+        mCodeModel = jPackage.owner();
+        mUsesBuilders = usesBuilders;
+        mOutputDirectory = outputDirectory;
+        mProtoPackageName = jPackage.isUnnamed() ? PACKAGE_NAME : jPackage.name() + "." + PACKAGE_NAME;
+    }
+
+    //endregion
+
+    //region CODE GENERATION -------------------------------------------------------------------------------------------
+
+    /**
+     * Generates the .proto file with a message for each of the given classes, and the converter class.
+     *
+     * @param rootName the name of the root class, which names the .proto file and the converter.
+     * @param classes the generated classes mapped to their generated fields.
+     * @param enumConstants the generated enums mapped to the names of their constants, in order.
+     * @throws Exception if an error occurs.
+     */
+    void generate(String rootName, Map<JDefinedClass, List<GeneratePojos.GeneratedField>> classes,
+                  Map<JDefinedClass, List<String>> enumConstants) throws Exception {
+        mEnumConstants = enumConstants;
+        String fileName = GeneratePojos.formatEnumConstantName(rootName).toLowerCase(Locale.ROOT) + ".proto";
+        if (mOutputDirectory != null) {
+            readNumberings(new File(mOutputDirectory, fileName));
+        }
+        mConverter = mPackage._class(JMod.PUBLIC | JMod.FINAL, rootName + "ProtoConverter");
+        GeneratePojos.annotateClass(mConverter);
+        mConverter.constructor(JMod.PRIVATE);
+
+        // Register all of the messages first, so that fields can refer to messages defined later
+        for (JDefinedClass clazz : classes.keySet()) {
+            ProtoType message = new ProtoType(ProtoKind.MESSAGE, clazz.name(), protoClass(clazz.name()));
+            message.PojoType = clazz;
+            message.ToProto = mConverter.method(JMod.PUBLIC | JMod.STATIC, message.JavaType, "toProto");
+            message.FromProto = mConverter.method(JMod.PUBLIC | JMod.STATIC, clazz, "fromProto");
+            mTypes.put(clazz.fullName(), message);
+            mTypeNames.add(clazz.name());
+        }
+
+        for (Map.Entry<JDefinedClass, List<GeneratePojos.GeneratedField>> entry : classes.entrySet()) {
+            generateMessage(entry.getKey(), entry.getValue());
+        }
+
+        // Write the definitions next to the generated classes
+        JTextFile protoFile = new JTextFile(fileName);
+        protoFile.setContents(createProtoFile(rootName));
+        mPackage.addResourceFile(protoFile);
+    }
+
+    /**
+     * Generates the message definition of a class, and its conversion methods.
+     *
+     * @param clazz the class to generate a message for.
+     * @param fields the generated fields of the class.
+     */
+    private void generateMessage(JDefinedClass clazz, List<GeneratePojos.GeneratedField> fields) {
+        ProtoType message = mTypes.get(clazz.fullName());
+        StringBuilder definition = new StringBuilder("message ").append(message.Name).append(" {\n");
+
+        // toProto(value), with a builder for the message
+        JMethod toProto = message.ToProto;
+        JVar value = toProto.param(clazz, "value");
+        JBlock toBody = toProto.body();
+        toBody._if(value.eq(JExpr._null()))._then()._return(JExpr._null());
+        JVar protoBuilder = toBody.decl(nestedClass(message.JavaType, "Builder"), "builder",
+                message.JavaType.staticInvoke("newBuilder"));
+
+        // fromProto(message), with a builder or an instance of the class
+        JMethod fromProto = message.FromProto;
+        JVar protoMessage = fromProto.param(message.JavaType, "message");
+        JBlock fromBody = fromProto.body();
+        fromBody._if(protoMessage.eq(JExpr._null()))._then()._return(JExpr._null());
+        JDefinedClass builderClass = mUsesBuilders ? getBuilderClass(clazz) : null;
+        JVar target = builderClass != null
+                ? fromBody.decl(builderClass, "builder", JExpr._new(builderClass))
+                : fromBody.decl(clazz, "result", JExpr._new(clazz));
+
+        Set<String> fieldNames = new HashSet<>();
+        Numbering numbering = getNumbering(message.Name);
+        for (GeneratePojos.GeneratedField field : fields) {
+            ProtoField protoField = createField(field, fieldNames);
+            if (protoField == null) {
+                log.fine(String.format("Skipping protobuf field %s.%s of type %s", clazz.name(), field.PropertyName,
+                        field.Field.type().fullName()));
+                continue;
+            }
+            definition.append("  ").append(protoField.getDeclaration()).append(" = ")
+                    .append(numbering.assign(protoField.Name)).append(";\n");
+
+            // Copy the field into the message, leaving it unset if it's null
+            String localName = GeneratePojos.formatFieldName(field.PropertyName, false) + "Value";
+            JVar fieldValue = toBody.decl(field.Field.type(), localName,
+                    value.invoke("get" + GeneratePojos.formatClassName(field.PropertyName)));
+            JBlock toBlock = fieldValue.type().isPrimitive() ? toBody : toBody._if(fieldValue.ne(JExpr._null()))._then();
+            generateToProto(toBlock, protoField, protoBuilder, fieldValue);
+
+            // Copy the field from the message, skipping unset singular fields
+            String setterName = (builderClass != null ? "with" : "set") +
+                    GeneratePojos.formatClassName(field.PropertyName);
+            generateFromProto(fromBody, protoField, protoMessage, target, setterName, field.Field.type(), localName);
+        }
+        definition.append(numbering.getReservedDeclaration()).append("}\n");
+        mMessages.append('\n').append(definition);
+
+        toBody._return(protoBuilder.invoke("build"));
+        fromBody._return(builderClass != null ? target.invoke("build") : target);
+    }
+
+    /**
+     * Maps a generated field to a message field.
+     *
+     * @param field the generated field.
+     * @param fieldNames the names of the fields already in the message.
+     * @return the message field, or null if the field type can't be represented.
+     */
+    private ProtoField createField(GeneratePojos.GeneratedField field, Set<String> fieldNames) {
+        JType type = field.Field.type();
+        ProtoField protoField;
+        if (isClass(type, List.class)) {
+            ProtoType elementType = getProtoType(((JClass) type).getTypeParameters().get(0));
+            protoField = elementType != null ? new ProtoField(ProtoShape.REPEATED, elementType) : null;
+        } else if (isClass(type, Map.class)) {
+            ProtoType valueType = getProtoType(((JClass) type).getTypeParameters().get(1));
+            protoField = valueType != null ? new ProtoField(ProtoShape.MAP, valueType) : null;
+        } else {
+            ProtoType fieldType = getProtoType(type);
+            protoField = fieldType != null ? new ProtoField(ProtoShape.SINGULAR, fieldType) : null;
+        }
+        if (protoField == null) {
+            return null;
+        }
+
+        // Use the field name if protoc accepts it and maps it to the expected accessors
+        String name = GeneratePojos.formatFieldName(field.PropertyName, false);
+        if (!IDENTIFIER.matcher(name).matches()) {
+            // Derived from the name rather than the number, so that the number can be looked up by the name
+            name = "field_" + name.replaceAll("[^A-Za-z0-9_]", "_");
+        } else if (RESERVED_ACCESSOR_NAMES.contains(getAccessorName(name))) {
+            name += "Field";
+        }
+        String uniqueName = name;
+        for (int i = 2; !fieldNames.add(uniqueName); i++) {
+            uniqueName = name + i;
+        }
+        protoField.setName(uniqueName);
+        return protoField;
+    }
+
+    /**
+     * Generates the statements which copy a non-null field value into a message builder.
+     */
+    private void generateToProto(JBlock block, ProtoField field, JVar builder, JExpression fieldValue) {
+        ProtoType type = field.Type;
+        switch (field.Shape) {
+            case SINGULAR:
+                block.invoke(builder, "set" + field.AccessorName).arg(toProto(type, fieldValue));
+                break;
+            case REPEATED: {
+                JForEach forEach = block.forEach(getPojoType(type), "element", fieldValue);
+                forEach.body()._if(forEach.var().ne(JExpr._null()))._then()
+                        .invoke(builder, "add" + field.AccessorName).arg(toProto(type, forEach.var()));
+                break;
+            }
+            default: {
+                JClass entryType = mCodeModel.ref(Map.Entry.class).narrow(mCodeModel.ref(String.class),
+                        getPojoType(type));
+                JForEach forEach = block.forEach(entryType, "entry", fieldValue.invoke("entrySet"));
+                JExpression entryValue = forEach.var().invoke("getValue");
+                forEach.body()._if(entryValue.ne(JExpr._null()))._then()
+                        .invoke(builder, "put" + field.AccessorName).arg(forEach.var().invoke("getKey"))
+                        .arg(toProto(type, entryValue));
+                break;
+            }
+        }
+    }
+
+    /**
+     * Generates the statements which copy a message field into a POJO or its builder.
+     */
+    private void generateFromProto(JBlock block, ProtoField field, JVar message, JVar target, String setterName,
+                                   JType fieldType, String localName) {
+        if (field.Shape == ProtoShape.SINGULAR) {
+            block._if(message.invoke("has" + field.AccessorName))._then().invoke(target, setterName)
+                    .arg(fromProto(field.Type, message.invoke("get" + field.AccessorName)));
+        } else {
+            // Empty lists and maps are the same as unset ones in protobuf, so they stay null like unset scalars
+            JBlock then = block._if(message.invoke("get" + field.AccessorName + "Count").gt(JExpr.lit(0)))._then();
+            JVar collection = generateFromProtoCollection(then, field, message, fieldType, localName);
+            then.invoke(target, setterName).arg(collection);
+        }
+    }
+
+    /**
+     * Generates the statements which copy a repeated or map field of a message into a new list or map.
+     *
+     * @return the local variable holding the list or map.
+     */
+    private JVar generateFromProtoCollection(JBlock block, ProtoField field, JVar message, JType fieldType,
+                                             String localName) {
+        ProtoType type = field.Type;
+        if (field.Shape == ProtoShape.REPEATED) {
+            JVar list = block.decl(fieldType, localName, JExpr._new(mCodeModel.ref(ArrayList.class)
+                    .narrow(getPojoType(type))).arg(message.invoke("get" + field.AccessorName + "Count")));
+            JForEach forEach = block.forEach(type.JavaType, "element",
+                    message.invoke("get" + field.AccessorName + "List"));
+            forEach.body().invoke(list, "add").arg(fromProto(type, forEach.var()));
+            return list;
+        }
+
+        JVar map = block.decl(fieldType, localName, JExpr._new(mCodeModel.ref(LinkedHashMap.class)
+                .narrow(mCodeModel.ref(String.class), getPojoType(type))));
+        JClass entryType = mCodeModel.ref(Map.Entry.class).narrow(mCodeModel.ref(String.class), type.JavaType);
+        JForEach forEach = block.forEach(entryType, "entry",
+                message.invoke("get" + field.AccessorName + "Map").invoke("entrySet"));
+        forEach.body().invoke(map, "put").arg(forEach.var().invoke("getKey"))
+                .arg(fromProto(type, forEach.var().invoke("getValue")));
+        return map;
+    }
+
+    /**
+     * Gets the protobuf type of a value, defining enums and wrapper messages on first use.
+     *
+     * @param type the type of the value in the generated classes.
+     * @return the protobuf type, or null if the type can't be represented.
+     */
+    private ProtoType getProtoType(JType type) {
+        // Primitive fields convert like their boxed types
+        type = type.boxify();
+        ProtoType protoType = mTypes.get(type.fullName());
+        if (protoType != null) {
+            return protoType;
+        }
+
+        if (type.equals(mCodeModel.ref(Long.class))) {
+            protoType = new ProtoType(ProtoKind.SCALAR, "int64", mCodeModel.ref(Long.class));
+        } else if (type.equals(mCodeModel.ref(Double.class))) {
+            protoType = new ProtoType(ProtoKind.SCALAR, "double", mCodeModel.ref(Double.class));
+        } else if (type.equals(mCodeModel.ref(Integer.class))) {
+            protoType = new ProtoType(ProtoKind.SCALAR, "int32", mCodeModel.ref(Integer.class));
+        } else if (type.equals(mCodeModel.ref(Float.class))) {
+            protoType = new ProtoType(ProtoKind.SCALAR, "float", mCodeModel.ref(Float.class));
+        } else if (type.equals(mCodeModel.ref(Short.class)) || type.equals(mCodeModel.ref(Byte.class))) {
+            protoType = generateNarrowingConversion((JClass) type);
+        } else if (type.equals(mCodeModel.ref(BigInteger.class)) || type.equals(mCodeModel.ref(BigDecimal.class))) {
+            protoType = generateStringConversions((JClass) type);
+        } else if (type.equals(mCodeModel.ref(Boolean.class))) {
+            protoType = new ProtoType(ProtoKind.SCALAR, "bool", mCodeModel.ref(Boolean.class));
+        } else if (type.equals(mCodeModel.ref(String.class))) {
+            protoType = new ProtoType(ProtoKind.SCALAR, "string", mCodeModel.ref(String.class));
+        } else if (type.equals(mCodeModel.ref(Object.class))) {
+            protoType = generateValueConversions();
+        } else if (type instanceof JDefinedClass && ((JDefinedClass) type).getClassType() == ClassType.ENUM) {
+            protoType = generateEnum((JDefinedClass) type);
+        } else if (isClass(type, List.class)) {
+            protoType = generateWrapper((JClass) type, ProtoShape.REPEATED, "List");
+        } else if (isClass(type, Map.class)) {
+            protoType = generateWrapper((JClass) type, ProtoShape.MAP, "Map");
+        }
+
+        if (protoType != null) {
+            protoType.PojoType = type;
+            mTypes.put(type.fullName(), protoType);
+        }
+        return protoType;
+    }
+
+    /**
+     * Defines the protobuf enum for a generated enum, and generates its conversion methods. The zero value stands for
+     * an unset field, and the other values are numbered like the fields of a message. Enum values share the scope of
+     * their enum's package, so they are prefixed with the name of the enum.
+     */
+    private ProtoType generateEnum(JDefinedClass enumClass) {
+        ProtoType protoEnum = new ProtoType(ProtoKind.ENUM, uniqueTypeName(enumClass.name()),
+                protoClass(enumClass.name()));
+        String prefix = GeneratePojos.formatEnumConstantName(protoEnum.Name) + "_";
+        List<String> constantNames = mEnumConstants.get(enumClass);
+        String unspecified = prefix + "UNSPECIFIED";
+        while (constantNames.contains(unspecified.substring(prefix.length()))) {
+            unspecified += "_";
+        }
+
+        mSupportTypes.append("\nenum ").append(protoEnum.Name).append(" {\n")
+                .append("  ").append(unspecified).append(" = 0;\n");
+        Numbering numbering = getNumbering(protoEnum.Name);
+        JArray numberArray = JExpr.newArray(mCodeModel.INT);
+        protoEnum.FromProto = mConverter.method(JMod.PUBLIC | JMod.STATIC, enumClass, "fromProto");
+        JVar protoValue = protoEnum.FromProto.param(protoEnum.JavaType, "value");
+        JBlock body = protoEnum.FromProto.body();
+        body._if(protoValue.eq(JExpr._null()).cor(protoValue.eq(protoEnum.JavaType.staticRef(unspecified)))
+                .cor(protoValue.eq(protoEnum.JavaType.staticRef("UNRECOGNIZED"))))._then()._return(JExpr._null());
+        JSwitch numberSwitch = body._switch(protoValue.invoke("getNumber"));
+        for (String constantName : constantNames) {
+            int number = numbering.assign(prefix + constantName);
+            mSupportTypes.append("  ").append(prefix).append(constantName).append(" = ").append(number)
+                    .append(";\n");
+            numberArray.add(JExpr.lit(number));
+            numberSwitch._case(JExpr.lit(number)).body()._return(enumClass.staticRef(constantName));
+        }
+        mSupportTypes.append(numbering.getReservedDeclaration()).append("}\n");
+        body._return(JExpr._null());
+
+        // Constants are converted by their position to their number
+        JFieldVar numbers = mConverter.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, mCodeModel.INT.array(),
+                prefix + "NUMBERS", numberArray);
+        protoEnum.ToProto = mConverter.method(JMod.PUBLIC | JMod.STATIC, protoEnum.JavaType, "toProto");
+        JVar value = protoEnum.ToProto.param(enumClass, "value");
+        protoEnum.ToProto.body()._return(JOp.cond(value.eq(JExpr._null()), JExpr._null(),
+                protoEnum.JavaType.staticInvoke("forNumber").arg(numbers.component(value.invoke("ordinal")))));
+        return protoEnum;
+    }
+
+    /**
+     * Defines a wrapper message for a list or map which is itself an element of a list or a value of a map, and
+     * generates its conversion methods.
+     */
+    private ProtoType generateWrapper(JClass type, ProtoShape shape, String suffix) {
+        List<JClass> typeParameters = type.getTypeParameters();
+        ProtoType elementType = getProtoType(typeParameters.get(typeParameters.size() - 1));
+        if (elementType == null) {
+            return null;
+        }
+
+        String elementName = elementType.Kind == ProtoKind.SCALAR || elementType.Kind == ProtoKind.VALUE
+                ? GeneratePojos.formatClassName(elementType.Name.substring(elementType.Name.lastIndexOf('.') + 1))
+                : elementType.Name;
+        String name = uniqueTypeName(elementName + suffix);
+        ProtoType wrapper = new ProtoType(ProtoKind.MESSAGE, name, protoClass(name));
+        ProtoField field = new ProtoField(shape, elementType);
+        field.setName(VALUES_FIELD);
+        mSupportTypes.append("\nmessage ").append(name).append(" {\n")
+                .append("  ").append(field.getDeclaration()).append(" = 1;\n}\n");
+
+        wrapper.ToProto = mConverter.method(JMod.PRIVATE | JMod.STATIC, wrapper.JavaType, "to" + name);
+        JVar values = wrapper.ToProto.param(type, VALUES_FIELD);
+        JBlock toBody = wrapper.ToProto.body();
+        JVar builder = toBody.decl(nestedClass(wrapper.JavaType, "Builder"), "builder",
+                wrapper.JavaType.staticInvoke("newBuilder"));
+        generateToProto(toBody, field, builder, values);
+        toBody._return(builder.invoke("build"));
+
+        wrapper.FromProto = mConverter.method(JMod.PRIVATE | JMod.STATIC, type, "from" + name);
+        JVar message = wrapper.FromProto.param(wrapper.JavaType, "message");
+        JBlock fromBody = wrapper.FromProto.body();
+        fromBody._return(generateFromProtoCollection(fromBody, field, message, type, VALUES_FIELD));
+        return wrapper;
+    }
+
+    /**
+     * Generates the conversion of an int32 back to a Short or Byte field. The other direction needs no conversion,
+     * since they widen to int.
+     */
+    private ProtoType generateNarrowingConversion(JClass type) {
+        ProtoType protoType = new ProtoType(ProtoKind.SCALAR, "int32", mCodeModel.ref(Integer.class));
+        JType primitive = type.unboxify();
+        protoType.FromProto = mConverter.method(JMod.PRIVATE | JMod.STATIC, type, "to" + type.name());
+        JVar value = protoType.FromProto.param(mCodeModel.INT, "value");
+        protoType.FromProto.body()._return(JExpr.cast(primitive, value));
+        return protoType;
+    }
+
+    /**
+     * Generates the conversions between BigInteger or BigDecimal fields and strings, which keep every digit.
+     */
+    private ProtoType generateStringConversions(JClass type) {
+        ProtoType protoType = new ProtoType(ProtoKind.SCALAR, "string", mCodeModel.ref(String.class));
+        protoType.ToProto = mConverter.method(JMod.PRIVATE | JMod.STATIC, String.class, "from" + type.name());
+        JVar value = protoType.ToProto.param(type, "value");
+        protoType.ToProto.body()._return(value.invoke("toString"));
+
+        protoType.FromProto = mConverter.method(JMod.PRIVATE | JMod.STATIC, type, "to" + type.name());
+        JVar text = protoType.FromProto.param(String.class, "value");
+        protoType.FromProto.body()._return(JExpr._new(type).arg(text));
+        return protoType;
+    }
+
+    /**
+     * Generates the conversions between arbitrary JSON values, as read by GSON, and {@code google.protobuf.Value}.
+     */
+    private ProtoType generateValueConversions() {
+        JClass valueClass = protobuf("Value");
+        ProtoType protoValue = new ProtoType(ProtoKind.VALUE, "google.protobuf.Value", valueClass);
+        JClass objectClass = mCodeModel.ref(Object.class);
+        JClass stringClass = mCodeModel.ref(String.class);
+
+        // toValue(value)
+        protoValue.ToProto = mConverter.method(JMod.PRIVATE | JMod.STATIC, valueClass, "toValue");
+        JVar value = protoValue.ToProto.param(Object.class, "value");
+        JBlock toBody = protoValue.ToProto.body();
+        JVar builder = toBody.decl(nestedClass(valueClass, "Builder"), "builder",
+                valueClass.staticInvoke("newBuilder"));
+        JConditional isNull = toBody._if(value.eq(JExpr._null()));
+        isNull._then().invoke(builder, "setNullValue").arg(protobuf("NullValue").staticRef("NULL_VALUE"));
+        JConditional isBoolean = isNull._elseif(value._instanceof(mCodeModel.ref(Boolean.class)));
+        isBoolean._then().invoke(builder, "setBoolValue").arg(JExpr.cast(mCodeModel.ref(Boolean.class), value));
+        JConditional isNumber = isBoolean._elseif(value._instanceof(mCodeModel.ref(Number.class)));
+        JExpression number = JExpr.cast(mCodeModel.ref(Number.class), value);
+        isNumber._then().invoke(builder, "setNumberValue").arg(number.invoke("doubleValue"));
+        JConditional isMap = isNumber._elseif(value._instanceof(mCodeModel.ref(Map.class)));
+        JBlock mapBlock = isMap._then();
+        JVar struct = mapBlock.decl(nestedClass(protobuf("Struct"), "Builder"), "struct",
+                protobuf("Struct").staticInvoke("newBuilder"));
+        JExpression anyMap = JExpr.cast(mCodeModel.ref(Map.class).narrow(mCodeModel.wildcard(),
+                mCodeModel.wildcard()), value);
+        JForEach forEachEntry = mapBlock.forEach(mCodeModel.ref(Map.Entry.class).narrow(mCodeModel.wildcard(),
+                mCodeModel.wildcard()), "entry", anyMap.invoke("entrySet"));
+        forEachEntry.body().invoke(struct, "putFields").arg(stringClass.staticInvoke("valueOf")
+                .arg(forEachEntry.var().invoke("getKey")))
+                .arg(JExpr.invoke(protoValue.ToProto).arg(forEachEntry.var().invoke("getValue")));
+        mapBlock.invoke(builder, "setStructValue").arg(struct);
+        JConditional isIterable = isMap._elseif(value._instanceof(mCodeModel.ref(Iterable.class)));
+        JBlock listBlock = isIterable._then();
+        JVar list = listBlock.decl(nestedClass(protobuf("ListValue"), "Builder"), "list",
+                protobuf("ListValue").staticInvoke("newBuilder"));
+        JForEach forEachElement = listBlock.forEach(objectClass, "element",
+                JExpr.cast(mCodeModel.ref(Iterable.class).narrow(mCodeModel.wildcard()), value));
+        forEachElement.body().invoke(list, "addValues").arg(JExpr.invoke(protoValue.ToProto).arg(forEachElement.var()));
+        listBlock.invoke(builder, "setListValue").arg(list);
+        isIterable._else().invoke(builder, "setStringValue").arg(stringClass.staticInvoke("valueOf").arg(value));
+        toBody._return(builder.invoke("build"));
+
+        // fromValue(value), reading numbers as doubles like GSON does
+        protoValue.FromProto = mConverter.method(JMod.PRIVATE | JMod.STATIC, objectClass, "fromValue");
+        value = protoValue.FromProto.param(valueClass, "value");
+        JBlock fromBody = protoValue.FromProto.body();
+        JClass kindCase = nestedClass(valueClass, "KindCase");
+        JVar kind = fromBody.decl(kindCase, "kind", value.invoke("getKindCase"));
+        fromBody._if(kind.eq(kindCase.staticRef("BOOL_VALUE")))._then()._return(value.invoke("getBoolValue"));
+        fromBody._if(kind.eq(kindCase.staticRef("NUMBER_VALUE")))._then()._return(value.invoke("getNumberValue"));
+        fromBody._if(kind.eq(kindCase.staticRef("STRING_VALUE")))._then()._return(value.invoke("getStringValue"));
+        JBlock structBlock = fromBody._if(kind.eq(kindCase.staticRef("STRUCT_VALUE")))._then();
+        JVar map = structBlock.decl(mCodeModel.ref(Map.class).narrow(stringClass, objectClass), "map",
+                JExpr._new(mCodeModel.ref(LinkedHashMap.class).narrow(stringClass, objectClass)));
+        JForEach forEachField = structBlock.forEach(mCodeModel.ref(Map.Entry.class).narrow(stringClass, valueClass),
+                "entry", value.invoke("getStructValue").invoke("getFieldsMap").invoke("entrySet"));
+        forEachField.body().invoke(map, "put").arg(forEachField.var().invoke("getKey"))
+                .arg(JExpr.invoke(protoValue.FromProto).arg(forEachField.var().invoke("getValue")));
+        structBlock._return(map);
+        JBlock listValueBlock = fromBody._if(kind.eq(kindCase.staticRef("LIST_VALUE")))._then();
+        JVar elements = listValueBlock.decl(mCodeModel.ref(List.class).narrow(objectClass), "list",
+                JExpr._new(mCodeModel.ref(ArrayList.class).narrow(objectClass)));
+        JForEach forEachValue = listValueBlock.forEach(valueClass, "element",
+                value.invoke("getListValue").invoke("getValuesList"));
+        forEachValue.body().invoke(elements, "add").arg(JExpr.invoke(protoValue.FromProto).arg(forEachValue.var()));
+        listValueBlock._return(elements);
+        fromBody._return(JExpr._null());
+        return protoValue;
+    }
+
+    /**
+     * Reads the numbers of the fields and enum values of the .proto file of an earlier generation, if there is one.
+     *
+     * @param protoFile the .proto file, which may not exist.
+     * @throws IOException if the file can't be read.
+     */
+    private void readNumberings(File protoFile) throws IOException {
+        if (!protoFile.isFile()) {
+            return;
+        }
+
+        Numbering numbering = null;
+        for (String line : Files.readAllLines(protoFile.toPath(), StandardCharsets.UTF_8)) {
+            Matcher matcher;
+            if ((matcher = TYPE_START.matcher(line)).matches()) {
+                numbering = getNumbering(matcher.group(1));
+            } else if (line.equals("}")) {
+                numbering = null;
+            } else if (numbering != null && (matcher = RESERVED.matcher(line)).matches()) {
+                for (String number : matcher.group(1).split(",")) {
+                    numbering.Reserved.add(Integer.parseInt(number.trim()));
+                }
+            } else if (numbering != null && (matcher = NUMBERED.matcher(line)).matches()) {
+                // The zero value of an enum is always its unset value
+                int number = Integer.parseInt(matcher.group(2));
+                if (number > 0) {
+                    numbering.Previous.put(matcher.group(1), number);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the contents of the .proto file.
+     */
+    private String createProtoFile(String rootName) {
+        StringBuilder proto = new StringBuilder("// Generated by net.hexar.json2pojo\n")
+                .append("// Field numbers are kept from the earlier version of this file in the output directory, and\n")
+                .append("// removed fields are reserved. Without it, fields are numbered in the order of the sample.\n")
+                .append("syntax = \"proto3\";\n\n");
+        if (!mPackage.isUnnamed()) {
+            proto.append("package ").append(mPackage.name()).append(";\n\n");
+        }
+        if (mTypes.values().stream().anyMatch(type -> type.Kind == ProtoKind.VALUE)) {
+            proto.append("import \"google/protobuf/struct.proto\";\n\n");
+        }
+        proto.append("option java_package = \"").append(mProtoPackageName).append("\";\n")
+                .append("option java_multiple_files = true;\n")
+                .append("option java_outer_classname = \"").append(uniqueTypeName(rootName + "Protos"))
+                .append("\";\n");
+        return proto.append(mMessages).append(mSupportTypes).toString();
+    }
+
+    //endregion
+
+    //region HELPER METHODS --------------------------------------------------------------------------------------------
+
+    private Numbering getNumbering(String typeName) {
+        return mNumberings.computeIfAbsent(typeName, name -> new Numbering());
+    }
+
+    private JExpression toProto(ProtoType type, JExpression value) {
+        return type.ToProto != null ? JExpr.invoke(type.ToProto).arg(value) : value;
+    }
+
+    private JExpression fromProto(ProtoType type, JExpression value) {
+        return type.FromProto != null ? JExpr.invoke(type.FromProto).arg(value) : value;
+    }
+
+    /**
+     * @return the type of the POJO values which are converted to the given protobuf type.
+     */
+    private JClass getPojoType(ProtoType type) {
+        return (JClass) type.PojoType;
+    }
+
+    private JDefinedClass getBuilderClass(JDefinedClass clazz) {
+        Iterator<JDefinedClass> nestedClasses = clazz.classes();
+        while (nestedClasses.hasNext()) {
+            JDefinedClass nestedClass = nestedClasses.next();
+            if (nestedClass.name().equals("Builder")) {
+                return nestedClass;
+            }
+        }
+        return null;
+    }
+
+    private boolean isClass(JType type, Class<?> clazz) {
+        return type instanceof JClass && ((JClass) type).erasure().equals(mCodeModel.ref(clazz));
+    }
+
+    private String uniqueTypeName(String name) {
+        String uniqueName = name;
+        for (int i = 2; !mTypeNames.add(uniqueName); i++) {
+            uniqueName = name + i;
+        }
+        return uniqueName;
+    }
+
+    private JClass protoClass(String name) {
+        return mCodeModel.directClass(mProtoPackageName + "." + name);
+    }
+
+    private JClass nestedClass(JClass outerClass, String name) {
+        return mCodeModel.directClass(outerClass.fullName() + "." + name);
+    }
+
+    private JClass protobuf(String className) {
+        return mCodeModel.directClass(PROTOBUF_PACKAGE + className);
+    }
+
+    /**
+     * Formats a field name into the name protoc uses for its Java accessors, by capitalizing the first letter, and the
+     * letters after underscores and digits.
+     *
+     * @param fieldName the name of the message field.
+     * @return the accessor name without its prefix, e.g. "OrderId" for getOrderId().
+     */
+    static String getAccessorName(String fieldName) {
+        StringBuilder accessorName = new StringBuilder();
+        boolean capitalizeNext = true;
+        for (int i = 0; i < fieldName.length(); i++) {
+            char c = fieldName.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                accessorName.append(capitalizeNext ? Character.toUpperCase(c) : c);
+                capitalizeNext = false;
+            } else if (c >= 'A' && c <= 'Z') {
+                accessorName.append(c);
+                capitalizeNext = false;
+            } else if (c >= '0' && c <= '9') {
+                accessorName.append(c);
+                capitalizeNext = true;
+            } else {
+                capitalizeNext = true;
+            }
+        }
+        return accessorName.toString();
+    }
+
+    //endregion
+
+    //region INNER CLASSES ---------------------------------------------------------------------------------------------
+
+    /**
+     * The kinds of protobuf types.
+     */
+    private enum ProtoKind {
+        SCALAR,
+        ENUM,
+        MESSAGE,
+        VALUE
+    }
+
+    /**
+     * The shapes of message fields.
+     */
+    private enum ProtoShape {
+        SINGULAR,
+        REPEATED,
+        MAP
+    }
+
+    /**
+     * A protobuf type, with the Java type protoc generates for it and the methods converting to and from it. Most
+     * scalars need no conversion methods, since they are boxed and unboxed.
+     */
+    private static class ProtoType {
+        final ProtoKind Kind;
+        final String Name;
+        final JClass JavaType;
+        JType PojoType;
+        JMethod ToProto;
+        JMethod FromProto;
+
+        ProtoType(ProtoKind kind, String name, JClass javaType) {
+            Kind = kind;
+            Name = name;
+            JavaType = javaType;
+        }
+    }
+
+    /**
+     * The numbers of the fields of a message or the values of an enum. Names which were numbered by an earlier .proto
+     * file keep their numbers, and new names get numbers which were never used by an earlier one.
+     */
+    private static class Numbering {
+        final Map<String, Integer> Previous = new HashMap<>();
+        final Set<Integer> Reserved = new TreeSet<>();
+        private final Set<Integer> mAssigned = new HashSet<>();
+        private int mNext = 1;
+
+        /**
+         * @param name the name of the field or enum value.
+         * @return its number.
+         */
+        int assign(String name) {
+            Integer number = Previous.get(name);
+            if (number == null || !mAssigned.add(number)) {
+                while (Reserved.contains(mNext) || Previous.containsValue(mNext) || mAssigned.contains(mNext)) {
+                    mNext++;
+                }
+                number = mNext;
+                mAssigned.add(number);
+            }
+            return number;
+        }
+
+        /**
+         * @return the declaration reserving the numbers reserved earlier and those of the removed names, or an empty
+         * string if there are none.
+         */
+        String getReservedDeclaration() {
+            Set<Integer> reserved = new TreeSet<>(Reserved);
+            for (int number : Previous.values()) {
+                if (!mAssigned.contains(number)) {
+                    reserved.add(number);
+                }
+            }
+            if (reserved.isEmpty()) {
+                return "";
+            }
+            StringBuilder declaration = new StringBuilder("  reserved ");
+            for (int number : reserved) {
+                declaration.append(declaration.length() > 11 ? ", " : "").append(number);
+            }
+            return declaration.append(";\n").toString();
+        }
+    }
+
+    /**
+     * A field of a message, with the name protoc uses for its accessors.
+     */
+    private static class ProtoField {
+        final ProtoShape Shape;
+        final ProtoType Type;
+        String Name;
+        String AccessorName;
+
+        ProtoField(ProtoShape shape, ProtoType type) {
+            Shape = shape;
+            Type = type;
+        }
+
+        void setName(String name) {
+            Name = name;
+            AccessorName = getAccessorName(name);
+        }
+
+        /**
+         * @return the declaration of the field without its number. Singular scalars and enums are optional, so that
+         * unset fields can be told apart from zero values.
+         */
+        String getDeclaration() {
+            switch (Shape) {
+                case REPEATED:
+                    return "repeated " + Type.Name + " " + Name;
+                case MAP:
+                    return "map<string, " + Type.Name + "> " + Name;
+                default:
+                    boolean hasPresence = Type.Kind == ProtoKind.MESSAGE || Type.Kind == ProtoKind.VALUE;
+                    return (hasPresence ? "" : "optional ") + Type.Name + " " + Name;
+            }
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,235 @@
+package net.hexar.json2pojo;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sun.codemodel.*;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Generates a stream of the records of the root class, such as {@code OrderStream} for {@code Order}, which reads a
+ * top-level JSON array of records, or a sequence of records such as NDJSON, one record at a time.
+ * <p>
+ * The stream is an {@link Iterator} over the records, read with the GSON streaming reader so that only the record
+ * being read is held in memory. Its spliterator hands a batch of records to each split, so that a parallel stream holds
+ * about one batch per worker thread, and {@code forEachBatch} passes the records to a callback in batches of a given
+ * size, reusing the same list for every batch.
+ */
+class RootStreamGenerator {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger("RootStreamGenerator");
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final JPackage mPackage;
+    private final JCodeModel mCodeModel;
+    private final JClass mTokenType;
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    /**
+     * @param jPackage the package to generate the stream in.
+     */
+    RootStreamGenerator(JPackage jPackage) {
+        mPackage = jPackage;
+        mCodeModel = jPackage.owner();
+        mTokenType = mCodeModel.ref(JsonToken.class);
+    }
+
+    //endregion
+
+    //region CODE GENERATION -------------------------------------------------------------------------------------------
+
+    /**
+     * Generates the stream of the records of the root class, unless a generated class already has its name.
+     *
+     * @param rootClass the root class, which is the type of the records.
+     * @throws Exception if an error occurs.
+     */
+    void generate(JDefinedClass rootClass) throws Exception {
+        String name = rootClass.name() + "Stream";
+        if (mPackage._getClass(name) != null) {
+            log.warning("Skipping the record stream, since a class is already named " + name);
+            return;
+        }
+
+        JDefinedClass stream = mPackage._class(JMod.PUBLIC | JMod.FINAL, name);
+        GeneratePojos.annotateClass(stream);
+        stream._implements(mCodeModel.ref(Iterator.class).narrow(rootClass));
+        stream._implements(Closeable.class);
+        JFieldVar defaultBatchSize = stream.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, mCodeModel.INT,
+                "DEFAULT_BATCH_SIZE", JExpr.lit(DEFAULT_BATCH_SIZE));
+
+        // The reader is lenient so that it reads a sequence of top-level records
+        JFieldVar reader = stream.field(JMod.PRIVATE | JMod.FINAL, JsonReader.class, "reader");
+        JFieldVar gson = stream.field(JMod.PRIVATE | JMod.FINAL, Gson.class, "gson");
+        JFieldVar started = stream.field(JMod.PRIVATE, mCodeModel.BOOLEAN, "started");
+        JFieldVar exhausted = stream.field(JMod.PRIVATE, mCodeModel.BOOLEAN, "exhausted");
+
+        JMethod constructor = stream.constructor(JMod.PUBLIC);
+        JVar in = constructor.param(Reader.class, "in");
+        JVar gsonParam = constructor.param(Gson.class, "gson");
+        constructor.body().assign(JExpr._this().ref(reader), JExpr._new(mCodeModel.ref(JsonReader.class)).arg(in));
+        constructor.body().invoke(JExpr._this().ref(reader), "setLenient").arg(JExpr.TRUE);
+        constructor.body().assign(JExpr._this().ref(gson), gsonParam);
+
+        JMethod defaultConstructor = stream.constructor(JMod.PUBLIC);
+        in = defaultConstructor.param(Reader.class, "in");
+        defaultConstructor.body().invoke("this").arg(in).arg(JExpr._new(mCodeModel.ref(Gson.class)));
+
+        JMethod hasNext = generateHasNext(stream, reader, started, exhausted);
+        JMethod next = generateNext(stream, rootClass, hasNext, reader, gson);
+        JDefinedClass spliterator = generateSpliterator(stream, rootClass, hasNext, next);
+
+        // spliterator(batchSize) and stream(parallel)
+        JClass spliteratorType = mCodeModel.ref(Spliterator.class).narrow(rootClass);
+        JMethod spliteratorMethod = stream.method(JMod.PUBLIC, spliteratorType, "spliterator");
+        JVar batchSize = spliteratorMethod.param(mCodeModel.INT, "batchSize");
+        spliteratorMethod.body()._return(JExpr._new(spliterator).arg(batchSize));
+
+        JMethod streamMethod = stream.method(JMod.PUBLIC, mCodeModel.ref(Stream.class).narrow(rootClass), "stream");
+        JVar parallel = streamMethod.param(mCodeModel.BOOLEAN, "parallel");
+        streamMethod.body()._return(mCodeModel.ref(StreamSupport.class).staticInvoke("stream")
+                .arg(JExpr.invoke(spliteratorMethod).arg(defaultBatchSize)).arg(parallel));
+
+        generateForEachBatch(stream, rootClass, hasNext, next);
+
+        JMethod close = stream.method(JMod.PUBLIC, mCodeModel.VOID, "close");
+        close.annotate(Override.class);
+        close._throws(IOException.class);
+        close.body().invoke(reader, "close");
+    }
+
+    /**
+     * Generates hasNext, which opens the top-level array on the first call, and checks whether a record follows. An
+     * empty source has no records.
+     */
+    private JMethod generateHasNext(JDefinedClass stream, JFieldVar reader, JFieldVar started, JFieldVar exhausted) {
+        JMethod hasNext = stream.method(JMod.PUBLIC, mCodeModel.BOOLEAN, "hasNext");
+        hasNext.annotate(Override.class);
+        JBlock body = hasNext.body();
+        body._if(exhausted)._then()._return(JExpr.FALSE);
+
+        JTryBlock tryBlock = body._try();
+        JBlock start = tryBlock.body()._if(JOp.not(started))._then();
+        start.assign(started, JExpr.TRUE);
+        JTryBlock peekFirst = start._try();
+        JVar first = peekFirst.body().decl(mTokenType, "first", reader.invoke("peek"));
+        peekFirst.body()._if(first.eq(mTokenType.staticRef("BEGIN_ARRAY")))._then().invoke(reader, "beginArray");
+        JBlock empty = peekFirst._catch(mCodeModel.ref(EOFException.class)).body();
+        empty.assign(exhausted, JExpr.TRUE);
+        empty._return(JExpr.FALSE);
+
+        JVar token = tryBlock.body().decl(mTokenType, "token", reader.invoke("peek"));
+        tryBlock.body().assign(exhausted, token.eq(mTokenType.staticRef("END_ARRAY"))
+                .cor(token.eq(mTokenType.staticRef("END_DOCUMENT"))));
+        tryBlock.body()._return(JOp.not(exhausted));
+
+        JCatchBlock catchBlock = tryBlock._catch(mCodeModel.ref(IOException.class));
+        JVar e = catchBlock.param("e");
+        catchBlock.body()._throw(JExpr._new(mCodeModel.ref(UncheckedIOException.class)).arg(e));
+        return hasNext;
+    }
+
+    /**
+     * Generates next, which reads a single record.
+     */
+    private JMethod generateNext(JDefinedClass stream, JDefinedClass rootClass, JMethod hasNext, JFieldVar reader,
+                                 JFieldVar gson) {
+        JMethod next = stream.method(JMod.PUBLIC, rootClass, "next");
+        next.annotate(Override.class);
+        JBlock body = next.body();
+        JClass noSuchElement = mCodeModel.ref(NoSuchElementException.class);
+        body._if(JOp.not(JExpr.invoke(hasNext)))._then()._throw(JExpr._new(noSuchElement));
+        body._return(gson.invoke("fromJson").arg(reader).arg(rootClass.dotclass()));
+        return next;
+    }
+
+    /**
+     * Generates the spliterator, which splits off a batch of records at a time. Records are read in order, so it's
+     * only worth splitting when processing a record takes longer than reading it.
+     */
+    private JDefinedClass generateSpliterator(JDefinedClass stream, JDefinedClass rootClass, JMethod hasNext,
+                                              JMethod next) throws Exception {
+        JClass spliteratorType = mCodeModel.ref(Spliterator.class).narrow(rootClass);
+        JDefinedClass spliterator = stream._class(JMod.PRIVATE | JMod.FINAL, "RecordSpliterator");
+        spliterator._implements(spliteratorType);
+        JFieldVar batchSize = spliterator.field(JMod.PRIVATE | JMod.FINAL, mCodeModel.INT, "batchSize");
+        JMethod constructor = spliterator.constructor(JMod.NONE);
+        JVar batchSizeParam = constructor.param(mCodeModel.INT, "batchSize");
+        constructor.body().assign(JExpr._this().ref(batchSize), batchSizeParam);
+
+        // tryAdvance(action)
+        JMethod tryAdvance = spliterator.method(JMod.PUBLIC, mCodeModel.BOOLEAN, "tryAdvance");
+        tryAdvance.annotate(Override.class);
+        // CodeModel has no lower bounded wildcards, and the records are in the same package as the stream
+        JClass superOfRecord = mCodeModel.directClass("? super " + rootClass.name());
+        JVar action = tryAdvance.param(mCodeModel.ref(Consumer.class).narrow(superOfRecord), "action");
+        tryAdvance.body()._if(JOp.not(JExpr.invoke(hasNext)))._then()._return(JExpr.FALSE);
+        tryAdvance.body().invoke(action, "accept").arg(JExpr.invoke(next));
+        tryAdvance.body()._return(JExpr.TRUE);
+
+        // trySplit(), reading the next batch into an array
+        JMethod trySplit = spliterator.method(JMod.PUBLIC, spliteratorType, "trySplit");
+        trySplit.annotate(Override.class);
+        JBlock body = trySplit.body();
+        JVar batch = body.decl(mCodeModel.ref(Object.class).array(), "batch",
+                JExpr.newArray(mCodeModel.ref(Object.class), batchSize));
+        JVar count = body.decl(mCodeModel.INT, "count", JExpr.lit(0));
+        JBlock read = body._while(count.lt(batchSize).cand(JExpr.invoke(hasNext))).body();
+        read.assign(batch.component(count.incr()), JExpr.invoke(next));
+        body._return(JOp.cond(count.eq(JExpr.lit(0)), JExpr._null(), mCodeModel.ref(Spliterators.class)
+                .staticInvoke("spliterator").arg(batch).arg(JExpr.lit(0)).arg(count)
+                .arg(mCodeModel.ref(Spliterator.class).staticRef("ORDERED"))));
+
+        // The number of records is unknown until they are read
+        JMethod estimateSize = spliterator.method(JMod.PUBLIC, mCodeModel.LONG, "estimateSize");
+        estimateSize.annotate(Override.class);
+        estimateSize.body()._return(mCodeModel.ref(Long.class).staticRef("MAX_VALUE"));
+
+        JMethod characteristics = spliterator.method(JMod.PUBLIC, mCodeModel.INT, "characteristics");
+        characteristics.annotate(Override.class);
+        characteristics.body()._return(mCodeModel.ref(Spliterator.class).staticRef("ORDERED"));
+        return spliterator;
+    }
+
+    /**
+     * Generates forEachBatch, which passes the records to a callback in batches, reusing the same list so that only
+     * one batch is held in memory.
+     */
+    private void generateForEachBatch(JDefinedClass stream, JDefinedClass rootClass, JMethod hasNext, JMethod next) {
+        JClass listType = mCodeModel.ref(List.class).narrow(rootClass);
+        JMethod forEachBatch = stream.method(JMod.PUBLIC, mCodeModel.VOID, "forEachBatch");
+        JVar batchSize = forEachBatch.param(mCodeModel.INT, "batchSize");
+        JVar callback = forEachBatch.param(mCodeModel.ref(Consumer.class).narrow(listType), "callback");
+        JBlock body = forEachBatch.body();
+        JVar batch = body.decl(listType, "batch",
+                JExpr._new(mCodeModel.ref(ArrayList.class).narrow(rootClass)).arg(batchSize));
+        JBlock read = body._while(JExpr.invoke(hasNext)).body();
+        read.invoke(batch, "add").arg(JExpr.invoke(next));
+        JBlock full = read._if(batch.invoke("size").eq(batchSize))._then();
+        full.invoke(callback, "accept").arg(batch);
+        full.invoke(batch, "clear");
+        body._if(JOp.not(batch.invoke("isEmpty")))._then().invoke(callback, "accept").arg(batch);
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,65 @@
+package net.hexar.json2pojo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class DistinctValueCounterTest {
+
+    @Test
+    public void exactBelowLimit() throws Exception {
+        DistinctValueCounter counter = new DistinctValueCounter(4);
+        for (String value : new String[] { "USD", "EUR", "USD", "GBP", "EUR" }) {
+            counter.add(value);
+        }
+        assertTrue(counter.isExact());
+        assertEquals(3, counter.getCardinality());
+        assertEquals(5, counter.getObservations());
+        assertArrayEquals(new String[] { "USD", "EUR", "GBP" }, counter.getValues().toArray());
+    }
+
+    @Test
+    public void overflowAboveLimit() throws Exception {
+        DistinctValueCounter counter = new DistinctValueCounter(16);
+        for (int i = 0; i < 100000; i++) {
+            counter.add("value-" + (i % 50000));
+        }
+        assertFalse(counter.isExact());
+        assertTrue(counter.getValues().isEmpty());
+        assertEquals(17, counter.getCardinality());
+        assertEquals(100000, counter.getObservations());
+    }
+
+    @Test
+    public void merge() throws Exception {
+        DistinctValueCounter billing = new DistinctValueCounter(4);
+        DistinctValueCounter shipping = new DistinctValueCounter(4);
+        billing.add("US");
+        billing.add("CA");
+        shipping.add("US");
+        shipping.add("MX");
+        shipping.add("US");
+
+        billing.merge(shipping);
+        assertTrue(billing.isExact());
+        assertEquals(3, billing.getCardinality());
+        assertEquals(5, billing.getObservations());
+    }
+
+    @Test
+    public void mergeOverflowed() throws Exception {
+        DistinctValueCounter few = new DistinctValueCounter(2);
+        DistinctValueCounter many = new DistinctValueCounter(2);
+        few.add("US");
+        for (String value : new String[] { "US", "CA", "MX" }) {
+            many.add(value);
+        }
+
+        few.merge(many);
+        assertFalse(few.isExact());
+        assertTrue(few.getValues().isEmpty());
+        assertEquals(4, few.getObservations());
+    }
+
+}
@@ -0,0 +1,122 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.codemodel.JClass;
+import com.sun.codemodel.JCodeModel;
+import com.sun.codemodel.JDefinedClass;
+import com.sun.codemodel.JMod;
+import com.sun.codemodel.JType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+
+public class FootprintEstimatorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private JCodeModel mCodeModel;
+    private JDefinedClass mOrder;
+    private JDefinedClass mItem;
+    private Map<JDefinedClass, List<GeneratePojos.GeneratedField>> mClasses;
+
+    @Before
+    public void setUp() throws Exception {
+        mCodeModel = new JCodeModel();
+        mClasses = new LinkedHashMap<>();
+        mItem = mCodeModel._class("com.example.Item");
+        addClass(mItem, "counts", mCodeModel.ref(List.class).narrow(Long.class), "id", mCodeModel.LONG,
+                "name", mCodeModel.ref(String.class), "price", mCodeModel.ref(Double.class));
+        mOrder = mCodeModel._class("com.example.Order");
+        addClass(mOrder, "item", mItem, "items", mCodeModel.ref(List.class).narrow(mItem));
+    }
+
+    @Test
+    public void shallowSizes() throws Exception {
+        // Header, long, and three references
+        assertEquals(32, FootprintEstimator.getShallowSize(mItem));
+        assertEquals(24, FootprintEstimator.getShallowSize(mOrder));
+    }
+
+    @Test
+    public void stringsAndLists() throws Exception {
+        assertEquals(48, FootprintEstimator.getStringSize("abc"));
+        assertEquals(56, FootprintEstimator.getStringSize("abcdefghi"));
+        assertEquals(48, FootprintEstimator.getStringSize("éééé"));
+        assertEquals(56, FootprintEstimator.getStringSize("中中中中中"));
+
+        assertEquals(24, FootprintEstimator.getListSize(0));
+        assertEquals(80, FootprintEstimator.getListSize(10));
+        assertEquals(104, FootprintEstimator.getListSize(11));
+    }
+
+    @Test
+    public void retainedSizes() throws Exception {
+        String item = "{\"id\": 5, \"name\": \"abc\", \"price\": 1.5, \"counts\": [1, 1000]}";
+        JsonNode order = MAPPER.readTree("{\"item\": " + item + ", \"items\": [" + item + ", null]}");
+        FootprintEstimator estimator = new FootprintEstimator(mCodeModel, mClasses);
+
+        // The item, its string, its boxed price, its list, and the boxed count which isn't cached
+        long itemBytes = 32 + 48 + 16 + 80 + 16;
+        assertEquals(24 + 80 + 2 * itemBytes, estimator.add(mOrder, order));
+
+        FootprintEstimator.ClassFootprint items = estimator.getFootprint(mItem);
+        assertEquals(2, items.Instances);
+        assertEquals(2 * itemBytes, items.RetainedBytes);
+        assertEquals(2 * itemBytes, items.getFootprintBytes());
+        assertEquals(2 * 32, items.BoxedBytes);
+        assertEquals(2 * 48, items.StringBytes);
+
+        FootprintEstimator.ClassFootprint orders = estimator.getFootprint(mOrder);
+        assertEquals(1, orders.Instances);
+        assertEquals(24 + 80, orders.getFootprintBytes());
+        assertEquals(24 + 80 + 2 * itemBytes, orders.RetainedBytes);
+        assertEquals(0, estimator.getOutsideBytes());
+
+        String report = estimator.createReport("Order");
+        assertTrue(report, report.indexOf("\nItem ") < report.indexOf("\nOrder "));
+        assertTrue(report, report.contains(" " + (24 + 80 + 2 * itemBytes) + " "));
+    }
+
+    @Test
+    public void rootArray() throws Exception {
+        JsonNode orders = MAPPER.readTree("[{\"item\": null}, {\"items\": []}]");
+        FootprintEstimator estimator = new FootprintEstimator(mCodeModel, mClasses);
+        JClass orderList = mCodeModel.ref(List.class).narrow(mOrder);
+        assertEquals(80 + 24 + 24 + 24, estimator.add(orderList, orders));
+        assertEquals(80, estimator.getOutsideBytes());
+        assertEquals(2, estimator.getFootprint(mOrder).Instances);
+        assertEquals(0, estimator.getFootprint(mItem).Instances);
+    }
+
+    @Test
+    public void deeplyNestedUntypedValues() throws Exception {
+        ObjectNode root = JsonNodeFactory.instance.objectNode();
+        ObjectNode node = root;
+        for (int i = 0; i < 100000; i++) {
+            node = node.putObject("a");
+        }
+        FootprintEstimator estimator = new FootprintEstimator(mCodeModel, mClasses);
+        long bytes = estimator.add(mCodeModel.ref(Object.class), root);
+
+        // A map with a single entry, and its key, at every level but the innermost, which is empty
+        assertEquals(100000 * (40 + 2 * 48 + 48) + 40 + 48, bytes);
+    }
+
+    private void addClass(JDefinedClass clazz, Object... fields) {
+        List<GeneratePojos.GeneratedField> generatedFields = new ArrayList<>();
+        for (int i = 0; i < fields.length; i += 2) {
+            String name = (String) fields[i];
+            generatedFields.add(new GeneratePojos.GeneratedField(
+                    clazz.field(JMod.PRIVATE, (JType) fields[i + 1], name), name, null));
+        }
+        mClasses.put(clazz, generatedFields);
+    }
+
+}
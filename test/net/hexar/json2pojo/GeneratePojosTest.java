@@ -1,7 +1,33 @@
 package net.hexar.json2pojo;
 
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
 import static org.junit.Assert.*;
 
 
@@ -43,4 +69,510 @@ public class GeneratePojosTest {
         assertEquals("InvalidChars", GeneratePojos.formatFieldName("Invalid@$%@#$^&#%@Chars", false));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void formatEnumConstantName() throws Exception {
+        assertEquals("OPEN", GeneratePojos.formatEnumConstantName("open"));
+        assertEquals("IN_PROGRESS", GeneratePojos.formatEnumConstantName("in-progress"));
+        assertEquals("IN_PROGRESS", GeneratePojos.formatEnumConstantName("inProgress"));
+        assertEquals("IN_PROGRESS", GeneratePojos.formatEnumConstantName("IN_PROGRESS"));
+        assertEquals("_2FA", GeneratePojos.formatEnumConstantName("2fa"));
+        assertEquals("", GeneratePojos.formatEnumConstantName("--"));
+    }
+
+    @Test
+    public void immutableClassesAreValues() throws Exception {
+        String json = "{\"id\": 7, \"tags\": [\"a\", \"b\"], \"item\": {\"sku\": \"x\", \"qty\": 2}}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setGenerateImmutable(true))) {
+            Class<?> orderClass = classes.get("Order");
+            for (Method method : orderClass.getMethods()) {
+                assertFalse(method.getName(), method.getName().startsWith("set"));
+            }
+            for (Field field : orderClass.getDeclaredFields()) {
+                assertTrue(field.getName(), Modifier.isFinal(field.getModifiers()) ||
+                        Modifier.isTransient(field.getModifiers()));
+            }
+
+            Object item = GeneratedClasses.call(GeneratedClasses.call(GeneratedClasses.call(
+                    classes.create("Item$Builder"), "withSku", "x"), "withQty", 2L), "build");
+            List<String> tags = new ArrayList<>(Arrays.asList("a", "b"));
+            Object builder = GeneratedClasses.call(GeneratedClasses.call(GeneratedClasses.call(
+                    classes.create("Order$Builder"), "withId", 7L), "withTags", tags), "withItem", item);
+            Object order = GeneratedClasses.call(builder, "build");
+
+            // The lists are copied, so that later changes to the builder's list don't show through
+            tags.add("c");
+            List<?> orderTags = (List<?>) GeneratedClasses.call(order, "getTags");
+            assertEquals(Arrays.asList("a", "b"), orderTags);
+            try {
+                orderTags.clear();
+                fail("The list of an immutable class can be changed");
+            } catch (UnsupportedOperationException expected) {
+            }
+
+            Object read = classes.fromJson("Order", json);
+            assertEquals(order, read);
+            assertEquals(order.hashCode(), read.hashCode());
+            assertEquals(classes.toJson(read), classes.toJson(order));
+
+            // The builder still holds the changed list, so the next instance differs
+            assertNotEquals(order, GeneratedClasses.call(builder, "build"));
+        }
+    }
+
+    @Test
+    public void inferredEnumsReadTheSample() throws Exception {
+        String json = "{\"orders\": [" +
+                "{\"kind\": \"retail\", \"currency\": \"USD\", \"code\": \"abc\"}," +
+                "{\"kind\": \"in-store\", \"currency\": \"EUR\", \"code\": \"12\"}," +
+                "{\"kind\": \"retail\", \"currency\": \"USD\", \"code\": \"abc\"}," +
+                "{\"kind\": \"in-store\", \"currency\": \"EUR\", \"code\": \"12\"}]}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Shop", json,
+                new GenerationOptions().setInferEnums(true))) {
+            Object shop = classes.fromJson("Shop", json);
+            List<?> orders = (List<?>) GeneratedClasses.call(shop, "getOrders");
+            assertEquals(4, orders.size());
+
+            Object kind = GeneratedClasses.call(orders.get(1), "getKind");
+            assertNotNull(kind);
+            assertEquals("IN_STORE", ((Enum<?>) kind).name());
+            assertEquals("in-store", GeneratedClasses.call(kind, "getValue"));
+            assertEquals("RETAIL", ((Enum<?>) GeneratedClasses.call(orders.get(0), "getKind")).name());
+            assertEquals("EUR", ((Enum<?>) GeneratedClasses.call(orders.get(1), "getCurrency")).name());
+
+            // Strings which are sometimes numbers stay strings, rather than an enum without the numbers
+            assertEquals(String.class, classes.get("Order").getMethod("getCode").getReturnType());
+            assertEquals("12", GeneratedClasses.call(orders.get(1), "getCode"));
+
+            // The constants are written back as the original values
+            assertTrue(classes.toJson(shop).contains("\"kind\":\"in-store\""));
+        }
+    }
+
+    @Test
+    public void flyweightsReadWhatTheEncoderWrote() throws Exception {
+        String json = "{\"id\": 7, \"name\": \"first\", \"tags\": [\"a\", \"b\"], \"counts\": [5, null, 6], " +
+                "\"item\": {\"sku\": \"x\", \"qty\": 2}, \"items\": [{\"sku\": \"y\", \"qty\": 3}, {\"qty\": 4}]}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setGenerateFlyweights(true))) {
+            Object order = classes.fromJson("Order", json.replace("\"name\": \"first\", ", ""));
+            int length = (Integer) classes.callStatic("OrderEncoder", "encodedLength", order);
+            ByteBuffer buffer = ByteBuffer.allocate(length + 3);
+            assertEquals(length, classes.callStatic("OrderEncoder", "encode", order, buffer, 3));
+
+            Object flyweight = GeneratedClasses.call(classes.create("OrderFlyweight"), "wrap", buffer, 3);
+            assertEquals(7L, GeneratedClasses.call(flyweight, "getId"));
+            assertEquals(false, GeneratedClasses.call(flyweight, "hasName"));
+            assertEquals(2, GeneratedClasses.call(flyweight, "getTagsCount"));
+            assertEquals("b", GeneratedClasses.call(flyweight, "getTags", 1));
+            assertEquals(3, GeneratedClasses.call(flyweight, "getCountsCount"));
+            assertEquals(6L, GeneratedClasses.call(flyweight, "getCounts", 2));
+            assertEquals(true, GeneratedClasses.call(flyweight, "hasCounts", 0));
+            assertEquals(false, GeneratedClasses.call(flyweight, "hasCounts", 1));
+
+            Object item = classes.create("ItemFlyweight");
+            assertSame(item, GeneratedClasses.call(flyweight, "getItem", item));
+            assertEquals("x", GeneratedClasses.call(item, "getSku"));
+            assertEquals(2L, GeneratedClasses.call(item, "getQty"));
+            assertEquals(2, GeneratedClasses.call(flyweight, "getItemsCount"));
+            GeneratedClasses.call(flyweight, "getItems", 1, item);
+            assertEquals(false, GeneratedClasses.call(item, "hasSku"));
+            assertEquals(4L, GeneratedClasses.call(item, "getQty"));
+            GeneratedClasses.call(flyweight, "getItems", 0, item);
+            assertEquals("y", GeneratedClasses.call(item, "getSku"));
+        }
+    }
+
+    @Test
+    public void lazyClassesDecodeFieldsOnAccess() throws Exception {
+        String json = "{\"id\": 7, \"name\": \"caf\\u00e9 \\\"one\\\"\", \"tags\": [\"a\", \"b\"], " +
+                "\"item\": {\"sku\": \"x\", \"qty\": 2}, \"items\": [{\"sku\": \"y\", \"qty\": 3}], " +
+                "\"extra\": {\"n\": [1]}}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setGenerateLazyParsing(true))) {
+            Object expected = classes.fromJson("Order", json);
+            Object order = classes.callStatic("Order", "parse", (Object) json.getBytes(StandardCharsets.UTF_8));
+            assertEquals(7L, GeneratedClasses.call(order, "getId"));
+            assertEquals("caf\u00e9 \"one\"", GeneratedClasses.call(order, "getName"));
+            assertEquals(Arrays.asList("a", "b"), GeneratedClasses.call(order, "getTags"));
+            assertEquals("x", GeneratedClasses.call(GeneratedClasses.call(order, "getItem"), "getSku"));
+            List<?> items = (List<?>) GeneratedClasses.call(order, "getItems");
+            assertEquals(3L, GeneratedClasses.call(items.get(0), "getQty"));
+
+            // A value which is set before it is read replaces the raw one
+            GeneratedClasses.call(order, "setId", 8L);
+            assertEquals(8L, GeneratedClasses.call(order, "getId"));
+            GeneratedClasses.call(expected, "setId", 8L);
+
+            GeneratedClasses.call(order, "materialize");
+            assertEquals(classes.toJson(expected), classes.toJson(order));
+        }
+    }
+
+    @Test
+    public void deduplicatedClassesAreShared() throws Exception {
+        String json = "{\"billing\": {\"street\": \"a\", \"city\": \"b\"}, " +
+                "\"shipping\": {\"street\": \"c\", \"city\": \"d\"}, " +
+                "\"node\": {\"value\": 1, \"child\": {\"value\": 2, \"child\": {\"value\": 3}}}}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setDeduplicateClasses(true))) {
+            assertFalse(classes.hasFile("Shipping.java"));
+            assertFalse(classes.hasFile("Child.java"));
+            Class<?> orderClass = classes.get("Order");
+            assertEquals(orderClass.getMethod("getBilling").getReturnType(),
+                    orderClass.getMethod("getShipping").getReturnType());
+            Class<?> nodeClass = orderClass.getMethod("getNode").getReturnType();
+            assertEquals(nodeClass, nodeClass.getMethod("getChild").getReturnType());
+
+            Object order = classes.fromJson("Order", json);
+            assertEquals("c", GeneratedClasses.call(GeneratedClasses.call(order, "getShipping"), "getStreet"));
+            Object node = GeneratedClasses.call(GeneratedClasses.call(order, "getNode"), "getChild");
+            assertEquals(3L, GeneratedClasses.call(GeneratedClasses.call(node, "getChild"), "getValue"));
+            assertEquals("b", GeneratedClasses.call(GeneratedClasses.call(order, "getBilling"), "getCity"));
+        }
+    }
+
+    @Test
+    public void mapsReplaceClassesForDynamicKeysAndWideObjects() throws Exception {
+        String json = "{\"prices\": {\"123\": 1.5, \"456\": 2.5, \"789\": 3.0}, " +
+                "\"users\": {\"0f8fad5b-d9cb-469f-a165-70867728950e\": {\"name\": \"a\"}, " +
+                "\"7c9e6679-7425-40de-944b-e07fc1f90ae7\": {\"name\": \"b\"}}, " +
+                "\"wide\": {\"a\": 1, \"b\": \"x\", \"c\": true, \"d\": 4}}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setDetectMaps(true).setMaxFieldsPerClass(3))) {
+            Class<?> orderClass = classes.get("Order");
+            assertEquals("java.util.Map<java.lang.String, java.lang.Double>",
+                    orderClass.getMethod("getPrices").getGenericReturnType().getTypeName());
+            assertEquals("java.util.Map<java.lang.String, " + GeneratedClasses.PACKAGE_NAME + ".User>",
+                    orderClass.getMethod("getUsers").getGenericReturnType().getTypeName());
+            assertEquals("java.util.Map<java.lang.String, java.lang.Object>",
+                    orderClass.getMethod("getWide").getGenericReturnType().getTypeName());
+            assertFalse(classes.hasFile("Prices.java"));
+            assertFalse(classes.hasFile("Wide.java"));
+
+            Object order = classes.fromJson("Order", json);
+            Map<?, ?> prices = (Map<?, ?>) GeneratedClasses.call(order, "getPrices");
+            assertEquals(2.5, prices.get("456"));
+            Map<?, ?> users = (Map<?, ?>) GeneratedClasses.call(order, "getUsers");
+            assertEquals("b", GeneratedClasses.call(users.get("7c9e6679-7425-40de-944b-e07fc1f90ae7"), "getName"));
+            Map<?, ?> wide = (Map<?, ?>) GeneratedClasses.call(order, "getWide");
+            assertEquals(Arrays.asList("a", "b", "c", "d"), new ArrayList<>(wide.keySet()));
+            assertEquals("x", wide.get("b"));
+            assertEquals(true, wide.get("c"));
+        }
+    }
+
+    @Test
+    public void benchmarkReadsAndWritesTheSample() throws Exception {
+        String json = "{\"first_name\": \"a\", \"id\": 7, \"items\": [{\"qty\": 3, \"sku\": \"y\"}]}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setGenerateBenchmark(true).setGenerateLazyParsing(true))) {
+            Object benchmark = classes.create("benchmark.OrderBenchmark");
+            GeneratedClasses.call(benchmark, "setUp");
+            Object order = GeneratedClasses.call(benchmark, "deserialize");
+            assertEquals("a", GeneratedClasses.call(order, "getFirstName"));
+            assertEquals(json.replace(" ", ""), GeneratedClasses.call(benchmark, "serialize"));
+            Object lazy = GeneratedClasses.call(benchmark, "parseLazy");
+            assertEquals(7L, GeneratedClasses.call(lazy, "getId"));
+        }
+    }
+
+    @Test
+    public void protobufConverterRoundTrips() throws Exception {
+        Assume.assumeTrue("protobuf-java isn't on the class path", isOnClassPath("com.google.protobuf.Message"));
+        Assume.assumeTrue("protoc isn't on the path", GeneratedClasses.hasProtoc());
+        String json = "{\"id\": 7, \"name\": \"first\", \"paid\": true, \"total\": 12.5, \"tags\": [\"a\", \"b\"], " +
+                "\"item\": {\"sku\": \"x\", \"qty\": 2}, \"items\": [{\"sku\": \"y\", \"qty\": 3}]}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setGenerateProtobuf(true))) {
+            assertTrue(classes.hasFile("order.proto"));
+            Object order = classes.fromJson("Order", json.replace("\"name\": \"first\", ", ""));
+            Object message = classes.callStatic("OrderProtoConverter", "toProto", order);
+            byte[] bytes = (byte[]) GeneratedClasses.call(message, "toByteArray");
+            Object parsed = classes.callStatic("proto.Order", "parseFrom", (Object) bytes);
+            assertEquals(false, GeneratedClasses.call(parsed, "hasName"));
+
+            Object back = classes.callStatic("OrderProtoConverter", "fromProto", parsed);
+            assertNull(GeneratedClasses.call(back, "getName"));
+            assertEquals(classes.toJson(order), classes.toJson(back));
+        }
+    }
+
+    @Test
+    public void protoFileDeclaresUniqueOptionalFields() throws Exception {
+        String json = "{\"id\": 7, \"name\": \"first\", \"tags\": [\"a\"], \"item\": {\"sku\": \"x\", \"qty\": 2}, " +
+                "\"items\": [{\"sku\": \"y\", \"qty\": 3}], \"counts\": {\"a\": 1}}";
+        Path directory = Files.createTempDirectory("json2pojo-test");
+        try {
+            String proto = generateProto(directory.toFile(), json);
+            assertTrue(proto, proto.contains("\nsyntax = \"proto3\";\n"));
+            assertTrue(proto, proto.contains("  optional int64 id = "));
+            assertTrue(proto, proto.contains("  optional string name = "));
+            assertTrue(proto, proto.contains("  repeated string tags = "));
+            assertTrue(proto, proto.contains("  repeated Item items = "));
+
+            // Each message numbers its fields uniquely from 1
+            Map<String, List<Integer>> numbers = getFieldNumbers(proto);
+            assertTrue(proto, numbers.keySet().containsAll(Arrays.asList("Order", "Item")));
+            for (Map.Entry<String, List<Integer>> message : numbers.entrySet()) {
+                List<Integer> sorted = new ArrayList<>(message.getValue());
+                Collections.sort(sorted);
+                assertEquals(message.getKey(), IntStream.rangeClosed(1, sorted.size()).boxed()
+                        .collect(Collectors.toList()), sorted);
+            }
+        } finally {
+            GeneratedClasses.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void protoFieldsKeepTheirNumbersAcrossGenerations() throws Exception {
+        Path directory = Files.createTempDirectory("json2pojo-test");
+        try {
+            String first = generateProto(directory.toFile(),
+                    "{\"id\": 7, \"name\": \"first\", \"status\": \"OPEN\", \"total\": 1.5}");
+            assertTrue(first, first.contains("  optional string name = 2;"));
+            assertTrue(first, first.contains("  optional double total = 4;"));
+
+            // A new field doesn't take the number of a removed one, and neither do later generations
+            String second = generateProto(directory.toFile(), "{\"note\": \"x\", \"id\": 8, \"total\": 2.5}");
+            assertTrue(second, second.contains("  optional int64 id = 1;"));
+            assertTrue(second, second.contains("  optional double total = 4;"));
+            assertTrue(second, second.contains("  optional string note = 5;"));
+            assertTrue(second, second.contains("  reserved 2, 3;"));
+
+            String third = generateProto(directory.toFile(), "{\"name\": \"back\", \"id\": 9}");
+            assertTrue(third, third.contains("  optional int64 id = 1;"));
+            assertTrue(third, third.contains("  optional string name = 6;"));
+            assertTrue(third, third.contains("  reserved 2, 3, 4, 5;"));
+        } finally {
+            GeneratedClasses.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void columnsHoldTheValuesOfAList() throws Exception {
+        String items = "[{\"qty\": 2, \"sku\": \"x\"}, {\"sku\": \"y\"}, {\"qty\": 4}, null]";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", "{\"items\": " + items + "}",
+                new GenerationOptions().setGenerateColumns(true))) {
+            List<?> list = (List<?>) GeneratedClasses.call(classes.fromJson("Order", "{\"items\": " + items + "}"),
+                    "getItems");
+            Object columns = classes.callStatic("ItemColumns", "fromList", list);
+            assertEquals(4, GeneratedClasses.call(columns, "size"));
+            assertEquals(true, GeneratedClasses.call(columns, "hasQty", 0));
+            assertEquals(false, GeneratedClasses.call(columns, "hasQty", 1));
+            assertEquals(4L, GeneratedClasses.call(columns, "getQty", 2));
+            assertEquals(4L, ((long[]) GeneratedClasses.call(columns, "getQtyColumn"))[2]);
+            assertEquals("y", ((String[]) GeneratedClasses.call(columns, "getSkuColumn"))[1]);
+            assertNull(GeneratedClasses.call(GeneratedClasses.call(columns, "get", 1), "getQty"));
+            assertEquals(true, GeneratedClasses.call(columns, "isNull", 3));
+            assertNull(GeneratedClasses.call(columns, "get", 3));
+            assertEquals(classes.toJson(list), classes.toJson(GeneratedClasses.call(columns, "toList")));
+
+            Object read = classes.callStatic("ItemColumns", "read", new StringReader(items));
+            assertEquals(classes.toJson(list), classes.toJson(GeneratedClasses.call(read, "toList")));
+
+            // The columns grow past their initial capacity
+            Object grown = classes.get("ItemColumns").getConstructor(int.class).newInstance(1);
+            for (Object item : list) {
+                GeneratedClasses.call(grown, "add", item);
+            }
+            Object cursor = GeneratedClasses.call(grown, "cursor");
+            List<Object> skus = new ArrayList<>();
+            while ((Boolean) GeneratedClasses.call(cursor, "next")) {
+                skus.add(GeneratedClasses.call(cursor, "getSku"));
+            }
+            assertEquals(Arrays.asList("x", "y", null, null), skus);
+        }
+    }
+
+    @Test
+    public void memoizedNumberValuesAreParsedOnce() throws Exception {
+        String json = "{\"big\": \"123456789012345678901234567890\", \"count\": \"40\", \"total\": \"12.50\"}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setUseDoubleValueGetters(true).setMemoizeNumberValues(true))) {
+            Object order = classes.fromJson("Order", json);
+            assertEquals(40L, GeneratedClasses.call(order, "getCountValue"));
+            assertEquals(12.5, GeneratedClasses.call(order, "getTotalValue"));
+            Object big = GeneratedClasses.call(order, "getBigValue");
+            assertEquals(new BigDecimal("123456789012345678901234567890"), big);
+            assertSame(big, GeneratedClasses.call(order, "getBigValue"));
+
+            // The parsed value is kept, even if the string changes behind the setter's back
+            Field count = classes.get("Order").getDeclaredField("count");
+            count.setAccessible(true);
+            count.set(order, "41");
+            assertEquals(40L, GeneratedClasses.call(order, "getCountValue"));
+            assertEquals(40L, GeneratedClasses.call(order, "getCountValue"));
+
+            // The setter clears the parsed value
+            GeneratedClasses.call(order, "setCount", "42");
+            assertEquals(42L, GeneratedClasses.call(order, "getCountValue"));
+            GeneratedClasses.call(order, "setBig", "1.5");
+            assertEquals(new BigDecimal("1.5"), GeneratedClasses.call(order, "getBigValue"));
+
+            // The parsed values aren't written
+            assertEquals("{\"big\":\"1.5\",\"count\":\"42\",\"total\":\"12.50\"}", classes.toJson(order));
+        }
+    }
+
+    @Test
+    public void buildersResetCopyAndFillInstances() throws Exception {
+        String json = "{\"id\": 7, \"name\": \"first\", \"tags\": [\"a\", \"b\"]}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setGenerateBuilders(true))) {
+            Object existing = classes.fromJson("Order", json);
+            Object builder = GeneratedClasses.call(classes.create("Order$Builder"), "from", existing);
+            Object copy = GeneratedClasses.call(builder, "build");
+            assertNotSame(existing, copy);
+            assertEquals(classes.toJson(existing), classes.toJson(copy));
+
+            // Filling an existing instance overwrites all of its fields, and returns it
+            Object target = GeneratedClasses.call(GeneratedClasses.call(classes.create("Order$Builder"), "withId",
+                    9L), "build");
+            assertSame(target, GeneratedClasses.call(GeneratedClasses.call(builder, "withId", 8L), "buildInto",
+                    target));
+            assertEquals(8L, GeneratedClasses.call(target, "getId"));
+            assertEquals("first", GeneratedClasses.call(target, "getName"));
+            assertEquals(7L, GeneratedClasses.call(copy, "getId"));
+
+            // A reset builder builds an empty instance, so that it can be reused for the next record
+            assertSame(builder, GeneratedClasses.call(builder, "reset"));
+            assertSame(target, GeneratedClasses.call(builder, "buildInto", target));
+            assertEquals("{}", classes.toJson(target));
+            assertEquals("first", GeneratedClasses.call(copy, "getName"));
+        }
+    }
+
+    @Test
+    public void rootStreamReadsArraysAndNewlineDelimitedRecords() throws Exception {
+        String array = "[{\"id\": 1, \"name\": \"a\"}, {\"id\": 2}, {\"id\": 3, \"name\": \"c\"}]";
+        String lines = "{\"id\": 1, \"name\": \"a\"}\n{\"id\": 2}\n\n{\"id\": 3, \"name\": \"c\"}\n";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", array,
+                new GenerationOptions().setGenerateRootStream(true))) {
+            Constructor<?> constructor = classes.get("OrderStream").getConstructor(Reader.class);
+            for (String json : Arrays.asList(array, lines)) {
+                Object stream = constructor.newInstance(new StringReader(json));
+                List<Object> ids = new ArrayList<>();
+                while ((Boolean) GeneratedClasses.call(stream, "hasNext")) {
+                    ids.add(GeneratedClasses.call(GeneratedClasses.call(stream, "next"), "getId"));
+                }
+                assertEquals(Arrays.asList(1L, 2L, 3L), ids);
+                try {
+                    GeneratedClasses.call(stream, "next");
+                    fail("Read past the last record");
+                } catch (NoSuchElementException expected) {
+                }
+                GeneratedClasses.call(stream, "close");
+
+                stream = constructor.newInstance(new StringReader(json));
+                Stream<?> records = (Stream<?>) GeneratedClasses.call(stream, "stream", false);
+                assertEquals(Arrays.asList("a", null, "c"), records.map(record -> {
+                    try {
+                        return GeneratedClasses.call(record, "getName");
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }).collect(Collectors.toList()));
+
+                stream = constructor.newInstance(new StringReader(json));
+                List<Integer> batchSizes = new ArrayList<>();
+                Consumer<List<?>> callback = batch -> batchSizes.add(batch.size());
+                GeneratedClasses.call(stream, "forEachBatch", 2, callback);
+                assertEquals(Arrays.asList(2, 1), batchSizes);
+            }
+
+            for (String empty : Arrays.asList("", "[]", "\n")) {
+                assertEquals(false, GeneratedClasses.call(constructor.newInstance(new StringReader(empty)),
+                        "hasNext"));
+            }
+        }
+    }
+
+    @Test
+    public void binaryCodecRoundTrips() throws Exception {
+        String json = "{\"id\": -7, \"name\": \"caf\\u00e9\", \"paid\": true, \"total\": 12.5, " +
+                "\"tags\": [\"a\", null, \"b\"], \"item\": {\"sku\": \"x\", \"qty\": 2}, " +
+                "\"items\": [{\"sku\": \"y\", \"qty\": 3}, null, {\"qty\": 9223372036854775807}], " +
+                "\"extra\": null}";
+        try (GeneratedClasses classes = GeneratedClasses.generate("Order", json,
+                new GenerationOptions().setGenerateBinaryCodec(true))) {
+            // A field which is null in the sample is untyped, and can hold any JSON value
+            Object order = classes.fromJson("Order", json.replace("null}", "[1, \"x\", null, {\"n\": [true]}]}"));
+            GeneratedClasses.call(order, "setName", (Object) null);
+            byte[] bytes = (byte[]) classes.callStatic("OrderCodec", "encode", order);
+            assertEquals(true, classes.callStatic("OrderCodec", "isCurrent", (Object) bytes));
+            Object decoded = classes.callStatic("OrderCodec", "decode", (Object) bytes);
+            assertEquals(classes.toJson(order), classes.toJson(decoded));
+            assertArrayEquals(bytes, (byte[]) classes.callStatic("OrderCodec", "encode", decoded));
+
+            // Records written one after another are read back one at a time
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(stream);
+            classes.callStatic("OrderCodec", "encode", order, out);
+            classes.callStatic("OrderCodec", "encode", classes.create("Order"), out);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(stream.toByteArray()));
+            assertEquals(classes.toJson(order), classes.toJson(classes.callStatic("OrderCodec", "decode", in)));
+            assertEquals("{}", classes.toJson(classes.callStatic("OrderCodec", "decode", in)));
+            assertEquals(-1, in.read());
+
+            // Records written by the classes of another sample are rejected
+            try (GeneratedClasses changed = GeneratedClasses.generate("Order", json.replace("\"total\"", "\"sum\""),
+                    new GenerationOptions().setGenerateBinaryCodec(true))) {
+                assertEquals(false, changed.callStatic("OrderCodec", "isCurrent", (Object) bytes));
+                try {
+                    changed.callStatic("OrderCodec", "decode", (Object) bytes);
+                    fail("Decoded a record of another schema");
+                } catch (IOException e) {
+                    assertEquals("StaleSchemaException", e.getClass().getSimpleName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates the classes and .proto file of an "Order" sample into a source root, without compiling them.
+     *
+     * @return the contents of the .proto file.
+     */
+    private static String generateProto(File sources, String json) throws Exception {
+        List<File> files = new GeneratePojos(GeneratedClasses.PACKAGE_NAME, sources, GenerationProgress.NONE)
+                .generateFromJson("Order", json, new GenerationOptions().setGenerateProtobuf(true));
+        for (File file : files) {
+            if (file.getName().equals("order.proto")) {
+                return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            }
+        }
+        throw new AssertionError("No order.proto in " + files);
+    }
+
+    /**
+     * @return the field numbers of each message of a .proto file, in declaration order.
+     */
+    private static Map<String, List<Integer>> getFieldNumbers(String proto) {
+        Map<String, List<Integer>> numbers = new LinkedHashMap<>();
+        List<Integer> current = null;
+        for (String line : proto.split("\n")) {
+            Matcher matcher;
+            if ((matcher = Pattern.compile("message (\\w+) \\{").matcher(line)).matches()) {
+                current = new ArrayList<>();
+                assertNull("Duplicate message " + matcher.group(1), numbers.put(matcher.group(1), current));
+            } else if (line.equals("}")) {
+                current = null;
+            } else if (current != null && (matcher = Pattern.compile(".* = (\\d+);").matcher(line)).matches()) {
+                current.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+        return numbers;
+    }
+
+    private static boolean isOnClassPath(String className) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+package net.hexar.json2pojo;
+
+import com.google.gson.Gson;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Generates classes from a sample into a temporary directory, compiles them with the system compiler against the test
+ * class path, and loads them, so that tests can check what the generated code does rather than how its source reads.
+ */
+final class GeneratedClasses implements AutoCloseable {
+
+    //region CONSTANTS -------------------------------------------------------------------------------------------------
+
+    static final String PACKAGE_NAME = "com.example.model";
+    private static final String PROTOC = "protoc";
+
+    //endregion
+
+    //region MEMBER FIELDS ---------------------------------------------------------------------------------------------
+
+    private final Path mDirectory;
+    private final List<File> mFiles;
+    private final URLClassLoader mClassLoader;
+    private final Gson mGson = new Gson();
+
+    //endregion
+
+    //region CONSTRUCTOR -----------------------------------------------------------------------------------------------
+
+    private GeneratedClasses(Path directory, List<File> files, URLClassLoader classLoader) {
+        mDirectory = directory;
+        mFiles = files;
+        mClassLoader = classLoader;
+    }
+
+    /**
+     * Generates, compiles and loads the classes for a sample.
+     *
+     * @param rootName the name of the root class.
+     * @param json the sample.
+     * @param options the options of the generation.
+     * @return the loaded classes, which must be closed to delete them.
+     * @throws Exception if the classes can't be generated, or don't compile.
+     */
+    static GeneratedClasses generate(String rootName, String json, GenerationOptions options) throws Exception {
+        Path directory = Files.createTempDirectory("json2pojo-test");
+        try {
+            File sources = directory.resolve("src").toFile();
+            File classes = directory.resolve("classes").toFile();
+            assertTrue(sources.mkdirs() && classes.mkdirs());
+            List<File> files = new GeneratePojos(PACKAGE_NAME, sources, GenerationProgress.NONE)
+                    .generateFromJson(rootName, json, options);
+
+            compileProtos(sources, files);
+
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null,
+                    StandardCharsets.UTF_8)) {
+                List<File> javaFiles = new ArrayList<>();
+                try (Stream<Path> paths = Files.walk(sources.toPath())) {
+                    paths.filter(path -> path.toString().endsWith(".java"))
+                            .forEach(path -> javaFiles.add(path.toFile()));
+                }
+                boolean compiled = compiler.getTask(null, fileManager, diagnostics,
+                        Arrays.asList("-d", classes.getPath(), "-cp", System.getProperty("java.class.path"),
+                                "-proc:none", "-nowarn"),
+                        null, fileManager.getJavaFileObjectsFromFiles(javaFiles)).call();
+                if (!compiled) {
+                    StringBuilder errors = new StringBuilder("The generated classes don't compile:");
+                    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                        errors.append('\n').append(diagnostic);
+                    }
+                    fail(errors.toString());
+                }
+            }
+            URLClassLoader classLoader = new URLClassLoader(new URL[] { classes.toURI().toURL() },
+                    GeneratedClasses.class.getClassLoader());
+            return new GeneratedClasses(directory, files, classLoader);
+        } catch (Throwable e) {
+            deleteDirectory(directory);
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if protoc is on the path, so that generated Protocol Buffers definitions can be compiled.
+     */
+    static boolean hasProtoc() {
+        try {
+            return new ProcessBuilder(PROTOC, "--version").redirectErrorStream(true).start().waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS --------------------------------------------------------------------------------------------
+
+    /**
+     * @param simpleName the name of a generated class, such as "Order", or "Order$Builder" for a nested class.
+     * @return the loaded class.
+     */
+    Class<?> get(String simpleName) throws ClassNotFoundException {
+        return mClassLoader.loadClass(PACKAGE_NAME + "." + simpleName);
+    }
+
+    /**
+     * @param fileName the name of a generated file, such as "Order.java".
+     * @return true if the file was generated.
+     */
+    boolean hasFile(String fileName) {
+        return mFiles.stream().anyMatch(file -> file.getName().equals(fileName));
+    }
+
+    /**
+     * @return the contents of a generated file, such as "order-footprint.txt".
+     */
+    String readFile(String fileName) throws IOException {
+        for (File file : mFiles) {
+            if (file.getName().equals(fileName)) {
+                return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            }
+        }
+        throw new AssertionError("Not generated: " + fileName);
+    }
+
+    /**
+     * Reads JSON into a generated class with GSON.
+     */
+    Object fromJson(String simpleName, String json) throws ClassNotFoundException {
+        return mGson.fromJson(json, get(simpleName));
+    }
+
+    /**
+     * Writes an instance of a generated class as JSON with GSON.
+     */
+    String toJson(Object value) {
+        return mGson.toJson(value);
+    }
+
+    /**
+     * Creates an instance of a generated class with its public no-arg constructor.
+     */
+    Object create(String simpleName) throws Exception {
+        return get(simpleName).getConstructor().newInstance();
+    }
+
+    /**
+     * Calls a static method of a generated class, picking the public method whose parameters accept the arguments.
+     */
+    Object callStatic(String simpleName, String methodName, Object... args) throws Exception {
+        return invoke(get(simpleName), null, methodName, args);
+    }
+
+    /**
+     * Calls a public method of an instance, picking the method whose parameters accept the arguments.
+     */
+    static Object call(Object target, String methodName, Object... args) throws Exception {
+        return invoke(target.getClass(), target, methodName, args);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClassLoader.close();
+        deleteDirectory(mDirectory);
+    }
+
+    //endregion
+
+    //region HELPER METHODS --------------------------------------------------------------------------------------------
+
+    private static Object invoke(Class<?> clazz, Object target, String methodName, Object[] args) throws Exception {
+        for (Method method : clazz.getMethods()) {
+            if (method.getName().equals(methodName) && Modifier.isStatic(method.getModifiers()) == (target == null) &&
+                    accepts(method.getParameterTypes(), args)) {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        }
+        throw new AssertionError("No method " + clazz.getSimpleName() + "." + methodName + " accepts " +
+                Arrays.toString(args));
+    }
+
+    private static boolean accepts(Class<?>[] parameterTypes, Object[] args) {
+        if (parameterTypes.length != args.length) {
+            return false;
+        }
+        for (int i = 0; i < args.length; i++) {
+            Class<?> type = MethodType.methodType(parameterTypes[i]).wrap().returnType();
+            if (args[i] == null ? parameterTypes[i].isPrimitive() : !type.isInstance(args[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void compileProtos(File sources, List<File> files) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(PROTOC, "-I" + sources, "--java_out=" + sources));
+        for (File file : files) {
+            if (file.getName().endsWith(".proto")) {
+                command.add(file.getPath());
+            }
+        }
+        if (command.size() == 3) {
+            return;
+        }
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output;
+        try (InputStream in = process.getInputStream()) {
+            output = new String(readAll(in), StandardCharsets.UTF_8);
+        }
+        assertEquals("The generated definitions don't compile:\n" + output, 0, process.waitFor());
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,154 @@
+package net.hexar.json2pojo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+
+public class GenerationSchedulerTest {
+
+    private static final File SOURCE_ROOT = new File("/work/src");
+
+    private final List<Consumer<GenerationProgress>> mLaunched = new ArrayList<>();
+    private final List<Set<File>> mRefreshed = new ArrayList<>();
+    private final List<Exception> mFailures = new ArrayList<>();
+    private final List<String> mRuns = new ArrayList<>();
+    private GenerationScheduler mScheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new GenerationScheduler(new GenerationScheduler.Listener() {
+            @Override
+            public void onGenerated(Set<File> files) {
+                mRefreshed.add(files);
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                mFailures.add(e);
+            }
+        });
+    }
+
+    @Test
+    public void coalescesRunsIntoTheSamePackage() throws Exception {
+        assertTrue(submit("com.example", "first"));
+        assertFalse(submit("com.example", "second"));
+        assertFalse(submit("com.example", "third"));
+        assertEquals(1, mLaunched.size());
+
+        // The queued runs are coalesced into the last one, which runs in the same task
+        mLaunched.get(0).accept(GenerationProgress.NONE);
+        assertEquals(Arrays.asList("first", "third"), mRuns);
+        assertTrue(mScheduler.isIdle());
+        assertEquals(1, mRefreshed.size());
+        assertEquals(2, mRefreshed.get(0).size());
+    }
+
+    @Test
+    public void runsEachRootClassQueuedForThePackage() throws Exception {
+        assertTrue(submit("com.example", "Order", "first"));
+        assertFalse(submit("com.example", "Order", "second"));
+        assertFalse(submit("com.example", "User", "user"));
+        assertFalse(submit("com.example", "Order", "third"));
+        assertEquals(1, mLaunched.size());
+
+        // Other root classes aren't replaced, and keep their place in the queue
+        mLaunched.get(0).accept(GenerationProgress.NONE);
+        assertEquals(Arrays.asList("first", "user", "third"), mRuns);
+        assertTrue(mScheduler.isIdle());
+        assertEquals(1, mRefreshed.size());
+        assertEquals(3, mRefreshed.get(0).size());
+    }
+
+    @Test
+    public void runsDifferentPackagesInParallel() throws Exception {
+        assertTrue(submit("com.example.orders", "orders"));
+        assertTrue(submit("com.example.users", "users"));
+        assertFalse(mScheduler.isIdle());
+        assertEquals(2, mLaunched.size());
+
+        // The refresh waits for both
+        mLaunched.get(1).accept(GenerationProgress.NONE);
+        assertTrue(mRefreshed.isEmpty());
+        mLaunched.get(0).accept(GenerationProgress.NONE);
+        assertEquals(Arrays.asList("users", "orders"), mRuns);
+        assertEquals(1, mRefreshed.size());
+        assertEquals(2, mRefreshed.get(0).size());
+    }
+
+    @Test
+    public void continuesAfterFailure() throws Exception {
+        mScheduler.submit(SOURCE_ROOT, "com.example", "Order", mLaunched::add, progress -> {
+            throw new IOException("Invalid JSON");
+        });
+        submit("com.example", "retry");
+        mLaunched.get(0).accept(GenerationProgress.NONE);
+
+        assertEquals(1, mFailures.size());
+        assertEquals(Collections.singletonList("retry"), mRuns);
+        assertTrue(mScheduler.isIdle());
+    }
+
+    @Test
+    public void cancellationDropsQueuedRuns() throws Exception {
+        submit("com.example", "first");
+        submit("com.example", "second");
+        GenerationProgress canceled = new CanceledProgress();
+        try {
+            mLaunched.get(0).accept(canceled);
+            fail("Cancellation not passed on");
+        } catch (IllegalStateException expected) {
+        }
+
+        assertTrue(mRuns.isEmpty());
+        assertTrue(mFailures.isEmpty());
+        assertTrue(mScheduler.isIdle());
+
+        // The package can be generated into again
+        assertTrue(submit("com.example", "third"));
+    }
+
+    private boolean submit(String packageName, String name) {
+        return submit(packageName, "Order", name);
+    }
+
+    private boolean submit(String packageName, String rootClassName, String name) {
+        return mScheduler.submit(SOURCE_ROOT, packageName, rootClassName, mLaunched::add, progress -> {
+            progress.checkCanceled();
+            mRuns.add(name);
+            File packageDir = new File(SOURCE_ROOT, packageName.replace('.', '/'));
+            return Collections.singletonList(new File(packageDir, name + ".java"));
+        });
+    }
+
+    private static class CanceledProgress implements GenerationProgress {
+        @Override
+        public void setText(String text) {
+        }
+
+        @Override
+        public void setDetails(String details) {
+        }
+
+        @Override
+        public void setFraction(double fraction) {
+        }
+
+        @Override
+        public void checkCanceled() {
+            throw new IllegalStateException("Canceled");
+        }
+    }
+
+}
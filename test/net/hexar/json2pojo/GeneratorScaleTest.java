@@ -0,0 +1,316 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the generator on synthetic documents of production sizes, each in a fresh JVM with a fixed maximum heap, and
+ * checks the peak heap, the wall time and the number of generated files against ceilings. A case which runs out of
+ * memory fails as well, so memory regressions in inference or emission are caught before they reach users.
+ * <p>
+ * The large cases need several GB of disk and a few minutes, so they only run with
+ * {@code -Djson2pojo.scaleTests=true}, while the others run with every build. Wall time ceilings can be scaled for
+ * slower machines with {@code -Djson2pojo.scaleTests.timeFactor}.
+ */
+public class GeneratorScaleTest {
+
+    private static final String RESULT_PREFIX = "scale-result ";
+    private static final double TIME_FACTOR = Double.parseDouble(
+            System.getProperty("json2pojo.scaleTests.timeFactor", "1"));
+    private static final boolean LARGE_CASES_ENABLED = Boolean.getBoolean("json2pojo.scaleTests");
+
+    @Test
+    public void largeDocument() throws Exception {
+        run(Scale.LARGE_DOCUMENT);
+    }
+
+    @Test
+    public void wideObjects() throws Exception {
+        run(Scale.WIDE_OBJECTS);
+    }
+
+    @Test
+    public void deepNesting() throws Exception {
+        run(Scale.DEEP_NESTING);
+    }
+
+    @Test
+    public void longArray() throws Exception {
+        run(Scale.LONG_ARRAY);
+    }
+
+    @Test
+    public void manyClasses() throws Exception {
+        run(Scale.MANY_CLASSES);
+    }
+
+    /**
+     * Runs a case in a fresh JVM and checks its results against the ceilings.
+     */
+    private static void run(Scale scale) throws Exception {
+        Assume.assumeTrue(scale + " only runs with -Djson2pojo.scaleTests=true", !scale.IsLarge || LARGE_CASES_ENABLED);
+        Path workDir = Files.createTempDirectory("json2pojo-scale");
+        try {
+            File log = workDir.resolve("scale.log").toFile();
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    new File(new File(System.getProperty("java.home"), "bin"), "java").getPath(),
+                    "-Xmx" + scale.MaxHeapMb + "m", "-XX:+UseSerialGC",
+                    "-cp", System.getProperty("java.class.path"),
+                    GeneratorScaleTest.class.getName(), scale.name(), workDir.toString()));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.to(log)).start();
+            if (!process.waitFor(30, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                fail(scale + " timed out");
+            }
+
+            // The child prints its measurements on a single line
+            List<String> output = Files.readAllLines(log.toPath(), StandardCharsets.UTF_8);
+            Properties result = new Properties();
+            for (String line : output) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    result.load(new StringReader(line.substring(RESULT_PREFIX.length()).replace(' ', '\n')));
+                }
+            }
+            assertEquals(scale + " failed:\n" + String.join("\n", tail(output)), 0, process.exitValue());
+
+            long peakHeapMb = Long.parseLong(result.getProperty("peakHeapMb"));
+            long millis = Long.parseLong(result.getProperty("millis"));
+            int files = Integer.parseInt(result.getProperty("files"));
+            System.out.println(String.format("%s: peak heap %d MB, %d ms, %d files", scale, peakHeapMb, millis, files));
+
+            assertTrue(String.format("%s peak heap %d MB over %d MB", scale, peakHeapMb, scale.PeakHeapMb),
+                    peakHeapMb <= scale.PeakHeapMb);
+            long maxMillis = (long) (scale.MaxSeconds * 1000 * TIME_FACTOR);
+            assertTrue(String.format("%s took %d ms, over %d ms", scale, millis, maxMillis), millis <= maxMillis);
+            assertTrue(String.format("%s generated %d files, expected %d to %d", scale, files, scale.MinFiles,
+                    scale.MaxFiles), files >= scale.MinFiles && files <= scale.MaxFiles);
+        } finally {
+            try (Stream<Path> paths = Files.walk(workDir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static List<String> tail(List<String> lines) {
+        return lines.subList(Math.max(0, lines.size() - 20), lines.size());
+    }
+
+    /**
+     * Writes the document of a case and generates from it, measuring only the generation. Runs in the forked JVM.
+     *
+     * @param args the name of the case and the working directory.
+     */
+    public static void main(String[] args) throws Exception {
+        Scale scale = Scale.valueOf(args[0]);
+        File workDir = new File(args[1]);
+        File sample = new File(workDir, "sample.json");
+        try (JsonGenerator generator = new JsonFactory().createGenerator(sample, JsonEncoding.UTF8)) {
+            scale.write(generator);
+        }
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        long start = System.nanoTime();
+        GenerationOptions options = new GenerationOptions()
+                .setUseDoubleValueGetters(true)
+                .setInferEnums(true)
+                .setDeduplicateClasses(true)
+                .setDetectMaps(true);
+        List<File> files = new GeneratePojos("com.example.scale", new File(workDir, "src"), GenerationProgress.NONE)
+                .generateFromFile("Root", sample, options);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        System.out.println(RESULT_PREFIX + "peakHeapMb=" + (peakHeap >> 20) + " millis=" + millis +
+                " files=" + files.size());
+    }
+
+    /**
+     * The synthetic documents, with the heap each runs in and the ceilings for its results.
+     */
+    private enum Scale {
+        /**
+         * A 1 GB array of records, each with a few kilobytes of text, which is the usual reason for documents this
+         * large. The generator keeps the whole syntax tree, so the heap grows with the text.
+         */
+        LARGE_DOCUMENT(true, 2560, 2048, 120, 4, 4) {
+            @Override
+            void write(JsonGenerator generator) throws IOException {
+                char[] payload = new char[4000];
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] = (char) ('A' + (i * 7) % 26);
+                }
+                long bytes = 0;
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("records");
+                for (int i = 0; bytes < 1L << 30; i++) {
+                    payload[i % payload.length] = (char) ('a' + i % 26);
+                    generator.writeStartObject();
+                    generator.writeNumberField("id", i);
+                    generator.writeStringField("status", i % 3 == 0 ? "open" : "closed");
+                    generator.writeNumberField("amount", i * 0.25);
+                    generator.writeObjectFieldStart("owner");
+                    generator.writeStringField("name", "owner" + (i % 1000));
+                    generator.writeEndObject();
+                    generator.writeFieldName("payload");
+                    generator.writeString(payload, 0, payload.length);
+                    generator.writeEndObject();
+                    bytes += payload.length + 100;
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        },
+
+        /**
+         * Objects with 100k keys, one keyed by IDs which becomes a map, and one with a field per key which is capped.
+         */
+        WIDE_OBJECTS(false, 512, 192, 30, 2, 2) {
+            @Override
+            void write(JsonGenerator generator) throws IOException {
+                generator.writeStartObject();
+                generator.writeObjectFieldStart("byId");
+                for (int i = 0; i < 100000; i++) {
+                    generator.writeObjectFieldStart(String.valueOf(i));
+                    generator.writeNumberField("quantity", i);
+                    generator.writeEndObject();
+                }
+                generator.writeEndObject();
+                generator.writeObjectFieldStart("settings");
+                for (int i = 0; i < 100000; i++) {
+                    if (i % 2 == 0) {
+                        generator.writeStringField("setting" + i, "value" + i);
+                    } else {
+                        generator.writeNumberField("setting" + i, i);
+                    }
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+        },
+
+        /**
+         * Objects nested 10k levels deep, which stays just within the default maximum depth.
+         */
+        DEEP_NESTING(false, 256, 64, 10, 1, 1) {
+            @Override
+            void write(JsonGenerator generator) throws IOException {
+                int depth = GenerationOptions.DEFAULT_MAX_DEPTH;
+                for (int i = 0; i < depth; i++) {
+                    generator.writeStartObject();
+                    generator.writeNumberField("level", i);
+                    if (i < depth - 1) {
+                        generator.writeFieldName("child");
+                    }
+                }
+                for (int i = 0; i < depth; i++) {
+                    generator.writeEndObject();
+                }
+            }
+        },
+
+        /**
+         * An array with 10M numbers.
+         */
+        LONG_ARRAY(true, 1024, 400, 15, 1, 1) {
+            @Override
+            void write(JsonGenerator generator) throws IOException {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("values");
+                for (int i = 0; i < 10000000; i++) {
+                    generator.writeNumber(i);
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        },
+
+        /**
+         * 5k objects with distinct shapes, in groups small enough not to be taken for maps.
+         */
+        MANY_CLASSES(false, 512, 128, 60, 5101, 5101) {
+            @Override
+            void write(JsonGenerator generator) throws IOException {
+                generator.writeStartObject();
+                for (int group = 0; group < 100; group++) {
+                    generator.writeObjectFieldStart("group" + group);
+                    for (int type = 0; type < 50; type++) {
+                        String name = "type" + group + "x" + type;
+                        generator.writeObjectFieldStart(name);
+                        generator.writeNumberField(name + "Id", type);
+                        generator.writeStringField(name + "Name", name);
+                        generator.writeEndObject();
+                    }
+                    generator.writeEndObject();
+                }
+                generator.writeEndObject();
+            }
+        };
+
+        final boolean IsLarge;
+        final int MaxHeapMb;
+        final int PeakHeapMb;
+        final int MaxSeconds;
+        final int MinFiles;
+        final int MaxFiles;
+
+        /**
+         * @param isLarge true if the case only runs with -Djson2pojo.scaleTests=true.
+         * @param maxHeapMb the maximum heap of the JVM running the case.
+         * @param peakHeapMb the ceiling for the peak heap usage during generation.
+         * @param maxSeconds the ceiling for the wall time of the generation.
+         * @param minFiles the minimum number of generated files.
+         * @param maxFiles the maximum number of generated files.
+         */
+        Scale(boolean isLarge, int maxHeapMb, int peakHeapMb, int maxSeconds, int minFiles, int maxFiles) {
+            IsLarge = isLarge;
+            MaxHeapMb = maxHeapMb;
+            PeakHeapMb = peakHeapMb;
+            MaxSeconds = maxSeconds;
+            MinFiles = minFiles;
+            MaxFiles = maxFiles;
+        }
+
+        /**
+         * Writes the document of the case.
+         *
+         * @param generator the generator to write to.
+         * @throws IOException if the document can't be written.
+         */
+        abstract void write(JsonGenerator generator) throws IOException;
+    }
+
+}
@@ -0,0 +1,125 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+
+public class IncrementalJsonTreeTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private IncrementalJsonTree mTree;
+    private StringBuilder mText;
+
+    @Before
+    public void setUp() throws Exception {
+        mTree = new IncrementalJsonTree(GenerationOptions.DEFAULT_MAX_DEPTH);
+        mText = new StringBuilder();
+    }
+
+    @Test
+    public void reparsesOnlyTheEditedValue() throws Exception {
+        insert(0, "{\"id\": 12, \"name\": \"first\", \"tags\": [\"a\", \"b\"]}");
+        JsonNode first = update();
+
+        // Edit inside the name, which moves the tags
+        int offset = mText.indexOf("first");
+        remove(offset, 5);
+        insert(offset, "second");
+        JsonNode second = update();
+        assertEquals("second", second.get("name").asText());
+        assertSame(first.get("id"), second.get("id"));
+        assertSame(first.get("tags"), second.get("tags"));
+
+        // The earlier tree is left as it was
+        assertEquals("first", first.get("name").asText());
+
+        // Edit after the moved value
+        insert(mText.indexOf("\"b\"") + 3, ", \"c\"");
+        JsonNode third = update();
+        assertEquals(3, third.get("tags").size());
+        assertSame(second.get("name"), third.get("name"));
+    }
+
+    @Test
+    public void keepsEditsWhileTheTextIsInvalid() throws Exception {
+        insert(0, "[{\"id\": 1}, {\"id\": 2}]");
+        JsonNode first = update();
+
+        int offset = mText.indexOf("2");
+        insert(offset, "\"");
+        try {
+            update();
+            fail("Invalid JSON parsed");
+        } catch (IOException expected) {
+        }
+        insert(offset + 1, "x\"");
+        remove(offset + 3, 1);
+
+        JsonNode second = update();
+        assertEquals("x", second.get(1).get("id").asText());
+        assertSame(first.get(0), second.get(0));
+    }
+
+    @Test
+    public void parsesEverythingForStructuralEdits() throws Exception {
+        insert(0, "{\"a\": 1, \"b\": 2}");
+        update();
+
+        // A new property between the values, and a replaced root
+        insert(mText.indexOf(","), ", \"c\": 3");
+        assertEquals(3, update().size());
+        remove(0, mText.length());
+        insert(0, "[1, 2]");
+        assertTrue(update().isArray());
+    }
+
+    @Test
+    public void matchesFullParsesAfterRandomEdits() throws Exception {
+        String[] values = { "1", "-2.5", "\"text\"", "true", "null", "{\"x\": [1, {\"y\": \"z\"}]}", "[]", "{}" };
+        Random random = new Random(42);
+        insert(0, "[1, \"a\", {\"b\": [2, 3]}, [4, {\"c\": null}], \"d\"]");
+        update();
+        for (int i = 0; i < 2000; i++) {
+            if (random.nextBoolean() && mText.length() > 2) {
+                int offset = 1 + random.nextInt(mText.length() - 2);
+                remove(offset, Math.min(1 + random.nextInt(4), mText.length() - 1 - offset));
+            } else {
+                insert(1 + random.nextInt(mText.length() - 1), values[random.nextInt(values.length)]);
+            }
+
+            // Compare whenever the text happens to be valid, also when the edits were batched
+            JsonNode expected;
+            try {
+                expected = MAPPER.readTree(mText.toString());
+            } catch (IOException e) {
+                continue;
+            }
+            if (random.nextInt(3) > 0) {
+                assertEquals(mText.toString(), expected, update());
+            }
+        }
+    }
+
+    private JsonNode update() throws IOException {
+        return mTree.update(mText.toString(), mTree.getEditCount());
+    }
+
+    private void insert(int offset, String text) {
+        mText.insert(offset, text);
+        mTree.textInserted(offset, text.length());
+    }
+
+    private void remove(int offset, int length) {
+        mText.delete(offset, offset + length);
+        mTree.textRemoved(offset, length);
+    }
+
+}
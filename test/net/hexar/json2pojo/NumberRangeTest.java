@@ -0,0 +1,90 @@
+package net.hexar.json2pojo;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import static org.junit.Assert.*;
+
+
+public class NumberRangeTest {
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    @Test
+    public void integersWithHeadroom() throws Exception {
+        NumberRange range = new NumberRange();
+        range.add(NODES.numberNode(3));
+        range.add(NODES.numberNode(-12));
+        assertEquals(Byte.class, range.getNarrowestType(1));
+        assertEquals(Byte.class, range.getNarrowestType(10));
+        assertEquals(Short.class, range.getNarrowestType(100));
+
+        range.add(NODES.numberNode(40000));
+        assertEquals(Integer.class, range.getNarrowestType(10));
+        range.add(NODES.numberNode(3000000000L));
+        assertEquals(Long.class, range.getNarrowestType(1));
+        assertEquals(4, range.getObservations());
+    }
+
+    @Test
+    public void floatingPoint() throws Exception {
+        NumberRange range = new NumberRange();
+        range.add(NODES.numberNode(0.5));
+        range.add(NODES.numberNode(19.99));
+        assertEquals(Float.class, range.getNarrowestType(10));
+
+        range.add(NODES.numberNode(0.1 + 0.2));
+        assertEquals(Double.class, range.getNarrowestType(10));
+    }
+
+    @Test
+    public void beyondLongAndDouble() throws Exception {
+        NumberRange range = new NumberRange();
+        range.add(NODES.numberNode(new BigInteger("123456789012345678901234567890")));
+        assertEquals(BigInteger.class, range.getNarrowestType(1));
+
+        range.add(NODES.numberNode(1.5));
+        assertEquals(BigDecimal.class, range.getNarrowestType(1));
+
+        NumberRange precise = new NumberRange();
+        precise.add(NODES.numberNode(new BigDecimal("0.12345678901234567890")));
+        assertEquals(BigDecimal.class, precise.getNarrowestType(1));
+    }
+
+    @Test
+    public void numericText() throws Exception {
+        NumberRange integers = new NumberRange();
+        integers.add("42");
+        integers.add("-7");
+        assertEquals(Byte.class, integers.getNarrowestType(1));
+        integers.add("123456789012345678901234567890");
+        assertEquals(BigInteger.class, integers.getNarrowestType(1));
+
+        NumberRange prices = new NumberRange();
+        prices.add("19.99");
+        prices.add("1e3");
+        assertEquals(Float.class, prices.getNarrowestType(1));
+        prices.add("0.12345678901234567890");
+        assertEquals(BigDecimal.class, prices.getNarrowestType(1));
+        prices.add("NaN");
+        assertEquals(Double.class, prices.getNarrowestType(1));
+        assertEquals(4, prices.getObservations());
+    }
+
+    @Test
+    public void merge() throws Exception {
+        NumberRange billing = new NumberRange();
+        NumberRange shipping = new NumberRange();
+        billing.add(NODES.numberNode(7));
+        shipping.add(NODES.numberNode(70000));
+        shipping.add(NODES.numberNode(1));
+
+        billing.merge(shipping);
+        assertEquals(Integer.class, billing.getNarrowestType(1));
+        assertEquals(3, billing.getObservations());
+    }
+
+}